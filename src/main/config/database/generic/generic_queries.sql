@@ -136,6 +136,11 @@ UserModel.getUsernameByEmail = SELECT username FROM jforum_users WHERE user_emai
 UserModel.validateActivationKeyHash = SELECT COUNT(1) AS valid FROM jforum_users WHERE user_actkey = ? AND user_id = ?
 UserModel.writeUserActive = UPDATE jforum_users SET user_active = 1, user_actkey = NULL WHERE user_id = ?
 UserModel.updateUsername = UPDATE jforum_users SET username = ? WHERE user_id = ?
+UserModel.selectCards = SELECT user_id, username, user_karma, user_avatar, user_allowavatar, user_regdate, user_posts, \
+    user_icq, user_from, user_email, rank_id, user_sig, user_attachsig, user_viewemail, user_skype, user_website, \
+    user_twitter, user_reputation \
+    FROM jforum_users \
+    WHERE user_id IN (:ids:)
 UserModel.getUsername = SELECT username FROM jforum_users WHERE user_id = ?
 
 # #############
@@ -378,14 +383,6 @@ TopicModel.selectAllByForum = SELECT t.*, p.user_id AS last_user_id, p.post_time
 	AND p.need_moderate = 0 \
 	ORDER BY t.topic_type DESC, (CASE WHEN t.topic_type=3 AND p.post_edit_time IS NOT NULL THEN p.post_edit_time ELSE p.post_time END) DESC
 
-TopicModel.topicPosters = SELECT user_id, username, user_karma, user_avatar, user_allowavatar, user_regdate, user_posts, \
-    user_icq, user_from, user_email, rank_id, user_sig, user_attachsig, user_viewemail, user_skype, user_website, \
-    user_sig, user_twitter, user_reputation \
-    FROM jforum_users \
-    WHERE user_id IN (:ids:)
-
-TopicModel.distinctPosters = SELECT DISTINCT user_id FROM jforum_posts WHERE topic_id = ?
-
 TopicModel.selectTopicTitlesByIds = SELECT topic_id, topic_title FROM jforum_topics WHERE topic_id IN (:ids:)
 TopicModel.setModerationStatus = UPDATE jforum_topics SET moderated = ? WHERE forum_id = ?
 TopicModel.setModerationStatusByTopic = UPDATE jforum_topics SET moderated = ? WHERE topic_id = ?
@@ -394,6 +391,7 @@ TopicModel.deleteByForum = SELECT topic_id FROM jforum_topics where forum_id = ?
 TopicModel.delete = DELETE FROM jforum_topics WHERE topic_id = ?
 TopicModel.deletePosts = DELETE FROM jforum_posts WHERE topic_id = ?
 TopicModel.incrementTotalViews = UPDATE jforum_topics SET topic_views = topic_views + 1 WHERE topic_id = ?
+TopicModel.addTotalViews = UPDATE jforum_topics SET topic_views = topic_views + ? WHERE topic_id = ?
 TopicModel.incrementTotalReplies = UPDATE jforum_topics SET topic_replies = topic_replies + 1 WHERE topic_id = ?
 TopicModel.decrementTotalReplies = UPDATE jforum_topics SET topic_replies = topic_replies - 1 WHERE topic_id = ?
 TopicModel.setLastPostId = UPDATE jforum_topics SET topic_last_post_id = ? WHERE topic_id = ?
@@ -763,6 +761,7 @@ AttachmentModel.selectAttachmentById = SELECT a.attach_id, a.user_id, a.post_id,
     AND a.attach_id = d.attach_id
     
 AttachmentModel.updateAttachment = UPDATE jforum_attach_desc SET description = ?, download_count = ? WHERE attach_id = ?
+AttachmentModel.addDownloadCount = UPDATE jforum_attach_desc SET download_count = download_count + ? WHERE attach_id = ?
 AttachmentModel.removeAttachment = DELETE FROM jforum_attach WHERE attach_id = ?
 AttachmentModel.removeAttachmentInfo = DELETE FROM jforum_attach_desc WHERE attach_id = ?
 AttachmentModel.countPostAttachments = SELECT COUNT(1) FROM jforum_attach WHERE post_id = ?
@@ -839,6 +838,13 @@ BannerDAO.selectActiveBannerByPlacement = SELECT banner_id, banner_name, banner_
 # SummaryDAO
 ##############
 SummaryDAO.selectAllRecipients = SELECT username, user_email FROM jforum_users WHERE user_email != ' ' AND user_notify_always = 1 AND (deleted IS NULL OR deleted = 0) ORDER BY user_posts DESC 
+SummaryDAO.selectRecipientsPage = SELECT user_id, user_email FROM jforum_users \
+    WHERE user_id > ? AND user_email != ' ' AND user_notify_always = 1 AND (deleted IS NULL OR deleted = 0) \
+    ORDER BY user_id
+SummaryDAO.selectUnfinishedRuns = SELECT run_id, period_start, period_end, last_user_id, sent, run_started \
+    FROM jforum_summary_runs WHERE run_finished IS NULL ORDER BY run_started DESC
+SummaryDAO.addRun = INSERT INTO jforum_summary_runs (run_id, period_start, period_end, last_user_id, sent, run_started) VALUES (?, ?, ?, ?, ?, ?)
+SummaryDAO.updateRun = UPDATE jforum_summary_runs SET last_user_id = ?, sent = ?, run_finished = ? WHERE run_id = ?
 
 SummaryDAO.selectPosts = SELECT p.post_id, p.topic_id, p.forum_id, p.user_id, post_time, \
     pt.post_subject, pt.post_text, username \
@@ -910,3 +916,30 @@ TelegramUserModel.selectByUserId = SELECT u.* \
     WHERE u.user_id = ?
 TelegramUserModel.addNew = INSERT INTO jforum_telegram_users (user_id, chat_id, username, first_name, last_name, phone_number, user_regdate) VALUES (?, ?, ?, ?, ?, ?, ?)
 TelegramUserModel.addNewWithId = INSERT INTO jforum_telegram_users (user_id, chat_id, username, first_name, last_name, phone_number, user_regdate, id) VALUES (?, ?, ?, ?, ?, ?, ?, ?)
+
+# ################
+# MailOutboxModel
+# ################
+MailOutboxModel.addNewMessage = INSERT INTO jforum_mail_outbox (outbox_id, outbox_message, outbox_date) VALUES (?, ?, ?)
+MailOutboxModel.addNewRecipient = INSERT INTO jforum_mail_outbox_recipients (outbox_id, recipient, attempts, next_attempt) VALUES (?, ?, 0, ?)
+MailOutboxModel.selectDue = SELECT outbox_id, recipient, attempts, last_error \
+	FROM jforum_mail_outbox_recipients \
+	WHERE next_attempt <= ? \
+	ORDER BY next_attempt
+MailOutboxModel.selectMessage = SELECT outbox_message FROM jforum_mail_outbox WHERE outbox_id = ?
+MailOutboxModel.reschedule = UPDATE jforum_mail_outbox_recipients SET attempts = ?, last_error = ?, next_attempt = ? WHERE outbox_id = ? AND recipient = ?
+MailOutboxModel.deleteRecipient = DELETE FROM jforum_mail_outbox_recipients WHERE outbox_id = ? AND recipient = ?
+MailOutboxModel.deleteOrphanMessages = DELETE FROM jforum_mail_outbox \
+	WHERE NOT EXISTS (SELECT 1 FROM jforum_mail_outbox_recipients r WHERE r.outbox_id = jforum_mail_outbox.outbox_id)
+
+# ################
+# ReadStateModel
+# ################
+ReadStateModel.selectTopicMarks = SELECT topic_id, read_time FROM jforum_topics_read WHERE user_id = ? AND read_time > ?
+ReadStateModel.selectForumMarks = SELECT forum_id, read_time FROM jforum_forums_read WHERE user_id = ? AND read_time > ?
+ReadStateModel.deleteTopicMark = DELETE FROM jforum_topics_read WHERE user_id = ? AND topic_id = ?
+ReadStateModel.deleteForumMark = DELETE FROM jforum_forums_read WHERE user_id = ? AND forum_id = ?
+ReadStateModel.addTopicMark = INSERT INTO jforum_topics_read (user_id, topic_id, read_time) VALUES (?, ?, ?)
+ReadStateModel.addForumMark = INSERT INTO jforum_forums_read (user_id, forum_id, read_time) VALUES (?, ?, ?)
+ReadStateModel.deleteOldTopicMarks = DELETE FROM jforum_topics_read WHERE user_id = ? AND read_time <= ?
+ReadStateModel.deleteOldForumMarks = DELETE FROM jforum_forums_read WHERE user_id = ? AND read_time <= ?
@@ -573,3 +573,53 @@ CREATE TABLE jforum_telegram_users (
   user_regdate DATETIME DEFAULT NULL,
   PRIMARY KEY (id)
 ) ENGINE=InnoDB;
+
+--
+-- Table structure for table 'jforum_mail_outbox'
+--
+DROP TABLE IF EXISTS jforum_mail_outbox;
+CREATE TABLE jforum_mail_outbox (
+  outbox_id VARCHAR(40) NOT NULL,
+  outbox_message MEDIUMTEXT NOT NULL,
+  outbox_date DATETIME NOT NULL,
+  PRIMARY KEY (outbox_id)
+) ENGINE=InnoDB;
+
+DROP TABLE IF EXISTS jforum_mail_outbox_recipients;
+CREATE TABLE jforum_mail_outbox_recipients (
+  outbox_id VARCHAR(40) NOT NULL,
+  recipient VARCHAR(255) NOT NULL,
+  attempts INT NOT NULL DEFAULT 0,
+  next_attempt DATETIME NOT NULL,
+  last_error VARCHAR(255),
+  PRIMARY KEY (outbox_id, recipient),
+  KEY (next_attempt)
+) ENGINE=InnoDB;
+
+DROP TABLE IF EXISTS jforum_summary_runs;
+CREATE TABLE jforum_summary_runs (
+  run_id VARCHAR(40) NOT NULL,
+  period_start DATETIME NOT NULL,
+  period_end DATETIME NOT NULL,
+  last_user_id INT NOT NULL DEFAULT 0,
+  sent INT NOT NULL DEFAULT 0,
+  run_started DATETIME NOT NULL,
+  run_finished DATETIME,
+  PRIMARY KEY (run_id)
+) ENGINE=InnoDB;
+
+DROP TABLE IF EXISTS jforum_topics_read;
+CREATE TABLE jforum_topics_read (
+  user_id INT NOT NULL,
+  topic_id INT NOT NULL,
+  read_time DATETIME NOT NULL,
+  PRIMARY KEY (user_id, topic_id)
+) ENGINE=InnoDB;
+
+DROP TABLE IF EXISTS jforum_forums_read;
+CREATE TABLE jforum_forums_read (
+  user_id INT NOT NULL,
+  forum_id INT NOT NULL,
+  read_time DATETIME NOT NULL,
+  PRIMARY KEY (user_id, forum_id)
+) ENGINE=InnoDB;
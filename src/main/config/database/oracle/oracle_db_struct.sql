@@ -647,3 +647,47 @@ CREATE TABLE jforum_spam (
   pattern VARCHAR2(100) NOT NULL
 );
 
+--
+-- Table structure for table 'jforum_mail_outbox'
+--
+CREATE TABLE jforum_mail_outbox (
+  outbox_id VARCHAR2(40) NOT NULL,
+  outbox_message CLOB NOT NULL,
+  outbox_date DATE NOT NULL,
+  PRIMARY KEY(outbox_id)
+);
+
+CREATE TABLE jforum_mail_outbox_recipients (
+  outbox_id VARCHAR2(40) NOT NULL,
+  recipient VARCHAR2(255) NOT NULL,
+  attempts NUMBER(10) DEFAULT 0 NOT NULL,
+  next_attempt DATE NOT NULL,
+  last_error VARCHAR2(255),
+  PRIMARY KEY(outbox_id, recipient)
+);
+CREATE INDEX idx_mor_next ON jforum_mail_outbox_recipients(next_attempt);
+
+CREATE TABLE jforum_summary_runs (
+  run_id VARCHAR2(40) NOT NULL,
+  period_start DATE NOT NULL,
+  period_end DATE NOT NULL,
+  last_user_id NUMBER(10) DEFAULT 0 NOT NULL,
+  sent NUMBER(10) DEFAULT 0 NOT NULL,
+  run_started DATE NOT NULL,
+  run_finished DATE,
+  PRIMARY KEY(run_id)
+);
+
+CREATE TABLE jforum_topics_read (
+  user_id NUMBER(10) NOT NULL,
+  topic_id NUMBER(10) NOT NULL,
+  read_time DATE NOT NULL,
+  PRIMARY KEY(user_id, topic_id)
+);
+
+CREATE TABLE jforum_forums_read (
+  user_id NUMBER(10) NOT NULL,
+  forum_id NUMBER(10) NOT NULL,
+  read_time DATE NOT NULL,
+  PRIMARY KEY(user_id, forum_id)
+);
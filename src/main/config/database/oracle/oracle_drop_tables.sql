@@ -121,3 +121,15 @@ DROP TABLE jforum_api;
 -- jforum_spam
 DROP TABLE jforum_spam;
 
+-- jforum_mail_outbox
+DROP TABLE jforum_mail_outbox_recipients;
+DROP TABLE jforum_mail_outbox;
+
+-- jforum_summary_runs
+DROP TABLE jforum_summary_runs;
+
+-- jforum_topics_read
+DROP TABLE jforum_topics_read;
+
+-- jforum_forums_read
+DROP TABLE jforum_forums_read;
@@ -543,3 +543,47 @@ CREATE TABLE jforum_spam (
   pattern varchar(100) NOT NULL
 );
 
+--
+-- Table structure for table 'jforum_mail_outbox'
+--
+CREATE TABLE jforum_mail_outbox (
+  outbox_id VARCHAR(40) NOT NULL,
+  outbox_message TEXT NOT NULL,
+  outbox_date TIMESTAMP NOT NULL,
+  PRIMARY KEY(outbox_id)
+);
+
+CREATE TABLE jforum_mail_outbox_recipients (
+  outbox_id VARCHAR(40) NOT NULL,
+  recipient VARCHAR(255) NOT NULL,
+  attempts INT NOT NULL DEFAULT 0,
+  next_attempt TIMESTAMP NOT NULL,
+  last_error VARCHAR(255),
+  PRIMARY KEY(outbox_id, recipient)
+);
+CREATE INDEX idx_mor_next ON jforum_mail_outbox_recipients(next_attempt);
+
+CREATE TABLE jforum_summary_runs (
+  run_id VARCHAR(40) NOT NULL,
+  period_start TIMESTAMP NOT NULL,
+  period_end TIMESTAMP NOT NULL,
+  last_user_id INT NOT NULL DEFAULT 0,
+  sent INT NOT NULL DEFAULT 0,
+  run_started TIMESTAMP NOT NULL,
+  run_finished TIMESTAMP,
+  PRIMARY KEY(run_id)
+);
+
+CREATE TABLE jforum_topics_read (
+  user_id INT NOT NULL,
+  topic_id INT NOT NULL,
+  read_time TIMESTAMP NOT NULL,
+  PRIMARY KEY(user_id, topic_id)
+);
+
+CREATE TABLE jforum_forums_read (
+  user_id INT NOT NULL,
+  forum_id INT NOT NULL,
+  read_time TIMESTAMP NOT NULL,
+  PRIMARY KEY(user_id, forum_id)
+);
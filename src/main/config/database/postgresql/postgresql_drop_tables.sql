@@ -58,3 +58,8 @@ DROP TABLE jforum_mail_integration;
 DROP TABLE jforum_api;
 DROP SEQUENCE jforum_api_seq;
 DROP TABLE jforum_spam;
+DROP TABLE jforum_mail_outbox_recipients;
+DROP TABLE jforum_mail_outbox;
+DROP TABLE jforum_summary_runs;
+DROP TABLE jforum_topics_read;
+DROP TABLE jforum_forums_read;
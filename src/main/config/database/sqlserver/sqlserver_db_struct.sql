@@ -599,3 +599,46 @@ CREATE TABLE jforum_api (
 CREATE TABLE jforum_spam (
   pattern nvarchar(100) NOT NULL
 );
+
+--
+-- Table structure for table 'jforum_mail_outbox'
+--
+CREATE TABLE jforum_mail_outbox (
+  outbox_id varchar(40) PRIMARY KEY NOT NULL,
+  outbox_message text NOT NULL,
+  outbox_date datetime NOT NULL
+);
+
+CREATE TABLE jforum_mail_outbox_recipients (
+  outbox_id varchar(40) NOT NULL,
+  recipient varchar(255) NOT NULL,
+  attempts int DEFAULT (0) NOT NULL,
+  next_attempt datetime NOT NULL,
+  last_error varchar(255),
+  PRIMARY KEY (outbox_id, recipient)
+);
+CREATE INDEX idx_mor_next ON jforum_mail_outbox_recipients(next_attempt);
+
+CREATE TABLE jforum_summary_runs (
+  run_id varchar(40) PRIMARY KEY NOT NULL,
+  period_start datetime NOT NULL,
+  period_end datetime NOT NULL,
+  last_user_id int DEFAULT (0) NOT NULL,
+  sent int DEFAULT (0) NOT NULL,
+  run_started datetime NOT NULL,
+  run_finished datetime
+);
+
+CREATE TABLE jforum_topics_read (
+  user_id int NOT NULL,
+  topic_id int NOT NULL,
+  read_time datetime NOT NULL,
+  PRIMARY KEY (user_id, topic_id)
+);
+
+CREATE TABLE jforum_forums_read (
+  user_id int NOT NULL,
+  forum_id int NOT NULL,
+  read_time datetime NOT NULL,
+  PRIMARY KEY (user_id, forum_id)
+);
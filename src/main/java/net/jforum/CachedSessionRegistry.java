@@ -0,0 +1,226 @@
+/*
+ * Copyright (c) JForum Team
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, 
+ * with or without modification, are permitted provided 
+ * that the following conditions are met:
+ * 
+ * 1) Redistributions of source code must retain the above 
+ * copyright notice, this list of conditions and the 
+ * following disclaimer.
+ * 2) Redistributions in binary form must reproduce the 
+ * above copyright notice, this list of conditions and 
+ * the following disclaimer in the documentation and/or 
+ * other materials provided with the distribution.
+ * 3) Neither the name of "Rafael Steil" nor 
+ * the names of its contributors may be used to endorse 
+ * or promote products derived from this software without 
+ * specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT 
+ * HOLDERS AND CONTRIBUTORS "AS IS" AND ANY 
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, 
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF 
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR 
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL 
+ * THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, 
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, 
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER 
+ * IN CONTRACT, STRICT LIABILITY, OR TORT 
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN 
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF 
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE
+ * 
+ * The JForum Project
+ * http://www.jforum.net
+ */
+package net.jforum;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import net.jforum.cache.CacheEngine;
+import net.jforum.entities.UserSession;
+
+/**
+ * Keeps the sessions in the cache engine, so that the nodes sharing a
+ * clustered engine see the same users online.
+ * <p>
+ * Each session is stored along with how it was counted, so that removing it
+ * undoes exactly that. The values put in the cache are never changed
+ * afterwards, only replaced, as the engine may have sent them to other nodes.
+ *
+ * @version $Id$
+ */
+final class CachedSessionRegistry implements SessionRegistry
+{
+	// map session IDs to UserSession objects
+	private static final String FQN = "sessions";
+	// map session IDs to UserSession objects of whose online status is publicly visible.
+	private static final String FQN_LOGGED = FQN + "/logged";
+	// map session IDs to how they were counted
+	private static final String FQN_COUNTED = FQN + "/counted";
+	// map different types of user count types (string names) to int user counts 
+	private static final String FQN_COUNT = FQN + "/count";
+	// map user IDs (int) to a set of session IDs (Set<String>)
+	private static final String FQN_USER_ID = FQN + "/userId";
+	private static final String ANONYMOUS_COUNT = "anonymousCount";
+	private static final String LOGGED_COUNT = "loggedCount";
+
+	private final CacheEngine cache;
+
+	CachedSessionRegistry(final CacheEngine cache)
+	{
+		this.cache = cache;
+	}
+
+	@Override public synchronized void add(final String sessionId, final UserSession us, final Kind kind)
+	{
+		this.remove(sessionId);
+
+		this.cache.add(FQN, sessionId, us);
+		this.cache.add(FQN_COUNTED, sessionId, new Counted(kind, us.getUserId()));
+
+		if (kind == Kind.LOGGED) {
+			this.changeCount(LOGGED_COUNT, 1);
+			this.cache.add(FQN_LOGGED, sessionId, us);
+
+			final Set<String> ids = new HashSet<String>(this.sessionIdsOf(us.getUserId()));
+			ids.add(sessionId);
+			this.cache.add(FQN_USER_ID, Integer.toString(us.getUserId()), ids);
+		}
+		else if (kind == Kind.ANONYMOUS) {
+			this.changeCount(ANONYMOUS_COUNT, 1);
+		}
+	}
+
+	@Override public synchronized UserSession remove(final String sessionId)
+	{
+		final UserSession us = this.get(sessionId);
+
+		if (us == null) {
+			return null;
+		}
+
+		final Counted counted = (Counted)this.cache.get(FQN_COUNTED, sessionId);
+
+		this.cache.remove(FQN, sessionId);
+		this.cache.remove(FQN_COUNTED, sessionId);
+
+		if (counted == null) {
+			return us;
+		}
+
+		if (counted.kind == Kind.LOGGED) {
+			this.changeCount(LOGGED_COUNT, -1);
+			this.cache.remove(FQN_LOGGED, sessionId);
+
+			final String userId = Integer.toString(counted.userId);
+			final Set<String> ids = new HashSet<String>(this.sessionIdsOf(counted.userId));
+			ids.remove(sessionId);
+
+			if (ids.isEmpty()) {
+				this.cache.remove(FQN_USER_ID, userId);
+			}
+			else {
+				this.cache.add(FQN_USER_ID, userId, ids);
+			}
+		}
+		else if (counted.kind == Kind.ANONYMOUS) {
+			this.changeCount(ANONYMOUS_COUNT, -1);
+		}
+
+		return us;
+	}
+
+	@Override public UserSession get(final String sessionId)
+	{
+		return (UserSession)this.cache.get(FQN, sessionId);
+	}
+
+	@Override public Set<String> sessionIdsOf(final int userId)
+	{
+		@SuppressWarnings("unchecked")
+		final Set<String> ids = (Set<String>)this.cache.get(FQN_USER_ID, Integer.toString(userId));
+
+		return ids == null ? Collections.<String>emptySet() : Collections.unmodifiableSet(ids);
+	}
+
+	@Override public List<UserSession> allSessions()
+	{
+		return this.sessions(FQN);
+	}
+
+	@Override public List<UserSession> loggedSessions()
+	{
+		return this.sessions(FQN_LOGGED);
+	}
+
+	@Override public int loggedCount()
+	{
+		return this.count(LOGGED_COUNT);
+	}
+
+	@Override public int anonymousCount()
+	{
+		return this.count(ANONYMOUS_COUNT);
+	}
+
+	@Override public synchronized void clear()
+	{
+		this.cache.remove(FQN);
+		this.cache.remove(FQN_LOGGED);
+		this.cache.remove(FQN_COUNTED);
+		this.cache.remove(FQN_COUNT);
+		this.cache.remove(FQN_USER_ID);
+	}
+
+	private List<UserSession> sessions(final String fqn)
+	{
+		final List<UserSession> list = new ArrayList<UserSession>();
+
+		for (final Object value : this.cache.getValues(fqn)) {
+			list.add((UserSession)value);
+		}
+
+		return list;
+	}
+
+	private int count(final String name)
+	{
+		final Integer count = (Integer)this.cache.get(FQN_COUNT, name);
+
+		return count == null ? 0 : count.intValue();
+	}
+
+	private void changeCount(final String name, final int delta)
+	{
+		this.cache.add(FQN_COUNT, name, Integer.valueOf(Math.max(0, this.count(name) + delta)));
+	}
+
+	/**
+	 * How a session was counted, and for which user
+	 */
+	private static final class Counted implements Serializable
+	{
+		private static final long serialVersionUID = 1L;
+
+		final Kind kind;
+		final int userId;
+
+		Counted(final Kind kind, final int userId)
+		{
+			this.kind = kind;
+			this.userId = userId;
+		}
+	}
+}
@@ -44,6 +44,7 @@ package net.jforum;
 
 import java.io.File;
 import java.io.IOException;
+import java.lang.invoke.MethodHandle;
 
 import org.apache.commons.lang3.StringUtils;
 import org.apache.log4j.Logger;
@@ -54,6 +55,7 @@ import net.jforum.context.RequestContext;
 import net.jforum.context.ResponseContext;
 import net.jforum.exceptions.ForumException;
 import net.jforum.exceptions.TemplateNotFoundException;
+import net.jforum.repository.ModulesRepository;
 import net.jforum.repository.Tpl;
 import net.jforum.util.preferences.ConfigKeys;
 import net.jforum.util.preferences.SystemGlobals;
@@ -69,8 +71,6 @@ import net.jforum.util.preferences.TemplateKeys;
 public abstract class Command 
 {
 	private static final Logger LOGGER = Logger.getLogger(Command.class);
-	private static final Class<?>[] NO_ARGS_CLASS = new Class[0];
-	private static final Object[] NO_ARGS_OBJECT = new Object[0];
 	
 	private transient boolean ignoreAction;
 	
@@ -118,15 +118,18 @@ public abstract class Command
 		final String action = this.request.getAction();
 
 		if (!this.ignoreAction) {
-			try {
-				this.getClass().getMethod(action, NO_ARGS_CLASS).invoke(this, NO_ARGS_OBJECT);
-			}
-			catch (NoSuchMethodException e) {		
-				this.list();		
+			final MethodHandle handle = ModulesRepository.getAction(this.getClass(), action);
+
+			if (handle == null) {
+				this.list();
 			}
-			catch (Exception e)
-            {
-                throw new ForumException(e);
+			else {
+				try {
+					handle.invokeExact(this);
+				}
+				catch (Throwable e) {
+					throw new ForumException(e);
+				}
 			}
 		}
 		
@@ -265,6 +265,30 @@ public final class ConfigLoader
         }
     }
 
+    /**
+     * Tells whether a cache engine is shared by several nodes, that is,
+     * whether its class is listed in <code>cache.engine.clustered</code>.
+     * 
+     * @param engine the cache engine
+     * @return <code>true</code> if the engine is clustered
+     */
+    public static boolean isClustered(final CacheEngine engine)
+    {
+        final String clustered = SystemGlobals.getValue(ConfigKeys.CACHE_CLUSTERED);
+
+        if (engine == null || clustered == null) {
+            return false;
+        }
+
+        for (final String name : clustered.split(",")) {
+            if (name.trim().equals(engine.getClass().getName())) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
     public static void stopCacheEngine()
     {
         if (cache != null) {
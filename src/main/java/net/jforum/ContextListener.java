@@ -53,7 +53,12 @@ import javax.servlet.ServletContextListener;
 
 import org.apache.log4j.Logger;
 
+import net.jforum.repository.AttachmentDownloadCounter;
+import net.jforum.repository.ReadStateRepository;
+import net.jforum.repository.TopicViewCounter;
+import net.jforum.util.concurrent.Executor;
 import net.jforum.util.log.LoggerHelper;
+import net.jforum.util.mail.MailDispatcher;
 import net.jforum.util.preferences.SystemGlobals;
 import net.jforum.util.stats.Stats;
 
@@ -94,6 +99,13 @@ public class ContextListener implements ServletContextListener {
      * @see javax.servlet.ServletContextListener#contextDestroyed(javax.servlet.ServletContextEvent)
      */
     @Override public void contextDestroyed (ServletContextEvent sce) {
+		// in case the servlet was not destroyed, write pending topic views and read marks
+        Executor.shutdown();
+        TopicViewCounter.stop();
+        ReadStateRepository.stop();
+        AttachmentDownloadCounter.stop();
+        MailDispatcher.stop();
+
 		// stop EventBus
         Stats.stop();
 
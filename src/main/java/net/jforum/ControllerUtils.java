@@ -69,6 +69,7 @@ import net.jforum.sso.SSOUtils;
 import net.jforum.util.Hash;
 import net.jforum.util.I18n;
 import net.jforum.util.preferences.ConfigKeys;
+import net.jforum.util.preferences.ConfigSnapshot;
 import net.jforum.util.preferences.SystemGlobals;
 import net.jforum.view.forum.common.BannerCommon;
 
@@ -90,46 +91,47 @@ public class ControllerUtils
 	public void prepareTemplateContext(final SimpleHash context, final ForumContext jforumContext)
 	{
 		final RequestContext request = JForumExecutionContext.getRequest();
+		final ConfigSnapshot config = SystemGlobals.getSnapshot();
 		
 		context.put("karmaEnabled", SecurityRepository.canAccess(SecurityConstants.PERM_KARMA_ENABLED));
-		context.put("dateTimeFormat", SystemGlobals.getValue(ConfigKeys.DATE_TIME_FORMAT));
-		context.put("autoLoginEnabled", SystemGlobals.getBoolValue(ConfigKeys.AUTO_LOGIN_ENABLED));
-		context.put("sso", ConfigKeys.TYPE_SSO.equals(SystemGlobals.getValue(ConfigKeys.AUTHENTICATION_TYPE)));
+		context.put("dateTimeFormat", config.getValue(ConfigKeys.DATE_TIME_FORMAT));
+		context.put("autoLoginEnabled", config.getBoolValue(ConfigKeys.AUTO_LOGIN_ENABLED));
+		context.put("sso", ConfigKeys.TYPE_SSO.equals(config.getValue(ConfigKeys.AUTHENTICATION_TYPE)));
 		context.put("contextPath", request.getContextPath());
 		context.put("serverName", request.getServerName());
-		context.put("templateName", SystemGlobals.getValue(ConfigKeys.TEMPLATE_DIR));
-		context.put("extension", SystemGlobals.getValue(ConfigKeys.SERVLET_EXTENSION));
+		context.put("templateName", config.getValue(ConfigKeys.TEMPLATE_DIR));
+		context.put("extension", config.getValue(ConfigKeys.SERVLET_EXTENSION));
 		context.put("serverPort", Integer.toString(request.getServerPort()));
 		context.put("I18n", I18n.getInstance());
-		context.put("version", SystemGlobals.getValue(ConfigKeys.VERSION));
-		context.put("forumTitle", SystemGlobals.getValue(ConfigKeys.FORUM_PAGE_TITLE));
-		context.put("pageTitle", SystemGlobals.getValue(ConfigKeys.FORUM_PAGE_TITLE));
-		context.put("metaKeywords", SystemGlobals.getValue(ConfigKeys.FORUM_PAGE_METATAG_KEYWORDS));
-		context.put("metaDescription", SystemGlobals.getValue(ConfigKeys.FORUM_PAGE_METATAG_DESCRIPTION));
-		context.put("forumLink", SystemGlobals.getValue(ConfigKeys.FORUM_LINK));
-		context.put("homepageLink", SystemGlobals.getValue(ConfigKeys.HOMEPAGE_LINK));
-		context.put("encoding", SystemGlobals.getValue(ConfigKeys.ENCODING));
+		context.put("version", config.getValue(ConfigKeys.VERSION));
+		context.put("forumTitle", config.getValue(ConfigKeys.FORUM_PAGE_TITLE));
+		context.put("pageTitle", config.getValue(ConfigKeys.FORUM_PAGE_TITLE));
+		context.put("metaKeywords", config.getValue(ConfigKeys.FORUM_PAGE_METATAG_KEYWORDS));
+		context.put("metaDescription", config.getValue(ConfigKeys.FORUM_PAGE_METATAG_DESCRIPTION));
+		context.put("forumLink", config.getValue(ConfigKeys.FORUM_LINK));
+		context.put("homepageLink", config.getValue(ConfigKeys.HOMEPAGE_LINK));
+		context.put("encoding", config.getValue(ConfigKeys.ENCODING));
 		context.put("bookmarksEnabled", SecurityRepository.canAccess(SecurityConstants.PERM_BOOKMARKS_ENABLED));
 		context.put("canAccessModerationLog", SecurityRepository.canAccess(SecurityConstants.PERM_MODERATION_LOG));
 		context.put("JForumContext", jforumContext);
 		context.put("bannerCommon", new BannerCommon());
 		context.put("timestamp", Long.valueOf(System.currentTimeMillis()));
-        String googleTracker = SystemGlobals.getValue(ConfigKeys.GA_ID);
+        String googleTracker = config.getValue(ConfigKeys.GA_ID);
         if (googleTracker != null && googleTracker.trim().length() > 0) {
             context.put("googleAnalyticsTracker", googleTracker.trim());
         }
-		context.put("socialEnabled", SystemGlobals.getBoolValue(ConfigKeys.SOCIAL_SHARING_ENABLED));
-		context.put("socialSites", SystemGlobals.getValue(ConfigKeys.SOCIAL_SHARING_SITES));
-		context.put("rssEnabled", SystemGlobals.getBoolValue(ConfigKeys.RSS_ENABLED));
-		context.put("userListPublic", SystemGlobals.getBoolValue(ConfigKeys.USER_LIST_PUBLIC));
-		context.put("moderationLogPublic", SystemGlobals.getBoolValue(ConfigKeys.MODERATION_LOG_PUBLIC));
-		context.put("bannerPages", SystemGlobals.getValue(ConfigKeys.BANNER_PAGES_LIST));
-		context.put("jQueryURL", SystemGlobals.getValue(ConfigKeys.JQUERY_URL));
-		context.put("stopForumSpamWebURL", SystemGlobals.getValue(ConfigKeys.STOPFORUMSPAM_WEB_URL));
-		context.put("whoisUrl", SystemGlobals.getValue(ConfigKeys.WHOIS_API_URL));
-        context.put("announcement", SystemGlobals.getValue(ConfigKeys.ANNOUNCEMENT));
-        context.put("avatarMaxHeight", SystemGlobals.getValue(ConfigKeys.AVATAR_MAX_HEIGHT));
-        context.put("avatarMaxWidth", SystemGlobals.getValue(ConfigKeys.AVATAR_MAX_WIDTH));
+		context.put("socialEnabled", config.getBoolValue(ConfigKeys.SOCIAL_SHARING_ENABLED));
+		context.put("socialSites", config.getValue(ConfigKeys.SOCIAL_SHARING_SITES));
+		context.put("rssEnabled", config.getBoolValue(ConfigKeys.RSS_ENABLED));
+		context.put("userListPublic", config.getBoolValue(ConfigKeys.USER_LIST_PUBLIC));
+		context.put("moderationLogPublic", config.getBoolValue(ConfigKeys.MODERATION_LOG_PUBLIC));
+		context.put("bannerPages", config.getValue(ConfigKeys.BANNER_PAGES_LIST));
+		context.put("jQueryURL", config.getValue(ConfigKeys.JQUERY_URL));
+		context.put("stopForumSpamWebURL", config.getValue(ConfigKeys.STOPFORUMSPAM_WEB_URL));
+		context.put("whoisUrl", config.getValue(ConfigKeys.WHOIS_API_URL));
+        context.put("announcement", config.getValue(ConfigKeys.ANNOUNCEMENT));
+        context.put("avatarMaxHeight", config.getValue(ConfigKeys.AVATAR_MAX_HEIGHT));
+        context.put("avatarMaxWidth", config.getValue(ConfigKeys.AVATAR_MAX_WIDTH));
 	}
 
 	/**
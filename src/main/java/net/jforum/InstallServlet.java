@@ -125,7 +125,7 @@ public class InstallServlet extends JForumBaseServlet
                 context.put("OWASP_CSRFTOKEN", csrfGuard.getTokenValue(req));
 
                 // Module and Action
-                final String moduleClass = ModulesRepository.getModuleClass(request.getModule());
+                final ModulesRepository.Module module = ModulesRepository.getModule(request.getModule());
 
                 context.put("moduleName", request.getModule());
                 context.put("action", request.getAction());
@@ -133,9 +133,9 @@ public class InstallServlet extends JForumBaseServlet
                 final BufferedWriter out = new BufferedWriter(new OutputStreamWriter(response.getOutputStream(), encoding));
 
                 try {
-                    if (moduleClass != null) {
+                    if (module != null) {
                         // Here we go, baby
-                        final Command command = (Command)Class.forName(moduleClass).getDeclaredConstructor().newInstance();
+                        final Command command = module.newCommand();
                         final Template template = command.process(request, response, context);
 
                         if (JForumExecutionContext.getRedirectTo() == null) {
@@ -46,7 +46,6 @@ import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.io.Writer;
-import java.lang.reflect.InvocationTargetException;
 import java.sql.Connection;
 import java.sql.Statement;
 import java.util.List;
@@ -84,17 +83,27 @@ import net.jforum.entities.User;
 import net.jforum.entities.UserSession;
 import net.jforum.exceptions.ExceptionWriter;
 import net.jforum.exceptions.ForumStartupException;
+import net.jforum.repository.AttachmentDownloadCounter;
 import net.jforum.repository.BBCodeRepository;
 import net.jforum.repository.BanlistRepository;
 import net.jforum.repository.ModulesRepository;
 import net.jforum.repository.RankingRepository;
+import net.jforum.repository.ReadStateRepository;
+import net.jforum.repository.RenderedPostRepository;
 import net.jforum.repository.SecurityRepository;
 import net.jforum.repository.SmiliesRepository;
+import net.jforum.repository.TopicViewCounter;
+import net.jforum.search.SearchFacade;
 import net.jforum.summary.SummaryScheduler;
 import net.jforum.util.FileMonitor;
 import net.jforum.util.I18n;
+import net.jforum.util.UserAgentClassifier;
 import net.jforum.util.bbcode.BBCodeHandler;
+import net.jforum.util.concurrent.Executor;
+import net.jforum.util.image.ThumbnailService;
+import net.jforum.util.mail.MailDispatcher;
 import net.jforum.util.preferences.ConfigKeys;
+import net.jforum.util.preferences.ConfigSnapshot;
 import net.jforum.util.preferences.SystemGlobals;
 import net.jforum.util.stats.StatsEvent;
 
@@ -149,6 +158,12 @@ public class JForum extends JForumBaseServlet
             RankingRepository.loadRanks();
             SmiliesRepository.loadSmilies();
             BanlistRepository.loadBanlist();
+            TopicViewCounter.start();
+            ReadStateRepository.start();
+            AttachmentDownloadCounter.start();
+            MailDispatcher.start();
+            ThumbnailService.start();
+            UserAgentClassifier.start();
         }
         catch (Exception e) {
             LOGGER.error(e.getMessage(), e);
@@ -172,7 +187,8 @@ public class JForum extends JForumBaseServlet
         JForumContext forumContext = null;
         RequestContext request = null;
         ResponseContext response = null;
-        final String encoding = SystemGlobals.getValue(ConfigKeys.ENCODING);
+        final ConfigSnapshot config = SystemGlobals.getSnapshot();
+        final String encoding = config.getValue(ConfigKeys.ENCODING);
 
         try {
             // Initializes the execution context
@@ -184,7 +200,7 @@ public class JForum extends JForumBaseServlet
             this.checkDatabaseStatus();
 
             forumContext = new JForumContext(request.getContextPath(),
-                                             SystemGlobals.getValue(ConfigKeys.SERVLET_EXTENSION),
+                                             config.getValue(ConfigKeys.SERVLET_EXTENSION),
                                              request,
                                              response
                 );
@@ -208,11 +224,11 @@ public class JForum extends JForumBaseServlet
 
             final String module = request.getModule();
 
-            // Gets the module class name
-            String moduleClass = module == null 
-                ? null : ModulesRepository.getModuleClass(module);
+            // Gets the module
+            ModulesRepository.Module forumModule = module == null 
+                ? null : ModulesRepository.getModule(module);
 
-            if (moduleClass == null) {
+            if (forumModule == null) {
                 new StatsEvent("Bad module requests", req.getRequestURL()).record();
                 // Module not found, send 404 not found response
                 //response.sendError(HttpServletResponse.SC_NOT_FOUND);
@@ -222,7 +238,7 @@ public class JForum extends JForumBaseServlet
                 final boolean shouldBan = this.shouldBan(request.getRemoteAddr());
 
                 if (shouldBan && !"logout".equals(request.getAction())) {
-                    moduleClass = ModulesRepository.getModuleClass("forums");
+                    forumModule = ModulesRepository.getModule("forums");
                     context.put("moduleName", "forums");
                     ((WebRequestContext)request).changeAction("banned");
                 }
@@ -233,7 +249,7 @@ public class JForum extends JForumBaseServlet
                     context.put("OWASP_CSRFTOKEN", csrfGuard.getTokenValue(req));
                 }
 
-                if (shouldBan && SystemGlobals.getBoolValue(ConfigKeys.BANLIST_SEND_403FORBIDDEN)) {
+                if (shouldBan && config.getBoolValue(ConfigKeys.BANLIST_SEND_403FORBIDDEN)) {
                     new StatsEvent("Banned page requests", req.getRequestURL()).record();
                     response.sendError(HttpServletResponse.SC_FORBIDDEN);
                 }
@@ -243,7 +259,7 @@ public class JForum extends JForumBaseServlet
                     context.put("request", req);
                     context.put("response", response);
                     new StatsEvent("All page requests", req.getRequestURL()).record();
-                    out = this.processCommand(out, request, response, encoding, context, moduleClass);
+                    out = this.processCommand(out, request, response, encoding, context, forumModule);
                 }
             }
         }
@@ -256,11 +272,11 @@ public class JForum extends JForumBaseServlet
     }
 
     private Writer processCommand(final Writer out, final RequestContext request, final ResponseContext response, 
-                                  final String encoding, final SimpleHash context, final String moduleClass) throws Exception 
+                                  final String encoding, final SimpleHash context, final ModulesRepository.Module forumModule) throws Exception 
     {
         Writer outWriter = out;
         // Here we go, baby
-        final Command command = this.retrieveCommand(moduleClass);
+        final Command command = forumModule.newCommand();
         final Template template = command.process(request, response, context);
 
         if (JForumExecutionContext.getRedirectTo() == null) {
@@ -393,11 +409,6 @@ public class JForum extends JForumBaseServlet
         return BanlistRepository.shouldBan(banlist);
     }
 
-    private Command retrieveCommand(final String moduleClass) throws InstantiationException, IllegalAccessException, ClassNotFoundException, IllegalArgumentException, InvocationTargetException, NoSuchMethodException, SecurityException
-    {
-        return (Command)Class.forName(moduleClass).getDeclaredConstructor().newInstance();
-    }
-
     /** 
      * @see javax.servlet.GenericServlet#destroy()
      */
@@ -439,6 +450,22 @@ public class JForum extends JForumBaseServlet
             }
         }
 
+        // let background tasks finish, they may still queue mail or index posts
+        Executor.shutdown();
+        ThumbnailService.stop();
+        UserAgentClassifier.stop();
+
+        // write pending topic views and read marks while the database is still available
+        TopicViewCounter.stop();
+        ReadStateRepository.stop();
+        AttachmentDownloadCounter.stop();
+
+        // send what is queued, the rest stays in the outbox
+        MailDispatcher.stop();
+
+        // commit and close the search index
+        SearchFacade.stop();
+
         // stop database and release all connections
         try {
             if ("hsqldb".equals(SystemGlobals.getValue(ConfigKeys.DATABASE_DRIVER_NAME))) {
@@ -458,6 +485,7 @@ public class JForum extends JForumBaseServlet
         // stop cache engine
         try {			
             ConfigLoader.stopCacheEngine();
+            RenderedPostRepository.stop();
         }
         catch (Exception e) { 
             LOGGER.error(e.getMessage(), e); 
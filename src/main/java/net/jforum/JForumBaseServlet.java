@@ -117,6 +117,7 @@ public class JForumBaseServlet extends HttpServlet
 			ModulesRepository.init(SystemGlobals.getValue(ConfigKeys.CONFIG_DIR));
 
 			this.loadConfigStuff();
+			ModulesRepository.reportUnresolvedActions();
 
 			JForumExecutionContext.setTemplateConfig(templateCfg);
 		} 
@@ -44,6 +44,9 @@ package net.jforum;
 
 import java.io.IOException;
 import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
 
 import javax.servlet.http.HttpServletResponse;
 
@@ -79,6 +82,7 @@ public class JForumExecutionContext
     private String contentType;
     private transient boolean isCustomContent;
     private transient boolean enableRollback;
+	private transient List<Runnable> afterFinish;
 
 	/**
 	 * Gets the execution context.
@@ -328,7 +332,57 @@ public class JForumExecutionContext
 			}
 		}
 
+		final JForumExecutionContext executionContext = userData.get();
 		userData.set(null);
+
+		if (executionContext != null && executionContext.afterFinish != null) {
+			for (final Runnable action : executionContext.afterFinish) {
+				try {
+					action.run();
+				}
+				catch (Exception e) {
+					LOGGER.error("Error while finishing the execution context: " + e, e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Runs some action once the transaction of the current context ended, in
+	 * {@link #finish()}, whether it was committed or not. Without a context,
+	 * the action runs right away.
+	 * 
+	 * @param action the action
+	 */
+	public static void afterFinish(final Runnable action)
+	{
+		final JForumExecutionContext executionContext = userData.get();
+
+		if (executionContext == null) {
+			action.run();
+			return;
+		}
+
+		if (executionContext.afterFinish == null) {
+			executionContext.afterFinish = new ArrayList<Runnable>();
+		}
+
+		executionContext.afterFinish.add(action);
+	}
+
+	/**
+	 * Commits the current transaction right away, instead of in {@link #finish()}.
+	 * Unlike there, a failure is thrown to the caller.
+	 * 
+	 * @throws SQLException if the commit fails
+	 */
+	public static void commit() throws SQLException
+	{
+		final Connection conn = JForumExecutionContext.getConnection(false);
+
+		if (conn != null && SystemGlobals.getBoolValue(ConfigKeys.DATABASE_USE_TRANSACTIONS)) {
+			conn.commit();
+		}
 	}
 
 	/**
@@ -0,0 +1,202 @@
+/*
+ * Copyright (c) JForum Team
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, 
+ * with or without modification, are permitted provided 
+ * that the following conditions are met:
+ * 
+ * 1) Redistributions of source code must retain the above 
+ * copyright notice, this list of conditions and the 
+ * following disclaimer.
+ * 2) Redistributions in binary form must reproduce the 
+ * above copyright notice, this list of conditions and 
+ * the following disclaimer in the documentation and/or 
+ * other materials provided with the distribution.
+ * 3) Neither the name of "Rafael Steil" nor 
+ * the names of its contributors may be used to endorse 
+ * or promote products derived from this software without 
+ * specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT 
+ * HOLDERS AND CONTRIBUTORS "AS IS" AND ANY 
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, 
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF 
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR 
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL 
+ * THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, 
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, 
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER 
+ * IN CONTRACT, STRICT LIABILITY, OR TORT 
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN 
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF 
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE
+ * 
+ * The JForum Project
+ * http://www.jforum.net
+ */
+package net.jforum;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import net.jforum.entities.UserSession;
+
+/**
+ * Keeps the sessions in the memory of this node.
+ * <p>
+ * Sessions are kept in concurrent maps, and the changes to a single session
+ * id are serialized by one of a fixed set of locks picked by the hash of the
+ * id, so requests of different sessions do not wait for each other. Each
+ * entry remembers how it was counted, so that removing it undoes exactly
+ * that, and the totals are kept in {@link LongAdder}s. The lists of sessions
+ * are copies of the maps taken without any lock.
+ *
+ * @version $Id$
+ */
+final class LocalSessionRegistry implements SessionRegistry
+{
+	private static final int STRIPES = 64;
+
+	private final ConcurrentMap<String, Entry> sessions = new ConcurrentHashMap<String, Entry>();
+	private final ConcurrentMap<String, UserSession> logged = new ConcurrentHashMap<String, UserSession>();
+	private final ConcurrentMap<Integer, Set<String>> sessionsByUser = new ConcurrentHashMap<Integer, Set<String>>();
+	private final LongAdder loggedCount = new LongAdder();
+	private final LongAdder anonymousCount = new LongAdder();
+	private final Object[] locks = new Object[STRIPES];
+
+	LocalSessionRegistry()
+	{
+		for (int i = 0; i < STRIPES; i++) {
+			this.locks[i] = new Object();
+		}
+	}
+
+	@Override public void add(final String sessionId, final UserSession us, final Kind kind)
+	{
+		synchronized (this.lockFor(sessionId)) {
+			final Entry previous = this.sessions.put(sessionId, new Entry(us, kind));
+
+			if (previous != null) {
+				this.uncount(sessionId, previous);
+			}
+
+			if (kind == Kind.LOGGED) {
+				this.loggedCount.increment();
+				this.logged.put(sessionId, us);
+				this.sessionsByUser.compute(us.getUserId(), (userId, ids) -> {
+					final Set<String> result = ids == null ? ConcurrentHashMap.<String>newKeySet() : ids;
+					result.add(sessionId);
+					return result;
+				});
+			}
+			else if (kind == Kind.ANONYMOUS) {
+				this.anonymousCount.increment();
+			}
+		}
+	}
+
+	@Override public UserSession remove(final String sessionId)
+	{
+		synchronized (this.lockFor(sessionId)) {
+			final Entry entry = this.sessions.remove(sessionId);
+
+			if (entry == null) {
+				return null;
+			}
+
+			this.uncount(sessionId, entry);
+
+			return entry.session;
+		}
+	}
+
+	@Override public UserSession get(final String sessionId)
+	{
+		final Entry entry = this.sessions.get(sessionId);
+		return entry == null ? null : entry.session;
+	}
+
+	@Override public Set<String> sessionIdsOf(final int userId)
+	{
+		final Set<String> ids = this.sessionsByUser.get(userId);
+		return ids == null ? Collections.<String>emptySet() : Collections.unmodifiableSet(ids);
+	}
+
+	@Override public List<UserSession> allSessions()
+	{
+		final List<UserSession> list = new ArrayList<UserSession>(this.sessions.size());
+
+		for (final Entry entry : this.sessions.values()) {
+			list.add(entry.session);
+		}
+
+		return list;
+	}
+
+	@Override public List<UserSession> loggedSessions()
+	{
+		return new ArrayList<UserSession>(this.logged.values());
+	}
+
+	@Override public int loggedCount()
+	{
+		return this.loggedCount.intValue();
+	}
+
+	@Override public int anonymousCount()
+	{
+		return this.anonymousCount.intValue();
+	}
+
+	@Override public void clear()
+	{
+		for (final String sessionId : this.sessions.keySet()) {
+			this.remove(sessionId);
+		}
+	}
+
+	private void uncount(final String sessionId, final Entry entry)
+	{
+		if (entry.kind == Kind.LOGGED) {
+			this.loggedCount.decrement();
+			this.logged.remove(sessionId);
+			this.sessionsByUser.computeIfPresent(entry.userId, (userId, ids) -> {
+				ids.remove(sessionId);
+				return ids.isEmpty() ? null : ids;
+			});
+		}
+		else if (entry.kind == Kind.ANONYMOUS) {
+			this.anonymousCount.decrement();
+		}
+	}
+
+	private Object lockFor(final String sessionId)
+	{
+		return this.locks[(sessionId.hashCode() & 0x7fffffff) % STRIPES];
+	}
+
+	private static final class Entry
+	{
+		final UserSession session;
+		final Kind kind;
+		/** The user id when added, as the session may change it later */
+		final int userId;
+
+		Entry(final UserSession session, final Kind kind)
+		{
+			this.session = session;
+			this.kind = kind;
+			this.userId = session.getUserId();
+		}
+	}
+}
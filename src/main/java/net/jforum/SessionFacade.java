@@ -42,15 +42,8 @@
  */
 package net.jforum;
 
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.Collections;
-import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.log4j.Logger;
 
@@ -69,35 +62,26 @@ public class SessionFacade implements Cacheable
 {
 	private static final Logger LOGGER = Logger.getLogger(SessionFacade.class);
 
-	// map session IDs to UserSession objects
-	private static final String FQN = new String("sessions");
-	// map session IDs to UserSession objects of whose online status is publicly visible.
-	private static final String FQN_LOGGED = FQN + "/logged";
-	// map different types of user count types (string names) to int user counts 
-	private static final String FQN_COUNT = FQN + "/count";
-    // map user IDs (int) to a set of session IDs (Set<String>)
-	private static final String FQN_USER_ID = FQN + "/userId";
-	private static final String ANONYMOUS_COUNT = "anonymousCount";
-	private static final String LOGGED_COUNT = "loggedCount";
-	
-	private static CacheEngine cache;
+	// Sessions belong to this node, like the servlet sessions they follow,
+	// unless the cache engine is clustered and all nodes share them
+	private static volatile SessionRegistry registry = new LocalSessionRegistry();
 	
 	/**
+	 * Keeps the sessions in the cache engine if it is clustered, see
+	 * {@link ConfigLoader#isClustered(CacheEngine)}, or in this node otherwise.
+	 * 
 	 * @see net.jforum.cache.Cacheable#setCacheEngine(net.jforum.cache.CacheEngine)
 	 */
 	@Override public void setCacheEngine(final CacheEngine engine)
 	{
-		SessionFacade.setEngine(engine);
-	}
-	
-	private static void setEngine(final CacheEngine engine) 
-	{
-		cache = engine;
+		registry = ConfigLoader.isClustered(engine)
+			? new CachedSessionRegistry(engine)
+			: new LocalSessionRegistry();
 	}
 
 	//TODO hack so csrf can access cache
 	public static UserSession getUserSesssion (String sessionId) {
-	    return (UserSession) cache.get(FQN, sessionId);
+	    return registry.get(sessionId);
 	}
 
 	/**
@@ -122,9 +106,8 @@ public class SessionFacade implements Cacheable
 	 * </p>
 	 * 
 	 * <p>
-	 * Please note that, in order to keep the number of guest and logged users correct, 
-	 * it's caller's responsibility to {@link #remove(String)} the record before adding it
-	 * again if the current session is currently represented as "guest". 
+	 * A session already registered with the same id is replaced, and the
+	 * user counts are corrected for it. 
 	 * </p>
 	 *  
 	 * @param userSession the UserSession to add
@@ -136,53 +119,20 @@ public class SessionFacade implements Cacheable
 			us.setSessionId(sessionId);
 		}
 		
-		final String usSessId = us.getSessionId();
-
-		synchronized (FQN) {
-			cache.add(FQN, usSessId, us);
-
-			if (!JForumExecutionContext.getForumContext().isBot()) {
-				if (us.getUserId() != SystemGlobals.getIntValue(ConfigKeys.ANONYMOUS_USER_ID)) {
-					changeUserCount(LOGGED_COUNT, true);
+		final SessionRegistry.Kind kind;
 
-					cache.add(FQN_LOGGED, usSessId, us);
-
-					final String userIdStr = String.valueOf(us.getUserId()); 
-
-					Set<String> sessIds = (Set<String>)cache.get(FQN_USER_ID, userIdStr);
-					if (sessIds == null) {
-					    sessIds = new HashSet<>();
-					}
-
-					if (!sessIds.contains(usSessId)) {
-					    sessIds.add(usSessId);
-					}
-
-					cache.add(FQN_USER_ID, userIdStr, sessIds);
-				} else {
-					// TODO: check the anonymous IP constraint
-					changeUserCount(ANONYMOUS_COUNT, true);
-				}
-			}
+		if (JForumExecutionContext.getForumContext().isBot()) {
+			kind = SessionRegistry.Kind.NOT_COUNTED;
 		}
-	}
-
-	private static void changeUserCount(final String cacheEntryName, final boolean increment)
-	{
-		Integer count = (Integer)cache.get(FQN_COUNT, cacheEntryName);
-		
-		if (count == null) {
-			count = Integer.valueOf(0);
+		else if (us.getUserId() != SystemGlobals.getIntValue(ConfigKeys.ANONYMOUS_USER_ID)) {
+			kind = SessionRegistry.Kind.LOGGED;
 		}
-		
-		if (increment) {
-			count = Integer.valueOf(count.intValue() + 1);
+		else {
+			// TODO: check the anonymous IP constraint
+			kind = SessionRegistry.Kind.ANONYMOUS;
 		}
-		else if (count.intValue() > 0) {
-			count = Integer.valueOf(count.intValue() - 1);
-		}
-		
-		cache.add(FQN_COUNT, cacheEntryName, count);
+
+		registry.add(us.getSessionId(), us, kind);
 	}
 	
 	/**
@@ -224,74 +174,24 @@ public class SessionFacade implements Cacheable
 	 */
 
 	public static void remove(String sessionId) {
-		if (cache == null) {
-			LOGGER.warn("Got a null cache instance. #" + sessionId);
-			return;
-		}
-
-		synchronized (FQN) {
-			UserSession us = getUserSession(sessionId);
-
-			if (us != null) {
-				cache.remove(FQN_LOGGED, sessionId);
-				removeSpecificUserSession(us.getUserId(), sessionId);
-
-				if (us.getUserId() != SystemGlobals.getIntValue(ConfigKeys.ANONYMOUS_USER_ID)) {
-					changeUserCount(LOGGED_COUNT, false);
-				}
-				else {
-					changeUserCount(ANONYMOUS_COUNT, false);
-				}
-			}
-
-			cache.remove(FQN, sessionId);
-		}
+		registry.remove(sessionId);
 	}
 	
 	public static void removeUserSessions(int userId) {
-	    final String userIdStr = String.valueOf(userId);
-	    Set<String> sessIds = (Set<String>)cache.get(FQN_USER_ID, userIdStr);
-        if(sessIds != null) {
-            for(final String sessId: sessIds) {
-                remove(sessId);
-            }
-            cache.remove(FQN_USER_ID, userIdStr);
-        }
-	}
-
-	private static void removeSpecificUserSession(int userId, String sessionId) {
-	    final String userIdStr = String.valueOf(userId);
-	    Set<String> sessIds = (Set<String>) cache.get(FQN_USER_ID, userIdStr);
-	    if (sessIds != null) {
-	        // remove if we have a session with the given session ID
-	        if (sessIds.removeIf(s -> s.equals(sessionId))) {
-	            // if removing caused the set to be empty (i.e.- we had only one session per user),
-	            // remove the whole cache entry for this user. Otherwise, add the new session to the cache
-	            if (sessIds.isEmpty()) {
-	                cache.remove(FQN_USER_ID, userIdStr);
-	            } else {
-	                cache.add(FQN_USER_ID, userIdStr, sessIds);
-	            }
-	        }
-	    }
+		for (final String sessId: registry.sessionIdsOf(userId)) {
+			remove(sessId);
+		}
 	}
 
 	/**
 	 * Get all registered sessions
 	 * 
-	 * @return <code>ArrayList</code> with the sessions. Each entry
+	 * @return <code>List</code> with the sessions, taken when called. Each entry
 	 * is a <code>UserSession</code> object.
 	 */
 	public static List<UserSession> getAllSessions()
 	{
-		synchronized (FQN) {
-			Collection<Object> values = cache.getValues(FQN);
-			ArrayList<UserSession> list = new ArrayList<UserSession>();
-			for (Iterator<?> iter = values.iterator(); iter.hasNext(); ) {
-				list.add((UserSession)iter.next());
-			}
-			return list;
-		}
+		return registry.allSessions();
 	}
 	
 	/**
@@ -300,14 +200,7 @@ public class SessionFacade implements Cacheable
 	 */
 	public static List<UserSession> getLoggedSessions()
 	{
-		synchronized (FQN) {
-			Collection<Object> values = cache.getValues(FQN_LOGGED);
-			ArrayList<UserSession> list = new ArrayList<UserSession>();
-			for (Iterator<?> iter = values.iterator(); iter.hasNext(); ) {
-				list.add((UserSession)iter.next());
-			}			
-			return list;
-		}
+		return registry.loggedSessions();
 	}
 	
 	/**
@@ -316,9 +209,7 @@ public class SessionFacade implements Cacheable
 	 */
 	public static int registeredSize()
 	{
-		final Integer count = (Integer)cache.get(FQN_COUNT, LOGGED_COUNT);
-
-		return (count == null ? 0 : count.intValue());
+		return registry.loggedCount();
 	}
 	
 	/**
@@ -327,20 +218,12 @@ public class SessionFacade implements Cacheable
 	 */
 	public static int anonymousSize()
 	{
-		final Integer count = (Integer)cache.get(FQN_COUNT, ANONYMOUS_COUNT);
-
-		return (count == null ? 0 : count.intValue());
+		return registry.anonymousCount();
 	}
 	
 	public static void clear()
 	{
-		synchronized (FQN) {
-			cache.add(FQN, new ConcurrentHashMap<String, UserSession>());
-			cache.add(FQN_COUNT, LOGGED_COUNT, Integer.valueOf(0));
-			cache.add(FQN_COUNT, ANONYMOUS_COUNT, Integer.valueOf(0));
-			cache.remove(FQN_LOGGED);
-			cache.remove(FQN_USER_ID);
-		}
+		registry.clear();
 	}
 	
 	/**
@@ -361,13 +244,7 @@ public class SessionFacade implements Cacheable
 	 */
 	public static UserSession getUserSession(final String sessionId)
 	{
-		UserSession userSession = null;
-		if (cache == null) {
-			LOGGER.warn("Got a null cache in getUserSession. #" + sessionId);			
-		} else {
-			userSession = (UserSession)cache.get(FQN, sessionId);
-		}
-		return userSession;
+		return registry.get(sessionId);
 	}
 
 	/**
@@ -388,8 +265,7 @@ public class SessionFacade implements Cacheable
 	 *         already registered into at least one session, or an empty set if it is not.
 	 */
 	public static Set<String> findSessionIdsOfUser(int userId) {
-		Set<String> val = (Set<String>) cache.get(FQN_USER_ID, Integer.toString(userId));
-		return val != null ? val : Collections.emptySet();
+		return registry.sessionIdsOf(userId);
 	}
 
 	/**
@@ -420,33 +296,6 @@ public class SessionFacade implements Cacheable
 		SessionFacade.removeAttribute(ConfigKeys.LAST_POST_TIME);
 	}
 	
-	/**
-	 * Returns a map containing information about read time of a set of topics.
-	 * @return a map where the key is the topicId represented as an Integer, and the
-	 * value is a Long representing the read time of such topic. 
-	 */
-	public static Map<Integer, Long> getTopicsReadTime()
-	{
-		Map<Integer, Long> tracking = (Map<Integer, Long>)getAttribute(ConfigKeys.TOPICS_READ_TIME);
-		
-		if (tracking == null) {
-			tracking = new ConcurrentHashMap<Integer, Long>();
-			setAttribute(ConfigKeys.TOPICS_READ_TIME, tracking);
-		}
-		
-		return tracking;
-	}
-	
-	/**
-	 * Returns a map with "all topics read" flags for some forum 
-	 * @return a map where the key is the forum id represented as an Integer, 
-	 * and the value is a Long representing the read time to be used in the verifications.
-	 */
-	public static Map<Integer, Long> getTopicsReadTimeByForum()
-	{
-		return (Map<Integer, Long>)getAttribute(ConfigKeys.TOPICS_READ_TIME_BY_FORUM);
-	}
-
 	/**
 	 * Persists user session information.
 	 * 
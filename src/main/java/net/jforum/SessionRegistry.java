@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) JForum Team
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, 
+ * with or without modification, are permitted provided 
+ * that the following conditions are met:
+ * 
+ * 1) Redistributions of source code must retain the above 
+ * copyright notice, this list of conditions and the 
+ * following disclaimer.
+ * 2) Redistributions in binary form must reproduce the 
+ * above copyright notice, this list of conditions and 
+ * the following disclaimer in the documentation and/or 
+ * other materials provided with the distribution.
+ * 3) Neither the name of "Rafael Steil" nor 
+ * the names of its contributors may be used to endorse 
+ * or promote products derived from this software without 
+ * specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT 
+ * HOLDERS AND CONTRIBUTORS "AS IS" AND ANY 
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, 
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF 
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR 
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL 
+ * THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, 
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, 
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER 
+ * IN CONTRACT, STRICT LIABILITY, OR TORT 
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN 
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF 
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE
+ * 
+ * The JForum Project
+ * http://www.jforum.net
+ */
+package net.jforum;
+
+import java.util.List;
+import java.util.Set;
+
+import net.jforum.entities.UserSession;
+
+/**
+ * The sessions known to {@link SessionFacade}.
+ * <p>
+ * {@link LocalSessionRegistry} keeps them in the memory of this node, while
+ * {@link CachedSessionRegistry} keeps them in the cache engine, so that all
+ * the nodes sharing a clustered engine see the same users online.
+ *
+ * @version $Id$
+ */
+interface SessionRegistry
+{
+	/**
+	 * Registers a session, replacing the one with the same id, if any.
+	 *
+	 * @param sessionId the session id
+	 * @param us the session
+	 * @param kind how to count the session
+	 */
+	void add(String sessionId, UserSession us, Kind kind);
+
+	/**
+	 * @return the session removed, or <code>null</code> if there was none with this id
+	 */
+	UserSession remove(String sessionId);
+
+	UserSession get(String sessionId);
+
+	Set<String> sessionIdsOf(int userId);
+
+	List<UserSession> allSessions();
+
+	List<UserSession> loggedSessions();
+
+	int loggedCount();
+
+	int anonymousCount();
+
+	/**
+	 * Removes all the sessions.
+	 */
+	void clear();
+
+	/**
+	 * How a session counts for the users online
+	 */
+	enum Kind
+	{
+		LOGGED, ANONYMOUS, NOT_COUNTED
+	}
+}
@@ -41,7 +41,9 @@
  */
 package net.jforum;
 
+import java.util.Collections;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
 /**
@@ -53,6 +55,8 @@ import java.util.concurrent.ConcurrentHashMap;
 public final class UrlPatternCollection
 {
     private static Map<String, UrlPattern> patternsMap = new ConcurrentHashMap<String, UrlPattern>();
+    private static final Object MUTEX = new Object();
+    private static volatile UrlRouter router;
 
     /**
      * Try to find a <code>UrlPattern</code> by its name.
@@ -73,7 +77,55 @@ public final class UrlPatternCollection
      */
     public static void addPattern(final String name, final String value)
     {
-        UrlPatternCollection.patternsMap.put(name, new UrlPattern(name, value));
+        synchronized (MUTEX) {
+            UrlPatternCollection.patternsMap.put(name, new UrlPattern(name, value));
+            router = null;
+        }
+    }
+
+    /**
+     * Removes a <code>UrlPattern</code>.
+     *
+     * @param name The pattern name
+     */
+    public static void removePattern(final String name)
+    {
+        synchronized (MUTEX) {
+            UrlPatternCollection.patternsMap.remove(name);
+            router = null;
+        }
+    }
+
+    /**
+     * Gets the router of friendly URLs, compiled from the current patterns.
+     * It is compiled again on the first call after a pattern is added or removed.
+     *
+     * @return The router
+     */
+    public static UrlRouter getRouter()
+    {
+        UrlRouter current = router;
+
+        if (current == null) {
+            synchronized (MUTEX) {
+                current = router;
+
+                if (current == null) {
+                    current = UrlRouter.compile(UrlPatternCollection.patternsMap.values());
+                    router = current;
+                }
+            }
+        }
+
+        return current;
+    }
+    
+    /**
+     * @return the names of all patterns, as <i>module.action.numberOfParameters</i>
+     */
+    public static Set<String> getPatternNames()
+    {
+        return Collections.unmodifiableSet(UrlPatternCollection.patternsMap.keySet());
     }
     
     private UrlPatternCollection() {}
@@ -0,0 +1,394 @@
+/*
+ * Copyright (c) JForum Team
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, 
+ * with or without modification, are permitted provided 
+ * that the following conditions are met:
+ * 
+ * 1) Redistributions of source code must retain the above 
+ * copyright notice, this list of conditions and the 
+ * following disclaimer.
+ * 2) Redistributions in binary form must reproduce the 
+ * above copyright notice, this list of conditions and 
+ * the following disclaimer in the documentation and/or 
+ * other materials provided with the distribution.
+ * 3) Neither the name of "Rafael Steil" nor 
+ * the names of its contributors may be used to endorse 
+ * or promote products derived from this software without 
+ * specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT 
+ * HOLDERS AND CONTRIBUTORS "AS IS" AND ANY 
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, 
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF 
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR 
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL 
+ * THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, 
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, 
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER 
+ * IN CONTRACT, STRICT LIABILITY, OR TORT 
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN 
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF 
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE
+ * 
+ * The JForum Project
+ * http://www.jforum.net
+ */
+package net.jforum;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Finds the {@link UrlPattern} of a friendly URL, such as
+ * <i>/posts/list/15/3.page</i>.
+ * <br><br>
+ *
+ * The patterns are compiled into a tree of segments: the module names, then
+ * the action names of each module, and at last the patterns of each action
+ * by their number of parameters. The path is walked once, comparing its
+ * segments in place, so neither the path is split nor a pattern name is built
+ * to find the pattern. Only the parameter values are copied out of the path.
+ * <br><br>
+ *
+ * Segments are counted the same way <code>String.split("/")</code> does:
+ * whatever comes before the first slash is ignored, empty segments in the
+ * middle count and trailing slashes do not.
+ *
+ * @version $Id$
+ */
+public final class UrlRouter
+{
+    private final Node root;
+
+    private UrlRouter(final Node root)
+    {
+        this.root = root;
+    }
+
+    /**
+     * Compiles some patterns into a router.
+     * Patterns whose name is not in the form
+     * <i>moduleName.actionName.numberOfParameters</i> are left out.
+     *
+     * @param patterns The patterns to route to
+     * @return The router
+     */
+    public static UrlRouter compile(final Collection<UrlPattern> patterns)
+    {
+        final Map<String, Map<String, List<UrlPattern>>> modules = new TreeMap<String, Map<String, List<UrlPattern>>>();
+
+        for (final Iterator<UrlPattern> iter = patterns.iterator(); iter.hasNext(); ) {
+            final UrlPattern pattern = iter.next();
+            final String[] parts = pattern.getName().split("\\.");
+
+            if (parts.length != 3 || !isCount(parts[2])) {
+                continue;
+            }
+
+            Map<String, List<UrlPattern>> actions = modules.get(parts[0]);
+
+            if (actions == null) {
+                actions = new TreeMap<String, List<UrlPattern>>();
+                modules.put(parts[0], actions);
+            }
+
+            List<UrlPattern> list = actions.get(parts[1]);
+
+            if (list == null) {
+                list = new ArrayList<UrlPattern>();
+                actions.put(parts[1], list);
+            }
+
+            list.add(pattern);
+        }
+
+        final Node root = new Node(modules.size());
+        int i = 0;
+
+        for (final Iterator<Map.Entry<String, Map<String, List<UrlPattern>>>> iter = modules.entrySet().iterator(); iter.hasNext(); i++) {
+            final Map.Entry<String, Map<String, List<UrlPattern>>> module = iter.next();
+            final Node moduleNode = new Node(module.getValue().size());
+            int j = 0;
+
+            for (final Iterator<Map.Entry<String, List<UrlPattern>>> actions = module.getValue().entrySet().iterator(); actions.hasNext(); j++) {
+                final Map.Entry<String, List<UrlPattern>> action = actions.next();
+                moduleNode.add(j, action.getKey(), Node.leaf(module.getKey(), action.getKey(), action.getValue()));
+            }
+
+            root.add(i, module.getKey(), moduleNode);
+        }
+
+        return new UrlRouter(root);
+    }
+
+    /**
+     * Finds the pattern of some path.
+     *
+     * @param uri The request URI, without the context path
+     * @param end Where the path ends, that is, where the servlet extension starts
+     * @return The route, or <code>null</code> if no pattern matches
+     */
+    public Route route(final String uri, final int end)
+    {
+        int last = end;
+
+        while (last > 0 && uri.charAt(last - 1) == '/') {
+            last--;
+        }
+
+        final int moduleStart = uri.indexOf('/') + 1;
+
+        if (moduleStart == 0 || moduleStart > last) {
+            return null;
+        }
+
+        final int moduleEnd = uri.indexOf('/', moduleStart);
+
+        if (moduleEnd == -1 || moduleEnd >= last) {
+            return null;
+        }
+
+        final Node module = this.root.find(uri, moduleStart, moduleEnd);
+
+        if (module == null) {
+            return null;
+        }
+
+        final int actionStart = moduleEnd + 1;
+        int actionEnd = uri.indexOf('/', actionStart);
+
+        if (actionEnd == -1 || actionEnd > last) {
+            actionEnd = last;
+        }
+
+        final Node action = module.find(uri, actionStart, actionEnd);
+
+        if (action == null) {
+            return null;
+        }
+
+        int count = 0;
+
+        for (int i = actionEnd; i < last; i++) {
+            if (uri.charAt(i) == '/') {
+                count++;
+            }
+        }
+
+        if (count >= action.patterns.length || action.patterns[count] == null) {
+            return null;
+        }
+
+        final String[] vars = action.vars[count];
+        final String[] values = new String[vars.length];
+        int start = actionEnd + 1;
+
+        for (int i = 0; i < values.length; i++) {
+            int stop = uri.indexOf('/', start);
+
+            if (stop == -1 || stop > last) {
+                stop = last;
+            }
+
+            values[i] = uri.substring(start, stop);
+            start = stop + 1;
+        }
+
+        return new Route(action.patterns[count], action.module, action.action, vars, values);
+    }
+
+    private static boolean isCount(final String value)
+    {
+        // as built from the path, so no sign and no leading zeros
+        if (value.length() == 0 || value.length() > 2 || (value.length() > 1 && value.charAt(0) == '0')) {
+            return false;
+        }
+
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+
+            if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * The pattern a path was routed to, with the values of its parameters.
+     */
+    public static final class Route
+    {
+        private final UrlPattern pattern;
+        private final String module;
+        private final String action;
+        private final String[] vars;
+        private final String[] values;
+
+        Route(final UrlPattern pattern, final String module, final String action, final String[] vars, final String[] values)
+        {
+            this.pattern = pattern;
+            this.module = module;
+            this.action = action;
+            this.vars = vars;
+            this.values = values;
+        }
+
+        public UrlPattern getPattern()
+        {
+            return this.pattern;
+        }
+
+        /**
+         * @return The module's name, with anything but letters removed
+         */
+        public String getModule()
+        {
+            return this.module;
+        }
+
+        /**
+         * @return The action's name, with anything but letters removed
+         */
+        public String getAction()
+        {
+            return this.action;
+        }
+
+        /**
+         * @return How many parameters the path has. It is zero when the pattern
+         * does not declare as many variables as the path has values.
+         */
+        public int size()
+        {
+            return this.values.length;
+        }
+
+        public String getName(final int index)
+        {
+            return this.vars[index];
+        }
+
+        public String getValue(final int index)
+        {
+            return this.values[index];
+        }
+    }
+
+    /**
+     * A segment of the tree. The names of the children are sorted,
+     * so a segment of the path is found by a binary search.
+     */
+    private static final class Node
+    {
+        private static final String[] NO_VARS = new String[0];
+
+        final String[] names;
+        final Node[] children;
+
+        // only for actions
+        String module;
+        String action;
+        UrlPattern[] patterns;
+        String[][] vars;
+
+        Node(final int size)
+        {
+            this.names = new String[size];
+            this.children = new Node[size];
+        }
+
+        static Node leaf(final String module, final String action, final List<UrlPattern> patterns)
+        {
+            int max = 0;
+
+            for (final Iterator<UrlPattern> iter = patterns.iterator(); iter.hasNext(); ) {
+                max = Math.max(max, count(iter.next()));
+            }
+
+            final Node node = new Node(0);
+            node.module = module.replaceAll("[^\\p{Alpha}]", "");
+            node.action = action.replaceAll("[^\\p{Alpha}]", "");
+            node.patterns = new UrlPattern[max + 1];
+            node.vars = new String[max + 1][];
+
+            for (final Iterator<UrlPattern> iter = patterns.iterator(); iter.hasNext(); ) {
+                final UrlPattern pattern = iter.next();
+                final int count = count(pattern);
+
+                node.patterns[count] = pattern;
+                // the values are only taken when the pattern names all of them
+                node.vars[count] = pattern.getSize() == count ? Arrays.copyOf(pattern.getVars(), count) : NO_VARS;
+            }
+
+            return node;
+        }
+
+        private static int count(final UrlPattern pattern)
+        {
+            final String name = pattern.getName();
+            return Integer.parseInt(name.substring(name.lastIndexOf('.') + 1));
+        }
+
+        void add(final int index, final String name, final Node child)
+        {
+            this.names[index] = name;
+            this.children[index] = child;
+        }
+
+        Node find(final String uri, final int start, final int end)
+        {
+            int low = 0;
+            int high = this.names.length - 1;
+
+            while (low <= high) {
+                final int middle = (low + high) >>> 1;
+                final int comparison = compare(this.names[middle], uri, start, end);
+
+                if (comparison < 0) {
+                    low = middle + 1;
+                }
+                else if (comparison > 0) {
+                    high = middle - 1;
+                }
+                else {
+                    return this.children[middle];
+                }
+            }
+
+            return null;
+        }
+
+        /**
+         * Compares a name with a region of the path, the way <code>String.compareTo</code> does
+         */
+        private static int compare(final String name, final String uri, final int start, final int end)
+        {
+            final int length = end - start;
+            final int common = Math.min(name.length(), length);
+
+            for (int i = 0; i < common; i++) {
+                final char a = name.charAt(i);
+                final char b = uri.charAt(start + i);
+
+                if (a != b) {
+                    return a - b;
+                }
+            }
+
+            return name.length() - length;
+        }
+    }
+}
@@ -44,7 +44,6 @@ package net.jforum.api.integration.mail.pop;
 
 import java.util.Date;
 import java.util.Iterator;
-import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.log4j.Level;
 import org.apache.log4j.Logger;
@@ -84,8 +83,6 @@ public class POPPostAction
 
 			JForumExecutionContext.set(executionContext);
 
-			SessionFacade.setAttribute(ConfigKeys.TOPICS_READ_TIME, new ConcurrentHashMap<Integer, Long>());
-
 			for (final Iterator<POPMessage> iter = parser.getMessages().iterator(); iter.hasNext(); ) {
 				final POPMessage message = (POPMessage)iter.next();
 				final String sessionId = currentTimestamp + message.getSender() + counter++;
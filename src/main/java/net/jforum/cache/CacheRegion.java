@@ -0,0 +1,628 @@
+/*
+ * Copyright (c) JForum Team
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, 
+ * with or without modification, are permitted provided 
+ * that the following conditions are met:
+ * 
+ * 1) Redistributions of source code must retain the above 
+ * copyright notice, this list of conditions and the 
+ * following disclaimer.
+ * 2) Redistributions in binary form must reproduce the 
+ * above copyright notice, this list of conditions and 
+ * the following disclaimer in the documentation and/or 
+ * other materials provided with the distribution.
+ * 3) Neither the name of "Rafael Steil" nor 
+ * the names of its contributors may be used to endorse 
+ * or promote products derived from this software without 
+ * specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT 
+ * HOLDERS AND CONTRIBUTORS "AS IS" AND ANY 
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, 
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF 
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR 
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL 
+ * THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, 
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, 
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER 
+ * IN CONTRACT, STRICT LIABILITY, OR TORT 
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN 
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF 
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE
+ * 
+ * The JForum Project
+ * http://www.jforum.net
+ */
+package net.jforum.cache;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * One FQN of {@link ConcurrentCacheEngine}.
+ * <p>
+ * Entries are spread over a fixed number of segments. Each segment keeps its
+ * entries in a <code>ConcurrentHashMap</code>, so reads never block. When the
+ * region is bounded, reads are recorded in a small lossy buffer which is
+ * replayed into the eviction policy by whichever thread gets the segment
+ * lock next, instead of reordering a shared list on every hit.
+ */
+final class CacheRegion
+{
+	private static final int READ_BUFFER_SIZE = 16;
+	private static final int READ_BUFFER_MASK = READ_BUFFER_SIZE - 1;
+	private static final int MIN_SEGMENT_CAPACITY = 64;
+	private static final long MIN_SWEEP_INTERVAL = 1000;
+
+	private final String name;
+	private final CacheRegionSettings settings;
+	private final Segment[] segments;
+	private final int segmentMask;
+	private final int segmentShift;
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+	private final LongAdder expirations = new LongAdder();
+
+	CacheRegion(final String name, final CacheRegionSettings settings)
+	{
+		this.name = name;
+		this.settings = settings;
+
+		int count = settings.getSegments();
+		while (settings.isBounded() && count > 1 && settings.getCapacity() / count < MIN_SEGMENT_CAPACITY) {
+			count >>= 1;
+		}
+
+		final long segmentCapacity = settings.isBounded() ? (settings.getCapacity() + count - 1) / count : 0;
+
+		this.segments = new Segment[count];
+		this.segmentMask = count - 1;
+		this.segmentShift = 32 - Integer.numberOfTrailingZeros(count);
+
+		for (int i = 0; i < count; i++) {
+			this.segments[i] = new Segment(segmentCapacity);
+		}
+	}
+
+	String getName()
+	{
+		return this.name;
+	}
+
+	Object get(final String key)
+	{
+		return this.segmentFor(key).get(key);
+	}
+
+	void put(final String key, final Object value)
+	{
+		if (value == null) {
+			this.remove(key);
+		}
+		else {
+			this.segmentFor(key).put(key, value);
+		}
+	}
+
+	void remove(final String key)
+	{
+		this.segmentFor(key).remove(key);
+	}
+
+	/**
+	 * Replaces all entries of the region
+	 *
+	 * @param entries the new contents
+	 */
+	void replaceAll(final Map<?, ?> entries)
+	{
+		this.clear();
+
+		for (final Map.Entry<?, ?> entry : entries.entrySet()) {
+			this.put(String.valueOf(entry.getKey()), entry.getValue());
+		}
+	}
+
+	void clear()
+	{
+		for (final Segment segment : this.segments) {
+			segment.clear();
+		}
+	}
+
+	/**
+	 * @return a snapshot of the live entries
+	 */
+	Map<String, Object> asMap()
+	{
+		final Map<String, Object> map = new LinkedHashMap<String, Object>();
+		final long now = this.now();
+
+		for (final Segment segment : this.segments) {
+			for (final Node node : segment.data.values()) {
+				if (!node.isExpired(now)) {
+					map.put(node.key, node.value);
+				}
+			}
+		}
+
+		return map;
+	}
+
+	/**
+	 * @return a snapshot of the live values
+	 */
+	Collection<Object> values()
+	{
+		final List<Object> values = new ArrayList<Object>();
+		final long now = this.now();
+
+		for (final Segment segment : this.segments) {
+			for (final Node node : segment.data.values()) {
+				if (!node.isExpired(now)) {
+					values.add(node.value);
+				}
+			}
+		}
+
+		return values;
+	}
+
+	CacheStatistics getStatistics()
+	{
+		long size = 0;
+		long weightedSize = 0;
+
+		for (final Segment segment : this.segments) {
+			size += segment.data.size();
+			weightedSize += this.settings.isBounded() ? segment.weightedSize : segment.data.size();
+		}
+
+		return new CacheStatistics(this.name, this.settings.getPolicy(), size, weightedSize, this.settings.getCapacity(),
+			this.hits.sum(), this.misses.sum(), this.evictions.sum(), this.expirations.sum());
+	}
+
+	private long now()
+	{
+		return this.settings.getTtl() > 0 ? System.currentTimeMillis() : 0;
+	}
+
+	private Segment segmentFor(final String key)
+	{
+		// Use the high bits, the low ones pick the bucket inside the segment map
+		final int h = key.hashCode() * 0x9e3779b9;
+		return this.segments[(h >>> this.segmentShift) & this.segmentMask];
+	}
+
+	private static final class Node
+	{
+		final String key;
+		final Object value;
+		final int weight;
+		final long expiresAt;
+
+		// Guarded by the segment lock
+		Node prev;
+		Node next;
+		AccessQueue queue;
+
+		Node(final String key, final Object value, final int weight, final long expiresAt)
+		{
+			this.key = key;
+			this.value = value;
+			this.weight = weight;
+			this.expiresAt = expiresAt;
+		}
+
+		boolean isExpired(final long now)
+		{
+			return this.expiresAt <= now;
+		}
+	}
+
+	/**
+	 * Intrusive doubly linked list, least recently used entry first
+	 */
+	private static final class AccessQueue
+	{
+		Node head;
+		Node tail;
+		long weight;
+
+		void addLast(final Node node)
+		{
+			node.prev = this.tail;
+			node.next = null;
+			node.queue = this;
+
+			if (this.tail == null) {
+				this.head = node;
+			}
+			else {
+				this.tail.next = node;
+			}
+
+			this.tail = node;
+			this.weight += node.weight;
+		}
+
+		void remove(final Node node)
+		{
+			if (node.prev == null) {
+				this.head = node.next;
+			}
+			else {
+				node.prev.next = node.next;
+			}
+
+			if (node.next == null) {
+				this.tail = node.prev;
+			}
+			else {
+				node.next.prev = node.prev;
+			}
+
+			node.prev = null;
+			node.next = null;
+			node.queue = null;
+			this.weight -= node.weight;
+		}
+
+		void moveToLast(final Node node)
+		{
+			if (node != this.tail) {
+				this.remove(node);
+				this.addLast(node);
+			}
+		}
+
+		void clear()
+		{
+			Node node = this.head;
+
+			while (node != null) {
+				final Node next = node.next;
+				node.prev = null;
+				node.next = null;
+				node.queue = null;
+				node = next;
+			}
+
+			this.head = null;
+			this.tail = null;
+			this.weight = 0;
+		}
+	}
+
+	private final class Segment
+	{
+		final ConcurrentHashMap<String, Node> data = new ConcurrentHashMap<String, Node>();
+		final ReentrantLock lock = new ReentrantLock();
+
+		private final boolean bounded;
+		private final long maximum;
+		private final long ttl;
+		private final CacheWeigher weigher;
+
+		// Eviction policy state, guarded by lock
+		private final AccessQueue window = new AccessQueue();
+		private final AccessQueue probation = new AccessQueue();
+		private final AccessQueue protectedQueue = new AccessQueue();
+		private final long windowMaximum;
+		private final long protectedMaximum;
+		private final FrequencySketch sketch;
+
+		private final AtomicReferenceArray<Node> readBuffer;
+		private final AtomicInteger readCounter = new AtomicInteger();
+
+		volatile long weightedSize;
+		private volatile long nextSweep;
+
+		Segment(final long maximum)
+		{
+			final CacheRegionSettings s = CacheRegion.this.settings;
+
+			this.bounded = maximum > 0;
+			this.maximum = maximum;
+			this.ttl = s.getTtl();
+			this.weigher = s.getWeigher();
+			this.windowMaximum = Math.max(1, maximum / 100);
+			this.protectedMaximum = (maximum - this.windowMaximum) * 8 / 10;
+			this.sketch = this.bounded && s.getPolicy() == EvictionPolicy.TINYLFU
+				? new FrequencySketch(this.weigher == null ? maximum : MIN_SEGMENT_CAPACITY)
+				: null;
+			this.readBuffer = this.bounded ? new AtomicReferenceArray<Node>(READ_BUFFER_SIZE) : null;
+		}
+
+		Object get(final String key)
+		{
+			final Node node = this.data.get(key);
+
+			if (node == null) {
+				CacheRegion.this.misses.increment();
+				return null;
+			}
+
+			if (this.ttl > 0 && node.isExpired(System.currentTimeMillis())) {
+				CacheRegion.this.misses.increment();
+				this.lock.lock();
+				try {
+					this.expire(node);
+				}
+				finally {
+					this.lock.unlock();
+				}
+				return null;
+			}
+
+			CacheRegion.this.hits.increment();
+			this.afterRead(node);
+
+			return node.value;
+		}
+
+		void put(final String key, final Object value)
+		{
+			final long now = this.ttl > 0 ? System.currentTimeMillis() : 0;
+			final Node node = new Node(key, value, this.weigh(key, value),
+				this.ttl > 0 ? now + this.ttl : Long.MAX_VALUE);
+
+			if (!this.bounded) {
+				this.data.put(key, node);
+				this.sweep(now);
+				return;
+			}
+
+			this.lock.lock();
+			try {
+				this.drainReadBuffer();
+
+				final Node old = this.data.put(key, node);
+				if (old != null && old.queue != null) {
+					this.unlink(old);
+				}
+
+				this.onInsert(node);
+				this.sweep(now);
+			}
+			finally {
+				this.lock.unlock();
+			}
+		}
+
+		void remove(final String key)
+		{
+			if (!this.bounded) {
+				this.data.remove(key);
+				return;
+			}
+
+			this.lock.lock();
+			try {
+				final Node node = this.data.remove(key);
+				if (node != null && node.queue != null) {
+					this.unlink(node);
+				}
+			}
+			finally {
+				this.lock.unlock();
+			}
+		}
+
+		void clear()
+		{
+			this.lock.lock();
+			try {
+				this.data.clear();
+
+				if (this.bounded) {
+					for (int i = 0; i < READ_BUFFER_SIZE; i++) {
+						this.readBuffer.set(i, null);
+					}
+
+					this.window.clear();
+					this.probation.clear();
+					this.protectedQueue.clear();
+					this.weightedSize = 0;
+				}
+			}
+			finally {
+				this.lock.unlock();
+			}
+		}
+
+		private int weigh(final String key, final Object value)
+		{
+			return this.bounded && this.weigher != null ? Math.max(0, this.weigher.weigh(key, value)) : 1;
+		}
+
+		private void afterRead(final Node node)
+		{
+			if (!this.bounded) {
+				return;
+			}
+
+			final int index = this.readCounter.getAndIncrement() & READ_BUFFER_MASK;
+			this.readBuffer.lazySet(index, node);
+
+			if (index == READ_BUFFER_MASK && this.lock.tryLock()) {
+				try {
+					this.drainReadBuffer();
+				}
+				finally {
+					this.lock.unlock();
+				}
+			}
+		}
+
+		private void drainReadBuffer()
+		{
+			for (int i = 0; i < READ_BUFFER_SIZE; i++) {
+				final Node node = this.readBuffer.getAndSet(i, null);
+
+				// Nodes removed in the meantime are no longer linked to any queue
+				if (node != null && node.queue != null) {
+					this.onAccess(node);
+				}
+			}
+		}
+
+		private void onAccess(final Node node)
+		{
+			if (this.sketch == null) {
+				this.probation.moveToLast(node);
+				return;
+			}
+
+			this.sketch.increment(node.key);
+
+			if (node.queue == this.probation) {
+				this.probation.remove(node);
+				this.protectedQueue.addLast(node);
+
+				while (this.protectedQueue.weight > this.protectedMaximum) {
+					final Node demoted = this.protectedQueue.head;
+					this.protectedQueue.remove(demoted);
+					this.probation.addLast(demoted);
+				}
+			}
+			else {
+				node.queue.moveToLast(node);
+			}
+		}
+
+		private void onInsert(final Node node)
+		{
+			this.weightedSize += node.weight;
+
+			if (this.sketch == null) {
+				this.probation.addLast(node);
+				this.evict(null);
+				return;
+			}
+
+			if (this.weigher != null && this.data.size() > this.sketch.capacity()) {
+				this.sketch.ensureCapacity(2L * this.data.size());
+			}
+
+			this.sketch.increment(node.key);
+			this.window.addLast(node);
+
+			// Entries leaving the window become admission candidates
+			Node candidate = null;
+
+			while (this.window.weight > this.windowMaximum && this.window.head != null) {
+				final Node moved = this.window.head;
+				this.window.remove(moved);
+				this.probation.addLast(moved);
+
+				if (candidate == null) {
+					candidate = moved;
+				}
+			}
+
+			this.evict(candidate);
+		}
+
+		private void evict(Node candidate)
+		{
+			while (this.weightedSize > this.maximum) {
+				Node victim = this.probation.head;
+
+				if (victim == null) {
+					victim = this.protectedQueue.head != null ? this.protectedQueue.head : this.window.head;
+				}
+
+				if (victim == null) {
+					break;
+				}
+
+				if (candidate != null && candidate.queue != this.probation) {
+					candidate = null;
+				}
+
+				if (candidate == null || candidate == victim) {
+					if (candidate == victim) {
+						candidate = victim.next;
+					}
+
+					this.evictNode(victim);
+				}
+				else if (this.sketch.frequency(candidate.key) > this.sketch.frequency(victim.key)) {
+					this.evictNode(victim);
+				}
+				else {
+					final Node next = candidate.next;
+					this.evictNode(candidate);
+					candidate = next;
+				}
+			}
+		}
+
+		private void evictNode(final Node node)
+		{
+			this.data.remove(node.key, node);
+			this.unlink(node);
+			CacheRegion.this.evictions.increment();
+		}
+
+		private void unlink(final Node node)
+		{
+			node.queue.remove(node);
+			this.weightedSize -= node.weight;
+		}
+
+		/**
+		 * Must be called while holding the lock
+		 */
+		private void expire(final Node node)
+		{
+			if (this.data.remove(node.key, node)) {
+				CacheRegion.this.expirations.increment();
+
+				if (node.queue != null) {
+					this.unlink(node);
+				}
+			}
+		}
+
+		/**
+		 * Periodically drops expired entries that nobody asked for again
+		 */
+		private void sweep(final long now)
+		{
+			if (this.ttl == 0 || now < this.nextSweep || !this.lock.tryLock()) {
+				return;
+			}
+
+			try {
+				this.nextSweep = now + Math.max(MIN_SWEEP_INTERVAL, this.ttl / 2);
+
+				for (final Node node : this.data.values()) {
+					if (node.isExpired(now)) {
+						this.expire(node);
+					}
+				}
+			}
+			finally {
+				this.lock.unlock();
+			}
+		}
+	}
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright (c) JForum Team
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, 
+ * with or without modification, are permitted provided 
+ * that the following conditions are met:
+ * 
+ * 1) Redistributions of source code must retain the above 
+ * copyright notice, this list of conditions and the 
+ * following disclaimer.
+ * 2) Redistributions in binary form must reproduce the 
+ * above copyright notice, this list of conditions and 
+ * the following disclaimer in the documentation and/or 
+ * other materials provided with the distribution.
+ * 3) Neither the name of "Rafael Steil" nor 
+ * the names of its contributors may be used to endorse 
+ * or promote products derived from this software without 
+ * specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT 
+ * HOLDERS AND CONTRIBUTORS "AS IS" AND ANY 
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, 
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF 
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR 
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL 
+ * THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, 
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, 
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER 
+ * IN CONTRACT, STRICT LIABILITY, OR TORT 
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN 
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF 
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE
+ * 
+ * The JForum Project
+ * http://www.jforum.net
+ */
+package net.jforum.cache;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.log4j.Logger;
+
+import net.jforum.util.preferences.ConfigKeys;
+import net.jforum.util.preferences.SystemGlobals;
+
+/**
+ * Capacity, expiration and eviction settings of one region (FQN) of
+ * {@link ConcurrentCacheEngine}.
+ * <p>
+ * Values are read from <i>cache.concurrent.region.&lt;fqn&gt;.*</i>, falling
+ * back to <i>cache.concurrent.default.*</i>.
+ */
+public final class CacheRegionSettings
+{
+	private static final Logger LOGGER = Logger.getLogger(CacheRegionSettings.class);
+
+	private static final int DEFAULT_SEGMENTS = 16;
+
+	private final long capacity;
+	private final long ttl;
+	private final EvictionPolicy policy;
+	private final CacheWeigher weigher;
+	private final int segments;
+
+	/**
+	 * @param capacity the maximum total weight of the region, or 0 for no bound
+	 * @param ttl milliseconds after the last write an entry expires, or 0 for never
+	 * @param policy the eviction policy used when the region is bounded
+	 * @param weigher the entry weigher, or <code>null</code> to count every entry as 1
+	 * @param segments the number of independently locked segments
+	 */
+	public CacheRegionSettings(final long capacity, final long ttl, final EvictionPolicy policy,
+		final CacheWeigher weigher, final int segments)
+	{
+		this.capacity = Math.max(0, capacity);
+		this.ttl = Math.max(0, ttl);
+		this.policy = policy == null ? EvictionPolicy.TINYLFU : policy;
+		this.weigher = weigher;
+		this.segments = segments < 1 ? 1 : Integer.highestOneBit(segments);
+	}
+
+	/**
+	 * Builds the settings of a region from <code>SystemGlobals</code>.
+	 *
+	 * @param fqn the region name
+	 * @return the region settings
+	 */
+	public static CacheRegionSettings forRegion(final String fqn)
+	{
+		final int segments = (int)longValue(SystemGlobals.getValue(ConfigKeys.CACHE_CONCURRENT_SEGMENTS), DEFAULT_SEGMENTS);
+
+		return new CacheRegionSettings(
+			longValue(regionValue(fqn, "capacity"), 0),
+			longValue(regionValue(fqn, "ttl"), 0),
+			EvictionPolicy.fromName(regionValue(fqn, "policy")),
+			newWeigher(regionValue(fqn, "weigher")),
+			segments);
+	}
+
+	private static String regionValue(final String fqn, final String name)
+	{
+		final String value = SystemGlobals.getValue(ConfigKeys.CACHE_CONCURRENT_REGION + fqn + "." + name);
+
+		return StringUtils.isBlank(value)
+			? SystemGlobals.getValue(ConfigKeys.CACHE_CONCURRENT_DEFAULT + name)
+			: value;
+	}
+
+	private static long longValue(final String value, final long defaultValue)
+	{
+		if (StringUtils.isBlank(value)) {
+			return defaultValue;
+		}
+
+		try {
+			return Long.parseLong(value.trim());
+		}
+		catch (NumberFormatException e) {
+			LOGGER.warn("Invalid cache setting " + value + ", using " + defaultValue);
+			return defaultValue;
+		}
+	}
+
+	private static CacheWeigher newWeigher(final String className)
+	{
+		if (StringUtils.isBlank(className)) {
+			return null;
+		}
+
+		try {
+			return (CacheWeigher)Class.forName(className.trim()).getDeclaredConstructor().newInstance();
+		}
+		catch (Exception e) {
+			LOGGER.error("Cannot create cache weigher " + className + ", entries will weigh 1", e);
+			return null;
+		}
+	}
+
+	public long getCapacity()
+	{
+		return this.capacity;
+	}
+
+	public long getTtl()
+	{
+		return this.ttl;
+	}
+
+	public EvictionPolicy getPolicy()
+	{
+		return this.policy;
+	}
+
+	public CacheWeigher getWeigher()
+	{
+		return this.weigher;
+	}
+
+	public int getSegments()
+	{
+		return this.segments;
+	}
+
+	public boolean isBounded()
+	{
+		return this.capacity > 0;
+	}
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) JForum Team
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, 
+ * with or without modification, are permitted provided 
+ * that the following conditions are met:
+ * 
+ * 1) Redistributions of source code must retain the above 
+ * copyright notice, this list of conditions and the 
+ * following disclaimer.
+ * 2) Redistributions in binary form must reproduce the 
+ * above copyright notice, this list of conditions and 
+ * the following disclaimer in the documentation and/or 
+ * other materials provided with the distribution.
+ * 3) Neither the name of "Rafael Steil" nor 
+ * the names of its contributors may be used to endorse 
+ * or promote products derived from this software without 
+ * specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT 
+ * HOLDERS AND CONTRIBUTORS "AS IS" AND ANY 
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, 
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF 
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR 
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL 
+ * THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, 
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, 
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER 
+ * IN CONTRACT, STRICT LIABILITY, OR TORT 
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN 
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF 
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE
+ * 
+ * The JForum Project
+ * http://www.jforum.net
+ */
+package net.jforum.cache;
+
+/**
+ * Point in time counters of one region of {@link ConcurrentCacheEngine}.
+ */
+public final class CacheStatistics
+{
+	private final String name;
+	private final EvictionPolicy policy;
+	private final long size;
+	private final long weightedSize;
+	private final long capacity;
+	private final long hits;
+	private final long misses;
+	private final long evictions;
+	private final long expirations;
+
+	CacheStatistics(final String name, final EvictionPolicy policy, final long size, final long weightedSize,
+		final long capacity, final long hits, final long misses, final long evictions, final long expirations)
+	{
+		this.name = name;
+		this.policy = policy;
+		this.size = size;
+		this.weightedSize = weightedSize;
+		this.capacity = capacity;
+		this.hits = hits;
+		this.misses = misses;
+		this.evictions = evictions;
+		this.expirations = expirations;
+	}
+
+	public String getName()
+	{
+		return this.name;
+	}
+
+	public EvictionPolicy getPolicy()
+	{
+		return this.policy;
+	}
+
+	public long getSize()
+	{
+		return this.size;
+	}
+
+	public long getWeightedSize()
+	{
+		return this.weightedSize;
+	}
+
+	/**
+	 * @return the maximum weighted size, or 0 if the region is not bounded
+	 */
+	public long getCapacity()
+	{
+		return this.capacity;
+	}
+
+	public long getHits()
+	{
+		return this.hits;
+	}
+
+	public long getMisses()
+	{
+		return this.misses;
+	}
+
+	public long getEvictions()
+	{
+		return this.evictions;
+	}
+
+	public long getExpirations()
+	{
+		return this.expirations;
+	}
+
+	public double getHitRate()
+	{
+		final long requests = this.hits + this.misses;
+		return requests == 0 ? 1.0 : (double)this.hits / requests;
+	}
+
+	@Override public String toString()
+	{
+		return String.format("size=%d, weight=%d/%s, hits=%d, misses=%d, hitRate=%.1f%%, evictions=%d, expirations=%d",
+			this.size, this.weightedSize, this.capacity > 0 ? Long.toString(this.capacity) : "unbounded",
+			this.hits, this.misses, this.getHitRate() * 100, this.evictions, this.expirations);
+	}
+}
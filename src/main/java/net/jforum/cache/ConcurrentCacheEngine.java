@@ -0,0 +1,235 @@
+/*
+ * Copyright (c) JForum Team
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, 
+ * with or without modification, are permitted provided 
+ * that the following conditions are met:
+ * 
+ * 1) Redistributions of source code must retain the above 
+ * copyright notice, this list of conditions and the 
+ * following disclaimer.
+ * 2) Redistributions in binary form must reproduce the 
+ * above copyright notice, this list of conditions and 
+ * the following disclaimer in the documentation and/or 
+ * other materials provided with the distribution.
+ * 3) Neither the name of "Rafael Steil" nor 
+ * the names of its contributors may be used to endorse 
+ * or promote products derived from this software without 
+ * specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT 
+ * HOLDERS AND CONTRIBUTORS "AS IS" AND ANY 
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, 
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF 
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR 
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL 
+ * THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, 
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, 
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER 
+ * IN CONTRACT, STRICT LIABILITY, OR TORT 
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN 
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF 
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE
+ * 
+ * The JForum Project
+ * http://www.jforum.net
+ */
+package net.jforum.cache;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.log4j.Logger;
+
+import net.jforum.util.stats.Stats;
+
+/**
+ * In-process cache engine safe for concurrent use, where every FQN is an
+ * independently bounded region with its own capacity, time to live, eviction
+ * policy and entry weigher, as configured by {@link CacheRegionSettings}.
+ * <p>
+ * It keeps the semantics of {@link DefaultCacheEngine}: {@link #get(String)}
+ * returns the entries of a FQN as a map, and adding a map with
+ * {@link #add(String, Object)} replaces the contents of that FQN. Maps returned
+ * by this engine are snapshots, so changes to them are only seen after they
+ * are added back.
+ * <p>
+ * Select it by setting <i>cache.engine.implementation</i> to
+ * <i>${cache.engine.concurrent}</i>.
+ */
+public class ConcurrentCacheEngine implements CacheEngine
+{
+	private static final Logger LOGGER = Logger.getLogger(ConcurrentCacheEngine.class);
+	private static final String GAUGE_PREFIX = "Cache region ";
+
+	private transient ConcurrentMap<String, CacheRegion> regions;
+	private transient ConcurrentMap<String, Object> root;
+
+	/**
+	 * @see net.jforum.cache.CacheEngine#init()
+	 */
+	@Override public void init()
+	{
+		this.regions = new ConcurrentHashMap<String, CacheRegion>();
+		this.root = new ConcurrentHashMap<String, Object>();
+	}
+
+	/**
+	 * @see net.jforum.cache.CacheEngine#stop()
+	 */
+	@Override public void stop()
+	{
+		for (final CacheRegion region : this.regions.values()) {
+			Stats.unregisterGauge(GAUGE_PREFIX + region.getName());
+			region.clear();
+		}
+
+		this.regions.clear();
+		this.root.clear();
+	}
+
+	/**
+	 * @see net.jforum.cache.CacheEngine#add(java.lang.String, java.lang.Object)
+	 */
+	@Override public void add(final String key, final Object value)
+	{
+		if (value instanceof Map<?, ?>) {
+			this.root.remove(key);
+			this.region(key).replaceAll((Map<?, ?>)value);
+		}
+		else if (value == null) {
+			this.root.remove(key);
+		}
+		else {
+			this.root.put(key, value);
+		}
+	}
+
+	/**
+	 * @see net.jforum.cache.CacheEngine#add(java.lang.String, java.lang.String, java.lang.Object)
+	 */
+	@Override public void add(final String fqn, final String key, final Object value)
+	{
+		this.region(fqn).put(key, value);
+	}
+
+	/**
+	 * @see net.jforum.cache.CacheEngine#get(java.lang.String, java.lang.String)
+	 */
+	@Override public Object get(final String fqn, final String key)
+	{
+		final CacheRegion region = this.regions.get(fqn);
+
+		return region == null ? null : region.get(key);
+	}
+
+	/**
+	 * @see net.jforum.cache.CacheEngine#get(java.lang.String)
+	 */
+	@Override public Object get(final String fqn)
+	{
+		final CacheRegion region = this.regions.get(fqn);
+
+		return region == null ? this.root.get(fqn) : region.asMap();
+	}
+
+	/**
+	 * @see net.jforum.cache.CacheEngine#getValues(java.lang.String)
+	 */
+	@Override public Collection<Object> getValues(final String fqn)
+	{
+		final CacheRegion region = this.regions.get(fqn);
+
+		return region == null ? new ArrayList<Object>() : region.values();
+	}
+
+	/**
+	 * @see net.jforum.cache.CacheEngine#remove(java.lang.String, java.lang.String)
+	 */
+	@Override public void remove(final String fqn, final String key)
+	{
+		final CacheRegion region = this.regions.get(fqn);
+
+		if (region != null) {
+			region.remove(key);
+		}
+	}
+
+	/**
+	 * Removes all entries of the FQN. The region itself, and its counters, are kept.
+	 *
+	 * @see net.jforum.cache.CacheEngine#remove(java.lang.String)
+	 */
+	@Override public void remove(final String fqn)
+	{
+		final CacheRegion region = this.regions.get(fqn);
+
+		if (region != null) {
+			region.clear();
+		}
+
+		this.root.remove(fqn);
+	}
+
+	/**
+	 * @return the counters of every region, sorted by FQN
+	 */
+	public Map<String, CacheStatistics> getStatistics()
+	{
+		final Map<String, CacheStatistics> statistics = new TreeMap<String, CacheStatistics>();
+
+		for (final CacheRegion region : this.regions.values()) {
+			statistics.put(region.getName(), region.getStatistics());
+		}
+
+		return statistics;
+	}
+
+	/**
+	 * Settings of a new region. Subclasses may override it to take the settings from elsewhere.
+	 *
+	 * @param fqn the region name
+	 * @return the settings to use
+	 */
+	protected CacheRegionSettings settingsFor(final String fqn)
+	{
+		return CacheRegionSettings.forRegion(fqn);
+	}
+
+	private CacheRegion region(final String fqn)
+	{
+		CacheRegion region = this.regions.get(fqn);
+
+		if (region == null) {
+			final CacheRegionSettings settings = this.settingsFor(fqn);
+			final CacheRegion created = new CacheRegion(fqn, settings);
+			region = this.regions.putIfAbsent(fqn, created);
+
+			if (region == null) {
+				region = created;
+
+				if (LOGGER.isDebugEnabled()) {
+					LOGGER.debug("Created cache region " + fqn + " (capacity=" + settings.getCapacity()
+						+ ", ttl=" + settings.getTtl() + ", policy=" + settings.getPolicy() + ")");
+				}
+
+				Stats.registerGauge(GAUGE_PREFIX + fqn, new Stats.Gauge() {
+					@Override public Object getValue() {
+						return created.getStatistics();
+					}
+				});
+			}
+		}
+
+		return region;
+	}
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright (c) JForum Team
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, 
+ * with or without modification, are permitted provided 
+ * that the following conditions are met:
+ * 
+ * 1) Redistributions of source code must retain the above 
+ * copyright notice, this list of conditions and the 
+ * following disclaimer.
+ * 2) Redistributions in binary form must reproduce the 
+ * above copyright notice, this list of conditions and 
+ * the following disclaimer in the documentation and/or 
+ * other materials provided with the distribution.
+ * 3) Neither the name of "Rafael Steil" nor 
+ * the names of its contributors may be used to endorse 
+ * or promote products derived from this software without 
+ * specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT 
+ * HOLDERS AND CONTRIBUTORS "AS IS" AND ANY 
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, 
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF 
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR 
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL 
+ * THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, 
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, 
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER 
+ * IN CONTRACT, STRICT LIABILITY, OR TORT 
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN 
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF 
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE
+ * 
+ * The JForum Project
+ * http://www.jforum.net
+ */
+package net.jforum.cache;
+
+/**
+ * A probabilistic frequency counter used by the TinyLFU admission policy of
+ * {@link CacheRegion}. It is a count-min sketch with four 4-bit counters per
+ * key, periodically halved so old popularity fades away.
+ * <p>
+ * Instances are not thread safe, and are always accessed while holding the
+ * eviction lock of the owning segment.
+ */
+final class FrequencySketch
+{
+	private static final long[] SEED = { 0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L };
+	private static final long RESET_MASK = 0x7777777777777777L;
+	private static final long ONE_MASK = 0x1111111111111111L;
+
+	private long[] table;
+	private int tableMask;
+	private int sampleSize;
+	private int size;
+
+	FrequencySketch(final long expectedEntries)
+	{
+		this.ensureCapacity(expectedEntries);
+	}
+
+	/**
+	 * Grows the sketch so it can track about <code>expectedEntries</code> keys.
+	 * Growing discards the frequencies collected so far.
+	 *
+	 * @param expectedEntries the number of distinct keys expected
+	 */
+	void ensureCapacity(final long expectedEntries)
+	{
+		final int maximum = (int)Math.max(16, Math.min(expectedEntries, 1 << 24));
+		if (this.table != null && this.table.length >= maximum) {
+			return;
+		}
+
+		this.table = new long[Integer.highestOneBit(maximum - 1) << 1];
+		this.tableMask = this.table.length - 1;
+		this.sampleSize = 10 * maximum;
+		this.size = 0;
+	}
+
+	int capacity()
+	{
+		return this.table.length;
+	}
+
+	/**
+	 * @param key the key to look for
+	 * @return the estimated number of occurrences of the key, up to 15
+	 */
+	int frequency(final Object key)
+	{
+		final int hash = spread(key.hashCode());
+		final int start = (hash & 3) << 2;
+		int frequency = Integer.MAX_VALUE;
+
+		for (int i = 0; i < 4; i++) {
+			final int index = this.indexOf(hash, i);
+			final int count = (int)((this.table[index] >>> ((start + i) << 2)) & 0xfL);
+			frequency = Math.min(frequency, count);
+		}
+
+		return frequency;
+	}
+
+	/**
+	 * Records one more occurrence of the key.
+	 *
+	 * @param key the key that was accessed
+	 */
+	void increment(final Object key)
+	{
+		final int hash = spread(key.hashCode());
+		final int start = (hash & 3) << 2;
+		boolean added = false;
+
+		for (int i = 0; i < 4; i++) {
+			added |= this.incrementAt(this.indexOf(hash, i), start + i);
+		}
+
+		if (added && ++this.size >= this.sampleSize) {
+			this.reset();
+		}
+	}
+
+	private boolean incrementAt(final int index, final int counter)
+	{
+		final int offset = counter << 2;
+		final long mask = 0xfL << offset;
+
+		if ((this.table[index] & mask) != mask) {
+			this.table[index] += 1L << offset;
+			return true;
+		}
+
+		return false;
+	}
+
+	/**
+	 * Halves every counter, so the sketch keeps following recent popularity
+	 */
+	private void reset()
+	{
+		int odd = 0;
+
+		for (int i = 0; i < this.table.length; i++) {
+			odd += Long.bitCount(this.table[i] & ONE_MASK);
+			this.table[i] = (this.table[i] >>> 1) & RESET_MASK;
+		}
+
+		this.size = (this.size >>> 1) - (odd >>> 2);
+	}
+
+	private int indexOf(final int hash, final int row)
+	{
+		long h = (hash + SEED[row]) * SEED[row];
+		h += h >>> 32;
+		return (int)h & this.tableMask;
+	}
+
+	private static int spread(final int value)
+	{
+		int x = ((value >>> 16) ^ value) * 0x45d9f3b;
+		x = ((x >>> 16) ^ x) * 0x45d9f3b;
+		return (x >>> 16) ^ x;
+	}
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) JForum Team
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, 
+ * with or without modification, are permitted provided 
+ * that the following conditions are met:
+ * 
+ * 1) Redistributions of source code must retain the above 
+ * copyright notice, this list of conditions and the 
+ * following disclaimer.
+ * 2) Redistributions in binary form must reproduce the 
+ * above copyright notice, this list of conditions and 
+ * the following disclaimer in the documentation and/or 
+ * other materials provided with the distribution.
+ * 3) Neither the name of "Rafael Steil" nor 
+ * the names of its contributors may be used to endorse 
+ * or promote products derived from this software without 
+ * specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT 
+ * HOLDERS AND CONTRIBUTORS "AS IS" AND ANY 
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, 
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF 
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR 
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL 
+ * THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, 
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, 
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER 
+ * IN CONTRACT, STRICT LIABILITY, OR TORT 
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN 
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF 
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE
+ * 
+ * The JForum Project
+ * http://www.jforum.net
+ */
+package net.jforum.cache;
+
+import java.util.Collection;
+
+import net.jforum.entities.Post;
+
+/**
+ * Weighs cached posts by the size of their text, so the <i>posts</i> region
+ * is bounded by an approximated memory footprint instead of a topic count.
+ * Values may be a single {@link Post} or a collection of them, as stored by
+ * {@link net.jforum.repository.PostRepository}.
+ */
+public class PostTextWeigher implements CacheWeigher
+{
+	/** Rough size of a post instance without its text */
+	private static final int POST_OVERHEAD = 512;
+
+	@Override public int weigh(final String key, final Object value)
+	{
+		long weight = 0;
+
+		if (value instanceof Collection<?>) {
+			for (final Object item : (Collection<?>)value) {
+				weight += weighItem(item);
+			}
+		}
+		else {
+			weight = weighItem(value);
+		}
+
+		return (int)Math.min(weight, Integer.MAX_VALUE);
+	}
+
+	private static long weighItem(final Object item)
+	{
+		if (item instanceof Post) {
+			final Post post = (Post)item;
+			final String text = post.getText();
+			final String subject = post.getSubject();
+
+			return POST_OVERHEAD
+				+ 2L * (text == null ? 0 : text.length())
+				+ 2L * (subject == null ? 0 : subject.length());
+		}
+
+		if (item instanceof CharSequence) {
+			return 2L * ((CharSequence)item).length();
+		}
+
+		return item == null ? 0 : POST_OVERHEAD;
+	}
+}
@@ -62,6 +62,23 @@ public interface ResponseContext
 	 */
 	void setContentLength(int len);
 
+	/**
+	 * Sets the length of the content body in the response, for content that
+	 * may be bigger than 2GB.
+	 * 
+	 * @param len a long specifying the length of the content being returned to the client;
+	 * sets the Content-Length header
+	 */
+	void setContentLengthLong(long len);
+
+	/**
+	 * Sets the status code for this response, for non-error responses
+	 * such as 206 (Partial Content) or 304 (Not Modified).
+	 * 
+	 * @param statusCode the status code
+	 */
+	void setStatus(int statusCode);
+
 	/**
 	 * Returns a boolean indicating whether the named response header has already been set.
 	 * 
@@ -45,14 +45,17 @@ package net.jforum.context.web;
 import java.io.File;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
-import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.StringTokenizer;
 
+import javax.servlet.ServletRequest;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletRequestWrapper;
 
@@ -64,8 +67,8 @@ import org.apache.commons.fileupload.servlet.ServletRequestContext;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.log4j.Logger;
 
-import net.jforum.UrlPattern;
 import net.jforum.UrlPatternCollection;
+import net.jforum.UrlRouter;
 import net.jforum.context.RequestContext;
 import net.jforum.context.SessionContext;
 import net.jforum.exceptions.MultipartHandlingException;
@@ -86,6 +89,13 @@ public class WebRequestContext extends HttpServletRequestWrapper implements Requ
 	
 	private transient final Map<String, Object> query;
 
+	// names of the container's parameters already copied to the query,
+	// null when they are not used, as in multipart requests
+	private transient Set<String> decoded;
+	private transient Charset containerCharset;
+	private transient Charset charset;
+	private transient boolean recodeSingleValues;
+
 	// a mobile URL was requested
 	private boolean mobileRequest = false;
 
@@ -144,36 +154,17 @@ public class WebRequestContext extends HttpServletRequestWrapper implements Requ
 				superRequest.setCharacterEncoding(encoding);
 			}
 			
-			String containerEncoding = SystemGlobals.getValue(ConfigKeys.DEFAULT_CONTAINER_ENCODING);
-			
-			if (isPost) { 
-				containerEncoding = encoding;
-			}
-			for (final Enumeration<String> enumeration = superRequest.getParameterNames(); enumeration.hasMoreElements(); ) {
-				final String name = (String)enumeration.nextElement();
-				
-				final String[] values = superRequest.getParameterValues(name);
-				
-				if (values != null && values.length > 1) {
-					for (int i = 0; i < values.length; i++) {
-						this.addParameter(name, new String(values[i].getBytes(containerEncoding), encoding));
-					}
-				}
-				else {					
-					final String value = superRequest.getParameter(name);
-					// Don't write password's value to log
-					if (!"password".equals(name)) {
-						LOGGER.debug(name + "=" + value);
-					}
-					final String containerApp = SystemGlobals.getValue("container.app");
-					final int containerVersion = Integer.parseInt(SystemGlobals.getValue("container.version"));
-					if (!"Apache Tomcat".equals(containerApp) || containerVersion == 4 || containerVersion >= 8) {
-						this.addParameter(name, value);
-			        } else {			            
-			            this.addParameter(name, new String(value.getBytes(containerEncoding), encoding));
-			        }
-				}
-			}
+			final String containerEncoding = isPost
+				? encoding
+				: SystemGlobals.getValue(ConfigKeys.DEFAULT_CONTAINER_ENCODING);
+			final String containerApp = SystemGlobals.getValue("container.app");
+			final int containerVersion = Integer.parseInt(SystemGlobals.getValue("container.version"));
+
+			// The parameters of the container are decoded when first read
+			this.containerCharset = Charset.forName(containerEncoding);
+			this.charset = Charset.forName(encoding);
+			this.recodeSingleValues = "Apache Tomcat".equals(containerApp) && containerVersion != 4 && containerVersion < 8;
+			this.decoded = new HashSet<String>();
 			
 			if (this.getModule() == null && this.getAction() == null) {
 				final int index = requestUri.indexOf('?');
@@ -196,41 +187,70 @@ public class WebRequestContext extends HttpServletRequestWrapper implements Requ
 		if (requestUri.length() < servletExtension.length()) {
 			return;
 		}
-		final String uri = requestUri.substring(0, requestUri.length() - servletExtension.length());
-		final String[] urlModel = uri.split("/");
-		
-		final int moduleIndex = 1;
-		final int actionIndex = 2;
-		int baseLen = 3;
-		
-		UrlPattern url = null;
-		
-		if (urlModel.length >= baseLen) {
-			// <moduleName>.<actionName>.<numberOfParameters>
-			StringBuilder stringBuffer = new StringBuilder(64)
-				.append(urlModel[moduleIndex])
-				.append('.')
-				.append(urlModel[actionIndex])
-				.append('.')
-				.append(urlModel.length - baseLen);
-			
-			url = UrlPatternCollection.findPattern(stringBuffer.toString());
+
+		final UrlRouter.Route route = UrlPatternCollection.getRouter()
+			.route(requestUri, requestUri.length() - servletExtension.length());
+
+		if (route == null) {
+			this.putParameter(MODULE, null);
+			this.putParameter(ACTION, null);
 		}
+		else {
+			for (int i = 0; i < route.size(); i++) {
+				this.addParameter(route.getName(i), route.getValue(i));
+			}
 
-		if (url == null) {
-			this.addOrReplaceParameter(MODULE, null);
-			this.addOrReplaceParameter(ACTION, null);				
+			// already stripped of anything but letters
+			this.putParameter(MODULE, route.getModule());
+			this.putParameter(ACTION, route.getAction());
 		}
-		else {			
-			if (url.getSize() >= urlModel.length - baseLen) {
-				for (int i = 0; i < url.getSize(); i++) {
-					this.addParameter(url.getVars()[i], urlModel[i + baseLen]);
-				}
+	}
+
+	/**
+	 * Copies a parameter of the container to this request, the first time it is asked for.
+	 * Values the container read in another encoding are decoded again.
+	 * 
+	 * @param name The parameter's name
+	 */
+	private void decodeParameter(final String name)
+	{
+		if (this.decoded == null || !this.decoded.add(name)) {
+			return;
+		}
+
+		final ServletRequest container = this.getRequest();
+		final String[] values = container.getParameterValues(name);
+
+		if (values == null) {
+			return;
+		}
+
+		if (values.length > 1) {
+			for (int i = 0; i < values.length; i++) {
+				this.addParameter(name, new String(values[i].getBytes(this.containerCharset), this.charset));
 			}
-			
-			this.addOrReplaceParameter(MODULE, urlModel[moduleIndex]);
-			this.addOrReplaceParameter(ACTION, urlModel[actionIndex]);
 		}
+		else {
+			final String value = container.getParameter(name);
+			// Don't write password's value to log
+			if (!"password".equals(name) && LOGGER.isDebugEnabled()) {
+				LOGGER.debug(name + "=" + value);
+			}
+
+			this.addParameter(name, this.recodeSingleValues 
+				? new String(value.getBytes(this.containerCharset), this.charset) 
+				: value);
+		}
+	}
+
+	private void putParameter(final String name, final Object value)
+	{
+		if (this.decoded != null) {
+			// the container's value, if any, is replaced
+			this.decoded.add(name);
+		}
+
+		this.query.put(name, value);
 	}
 
     @Override public SessionContext getSessionContext(final boolean create) {
@@ -356,7 +376,7 @@ public class WebRequestContext extends HttpServletRequestWrapper implements Requ
 	 */
 	@Override public String getParameter(final String name) 
 	{
-		return (String)this.query.get(name);
+		return (String)this.getObjectParameter(name);
 	}
 
 	/**
@@ -380,6 +400,7 @@ public class WebRequestContext extends HttpServletRequestWrapper implements Requ
 	 */
 	@Override public Object getObjectParameter(final String name)
 	{
+		this.decodeParameter(name);
 		return this.query.get(name);
 	}
 	
@@ -389,6 +410,7 @@ public class WebRequestContext extends HttpServletRequestWrapper implements Requ
 			addOrReplaceParameter(name, value);
 			return;
 		}
+		this.decodeParameter(name);
 		if (this.query.containsKey(name)) {
 			Object currentValue = this.getObjectParameter(name);
 			List<Object> list;
@@ -415,9 +437,9 @@ public class WebRequestContext extends HttpServletRequestWrapper implements Requ
 			// make safe against XSS attacks
 			String val = (String) value;
 			val = val.replaceAll("[^\\p{Alpha}]", "");
-			this.query.put(name, val);
+			this.putParameter(name, val);
 		} else {
-			this.query.put(name, value);
+			this.putParameter(name, value);
 		}
 	}
 
@@ -470,7 +492,7 @@ public class WebRequestContext extends HttpServletRequestWrapper implements Requ
 	
 	public Object getObjectRequestParameter(final String parameter)
 	{
-		return this.query.get(parameter);
+		return this.getObjectParameter(parameter);
 	}
 	
 	/**
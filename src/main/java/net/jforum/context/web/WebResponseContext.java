@@ -72,6 +72,16 @@ public class WebResponseContext implements ResponseContext
 		response.setContentLength(len);
 	}
 
+	@Override public void setContentLengthLong(final long len)
+	{
+		response.setContentLengthLong(len);
+	}
+
+	@Override public void setStatus(final int statusCode)
+	{
+		response.setStatus(statusCode);
+	}
+
 	@Override public boolean containsHeader(final String name)
 	{
 		return response.containsHeader(name);
@@ -71,6 +71,13 @@ public interface AttachmentDAO
 	 * @param attachment The attachment to update
 	 */
 	void updateAttachment(Attachment attachment);
+
+	/**
+	 * Adds to the download count of attachments, using a single batch.
+	 * 
+	 * @param downloads the number of downloads to add, by attachment id
+	 */
+	void incrementDownloadCounts(Map<Integer, Integer> downloads);
 	
 	/**
 	 * Remove an attachment.
@@ -278,4 +278,18 @@ public abstract class DataAccessDriver
 	public abstract SpamDAO newSpamDAO();
 
 	public abstract TelegramUserDAO newTelegramUserDAO();
+
+	/**
+     * Gets a {@link net.jforum.dao.MailOutboxDAO} instance.
+     *
+     * @return <code>net.jforum.dao.MailOutboxDAO</code> instance.
+     */
+	public abstract MailOutboxDAO newMailOutboxDAO();
+
+	/**
+     * Gets a {@link net.jforum.dao.ReadStateDAO} instance.
+     *
+     * @return <code>net.jforum.dao.ReadStateDAO</code> instance.
+     */
+	public abstract ReadStateDAO newReadStateDAO();
 }
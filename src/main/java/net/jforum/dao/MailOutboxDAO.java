@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) JForum Team
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, 
+ * with or without modification, are permitted provided 
+ * that the following conditions are met:
+ * 
+ * 1) Redistributions of source code must retain the above 
+ * copyright notice, this list of conditions and the 
+ * following disclaimer.
+ * 2) Redistributions in binary form must reproduce the 
+ * above copyright notice, this list of conditions and 
+ * the following disclaimer in the documentation and/or 
+ * other materials provided with the distribution.
+ * 3) Neither the name of "Rafael Steil" nor 
+ * the names of its contributors may be used to endorse 
+ * or promote products derived from this software without 
+ * specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT 
+ * HOLDERS AND CONTRIBUTORS "AS IS" AND ANY 
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, 
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF 
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR 
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL 
+ * THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, 
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, 
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER 
+ * IN CONTRACT, STRICT LIABILITY, OR TORT 
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN 
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF 
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE
+ * 
+ * The JForum Project
+ * http://www.jforum.net
+ */
+package net.jforum.dao;
+
+import java.util.Date;
+import java.util.List;
+
+import net.jforum.entities.OutboxMessage;
+import net.jforum.entities.OutboxRecipient;
+
+/**
+ * Persistent queue of outgoing mail, so notifications survive
+ * SMTP failures and restarts.
+ */
+public interface MailOutboxDAO
+{
+	/**
+	 * Stores a message and all its recipients.
+	 * 
+	 * @param message the message
+	 * @param recipients the email addresses to send it to
+	 * @param nextAttempt when the deliveries may be picked by {@link #selectDue(Date, int)}
+	 */
+	void addNew(OutboxMessage message, List<String> recipients, Date nextAttempt);
+
+	/**
+	 * Gets deliveries which are due, oldest first.
+	 * 
+	 * @param now the current time
+	 * @param limit the maximum number of deliveries to return
+	 * @return the due deliveries
+	 */
+	List<OutboxRecipient> selectDue(Date now, int limit);
+
+	/**
+	 * @param messageId the message id
+	 * @return the message, or <code>null</code> if it does not exist
+	 */
+	OutboxMessage selectMessage(String messageId);
+
+	/**
+	 * Writes the attempts and last error of some deliveries, 
+	 * and postpones them.
+	 * 
+	 * @param recipients the deliveries
+	 * @param nextAttempt when they are due again
+	 */
+	void reschedule(List<OutboxRecipient> recipients, Date nextAttempt);
+
+	/**
+	 * Removes some deliveries, either sent or given up.
+	 * 
+	 * @param recipients the deliveries
+	 */
+	void delete(List<OutboxRecipient> recipients);
+
+	/**
+	 * Removes the messages without any pending delivery.
+	 */
+	void deleteOrphanMessages();
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) JForum Team
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, 
+ * with or without modification, are permitted provided 
+ * that the following conditions are met:
+ * 
+ * 1) Redistributions of source code must retain the above 
+ * copyright notice, this list of conditions and the 
+ * following disclaimer.
+ * 2) Redistributions in binary form must reproduce the 
+ * above copyright notice, this list of conditions and 
+ * the following disclaimer in the documentation and/or 
+ * other materials provided with the distribution.
+ * 3) Neither the name of "Rafael Steil" nor 
+ * the names of its contributors may be used to endorse 
+ * or promote products derived from this software without 
+ * specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT 
+ * HOLDERS AND CONTRIBUTORS "AS IS" AND ANY 
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, 
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF 
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR 
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL 
+ * THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, 
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, 
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER 
+ * IN CONTRACT, STRICT LIABILITY, OR TORT 
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN 
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF 
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE
+ * 
+ * The JForum Project
+ * http://www.jforum.net
+ */
+package net.jforum.dao;
+
+import java.util.List;
+
+import net.jforum.entities.ReadMark;
+
+/**
+ * Persistent read marks of the users: when each topic was last read,
+ * and when each forum was marked as read as a whole.
+ */
+public interface ReadStateDAO
+{
+	/**
+	 * Gets the topics some user read after some time.
+	 * 
+	 * @param userId the user id
+	 * @param since the time, in milliseconds
+	 * @return the marks, where the id is the topic id
+	 */
+	List<ReadMark> selectTopicMarks(int userId, long since);
+
+	/**
+	 * Gets the forums some user marked as read after some time.
+	 * 
+	 * @param userId the user id
+	 * @param since the time, in milliseconds
+	 * @return the marks, where the id is the forum id
+	 */
+	List<ReadMark> selectForumMarks(int userId, long since);
+
+	/**
+	 * Writes topic marks, replacing the ones of the same user and topic.
+	 * 
+	 * @param marks the marks
+	 */
+	void saveTopicMarks(List<ReadMark> marks);
+
+	/**
+	 * Writes forum marks, replacing the ones of the same user and forum.
+	 * 
+	 * @param marks the marks
+	 */
+	void saveForumMarks(List<ReadMark> marks);
+
+	/**
+	 * Removes the marks of some user which are no longer needed,
+	 * as everything posted before the last visit counts as read.
+	 * 
+	 * @param userId the user id
+	 * @param until the time, in milliseconds
+	 */
+	void deleteMarks(int userId, long until);
+}
@@ -46,6 +46,8 @@ import java.util.Date;
 import java.util.List;
 
 import net.jforum.entities.Post;
+import net.jforum.entities.SummaryRun;
+import net.jforum.entities.User;
 
 /**
  * Load summary of posts from the database
@@ -58,4 +60,29 @@ public interface SummaryDAO
 	List<Post> selectLastPosts(Date firstDate, Date lastDate) ;
 
 	List<String> listRecipients() ;
+
+	/**
+	 * Gets the next page of users who want the summary, in user id order.
+	 * 
+	 * @param afterUserId only users with a greater id are returned
+	 * @param limit the maximum number of users to return
+	 * @return the users, with only the id and email set
+	 */
+	List<User> listRecipients(int afterUserId, int limit) ;
+
+	/**
+	 * Gets the runs which did not finish, the latest first.
+	 * 
+	 * @return the runs, empty if all of them finished
+	 */
+	List<SummaryRun> selectUnfinishedRuns() ;
+
+	void addRun(SummaryRun run) ;
+
+	/**
+	 * Saves how far a run got, and whether it finished.
+	 * 
+	 * @param run the run
+	 */
+	void updateRun(SummaryRun run) ;
 }
@@ -176,6 +176,13 @@ public interface TopicDAO
 	 * @param topicId The topic ID to increment the total number of views
 	 */
 	void incrementTotalViews(int topicId) ;
+
+	/**
+	 * Adds some number of views to many topics at once
+	 * 
+	 * @param views The number of views to add, indexed by topic ID
+	 */
+	void incrementTotalViews(Map<Integer, Integer> views) ;
 	
 	/**
 	 * Increments the number of replies the topic has
@@ -338,15 +345,6 @@ public interface TopicDAO
 	 */
 	void setModerationStatusByTopic(int topicId, boolean status) ;
 
-	/**
-	 * Get all unique posters of some topic
-	 * @param topicId int
-	 * @return A Map instance with all topic posts. Key is the userid, 
-	 * value is a {@link net.jforum.entities.User} instance with minimum
-	 * data filled
-	 */
-	Map<Integer, User> topicPosters(int topicId) ;
-	
 	/**
 	 * @param args
 	 * @return SearchResult
@@ -413,4 +413,12 @@ public interface UserDAO
 	 */
 	List<User> pendingActivations() ;
 
+	/**
+	 * Gets what is shown next to the posts of some users: name, avatar,
+	 * rank, karma, reputation, signature and the public profile fields.
+	 * 
+	 * @param userIds the user ids, without duplicates
+	 * @return the users found, with only those fields set
+	 */
+	List<User> selectCards(int[] userIds) ;
 }
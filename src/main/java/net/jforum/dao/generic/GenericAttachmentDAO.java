@@ -599,6 +599,7 @@ public class GenericAttachmentDAO extends AutoKeys implements net.jforum.dao.Att
 			this.setAutoGeneratedKeysQuery(SystemGlobals.getSql("AttachmentModel.lastGeneratedAttachmentId"));
 			final int id = this.executeAutoKeysQuery(pstmt);
 			pstmt.close();
+			attachment.setId(id);
 
 			pstmt = JForumExecutionContext.getConnection().prepareStatement(
 					SystemGlobals.getSql("AttachmentModel.addAttachmentInfo"));
@@ -700,6 +701,32 @@ public class GenericAttachmentDAO extends AutoKeys implements net.jforum.dao.Att
 		}
 	}
 
+	/**
+	 * @see net.jforum.dao.AttachmentDAO#incrementDownloadCounts(java.util.Map)
+	 */
+	@Override public void incrementDownloadCounts(final Map<Integer, Integer> downloads)
+	{
+		PreparedStatement pstmt = null;
+		try {
+			pstmt = JForumExecutionContext.getConnection().prepareStatement(
+					SystemGlobals.getSql("AttachmentModel.addDownloadCount"));
+
+			for (final Map.Entry<Integer, Integer> entry : downloads.entrySet()) {
+				pstmt.setInt(1, entry.getValue().intValue());
+				pstmt.setInt(2, entry.getKey().intValue());
+				pstmt.addBatch();
+			}
+
+			pstmt.executeBatch();
+		}
+		catch (SQLException e) {
+			throw new DatabaseException(e);
+		}
+		finally {
+			DbUtils.close(pstmt);
+		}
+	}
+
 	/**
 	 * @see net.jforum.dao.AttachmentDAO#selectAttachments(int)
 	 */
@@ -57,12 +57,14 @@ import net.jforum.dao.KarmaDAO;
 import net.jforum.dao.LikeDAO;
 import net.jforum.dao.LuceneDAO;
 import net.jforum.dao.MailIntegrationDAO;
+import net.jforum.dao.MailOutboxDAO;
 import net.jforum.dao.ModerationDAO;
 import net.jforum.dao.ModerationLogDAO;
 import net.jforum.dao.PollDAO;
 import net.jforum.dao.PostDAO;
 import net.jforum.dao.PrivateMessageDAO;
 import net.jforum.dao.RankingDAO;
+import net.jforum.dao.ReadStateDAO;
 import net.jforum.dao.SmilieDAO;
 import net.jforum.dao.SpamDAO;
 import net.jforum.dao.SummaryDAO;
@@ -106,6 +108,8 @@ public class GenericDataAccessDriver extends DataAccessDriver
     private static ModerationLogDAO moderationLogDao = new GenericModerationLogDAO();
     private static LuceneDAO luceneDao = new GenericLuceneDAO();
     private static SpamDAO spamDao = new GenericSpamDAO();
+    private static MailOutboxDAO mailOutboxDao = new GenericMailOutboxDAO();
+    private static ReadStateDAO readStateDao = new GenericReadStateDAO();
 
 	/**
 	 * @see net.jforum.dao.DataAccessDriver#newForumDAO()
@@ -327,4 +331,20 @@ public class GenericDataAccessDriver extends DataAccessDriver
     {
     	return spamDao;
     }
+
+    /**
+     * @see net.jforum.dao.DataAccessDriver#newMailOutboxDAO()
+     */
+    @Override public MailOutboxDAO newMailOutboxDAO()
+    {
+    	return mailOutboxDao;
+    }
+
+    /**
+     * @see net.jforum.dao.DataAccessDriver#newReadStateDAO()
+     */
+    @Override public ReadStateDAO newReadStateDAO()
+    {
+    	return readStateDao;
+    }
 }
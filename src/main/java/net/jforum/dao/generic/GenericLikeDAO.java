@@ -59,6 +59,7 @@ import net.jforum.entities.Like;
 import net.jforum.entities.ReputationStatus;
 import net.jforum.entities.User;
 import net.jforum.exceptions.DatabaseException;
+import net.jforum.repository.UserCardRepository;
 import net.jforum.util.DbUtils;
 import net.jforum.util.preferences.SystemGlobals;
 
@@ -164,6 +165,7 @@ public class GenericLikeDAO implements net.jforum.dao.LikeDAO
 			pstmt.setDouble(1, reputationPoints);
 			pstmt.setInt(2, userId);
 			pstmt.executeUpdate();
+			UserCardRepository.remove(userId);
 		}
 		catch (SQLException e) {
 			throw new DatabaseException(e);
@@ -0,0 +1,241 @@
+/*
+ * Copyright (c) JForum Team
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, 
+ * with or without modification, are permitted provided 
+ * that the following conditions are met:
+ * 
+ * 1) Redistributions of source code must retain the above 
+ * copyright notice, this list of conditions and the 
+ * following disclaimer.
+ * 2) Redistributions in binary form must reproduce the 
+ * above copyright notice, this list of conditions and 
+ * the following disclaimer in the documentation and/or 
+ * other materials provided with the distribution.
+ * 3) Neither the name of "Rafael Steil" nor 
+ * the names of its contributors may be used to endorse 
+ * or promote products derived from this software without 
+ * specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT 
+ * HOLDERS AND CONTRIBUTORS "AS IS" AND ANY 
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, 
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF 
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR 
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL 
+ * THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, 
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, 
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER 
+ * IN CONTRACT, STRICT LIABILITY, OR TORT 
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN 
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF 
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE
+ * 
+ * The JForum Project
+ * http://www.jforum.net
+ */
+package net.jforum.dao.generic;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+
+import net.jforum.JForumExecutionContext;
+import net.jforum.dao.MailOutboxDAO;
+import net.jforum.entities.OutboxMessage;
+import net.jforum.entities.OutboxRecipient;
+import net.jforum.exceptions.DatabaseException;
+import net.jforum.util.DbUtils;
+import net.jforum.util.preferences.SystemGlobals;
+
+public class GenericMailOutboxDAO implements MailOutboxDAO
+{
+	/** The size of last_error */
+	private static final int MAX_ERROR_LENGTH = 255;
+
+	/**
+	 * @see net.jforum.dao.MailOutboxDAO#addNew(net.jforum.entities.OutboxMessage, java.util.List, java.util.Date)
+	 */
+	@Override public void addNew(OutboxMessage message, List<String> recipients, Date nextAttempt)
+	{
+		PreparedStatement pstmt = null;
+		try {
+			pstmt = JForumExecutionContext.getConnection().prepareStatement(
+				SystemGlobals.getSql("MailOutboxModel.addNewMessage"));
+			pstmt.setString(1, message.getId());
+			pstmt.setString(2, message.getContent());
+			pstmt.setTimestamp(3, new Timestamp(System.currentTimeMillis()));
+			pstmt.executeUpdate();
+			pstmt.close();
+
+			pstmt = JForumExecutionContext.getConnection().prepareStatement(
+				SystemGlobals.getSql("MailOutboxModel.addNewRecipient"));
+			Timestamp next = new Timestamp(nextAttempt.getTime());
+
+			for (Iterator<String> iter = recipients.iterator(); iter.hasNext(); ) {
+				pstmt.setString(1, message.getId());
+				pstmt.setString(2, iter.next());
+				pstmt.setTimestamp(3, next);
+				pstmt.addBatch();
+			}
+
+			pstmt.executeBatch();
+		}
+		catch (SQLException e) {
+			throw new DatabaseException(e);
+		}
+		finally {
+			DbUtils.close(pstmt);
+		}
+	}
+
+	/**
+	 * @see net.jforum.dao.MailOutboxDAO#selectDue(java.util.Date, int)
+	 */
+	@Override public List<OutboxRecipient> selectDue(Date now, int limit)
+	{
+		PreparedStatement pstmt = null;
+		ResultSet rs = null;
+		try {
+			pstmt = JForumExecutionContext.getConnection().prepareStatement(
+				SystemGlobals.getSql("MailOutboxModel.selectDue"));
+			pstmt.setMaxRows(limit);
+			pstmt.setTimestamp(1, new Timestamp(now.getTime()));
+
+			List<OutboxRecipient> list = new ArrayList<OutboxRecipient>();
+			rs = pstmt.executeQuery();
+
+			while (rs.next()) {
+				OutboxRecipient recipient = new OutboxRecipient(rs.getString("outbox_id"), rs.getString("recipient"));
+				recipient.setAttempts(rs.getInt("attempts"));
+				recipient.setLastError(rs.getString("last_error"));
+				list.add(recipient);
+			}
+
+			return list;
+		}
+		catch (SQLException e) {
+			throw new DatabaseException(e);
+		}
+		finally {
+			DbUtils.close(rs, pstmt);
+		}
+	}
+
+	/**
+	 * @see net.jforum.dao.MailOutboxDAO#selectMessage(java.lang.String)
+	 */
+	@Override public OutboxMessage selectMessage(String messageId)
+	{
+		PreparedStatement pstmt = null;
+		ResultSet rs = null;
+		try {
+			pstmt = JForumExecutionContext.getConnection().prepareStatement(
+				SystemGlobals.getSql("MailOutboxModel.selectMessage"));
+			pstmt.setString(1, messageId);
+
+			rs = pstmt.executeQuery();
+
+			return rs.next()
+				? new OutboxMessage(messageId, rs.getString("outbox_message"))
+				: null;
+		}
+		catch (SQLException e) {
+			throw new DatabaseException(e);
+		}
+		finally {
+			DbUtils.close(rs, pstmt);
+		}
+	}
+
+	/**
+	 * @see net.jforum.dao.MailOutboxDAO#reschedule(java.util.List, java.util.Date)
+	 */
+	@Override public void reschedule(List<OutboxRecipient> recipients, Date nextAttempt)
+	{
+		PreparedStatement pstmt = null;
+		try {
+			pstmt = JForumExecutionContext.getConnection().prepareStatement(
+				SystemGlobals.getSql("MailOutboxModel.reschedule"));
+			Timestamp next = new Timestamp(nextAttempt.getTime());
+
+			for (Iterator<OutboxRecipient> iter = recipients.iterator(); iter.hasNext(); ) {
+				OutboxRecipient recipient = iter.next();
+				String error = recipient.getLastError();
+
+				pstmt.setInt(1, recipient.getAttempts());
+				pstmt.setString(2, error != null && error.length() > MAX_ERROR_LENGTH
+					? error.substring(0, MAX_ERROR_LENGTH)
+					: error);
+				pstmt.setTimestamp(3, next);
+				pstmt.setString(4, recipient.getMessageId());
+				pstmt.setString(5, recipient.getEmail());
+				pstmt.addBatch();
+			}
+
+			pstmt.executeBatch();
+		}
+		catch (SQLException e) {
+			throw new DatabaseException(e);
+		}
+		finally {
+			DbUtils.close(pstmt);
+		}
+	}
+
+	/**
+	 * @see net.jforum.dao.MailOutboxDAO#delete(java.util.List)
+	 */
+	@Override public void delete(List<OutboxRecipient> recipients)
+	{
+		PreparedStatement pstmt = null;
+		try {
+			pstmt = JForumExecutionContext.getConnection().prepareStatement(
+				SystemGlobals.getSql("MailOutboxModel.deleteRecipient"));
+
+			for (Iterator<OutboxRecipient> iter = recipients.iterator(); iter.hasNext(); ) {
+				OutboxRecipient recipient = iter.next();
+				pstmt.setString(1, recipient.getMessageId());
+				pstmt.setString(2, recipient.getEmail());
+				pstmt.addBatch();
+			}
+
+			pstmt.executeBatch();
+		}
+		catch (SQLException e) {
+			throw new DatabaseException(e);
+		}
+		finally {
+			DbUtils.close(pstmt);
+		}
+	}
+
+	/**
+	 * @see net.jforum.dao.MailOutboxDAO#deleteOrphanMessages()
+	 */
+	@Override public void deleteOrphanMessages()
+	{
+		PreparedStatement pstmt = null;
+		try {
+			pstmt = JForumExecutionContext.getConnection().prepareStatement(
+				SystemGlobals.getSql("MailOutboxModel.deleteOrphanMessages"));
+			pstmt.executeUpdate();
+		}
+		catch (SQLException e) {
+			throw new DatabaseException(e);
+		}
+		finally {
+			DbUtils.close(pstmt);
+		}
+	}
+}
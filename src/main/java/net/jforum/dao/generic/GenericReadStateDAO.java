@@ -0,0 +1,184 @@
+/*
+ * Copyright (c) JForum Team
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, 
+ * with or without modification, are permitted provided 
+ * that the following conditions are met:
+ * 
+ * 1) Redistributions of source code must retain the above 
+ * copyright notice, this list of conditions and the 
+ * following disclaimer.
+ * 2) Redistributions in binary form must reproduce the 
+ * above copyright notice, this list of conditions and 
+ * the following disclaimer in the documentation and/or 
+ * other materials provided with the distribution.
+ * 3) Neither the name of "Rafael Steil" nor 
+ * the names of its contributors may be used to endorse 
+ * or promote products derived from this software without 
+ * specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT 
+ * HOLDERS AND CONTRIBUTORS "AS IS" AND ANY 
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, 
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF 
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR 
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL 
+ * THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, 
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, 
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER 
+ * IN CONTRACT, STRICT LIABILITY, OR TORT 
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN 
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF 
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE
+ * 
+ * The JForum Project
+ * http://www.jforum.net
+ */
+package net.jforum.dao.generic;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import net.jforum.JForumExecutionContext;
+import net.jforum.dao.ReadStateDAO;
+import net.jforum.entities.ReadMark;
+import net.jforum.exceptions.DatabaseException;
+import net.jforum.util.DbUtils;
+import net.jforum.util.preferences.SystemGlobals;
+
+public class GenericReadStateDAO implements ReadStateDAO
+{
+	/**
+	 * @see net.jforum.dao.ReadStateDAO#selectTopicMarks(int, long)
+	 */
+	@Override public List<ReadMark> selectTopicMarks(int userId, long since)
+	{
+		return this.selectMarks("ReadStateModel.selectTopicMarks", userId, since);
+	}
+
+	/**
+	 * @see net.jforum.dao.ReadStateDAO#selectForumMarks(int, long)
+	 */
+	@Override public List<ReadMark> selectForumMarks(int userId, long since)
+	{
+		return this.selectMarks("ReadStateModel.selectForumMarks", userId, since);
+	}
+
+	/**
+	 * @see net.jforum.dao.ReadStateDAO#saveTopicMarks(java.util.List)
+	 */
+	@Override public void saveTopicMarks(List<ReadMark> marks)
+	{
+		this.saveMarks("ReadStateModel.deleteTopicMark", "ReadStateModel.addTopicMark", marks);
+	}
+
+	/**
+	 * @see net.jforum.dao.ReadStateDAO#saveForumMarks(java.util.List)
+	 */
+	@Override public void saveForumMarks(List<ReadMark> marks)
+	{
+		this.saveMarks("ReadStateModel.deleteForumMark", "ReadStateModel.addForumMark", marks);
+	}
+
+	/**
+	 * @see net.jforum.dao.ReadStateDAO#deleteMarks(int, long)
+	 */
+	@Override public void deleteMarks(int userId, long until)
+	{
+		this.deleteMarks("ReadStateModel.deleteOldTopicMarks", userId, until);
+		this.deleteMarks("ReadStateModel.deleteOldForumMarks", userId, until);
+	}
+
+	private List<ReadMark> selectMarks(String query, int userId, long since)
+	{
+		PreparedStatement pstmt = null;
+		ResultSet rs = null;
+		try {
+			pstmt = JForumExecutionContext.getConnection().prepareStatement(SystemGlobals.getSql(query));
+			pstmt.setInt(1, userId);
+			pstmt.setTimestamp(2, new Timestamp(since));
+
+			List<ReadMark> list = new ArrayList<ReadMark>();
+			rs = pstmt.executeQuery();
+
+			while (rs.next()) {
+				list.add(new ReadMark(userId, rs.getInt(1), rs.getTimestamp(2).getTime()));
+			}
+
+			return list;
+		}
+		catch (SQLException e) {
+			throw new DatabaseException(e);
+		}
+		finally {
+			DbUtils.close(rs, pstmt);
+		}
+	}
+
+	private void saveMarks(String deleteQuery, String insertQuery, List<ReadMark> marks)
+	{
+		if (marks.isEmpty()) {
+			return;
+		}
+
+		PreparedStatement pstmt = null;
+		try {
+			pstmt = JForumExecutionContext.getConnection().prepareStatement(SystemGlobals.getSql(deleteQuery));
+
+			for (Iterator<ReadMark> iter = marks.iterator(); iter.hasNext(); ) {
+				ReadMark mark = iter.next();
+				pstmt.setInt(1, mark.getUserId());
+				pstmt.setInt(2, mark.getId());
+				pstmt.addBatch();
+			}
+
+			pstmt.executeBatch();
+			pstmt.close();
+
+			pstmt = JForumExecutionContext.getConnection().prepareStatement(SystemGlobals.getSql(insertQuery));
+
+			for (Iterator<ReadMark> iter = marks.iterator(); iter.hasNext(); ) {
+				ReadMark mark = iter.next();
+				pstmt.setInt(1, mark.getUserId());
+				pstmt.setInt(2, mark.getId());
+				pstmt.setTimestamp(3, new Timestamp(mark.getTime()));
+				pstmt.addBatch();
+			}
+
+			pstmt.executeBatch();
+		}
+		catch (SQLException e) {
+			throw new DatabaseException(e);
+		}
+		finally {
+			DbUtils.close(pstmt);
+		}
+	}
+
+	private void deleteMarks(String query, int userId, long until)
+	{
+		PreparedStatement pstmt = null;
+		try {
+			pstmt = JForumExecutionContext.getConnection().prepareStatement(SystemGlobals.getSql(query));
+			pstmt.setInt(1, userId);
+			pstmt.setTimestamp(2, new Timestamp(until));
+			pstmt.executeUpdate();
+		}
+		catch (SQLException e) {
+			throw new DatabaseException(e);
+		}
+		finally {
+			DbUtils.close(pstmt);
+		}
+	}
+}
@@ -44,6 +44,7 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Timestamp;
+import java.sql.Types;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
@@ -54,6 +55,8 @@ import net.jforum.JForumExecutionContext;
 import net.jforum.dao.DataAccessDriver;
 import net.jforum.dao.SummaryDAO;
 import net.jforum.entities.Post;
+import net.jforum.entities.SummaryRun;
+import net.jforum.entities.User;
 import net.jforum.exceptions.DatabaseException;
 import net.jforum.util.DbUtils;
 import net.jforum.util.preferences.SystemGlobals;
@@ -149,6 +152,130 @@ public class GenericSummaryDAO extends AutoKeys implements SummaryDAO
 		}
 	}
 	
+	/**
+	 * @see net.jforum.dao.SummaryDAO#listRecipients(int, int)
+	 */
+	@Override public List<User> listRecipients(int afterUserId, int limit)
+	{
+		PreparedStatement pstmt = null;
+		ResultSet rs = null;
+		try {
+			pstmt = JForumExecutionContext.getConnection().prepareStatement(
+				SystemGlobals.getSql("SummaryDAO.selectRecipientsPage"));
+			pstmt.setMaxRows(limit);
+			pstmt.setInt(1, afterUserId);
+
+			List<User> recipients = new ArrayList<User>();
+			rs = pstmt.executeQuery();
+
+			while (rs.next()) {
+				// blank addresses are kept, the caller needs their ids to move on
+				User user = new User();
+				user.setId(rs.getInt("user_id"));
+				user.setEmail(rs.getString("user_email"));
+				recipients.add(user);
+			}
+
+			return recipients;
+		}
+		catch (SQLException e) {
+			throw new DatabaseException(e);
+		}
+		finally {
+			DbUtils.close(rs, pstmt);
+		}
+	}
+
+	/**
+	 * @see net.jforum.dao.SummaryDAO#selectUnfinishedRuns()
+	 */
+	@Override public List<SummaryRun> selectUnfinishedRuns()
+	{
+		PreparedStatement pstmt = null;
+		ResultSet rs = null;
+		try {
+			pstmt = JForumExecutionContext.getConnection().prepareStatement(
+				SystemGlobals.getSql("SummaryDAO.selectUnfinishedRuns"));
+
+			List<SummaryRun> runs = new ArrayList<SummaryRun>();
+			rs = pstmt.executeQuery();
+
+			while (rs.next()) {
+				SummaryRun run = new SummaryRun();
+				run.setId(rs.getString("run_id"));
+				run.setPeriodStart(new Date(rs.getTimestamp("period_start").getTime()));
+				run.setPeriodEnd(new Date(rs.getTimestamp("period_end").getTime()));
+				run.setLastUserId(rs.getInt("last_user_id"));
+				run.setSent(rs.getInt("sent"));
+				run.setStarted(new Date(rs.getTimestamp("run_started").getTime()));
+				runs.add(run);
+			}
+
+			return runs;
+		}
+		catch (SQLException e) {
+			throw new DatabaseException(e);
+		}
+		finally {
+			DbUtils.close(rs, pstmt);
+		}
+	}
+
+	/**
+	 * @see net.jforum.dao.SummaryDAO#addRun(net.jforum.entities.SummaryRun)
+	 */
+	@Override public void addRun(SummaryRun run)
+	{
+		PreparedStatement pstmt = null;
+		try {
+			pstmt = JForumExecutionContext.getConnection().prepareStatement(
+				SystemGlobals.getSql("SummaryDAO.addRun"));
+			pstmt.setString(1, run.getId());
+			pstmt.setTimestamp(2, new Timestamp(run.getPeriodStart().getTime()));
+			pstmt.setTimestamp(3, new Timestamp(run.getPeriodEnd().getTime()));
+			pstmt.setInt(4, run.getLastUserId());
+			pstmt.setInt(5, run.getSent());
+			pstmt.setTimestamp(6, new Timestamp(run.getStarted().getTime()));
+			pstmt.executeUpdate();
+		}
+		catch (SQLException e) {
+			throw new DatabaseException(e);
+		}
+		finally {
+			DbUtils.close(pstmt);
+		}
+	}
+
+	/**
+	 * @see net.jforum.dao.SummaryDAO#updateRun(net.jforum.entities.SummaryRun)
+	 */
+	@Override public void updateRun(SummaryRun run)
+	{
+		PreparedStatement pstmt = null;
+		try {
+			pstmt = JForumExecutionContext.getConnection().prepareStatement(
+				SystemGlobals.getSql("SummaryDAO.updateRun"));
+			pstmt.setInt(1, run.getLastUserId());
+			pstmt.setInt(2, run.getSent());
+
+			if (run.getFinished() == null) {
+				pstmt.setNull(3, Types.TIMESTAMP);
+			}
+			else {
+				pstmt.setTimestamp(3, new Timestamp(run.getFinished().getTime()));
+			}
+
+			pstmt.setString(4, run.getId());
+			pstmt.executeUpdate();
+		}
+		catch (SQLException e) {
+			throw new DatabaseException(e);
+		}
+		finally {
+			DbUtils.close(pstmt);
+		}
+	}
+
 	protected String getPostTextFromResultSet(ResultSet rs) throws SQLException
 	{
 		return rs.getString("post_text");
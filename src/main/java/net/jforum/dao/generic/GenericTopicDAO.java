@@ -61,12 +61,11 @@ import net.jforum.dao.ForumDAO;
 import net.jforum.dao.PollDAO;
 import net.jforum.dao.PostDAO;
 import net.jforum.dao.TopicDAO;
-import net.jforum.entities.KarmaStatus;
-import net.jforum.entities.ReputationStatus;
 import net.jforum.entities.Topic;
 import net.jforum.entities.User;
 import net.jforum.exceptions.DatabaseException;
 import net.jforum.repository.ForumRepository;
+import net.jforum.repository.TopicViewCounter;
 import net.jforum.search.SearchArgs;
 import net.jforum.search.SearchResult;
 import net.jforum.util.DbUtils;
@@ -379,6 +378,33 @@ public class GenericTopicDAO extends AutoKeys implements TopicDAO
 		}
 	}
 
+	/**
+	 * @see net.jforum.dao.TopicDAO#incrementTotalViews(java.util.Map)
+	 */
+	@Override public void incrementTotalViews(Map<Integer, Integer> views)
+	{
+		PreparedStatement pstmt = null;
+		try {
+			pstmt = JForumExecutionContext.getConnection().prepareStatement(
+				SystemGlobals.getSql("TopicModel.addTotalViews"));
+
+			for (Iterator<Map.Entry<Integer, Integer>> iter = views.entrySet().iterator(); iter.hasNext(); ) {
+				Map.Entry<Integer, Integer> entry = iter.next();
+				pstmt.setInt(1, entry.getValue().intValue());
+				pstmt.setInt(2, entry.getKey().intValue());
+				pstmt.addBatch();
+			}
+
+			pstmt.executeBatch();
+		}
+		catch (SQLException e) {
+			throw new DatabaseException(e);
+		}
+		finally {
+			DbUtils.close(pstmt);
+		}
+	}
+
 	/**
 	 * @see net.jforum.dao.TopicDAO#incrementTotalReplies(int)
 	 */
@@ -575,7 +601,7 @@ public class GenericTopicDAO extends AutoKeys implements TopicDAO
 		topic.setId(rs.getInt("topic_id"));
 		topic.setTime(new Date(rs.getTimestamp("topic_time").getTime()));
 		topic.setStatus(rs.getInt("topic_status"));
-		topic.setTotalViews(rs.getInt("topic_views"));
+		topic.setTotalViews(rs.getInt("topic_views") + TopicViewCounter.getPendingViews(topic.getId()));
 		topic.setTotalReplies(rs.getInt("topic_replies"));
 		topic.setFirstPostId(rs.getInt("topic_first_post_id"));
 		topic.setLastPostId(rs.getInt("topic_last_post_id"));
@@ -1176,77 +1202,6 @@ public class GenericTopicDAO extends AutoKeys implements TopicDAO
 		}
 	}
 
-	/**
-	 * @see net.jforum.dao.TopicDAO#topicPosters(int)
-	 */
-	@Override public Map<Integer, User> topicPosters(int topicId)
-	{
-		Map<Integer, User> m = new ConcurrentHashMap<Integer, User>();
-		
-		PreparedStatement pstmt = null;
-		ResultSet rs = null;
-
-		try {
-			StringBuilder sql = new StringBuilder(SystemGlobals.getSql("TopicModel.topicPosters"));
-
-			pstmt = JForumExecutionContext.getConnection().prepareStatement(
-				SystemGlobals.getSql("TopicModel.distinctPosters"));
-			pstmt.setInt(1, topicId);
-
-			rs = pstmt.executeQuery();
-
-			StringBuilder sb = new StringBuilder();
-
-			while (rs.next()) {
-				sb.append(rs.getInt(USER_ID)).append(',');
-			}
-
-			rs.close();
-			pstmt.close();
-
-			int index = sql.indexOf(":ids:");
-			if (index > -1) {
-				sql.replace(index, index + 5, sb.substring(0, sb.length() - 1));
-			}
-
-			pstmt = JForumExecutionContext.getConnection().prepareStatement(sql.toString());
-			rs = pstmt.executeQuery();
-
-			while (rs.next()) {
-				User user = new User();
-
-				user.setId(rs.getInt(USER_ID));
-				user.setUsername(rs.getString("username"));
-				user.setKarma(new KarmaStatus(user.getId(), rs.getDouble("user_karma")));
-				user.setReputation(new ReputationStatus(user.getId(), rs.getDouble("user_reputation")));
-				user.setAvatar(rs.getString("user_avatar"));
-				user.setAvatarEnabled(rs.getInt("user_allowavatar") == 1);
-				user.setRegistrationDate(new Date(rs.getTimestamp("user_regdate").getTime()));
-				user.setTotalPosts(rs.getInt("user_posts"));
-				user.setFrom(rs.getString("user_from"));
-				user.setEmail(rs.getString("user_email"));
-				user.setRankId(rs.getInt("rank_id"));
-				user.setViewEmailEnabled(rs.getInt("user_viewemail") == 1);
-				user.setIcq(rs.getString("user_icq"));
-				user.setTwitter(rs.getString("user_twitter"));
-				user.setAttachSignatureEnabled(rs.getInt("user_attachsig") == 1);
-				user.setSkype(rs.getString("user_skype"));
-				user.setWebSite(rs.getString("user_website"));
-				user.setSignature(rs.getString("user_sig"));
-
-				m.put(Integer.valueOf(user.getId()), user);
-			}
-			
-			return m;
-		}
-		catch (SQLException e) {
-			throw new DatabaseException(e);
-		}
-		finally {
-			DbUtils.close(rs, pstmt);
-		}
-	}
-
     /**
     * Returns all topics that are watched by a given user.
     * @param userId The user id
@@ -63,6 +63,7 @@ import net.jforum.entities.ReputationStatus;
 import net.jforum.entities.User;
 import net.jforum.exceptions.DatabaseException;
 import net.jforum.exceptions.ForumException;
+import net.jforum.repository.UserCardRepository;
 import net.jforum.sso.LoginAuthenticator;
 import net.jforum.util.DbUtils;
 import net.jforum.util.preferences.ConfigKeys;
@@ -77,6 +78,9 @@ public class GenericUserDAO extends AutoKeys implements UserDAO
 	
 	private static final Logger LOGGER = Logger.getLogger(GenericUserDAO.class);
 
+	/** How many ids the statements of {@link #selectCards(int[])} take */
+	private static final int[] CARD_ARITIES = { 1, 4, 16, 64 };
+
 	private static LoginAuthenticator loginAuthenticator;
 
 	public GenericUserDAO()
@@ -305,6 +309,7 @@ public class GenericUserDAO extends AutoKeys implements UserDAO
 			pstmt.setInt(2, userId);
 
 			pstmt.executeUpdate();
+			UserCardRepository.remove(userId);
 		}
 		catch (SQLException e) {
 			throw new DatabaseException(e);
@@ -358,6 +363,7 @@ public class GenericUserDAO extends AutoKeys implements UserDAO
 			pstmt.setInt(28, user.getId());
 
 			pstmt.executeUpdate();
+			UserCardRepository.remove(user.getId());
 		}
 		catch (SQLException e) {
 			throw new DatabaseException(e);
@@ -439,6 +445,7 @@ public class GenericUserDAO extends AutoKeys implements UserDAO
 			pstmt.setInt(1, userId);
 
 			pstmt.executeUpdate();
+			UserCardRepository.remove(userId);
 		}
 		catch (SQLException e) {
 			throw new DatabaseException(e);
@@ -460,6 +467,7 @@ public class GenericUserDAO extends AutoKeys implements UserDAO
 			pstmt.setInt(1, userId);
 
 			pstmt.executeUpdate();
+			UserCardRepository.remove(userId);
 		}
 		catch (SQLException e) {
 			throw new DatabaseException(e);
@@ -481,6 +489,7 @@ public class GenericUserDAO extends AutoKeys implements UserDAO
 			pstmt.setInt(2, userId);
 
 			pstmt.executeUpdate();
+			UserCardRepository.remove(userId);
 		}
 		catch (SQLException e) {
 			throw new DatabaseException(e);
@@ -524,6 +533,7 @@ public class GenericUserDAO extends AutoKeys implements UserDAO
 			pstmt.setInt(2, userId);
 
 			pstmt.executeUpdate();
+			UserCardRepository.remove(userId);
 		}
 		catch (SQLException e) {
 			throw new DatabaseException(e);
@@ -1036,6 +1046,7 @@ public class GenericUserDAO extends AutoKeys implements UserDAO
 			pstmt.setString(1, username);
 			pstmt.setInt(2, userId);
 			pstmt.executeUpdate();
+			UserCardRepository.remove(userId);
 		}
 		catch (SQLException e) {
 			throw new DatabaseException(e);
@@ -1303,4 +1314,98 @@ public class GenericUserDAO extends AutoKeys implements UserDAO
 
         return result;
 	}
+
+	/**
+	 * @see net.jforum.dao.UserDAO#selectCards(int[])
+	 */
+	@Override public List<User> selectCards(int[] userIds)
+	{
+		List<User> list = new ArrayList<User>(userIds.length);
+		String query = SystemGlobals.getSql("UserModel.selectCards");
+
+		PreparedStatement pstmt = null;
+		ResultSet rs = null;
+		try {
+			int offset = 0;
+
+			while (offset < userIds.length) {
+				// only a few statement shapes, so the database can reuse their plans
+				int arity = cardsArity(userIds.length - offset);
+				pstmt = JForumExecutionContext.getConnection().prepareStatement(
+					query.replace(":ids:", placeholders(arity)));
+
+				for (int i = 0; i < arity; i++) {
+					// short batches repeat their last id
+					pstmt.setInt(i + 1, userIds[Math.min(offset + i, userIds.length - 1)]);
+				}
+
+				rs = pstmt.executeQuery();
+
+				while (rs.next()) {
+					list.add(this.fillCard(rs));
+				}
+
+				DbUtils.close(rs, pstmt);
+				rs = null;
+				pstmt = null;
+				offset += arity;
+			}
+
+			return list;
+		}
+		catch (SQLException e) {
+			throw new DatabaseException(e);
+		}
+		finally {
+			DbUtils.close(rs, pstmt);
+		}
+	}
+
+	private static int cardsArity(int count)
+	{
+		for (int arity : CARD_ARITIES) {
+			if (count <= arity) {
+				return arity;
+			}
+		}
+
+		return CARD_ARITIES[CARD_ARITIES.length - 1];
+	}
+
+	private static String placeholders(int count)
+	{
+		StringBuilder sb = new StringBuilder(count * 2);
+
+		for (int i = 0; i < count; i++) {
+			sb.append(i == 0 ? "?" : ",?");
+		}
+
+		return sb.toString();
+	}
+
+	private User fillCard(ResultSet rs) throws SQLException
+	{
+		User user = new User();
+
+		user.setId(rs.getInt("user_id"));
+		user.setUsername(rs.getString("username"));
+		user.setKarma(new KarmaStatus(user.getId(), rs.getDouble("user_karma")));
+		user.setReputation(new ReputationStatus(user.getId(), rs.getDouble("user_reputation")));
+		user.setAvatar(rs.getString("user_avatar"));
+		user.setAvatarEnabled(rs.getInt("user_allowavatar") == 1);
+		user.setRegistrationDate(new Date(rs.getTimestamp("user_regdate").getTime()));
+		user.setTotalPosts(rs.getInt("user_posts"));
+		user.setFrom(rs.getString("user_from"));
+		user.setEmail(rs.getString("user_email"));
+		user.setRankId(rs.getInt("rank_id"));
+		user.setViewEmailEnabled(rs.getInt("user_viewemail") == 1);
+		user.setIcq(rs.getString("user_icq"));
+		user.setTwitter(rs.getString("user_twitter"));
+		user.setAttachSignatureEnabled(rs.getInt("user_attachsig") == 1);
+		user.setSkype(rs.getString("user_skype"));
+		user.setWebSite(rs.getString("user_website"));
+		user.setSignature(rs.getString("user_sig"));
+
+		return user;
+	}
 }
@@ -46,7 +46,6 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
 
@@ -276,7 +275,7 @@ public class GenericGroupSecurityDAO extends AutoKeys implements GroupSecurityDA
 
 		// When the user is associated to more than one group, we
 		// should check the merged roles
-		int[] groupIds = this.getSortedGroupIds(groups);
+		int[] groupIds = SecurityCommon.sortedGroupIds(groups);
 
 		RoleCollection groupRoles = RolesRepository.getGroupRoles(groupIds);
 
@@ -288,18 +287,4 @@ public class GenericGroupSecurityDAO extends AutoKeys implements GroupSecurityDA
 
 		return groupRoles;
 	}
-
-	private int[] getSortedGroupIds(List<Group> groups)
-	{
-		int[] groupsIds = new int[groups.size()];
-		int i = 0;
-
-		for (Iterator<Group> iter = groups.iterator(); iter.hasNext();) {
-			groupsIds[i++] = iter.next().getId();
-		}
-
-		Arrays.sort(groupsIds);
-
-		return groupsIds;
-	}
 }
@@ -46,11 +46,14 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.Arrays;
 import java.util.Iterator;
+import java.util.List;
 
 import org.apache.commons.lang3.StringUtils;
 
 import net.jforum.JForumExecutionContext;
+import net.jforum.entities.Group;
 import net.jforum.exceptions.DatabaseException;
 import net.jforum.security.PermissionControl;
 import net.jforum.security.Role;
@@ -208,4 +211,25 @@ public class SecurityCommon
 		
 		return sb.toString();
 	}
+
+	/**
+	 * Gets the ids of some groups, in ascending order, as used
+	 * to key the roles merged from them.
+	 * 
+	 * @param groups The groups
+	 * @return The sorted ids
+	 */
+	public static int[] sortedGroupIds(List<Group> groups)
+	{
+		int[] groupsIds = new int[groups.size()];
+		int i = 0;
+
+		for (Iterator<Group> iter = groups.iterator(); iter.hasNext();) {
+			groupsIds[i++] = iter.next().getId();
+		}
+
+		Arrays.sort(groupsIds);
+
+		return groupsIds;
+	}
 }
@@ -44,6 +44,7 @@ package net.jforum.entities;
 
 import java.io.File;
 
+import net.jforum.util.image.ThumbnailService;
 import net.jforum.util.preferences.ConfigKeys;
 import net.jforum.util.preferences.SystemGlobals;
 
@@ -147,7 +148,18 @@ public class Attachment
 			&& isPicture(extension);
 	}
 	
+	/**
+	 * Gets the path of the thumbnail to show. Until it is created, the thumbnail
+	 * made by older versions or the image itself is used.
+	 * 
+	 * @return the path, relative to the context
+	 */
 	public String thumbPath() {
+		String thumbPath = ThumbnailService.thumbPath(this);
+		if (thumbPath != null) {
+			return thumbPath;
+		}
+		
 		String urlPath = SystemGlobals.getValue(ConfigKeys.ATTACHMENTS_UPLOAD_DIR)
 		    + "/" + this.info.getPhysicalFilename();
 		String realPath = SystemGlobals.getValue(ConfigKeys.ATTACHMENTS_STORE_DIR)
@@ -269,7 +269,7 @@ public class Category implements Serializable, Comparable<Category>
 	public Forum getForum(int userId, int forumId)
 	{
 		PermissionControl pc = SecurityRepository.get(userId);
-		if (pc.canAccess(SecurityConstants.PERM_FORUM, Integer.toString(forumId))) {
+		if (pc.canAccess(SecurityConstants.PERM_FORUM, forumId)) {
 			return this.forumsIdMap.get(Integer.valueOf(forumId));
 		}
 		LOGGER.debug("User with userId " + userId + " failed to access forum with forumId " + forumId);
@@ -303,6 +303,16 @@ public class Category implements Serializable, Comparable<Category>
 		return this.getForums(SessionFacade.getUserSession().getUserId());
 	}
 
+	/**
+	 * Gets all forums from this category, without checking for access rights.
+	 * 
+	 * @return The forums of this category, in display order
+	 */
+	public Collection<Forum> getAllForums()
+	{
+		return new ArrayList<Forum>(this.forums);
+	}
+
 	/**
 	 * Gets all forums from this category.
 	 * 
@@ -317,7 +327,7 @@ public class Category implements Serializable, Comparable<Category>
 
 		for (Iterator<Forum> iter = this.forums.iterator(); iter.hasNext(); ) {
 			Forum forum = iter.next();
-			if (pc.canAccess(SecurityConstants.PERM_FORUM, Integer.toString(forum.getId()))) {
+			if (pc.canAccess(SecurityConstants.PERM_FORUM, forum.getId())) {
 				forums.add(forum);
 			}
 		}
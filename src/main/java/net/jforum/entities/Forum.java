@@ -44,6 +44,8 @@ package net.jforum.entities;
 
 import java.io.Serializable;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
 import net.jforum.repository.ForumRepository;
 
@@ -56,17 +58,23 @@ import net.jforum.repository.ForumRepository;
 public class Forum implements Serializable
 {
 	private static final long serialVersionUID = -7821349315557704675L;
+	private static final AtomicIntegerFieldUpdater<Forum> TOTAL_TOPICS =
+		AtomicIntegerFieldUpdater.newUpdater(Forum.class, "totalTopics");
+	private static final AtomicIntegerFieldUpdater<Forum> TOTAL_POSTS =
+		AtomicIntegerFieldUpdater.newUpdater(Forum.class, "totalPosts");
+	private static final AtomicReferenceFieldUpdater<Forum, LastPostInfo> LAST_POST_INFO =
+		AtomicReferenceFieldUpdater.newUpdater(Forum.class, LastPostInfo.class, "lpi");
 	private int id;
 	private int idCategories;
 	private String name;
 	private String description;
 	private int order;
-	private int totalTopics;
-	private int totalPosts;
+	private volatile int totalTopics;
+	private volatile int totalPosts;
 	private int lastPostId;
 	private boolean moderated;
 	private boolean unread;
-	private LastPostInfo lpi;
+	private volatile LastPostInfo lpi;
 
 	public Forum() { 
 		// Empty Constructor
@@ -98,6 +106,25 @@ public class Forum implements Serializable
 	public LastPostInfo getLastPostInfo() {
 		return this.lpi;
 	}
+
+	/**
+	 * Sets the last post info, unless the current one is about a more recent message.
+	 * Safe to call concurrently with other updates of the same forum.
+	 * 
+	 * @param newer the information about the new message
+	 */
+	public void updateLastPostInfo(final LastPostInfo newer)
+	{
+		LastPostInfo current;
+
+		do {
+			current = this.lpi;
+
+			if (current != null && current.hasInfo() && current.getPostTimeMillis() > newer.getPostTimeMillis()) {
+				return;
+			}
+		} while (!LAST_POST_INFO.compareAndSet(this, current, newer));
+	}
 	
 	public List<ModeratorInfo> getModeratorList() 
 	{
@@ -263,6 +290,20 @@ public class Forum implements Serializable
 	public void setTotalPosts(final int totalPosts) {
 		this.totalPosts = totalPosts;
 	}
+
+	/**
+	 * Atomically increments the number of topics.
+	 */
+	public void incrementTotalTopics() {
+		TOTAL_TOPICS.incrementAndGet(this);
+	}
+
+	/**
+	 * Atomically increments the number of posts.
+	 */
+	public void incrementTotalPosts() {
+		TOTAL_POSTS.incrementAndGet(this);
+	}
 	
 	/** 
 	 * @see java.lang.Object#equals(java.lang.Object)
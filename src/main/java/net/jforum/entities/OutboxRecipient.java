@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) JForum Team
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, 
+ * with or without modification, are permitted provided 
+ * that the following conditions are met:
+ * 
+ * 1) Redistributions of source code must retain the above 
+ * copyright notice, this list of conditions and the 
+ * following disclaimer.
+ * 2) Redistributions in binary form must reproduce the 
+ * above copyright notice, this list of conditions and 
+ * the following disclaimer in the documentation and/or 
+ * other materials provided with the distribution.
+ * 3) Neither the name of "Rafael Steil" nor 
+ * the names of its contributors may be used to endorse 
+ * or promote products derived from this software without 
+ * specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT 
+ * HOLDERS AND CONTRIBUTORS "AS IS" AND ANY 
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, 
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF 
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR 
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL 
+ * THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, 
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, 
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER 
+ * IN CONTRACT, STRICT LIABILITY, OR TORT 
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN 
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF 
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE
+ * 
+ * The JForum Project
+ * http://www.jforum.net
+ */
+package net.jforum.entities;
+
+import java.io.Serializable;
+
+/**
+ * One pending delivery of an {@link OutboxMessage}.
+ */
+public class OutboxRecipient implements Serializable
+{
+	private static final long serialVersionUID = -2231880475063917608L;
+	private String messageId;
+	private String email;
+	private int attempts;
+	private String lastError;
+
+	public OutboxRecipient() { }
+
+	public OutboxRecipient(final String messageId, final String email)
+	{
+		this.messageId = messageId;
+		this.email = email;
+	}
+
+	/**
+	 * @return the id of the message to send
+	 */
+	public String getMessageId() {
+		return this.messageId;
+	}
+
+	/**
+	 * @param messageId the message id to set
+	 */
+	public void setMessageId(final String messageId) {
+		this.messageId = messageId;
+	}
+
+	/**
+	 * @return the email address
+	 */
+	public String getEmail() {
+		return this.email;
+	}
+
+	/**
+	 * @param email the email address to set
+	 */
+	public void setEmail(final String email) {
+		this.email = email;
+	}
+
+	/**
+	 * @return how many times sending failed
+	 */
+	public int getAttempts() {
+		return this.attempts;
+	}
+
+	/**
+	 * @param attempts the attempts to set
+	 */
+	public void setAttempts(final int attempts) {
+		this.attempts = attempts;
+	}
+
+	/**
+	 * @return the error of the last failed attempt, if any
+	 */
+	public String getLastError() {
+		return this.lastError;
+	}
+
+	/**
+	 * @param lastError the error to set
+	 */
+	public void setLastError(final String lastError) {
+		this.lastError = lastError;
+	}
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) JForum Team
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, 
+ * with or without modification, are permitted provided 
+ * that the following conditions are met:
+ * 
+ * 1) Redistributions of source code must retain the above 
+ * copyright notice, this list of conditions and the 
+ * following disclaimer.
+ * 2) Redistributions in binary form must reproduce the 
+ * above copyright notice, this list of conditions and 
+ * the following disclaimer in the documentation and/or 
+ * other materials provided with the distribution.
+ * 3) Neither the name of "Rafael Steil" nor 
+ * the names of its contributors may be used to endorse 
+ * or promote products derived from this software without 
+ * specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT 
+ * HOLDERS AND CONTRIBUTORS "AS IS" AND ANY 
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, 
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF 
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR 
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL 
+ * THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, 
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, 
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER 
+ * IN CONTRACT, STRICT LIABILITY, OR TORT 
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN 
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF 
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE
+ * 
+ * The JForum Project
+ * http://www.jforum.net
+ */
+package net.jforum.entities;
+
+import java.io.Serializable;
+
+/**
+ * The time some user last read a topic, or marked a whole forum as read.
+ */
+public class ReadMark implements Serializable
+{
+	private static final long serialVersionUID = 4625372113840529470L;
+	private int userId;
+	private int id;
+	private long time;
+
+	public ReadMark() { }
+
+	public ReadMark(final int userId, final int id, final long time)
+	{
+		this.userId = userId;
+		this.id = id;
+		this.time = time;
+	}
+
+	/**
+	 * @return the id of the user
+	 */
+	public int getUserId() {
+		return this.userId;
+	}
+
+	/**
+	 * @param userId the user id to set
+	 */
+	public void setUserId(final int userId) {
+		this.userId = userId;
+	}
+
+	/**
+	 * @return the id of the topic or forum
+	 */
+	public int getId() {
+		return this.id;
+	}
+
+	/**
+	 * @param id the topic or forum id to set
+	 */
+	public void setId(final int id) {
+		this.id = id;
+	}
+
+	/**
+	 * @return when it was read, in milliseconds
+	 */
+	public long getTime() {
+		return this.time;
+	}
+
+	/**
+	 * @param time the read time to set
+	 */
+	public void setTime(final long time) {
+		this.time = time;
+	}
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright (c) JForum Team
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, 
+ * with or without modification, are permitted provided 
+ * that the following conditions are met:
+ * 
+ * 1) Redistributions of source code must retain the above 
+ * copyright notice, this list of conditions and the 
+ * following disclaimer.
+ * 2) Redistributions in binary form must reproduce the 
+ * above copyright notice, this list of conditions and 
+ * the following disclaimer in the documentation and/or 
+ * other materials provided with the distribution.
+ * 3) Neither the name of "Rafael Steil" nor 
+ * the names of its contributors may be used to endorse 
+ * or promote products derived from this software without 
+ * specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT 
+ * HOLDERS AND CONTRIBUTORS "AS IS" AND ANY 
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, 
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF 
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR 
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL 
+ * THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, 
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, 
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER 
+ * IN CONTRACT, STRICT LIABILITY, OR TORT 
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN 
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF 
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE
+ * 
+ * The JForum Project
+ * http://www.jforum.net
+ */
+package net.jforum.entities;
+
+import java.io.Serializable;
+import java.util.Date;
+
+/**
+ * One sending of the weekly summary. Recipients are walked in user id order,
+ * and the last id handed to the mail dispatcher is saved after every page,
+ * so an interrupted run can go on from there.
+ */
+public class SummaryRun implements Serializable
+{
+	private static final long serialVersionUID = -6042176259412113752L;
+	private String id;
+	private Date periodStart;
+	private Date periodEnd;
+	private int lastUserId;
+	private int sent;
+	private Date started;
+	private Date finished;
+
+	public SummaryRun() { }
+
+	public SummaryRun(final String id, final Date periodStart, final Date periodEnd)
+	{
+		this.id = id;
+		this.periodStart = periodStart;
+		this.periodEnd = periodEnd;
+		this.started = new Date();
+	}
+
+	/**
+	 * @return the id
+	 */
+	public String getId() {
+		return this.id;
+	}
+
+	/**
+	 * @param id the id to set
+	 */
+	public void setId(final String id) {
+		this.id = id;
+	}
+
+	/**
+	 * @return the first date of the posts in the summary
+	 */
+	public Date getPeriodStart() {
+		return this.periodStart;
+	}
+
+	/**
+	 * @param periodStart the date to set
+	 */
+	public void setPeriodStart(final Date periodStart) {
+		this.periodStart = periodStart;
+	}
+
+	/**
+	 * @return the last date of the posts in the summary
+	 */
+	public Date getPeriodEnd() {
+		return this.periodEnd;
+	}
+
+	/**
+	 * @param periodEnd the date to set
+	 */
+	public void setPeriodEnd(final Date periodEnd) {
+		this.periodEnd = periodEnd;
+	}
+
+	/**
+	 * @return the id of the last user the summary was handed over for
+	 */
+	public int getLastUserId() {
+		return this.lastUserId;
+	}
+
+	/**
+	 * @param lastUserId the user id to set
+	 */
+	public void setLastUserId(final int lastUserId) {
+		this.lastUserId = lastUserId;
+	}
+
+	/**
+	 * @return how many recipients the summary was handed over for
+	 */
+	public int getSent() {
+		return this.sent;
+	}
+
+	/**
+	 * @param sent the count to set
+	 */
+	public void setSent(final int sent) {
+		this.sent = sent;
+	}
+
+	/**
+	 * @return when the run started
+	 */
+	public Date getStarted() {
+		return this.started;
+	}
+
+	/**
+	 * @param started the date to set
+	 */
+	public void setStarted(final Date started) {
+		this.started = started;
+	}
+
+	/**
+	 * @return when the run finished, or null while it is going on
+	 */
+	public Date getFinished() {
+		return this.finished;
+	}
+
+	/**
+	 * @param finished the date to set
+	 */
+	public void setFinished(final Date finished) {
+		this.finished = finished;
+	}
+
+	/**
+	 * @return the time taken so far, or by the whole run once finished
+	 */
+	public long getElapsedMillis() {
+		final long end = this.finished == null ? System.currentTimeMillis() : this.finished.getTime();
+		return Math.max(0, end - this.started.getTime());
+	}
+
+	/**
+	 * @return the recipients handed over per second
+	 */
+	public long getPerSecond() {
+		final long elapsed = this.getElapsedMillis();
+		return elapsed == 0 ? this.sent : this.sent * 1000L / elapsed;
+	}
+
+	@Override public String toString()
+	{
+		return (this.finished == null ? "running, " : "finished, ")
+			+ this.sent + " recipients in " + this.getElapsedMillis() / 1000 + "s (" + this.getPerSecond() + "/s)";
+	}
+}
@@ -845,7 +845,7 @@ public class User implements Serializable
 		
 		return (permissionControl.canAccess(SecurityConstants.PERM_MODERATION))
 			&& (permissionControl.canAccess(SecurityConstants.PERM_MODERATION_FORUMS, 
-				Integer.toString(forumId)));
+				forumId));
 	}
 
 	/**
@@ -322,7 +322,7 @@ public class UserSession implements Serializable
 		
 		return (permissionControl.canAccess(SecurityConstants.PERM_MODERATION))
 			&& (permissionControl.canAccess(SecurityConstants.PERM_MODERATION_FORUMS, 
-				Integer.toString(forumId)));
+				forumId));
 	}
 
 	/**
@@ -73,6 +73,8 @@ public class BBCodeRepository implements Cacheable
 	public static void setBBCollection(final BBCodeHandler bbCollection)
 	{
 		cache.add(FQN, BBCOLLECTION, bbCollection);
+		RenderedPostRepository.clear();
+		UserCardRepository.clear();
 	}
 	
 	public static BBCodeHandler getBBCollection()
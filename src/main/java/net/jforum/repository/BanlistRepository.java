@@ -48,13 +48,21 @@ import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.log4j.Logger;
 
+import net.jforum.ConfigLoader;
 import net.jforum.cache.CacheEngine;
 import net.jforum.cache.Cacheable;
 import net.jforum.dao.BanlistDAO;
 import net.jforum.dao.DataAccessDriver;
 import net.jforum.entities.Banlist;
+import net.jforum.security.BanlistMatcher;
 
 /**
+ * Bans are checked with a {@link BanlistMatcher}, built from the list kept in
+ * the cache engine. When the engine is clustered, see
+ * {@link ConfigLoader#isClustered(CacheEngine)}, other nodes may change the list,
+ * so the matcher is built again whenever the cached list is not the one it was
+ * built from.
+ * 
  * @author Rafael Steil
  * @version $Id$
  */
@@ -64,7 +72,8 @@ public class BanlistRepository implements Cacheable
 	private static CacheEngine cache;
 	private static final String FQN = "banlist";
 	private static final String BANLIST = "banlistCollection";
-	private static boolean empty = false;
+	private static volatile Built built;
+	private static volatile boolean clustered;
 	
 	/**
 	 * @see net.jforum.cache.Cacheable#setCacheEngine(net.jforum.cache.CacheEngine)
@@ -77,53 +86,79 @@ public class BanlistRepository implements Cacheable
 	private static void setEngine(CacheEngine engine) 
 	{
 		cache = engine;
+		clustered = ConfigLoader.isClustered(engine);
 	}
 	
 	public static boolean shouldBan(Banlist ban) {
-		boolean status = false;
-				
-		Map<Integer, Banlist> map = banlist();
-		if (map.isEmpty() && !empty) {
-			loadBanlist();
-			map = banlist();
-		}
-		for (Banlist current: map.values()) {			
-			if (current.matches(ban)) {
-				status = true;
-				break;
-			}
+		BanlistMatcher current = clustered ? clusteredMatcher() : matcher();
+		
+		if (current == null) {
+			current = loadBanlist();
 		}
 		
-		return status;
+		return current.matches(ban);
 	}
 
-	public static void add(Banlist ban)
+	private static BanlistMatcher matcher()
 	{
-		Map<Integer, Banlist> map = banlist();
-		map.put(Integer.valueOf(ban.getId()), ban);
-		
-		cache.add(FQN, BANLIST, map);
-		if (empty) {
-			empty = false;
+		Built current = built;
+		return current == null ? null : current.matcher;
+	}
+
+	/**
+	 * Gets the matcher of the list in the cache engine, building it
+	 * again if the list was changed by another node.
+	 * 
+	 * @return the matcher, or <code>null</code> if the list is not in the cache engine
+	 */
+	@SuppressWarnings("unchecked")
+	private static BanlistMatcher clusteredMatcher()
+	{
+		Map<Integer, Banlist> map = (Map<Integer, Banlist>)cache.get(FQN, BANLIST);
+
+		if (map == null) {
+			return null;
+		}
+
+		Built current = built;
+
+		if (current == null || current.source != map) {
+			current = new Built(map);
+			built = current;
 		}
+
+		return current.matcher;
 	}
-	
-	public static void remove(int banlistId)
+
+	public static synchronized void add(Banlist ban)
 	{
-		Map<Integer, Banlist> map = banlist();
+		if (built == null) {
+			// Not loaded yet, and the database already has the change
+			loadBanlist();
+			return;
+		}
 		
-		Integer key = Integer.valueOf(banlistId);
+		Map<Integer, Banlist> map = new ConcurrentHashMap<Integer, Banlist>(banlist());
+		map.put(Integer.valueOf(ban.getId()), ban);
 		
-		if (map.containsKey(key)) {
-			map.remove(key);
+		update(map);
+	}
+	
+	public static synchronized void remove(int banlistId)
+	{
+		if (built == null) {
+			// Not loaded yet, and the database already has the change
+			loadBanlist();
+			return;
 		}
 		
-		cache.add(FQN, BANLIST, map);
-		if (map.isEmpty()) {
-			empty = true;
-		}
+		Map<Integer, Banlist> map = new ConcurrentHashMap<Integer, Banlist>(banlist());
+		map.remove(Integer.valueOf(banlistId));
+		
+		update(map);
 	}
 	
+	@SuppressWarnings("unchecked")
 	private static Map<Integer, Banlist> banlist()
 	{
 		Map<Integer, Banlist> map = (Map<Integer, Banlist>)cache.get(FQN, BANLIST);
@@ -135,18 +170,46 @@ public class BanlistRepository implements Cacheable
 		return map;
 	}
 	
-	public static void loadBanlist() 
+	/**
+	 * Stores the list and replaces the matcher with one built from it, so
+	 * that requests see either the old or the new list, never a part of it.
+	 * The list is a new map every time, so that it can be told apart from the
+	 * one the matcher was built from.
+	 */
+	private static void update(Map<Integer, Banlist> map)
+	{
+		cache.add(FQN, BANLIST, map);
+		built = new Built(map);
+	}
+	
+	public static synchronized BanlistMatcher loadBanlist() 
 	{
 		BanlistDAO dao = DataAccessDriver.getInstance().newBanlistDAO();
 		List<Banlist> list = dao.selectAll();
+		Map<Integer, Banlist> map = new ConcurrentHashMap<Integer, Banlist>();
 		
-		if (list.size() == 0) {
-			empty = true;
-		} else {
-			for (Banlist ban: list) {
-				BanlistRepository.add(ban);			
-			}
+		for (Banlist ban: list) {
+			map.put(Integer.valueOf(ban.getId()), ban);
 		}
+		
+		update(map);
 		LOGGER.debug("Loading banlist from DAO");
+		
+		return built.matcher;
+	}
+
+	/**
+	 * A matcher, with the list it was built from
+	 */
+	private static final class Built
+	{
+		final Map<Integer, Banlist> source;
+		final BanlistMatcher matcher;
+
+		Built(Map<Integer, Banlist> source)
+		{
+			this.source = source;
+			this.matcher = new BanlistMatcher(source.values());
+		}
 	}
 }
@@ -44,15 +44,15 @@ package net.jforum.repository;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
-import java.util.TreeSet;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.log4j.Logger;
 
+import net.jforum.ConfigLoader;
 import net.jforum.ForumStartup;
 import net.jforum.SessionFacade;
 import net.jforum.cache.CacheEngine;
@@ -75,7 +75,6 @@ import net.jforum.exceptions.CategoryNotFoundException;
 import net.jforum.exceptions.DatabaseException;
 import net.jforum.security.PermissionControl;
 import net.jforum.security.SecurityConstants;
-import net.jforum.util.CategoryOrderComparator;
 import net.jforum.util.preferences.ConfigKeys;
 
 /**
@@ -83,6 +82,13 @@ import net.jforum.util.preferences.ConfigKeys;
  * This repository acts like a cache system, to avoid repetitive and unnecessary SQL queries
  * every time we need some info about the forums. 
  * To start the repository, call the method <code>start(ForumModel, CategoryModel)</code>
+ * <p>
+ * Categories and forums are kept in an immutable snapshot, read without any locking.
+ * Structural changes are serialized among themselves, and replace the whole snapshot.
+ * The snapshot and the board totals live in this node only, unless the cache engine
+ * is clustered, see {@link ConfigLoader#isClustered(CacheEngine)}. Then the categories
+ * and the totals are kept in the cache engine, and each node builds its snapshot again
+ * when the categories there change.
  * 
  * @author Rafael Steil
  */
@@ -92,16 +98,28 @@ public class ForumRepository implements Cacheable
 	private static CacheEngine cache;
 	private static ForumRepository instance;
 	private static final String FQN = "forumRepository";
-	private static final String CATEGORIES_SET = "categoriesSet";
-	private static final String RELATION = "relationForums";
 	private static final String FQN_MODERATORS = FQN + "/moderators";
-	private static final String TOTAL_MESSAGES = "totalMessages";
 	private static final String MOST_USERS_ONLINE = "mostUsersEverOnline";
 	private static final String LOADED = "loaded";
 	private static final String LAST_USER = "lastUser";
+	private static final String CATEGORIES = "categories";
+	private static final String TOTAL_MESSAGES = "totalMessages";
 	private static final String TOTAL_USERS = "totalUsers";
 
 	private static final Object MUTEX_FQN_MODERATORS = new Object();
+	private static final Object MUTEX_WRITE = new Object();
+	private static final Object MUTEX_TOTALS = new Object();
+
+	private static volatile boolean clustered;
+
+	/**
+	 * All categories and forums. Readers just dereference it, while writers,
+	 * serialized by {@link #MUTEX_WRITE}, publish a new snapshot built from copies
+	 */
+	private static volatile ForumSnapshot snapshot;
+	/** The board totals, unless kept in the cache engine. Zero and -1 mean unknown */
+	private static final AtomicInteger MESSAGES_COUNTER = new AtomicInteger();
+	private static final AtomicInteger USERS_COUNTER = new AtomicInteger(-1);
 
 	/**
 	 * @see net.jforum.cache.Cacheable#setCacheEngine(net.jforum.cache.CacheEngine)
@@ -114,6 +132,7 @@ public class ForumRepository implements Cacheable
 	private static void setEngine(final CacheEngine engine) 
 	{
 		cache = engine;
+		clustered = ConfigLoader.isClustered(engine);
 	}
 
 	/**
@@ -125,17 +144,42 @@ public class ForumRepository implements Cacheable
 	 * be used to retrieve information about the categories.
      * @param  configModel ConfigDAO
 	 */
-	public static synchronized void start(final ForumDAO forumDAO, final CategoryDAO categoryDAO, final ConfigDAO configModel)
+	public static void start(final ForumDAO forumDAO, final CategoryDAO categoryDAO, final ConfigDAO configModel)
+	{
+		synchronized (MUTEX_WRITE) {
+			instance = new ForumRepository();
+
+			if (current() == null || cache.get(FQN, LOADED) == null) {
+				final Map<Integer, Category> categories = instance.loadCategories(categoryDAO);
+				instance.loadForums(forumDAO, categories);
+				publish(categories);
+
+				instance.loadMostUsersEverOnline(configModel);
+				instance.loadUsersInfo();
+				cache.add(FQN, LOADED, "1");
+			}
+		}
+	}
+
+	/**
+	 * Gets the current snapshot, loading the repository if it was not started yet.
+	 * 
+	 * @return the categories and forums
+	 */
+	private static ForumSnapshot snapshot()
 	{
-		instance = new ForumRepository();
+		ForumSnapshot current = current();
+
+		if (current == null) {
+			ForumStartup.startForumRepository();
+			current = current();
 
-		if (cache.get(FQN, LOADED) == null) {
-			instance.loadCategories(categoryDAO);
-			instance.loadForums(forumDAO);
-			instance.loadMostUsersEverOnline(configModel);
-			instance.loadUsersInfo();
-			cache.add(FQN, LOADED, "1");
+			if (current == null) {
+				throw new CategoryNotFoundException("Could not find all categories. There must be a problem with the repository");
+			}
 		}
+
+		return current;
 	}
 
 	/**
@@ -165,10 +209,8 @@ public class ForumRepository implements Cacheable
 		if (!isCategoryAccessible(userId, categoryId)) {
 			return null;
 		}
-		if (cache.get(FQN, Integer.toString(categoryId)) == null) {
-            ForumStartup.startForumRepository(); // re-cache these, they were flushed out of cache for some reason
-        }
-		return (Category)cache.get(FQN, Integer.toString(categoryId));
+
+		return snapshot().category(categoryId);
 	}
 
 	public static Category getCategory(final PermissionControl permissonControl, final int categoryId)
@@ -176,18 +218,13 @@ public class ForumRepository implements Cacheable
 		if (!isCategoryAccessible(permissonControl, categoryId)) {
 			return null;
 		}
-		if (cache.get(FQN, Integer.toString(categoryId)) == null) {
-            ForumStartup.startForumRepository(); // re-cache these, they were flushed out of cache for some reason
-        }
-		return (Category)cache.get(FQN, Integer.toString(categoryId)); 
+
+		return snapshot().category(categoryId);
 	}
 
 	public static Category retrieveCategory(final int categoryId)
 	{
-        if (cache.get(FQN, Integer.toString(categoryId)) == null) {
-            ForumStartup.startForumRepository(); // re-cache these, they were flushed out of cache for some reason
-        }
-		return (Category)cache.get(FQN, Integer.toString(categoryId));
+		return snapshot().category(categoryId);
 	}
 
 	/**
@@ -225,7 +262,7 @@ public class ForumRepository implements Cacheable
 	 */
 	public static boolean isCategoryAccessible(final PermissionControl permissionControl, final int categoryId)
 	{
-		return permissionControl.canAccess(SecurityConstants.PERM_CATEGORY, Integer.toString(categoryId));
+		return permissionControl.canAccess(SecurityConstants.PERM_CATEGORY, categoryId);
 	}
 
 	/**
@@ -239,35 +276,10 @@ public class ForumRepository implements Cacheable
 		final PermissionControl permissionControl = SecurityRepository.get(userId);
 		final List<Category> list = new ArrayList<Category>();
 
-        if (cache.get(FQN, CATEGORIES_SET) == null) {
-           ForumStartup.startForumRepository(); // re-cache these, they were flushed out of cache for some reason
-        }
-		Set<Category> categoriesSet = (Set<Category>)cache.get(FQN, CATEGORIES_SET);
-
-		if (categoriesSet == null) {
-			synchronized (ForumRepository.instance) {
-				LOGGER.warn("Categories set returned null from the cache. Trying to reload");
+		for (final Iterator<Category> iter = snapshot().categories().iterator(); iter.hasNext(); ) {
+			final Category category = iter.next();
 
-				try {
-					ForumRepository.instance.loadCategories(DataAccessDriver.getInstance().newCategoryDAO());
-					ForumRepository.instance.loadForums(DataAccessDriver.getInstance().newForumDAO());
-				}
-				catch (Exception e) {
-					throw new CategoryNotFoundException("Failed to get the category", e);
-				}
-
-				categoriesSet = (Set<Category>)cache.get(FQN, CATEGORIES_SET);
-
-				if (categoriesSet == null) {
-					throw new CategoryNotFoundException("Could not find all categories. There must be a problem with the cache");
-				}
-			}
-		}
-
-		for (final Iterator<Category> iter = ((Set<Category>)cache.get(FQN, CATEGORIES_SET)).iterator(); iter.hasNext(); ) {
-			final Category category = getCategory(permissionControl, iter.next().getId());
-
-			if (category != null) {
+			if (isCategoryAccessible(permissionControl, category.getId())) {
 				list.add(category);
 			}
 		}
@@ -288,125 +300,205 @@ public class ForumRepository implements Cacheable
 		return getAllCategories(SessionFacade.getUserSession().getUserId());
 	}
 
-	private static Category findCategoryByOrder(final int order)
+	private static Category findCategoryByOrder(final ForumSnapshot current, final int order)
 	{
-		Category category = null;
-		for (final Iterator<Category> iter = ((Set<Category>)cache.get(FQN, CATEGORIES_SET)).iterator(); iter.hasNext(); ) {
-			category = iter.next();
+		for (final Iterator<Category> iter = current.categories().iterator(); iter.hasNext(); ) {
+			final Category category = iter.next();
 			if (category.getOrder() == order) {
-				break;
+				return category;
 			}
 		}
 
-		return category;
+		return null;
 	}
 
 	/**
-	 * Updates some category.
-	 * This method only updated the "name" and "order" fields. 
-	 *  
-	 * @param category The category to update. The method will search for a category
-	 * with the same id and update its data.
+	 * Makes a private copy of some category, to be changed and then published in a new snapshot.
+	 * Unlike {@link Category#Category(Category)}, all forums are kept, regardless of
+	 * the access rights of the current user, and the forums themselves are shared.
+	 * 
+	 * @param category The category to copy
+	 * @param forumId The id of a forum to replace or remove, or 0 for none
+	 * @param forum The forum to put in place of <code>forumId</code>, or <code>null</code> to remove it
+	 * @return the new category
 	 */
-	public static synchronized void reloadCategory(final Category category)
+	private static Category copyOf(final Category category, final int forumId, final Forum forum)
 	{
-		final Category current = (Category)cache.get(FQN, Integer.toString(category.getId()));
-		final Category currentAtOrder = findCategoryByOrder(category.getOrder());
+		final Category copy = new Category(category.getName(), category.getId());
+		copy.setOrder(category.getOrder());
+		copy.setModerated(category.isModerated());
 
-		final Set<Category> tmpSet = new TreeSet<Category>(new CategoryOrderComparator());
-		tmpSet.addAll((Set<Category>)cache.get(FQN, CATEGORIES_SET));
+		for (final Iterator<Forum> iter = category.getAllForums().iterator(); iter.hasNext(); ) {
+			final Forum current = iter.next();
 
-		if (currentAtOrder != null) {
-			tmpSet.remove(currentAtOrder);
-			cache.remove(FQN, Integer.toString(currentAtOrder.getId()));
+			if (current.getId() != forumId) {
+				copy.addForum(current);
+			}
 		}
 
-		tmpSet.add(category);
-		cache.add(FQN, Integer.toString(category.getId()), category);
-
-		if (currentAtOrder != null && category.getId() != currentAtOrder.getId()) {
-			tmpSet.remove(current);
-			currentAtOrder.setOrder(current.getOrder());
-			tmpSet.add(currentAtOrder);
-
-			cache.add(FQN, Integer.toString(currentAtOrder.getId()), currentAtOrder);
+		if (forum != null) {
+			copy.addForum(forum);
 		}
 
-		cache.add(FQN, CATEGORIES_SET, tmpSet);
+		return copy;
 	}
 
 	/**
-	 * Refreshes a category entry in the cache.
+	 * Gets the current snapshot, built again if the categories in a clustered
+	 * cache engine were changed, here or by another node.
 	 * 
-	 * @param category The category to refresh
+	 * @return the snapshot, or <code>null</code> if the repository is not loaded
 	 */
-	public static synchronized void refreshCategory(Category category)
+	private static ForumSnapshot current()
 	{
-		cache.add(FQN, Integer.toString(category.getId()), category);
-		final Set<Category> set = (Set<Category>)cache.get(FQN, CATEGORIES_SET);
-		set.remove(category);
-		set.add(category);
-		cache.add(FQN, CATEGORIES_SET, set);
+		final ForumSnapshot current = snapshot;
+
+		if (!clustered) {
+			return current;
+		}
+
+		final Collection<Category> categories = (Collection<Category>)cache.get(FQN, CATEGORIES);
+
+		if (categories == null) {
+			return null;
+		}
+
+		if (current != null && current.source() == categories) {
+			return current;
+		}
+
+		final ForumSnapshot rebuilt = new ForumSnapshot(categories);
+		snapshot = rebuilt;
+
+		return rebuilt;
 	}
 
-	public static synchronized void refreshForum(final Forum forum)
+	private static void publish(final Map<Integer, Category> categories)
 	{
-		final Category category = retrieveCategory(forum.getCategoryId());
-		category.addForum(forum);
-		refreshCategory(category);
+		if (clustered) {
+			final List<Category> list = new ArrayList<Category>(categories.values());
+			snapshot = new ForumSnapshot(list);
+			cache.add(FQN, CATEGORIES, list);
+		}
+		else {
+			snapshot = new ForumSnapshot(categories.values());
+		}
 	}
 
 	/**
-	 * Remove a category from the cache
-	 * @param category The category to remove. The instance should have the category id at least
+	 * Updates some category.
+	 * This method only updated the "name" and "order" fields. 
+	 *  
+	 * @param category The category to update. The method will search for a category
+	 * with the same id and update its data.
 	 */
-	public static synchronized void removeCategory(Category category)
+	public static void reloadCategory(final Category category)
 	{
-		cache.remove(FQN, Integer.toString(category.getId()));
+		synchronized (MUTEX_WRITE) {
+			final ForumSnapshot current = snapshot();
+			final Category existing = current.category(category.getId());
+			final Category currentAtOrder = findCategoryByOrder(current, category.getOrder());
+			final Map<Integer, Category> categories = current.copyCategories();
 
-		final Set<Category> set = (Set<Category>)cache.get(FQN, CATEGORIES_SET);
-		set.remove(category);
-		cache.add(FQN, CATEGORIES_SET, set);
+			categories.put(Integer.valueOf(category.getId()), category);
 
-		final Map<String, String> map = (Map<String, String>)cache.get(FQN, RELATION);
-		for (final Iterator<String> iter = map.values().iterator(); iter.hasNext(); ) {
-			if (Integer.parseInt((String)iter.next()) == category.getId()) {
-				iter.remove();
+			if (existing != null && currentAtOrder != null && category.getId() != currentAtOrder.getId()) {
+				final Category moved = copyOf(currentAtOrder, 0, null);
+				moved.setOrder(existing.getOrder());
+				categories.put(Integer.valueOf(moved.getId()), moved);
 			}
-		}
 
-		cache.add(FQN, RELATION, map);
+			publish(categories);
+		}
 	}
 
 	/**
-	 * Adds a new category to the cache.
-	 * @param category The category instance to insert in the cache.
+	 * Refreshes a category entry in the cache.
+	 * 
+	 * @param category The category to refresh
 	 */
-	public static synchronized void addCategory(final Category category)
+	public static void refreshCategory(Category category)
 	{
-		final String categoryId = Integer.toString(category.getId());
-		cache.add(FQN, categoryId, category);
+		synchronized (MUTEX_WRITE) {
+			final Map<Integer, Category> categories = snapshot().copyCategories();
+			categories.put(Integer.valueOf(category.getId()), category);
+			publish(categories);
+		}
+	}
 
-		Set<Category> set = (Set<Category>)cache.get(FQN, CATEGORIES_SET);
+	public static void refreshForum(final Forum forum)
+	{
+		synchronized (MUTEX_WRITE) {
+			final ForumSnapshot current = snapshot();
+			final Category category = current.category(forum.getCategoryId());
 
-		if (set == null) {
-			set = new TreeSet<Category>(new CategoryOrderComparator());
+			if (category == null) {
+				throw new CategoryNotFoundException("Category for forum #" + forum.getId() + " not found");
+			}
+
+			final Map<Integer, Category> categories = current.copyCategories();
+			categories.put(Integer.valueOf(category.getId()), copyOf(category, forum.getId(), forum));
+			publish(categories);
 		}
+	}
 
-		set.add(category);
-		cache.add(FQN, CATEGORIES_SET, set);
+	/**
+	 * Changes a forum's display order, swapping it with the forum currently at the new position.
+	 * 
+	 * @param forum The forum, already with its new order
+	 * @see Category#changeForumOrder(Forum)
+	 */
+	public static void changeForumOrder(final Forum forum)
+	{
+		synchronized (MUTEX_WRITE) {
+			final ForumSnapshot current = snapshot();
+			final Category category = current.category(forum.getCategoryId());
 
-		Map<String, String> relation = (Map<String, String>)cache.get(FQN, RELATION);
-		if (relation == null) {
-			relation = new ConcurrentHashMap<String, String>();
+			if (category == null) {
+				throw new CategoryNotFoundException("Category for forum #" + forum.getId() + " not found");
+			}
+
+			// The forum orders are going to change, so the forums can't be shared with the current snapshot
+			final Category copy = new Category(category.getName(), category.getId());
+			copy.setOrder(category.getOrder());
+			copy.setModerated(category.isModerated());
+
+			for (final Iterator<Forum> iter = category.getAllForums().iterator(); iter.hasNext(); ) {
+				copy.addForum(new Forum(iter.next()));
+			}
+
+			copy.changeForumOrder(forum);
+
+			final Map<Integer, Category> categories = current.copyCategories();
+			categories.put(Integer.valueOf(copy.getId()), copy);
+			publish(categories);
 		}
+	}
 
-		for (final Iterator<Forum> iter = category.getForums().iterator(); iter.hasNext(); ) {
-			final Forum forum = iter.next();
-			relation.put(Integer.toString(forum.getId()), categoryId);
+	/**
+	 * Remove a category from the cache
+	 * @param category The category to remove. The instance should have the category id at least
+	 */
+	public static void removeCategory(Category category)
+	{
+		synchronized (MUTEX_WRITE) {
+			final Map<Integer, Category> categories = snapshot().copyCategories();
+			categories.remove(Integer.valueOf(category.getId()));
+			publish(categories);
 		}
+	}
 
-		cache.add(FQN, RELATION, relation);
+	/**
+	 * Adds a new category to the cache.
+	 * @param category The category instance to insert in the cache.
+	 */
+	public static void addCategory(final Category category)
+	{
+		synchronized (MUTEX_WRITE) {
+			final Map<Integer, Category> categories = snapshot().copyCategories();
+			categories.put(Integer.valueOf(category.getId()), category);
+			publish(categories);
+		}
 	}
 
 	/**
@@ -418,27 +510,10 @@ public class ForumRepository implements Cacheable
 	 */
 	public static Forum getForum(int forumId)
 	{
-        Object cachedCategoryMap = cache.get(FQN, RELATION);
-        String categoryId = null;
-
-        if (cachedCategoryMap != null) {
-           categoryId = (String)((Map<String, String>)cache.get(FQN, RELATION)).get(Integer.toString(forumId));
-        } else {
-            ForumStartup.startForumRepository(); // re-cache these, they were flushed out of cache for some reason
-            cachedCategoryMap = cache.get(FQN, RELATION);
-            if (cachedCategoryMap != null) {
-                categoryId = (String)((Map<String, String>)cache.get(FQN, RELATION)).get(Integer.toString(forumId));
-            } else {
-                LOGGER.error("Give up! Something is wrong with cache.  Please check configuration.");
-            }
-        }
-
-		if (categoryId != null) {
-			Category category = (Category)cache.get(FQN, categoryId);
-
-			if (isCategoryAccessible(category.getId())) {
-				return category.getForum(forumId);
-			}
+		final Category category = snapshot().categoryOfForum(forumId);
+
+		if (category != null && isCategoryAccessible(category.getId())) {
+			return category.getForum(forumId);
 		}
 
 		return null;
@@ -453,8 +528,8 @@ public class ForumRepository implements Cacheable
 	{
 		// avoiding spurious NPEs
 		try {
-			int categoryId = Integer.parseInt((String)((Map<String, String>)cache.get(FQN, RELATION)).get(Integer.toString(forumId)));
-			return isForumAccessible(userId, categoryId, forumId);
+			final Category category = snapshot().categoryOfForum(forumId);
+			return category != null && category.getForum(userId, forumId) != null;
 		} catch (RuntimeException rtex) {
 			return false;
 		}
@@ -462,10 +537,8 @@ public class ForumRepository implements Cacheable
 
 	public static boolean isForumAccessible(int userId, int categoryId, int forumId)
 	{
-        if (cache.get(FQN, Integer.toString(categoryId)) == null) {
-            ForumStartup.startForumRepository(); // re-cache these, they were flushed out of cache for some reason
-        }
-		return ((Category)cache.get(FQN, Integer.toString(categoryId))).getForum(userId, forumId) != null;
+		final Category category = snapshot().category(categoryId);
+		return category != null && category.getForum(userId, forumId) != null;
 	}
 
 	/**
@@ -473,24 +546,9 @@ public class ForumRepository implements Cacheable
 	 * 
 	 * @param forum The forum to add
 	 */
-	public static synchronized void addForum(Forum forum)
+	public static void addForum(Forum forum)
 	{
-		String categoryId = Integer.toString(forum.getCategoryId());
-
-        if (cache.get(FQN, categoryId) == null) {
-            ForumStartup.startForumRepository(); // re-cache these, they were flushed out of cache for some reason
-        }
-
-        Category category = (Category)cache.get(FQN, categoryId);
-        category.addForum(forum);
-		cache.add(FQN, categoryId, category);
-
-		Map<String, String> map = (Map<String, String>)cache.get(FQN, RELATION);
-		map.put(Integer.toString(forum.getId()), categoryId);
-		cache.add(FQN, RELATION, map);
-
-		Set<Category> set = (Set<Category>)cache.get(FQN, CATEGORIES_SET);
-		cache.add(FQN, CATEGORIES_SET, set);
+		refreshForum(forum);
 	}
 
 	/**
@@ -498,24 +556,18 @@ public class ForumRepository implements Cacheable
 	 * 
 	 * @param forum The forum instance to remove.
 	 */
-	public static synchronized void removeForum(final Forum forum)
+	public static void removeForum(final Forum forum)
 	{
-		String id = Integer.toString(forum.getId());
-        if (cache.get(FQN, RELATION) == null) {
-            ForumStartup.startForumRepository(); // re-cache these, they were flushed out of cache for some reason
-        }
-		Map<String, String> map = (Map<String, String>)cache.get(FQN, RELATION);
-		map.remove(id);
-		cache.add(FQN, RELATION, map);
+		synchronized (MUTEX_WRITE) {
+			final ForumSnapshot current = snapshot();
+			final Category category = current.categoryOfForum(forum.getId());
 
-		id = Integer.toString(forum.getCategoryId());
-
-		Category category = (Category)cache.get(FQN, id);
-		category.removeForum(forum.getId());
-		cache.add(FQN, id, category);
-
-		Set<Category> set = (Set<Category>)cache.get(FQN, CATEGORIES_SET);
-		cache.add(FQN, CATEGORIES_SET, set);
+			if (category != null) {
+				final Map<Integer, Category> categories = current.copyCategories();
+				categories.put(Integer.valueOf(category.getId()), copyOf(category, forum.getId(), null));
+				publish(categories);
+			}
+		}
 	}
 
 	/**
@@ -526,59 +578,71 @@ public class ForumRepository implements Cacheable
 	 * 
 	 * @param forumId int The forum to reload its information
 	 */
-	public static synchronized void reloadForum(int forumId)
+	public static void reloadForum(int forumId)
 	{
-		Forum forum = DataAccessDriver.getInstance().newForumDAO().selectById(forumId);
-
-		if (((Map<String, String>)cache.get(FQN, RELATION)).containsKey(Integer.toString(forumId))) {
-			String id = Integer.toString(forum.getCategoryId());
-			Category category = (Category)cache.get(FQN, id);
-
+		if (snapshot().categoryOfForum(forumId) != null) {
+			final Forum forum = DataAccessDriver.getInstance().newForumDAO().selectById(forumId);
 			forum.setLastPostInfo(null);
 			forum.setLastPostInfo(ForumRepository.getLastPostInfo(forum));
-			category.reloadForum(forum);
 
-			cache.add(FQN, id, category);
-			Set<Category> set = (Set<Category>)cache.get(FQN, CATEGORIES_SET);
-			cache.add(FQN, CATEGORIES_SET, set);
+			synchronized (MUTEX_WRITE) {
+				final ForumSnapshot current = snapshot();
+				final Category category = current.category(forum.getCategoryId());
+
+				if (category != null && current.categoryOfForum(forumId) != null) {
+					final Map<Integer, Category> categories = current.copyCategories();
+					categories.put(Integer.valueOf(category.getId()), copyOf(category, forumId, forum));
+					publish(categories);
+				}
+			}
 		}
 
 		getTotalMessages(true);
 	}
 
-	public static synchronized void updateForumStats(Topic topic, User user, Post post)
+	/**
+	 * Accounts for a new message in the forum's statistics and last post information.
+	 * The forum is updated in place, using atomic operations, so concurrent
+	 * posters neither block each other nor rebuild the category.
+	 * 
+	 * @param topic The topic of the message
+	 * @param user The author of the message
+	 * @param post The new message
+	 */
+	public static void updateForumStats(Topic topic, User user, Post post)
 	{
-		String forumId = Integer.toString(topic.getForumId());
-
-		if (((Map<String, String>)cache.get(FQN, RELATION)).containsKey(forumId)) {
-			Forum forum = getForum(topic.getForumId());
-
-			LastPostInfo lpi = forum.getLastPostInfo();
-
-			if (lpi == null) {
-				lpi = new LastPostInfo();
-			}
+		final Forum forum = snapshot().forum(topic.getForumId());
 
+		if (forum != null) {
+			final LastPostInfo lpi = new LastPostInfo();
 			lpi.setPostId(post.getId());
 			lpi.setPostDate(post.getTime());
 			lpi.setPostTimeMillis(post.getTime().getTime());
 			lpi.setTopicId(topic.getId());
 			lpi.setTopicReplies(topic.getTotalReplies());
+			lpi.setTitle(topic.getTitle());
 			lpi.setUserId(user.getId());
 			lpi.setUsername(user.getUsername());
+			lpi.setHasInfo(true);
 
-			forum.setLastPostInfo(lpi);
+			forum.updateLastPostInfo(lpi);
 
 			if (topic.getTotalReplies() == 0) {
-				forum.setTotalTopics(forum.getTotalTopics() + 1);
+				forum.incrementTotalTopics();
 			}
 
-			forum.setTotalPosts(forum.getTotalPosts() + 1);
+			forum.incrementTotalPosts();
 
-			Category category = retrieveCategory(forum.getCategoryId());
-			category.reloadForum(forum);
+			if (clustered) {
+				// Put back, so the other nodes see the new stats
+				synchronized (MUTEX_WRITE) {
+					final ForumSnapshot current = current();
 
-			refreshCategory(category);
+					if (current != null) {
+						cache.add(FQN, CATEGORIES, current.source());
+					}
+				}
+			}
 		}
 	}
 
@@ -591,7 +655,7 @@ public class ForumRepository implements Cacheable
 	{
 		LastPostInfo lpi = forum.getLastPostInfo();
 
-		if (lpi == null || !forum.getLastPostInfo().hasInfo()) {
+		if (lpi == null || !lpi.hasInfo()) {
 			lpi = DataAccessDriver.getInstance().newForumDAO().getLastPostInfo(forum.getId());
 			forum.setLastPostInfo(lpi);
 		}
@@ -655,20 +719,26 @@ public class ForumRepository implements Cacheable
 
 	public static Integer totalUsers()
 	{
-		Integer i = (Integer)cache.get(FQN, TOTAL_USERS);
+		int total = getTotal(TOTAL_USERS, USERS_COUNTER);
 
-		if (i == null) {
-			i = DataAccessDriver.getInstance().newUserDAO().getTotalUsers();
-			cache.add(FQN, TOTAL_USERS, i);
+		if (total < 0) {
+			total = DataAccessDriver.getInstance().newUserDAO().getTotalUsers();
+
+			if (clustered) {
+				setTotal(TOTAL_USERS, USERS_COUNTER, total);
+			}
+			else {
+				USERS_COUNTER.compareAndSet(-1, total);
+			}
 		}
-		return i;
+
+		return Integer.valueOf(total);
 	}
 
 	public static void incrementTotalUsers()
 	{
-		Integer i = totalUsers();
-
-		cache.add(FQN, TOTAL_USERS, Integer.valueOf(i.intValue() + 1));
+		totalUsers();
+		incrementTotal(TOTAL_USERS, USERS_COUNTER);
 	}
 
 	/**
@@ -692,22 +762,62 @@ public class ForumRepository implements Cacheable
 	 */
 	public static int getTotalMessages(boolean fromDb) 
 	{
-		Integer i = (Integer)cache.get(FQN, TOTAL_MESSAGES);
-
-		int total = i != null ? i.intValue() : 0;
+		int total = getTotal(TOTAL_MESSAGES, MESSAGES_COUNTER);
 
-		if (fromDb || total == 0) {
+		if (fromDb || total <= 0) {
 			total = DataAccessDriver.getInstance().newForumDAO().getTotalMessages();
-			cache.add(FQN, TOTAL_MESSAGES, Integer.valueOf(total));
+			setTotal(TOTAL_MESSAGES, MESSAGES_COUNTER, total);
 		}
 
 		return total;
 	}
 
-	public static synchronized void incrementTotalMessages()
+	public static void incrementTotalMessages()
+	{
+		if (getTotal(TOTAL_MESSAGES, MESSAGES_COUNTER) <= 0) {
+			getTotalMessages(true);
+		}
+
+		incrementTotal(TOTAL_MESSAGES, MESSAGES_COUNTER);
+	}
+
+	/**
+	 * Gets a board total, from the cache engine when it is clustered.
+	 * 
+	 * @param key the key of the total in the cache engine
+	 * @param counter the total in this node
+	 * @return the total, or a negative value if it is not known
+	 */
+	private static int getTotal(final String key, final AtomicInteger counter)
+	{
+		if (!clustered) {
+			return counter.get();
+		}
+
+		final Integer total = (Integer)cache.get(FQN, key);
+		return total == null ? -1 : total.intValue();
+	}
+
+	private static void setTotal(final String key, final AtomicInteger counter, final int total)
 	{
-		int total = getTotalMessages(false);
-		cache.add(FQN, TOTAL_MESSAGES, Integer.valueOf(total + 1));
+		if (clustered) {
+			cache.add(FQN, key, Integer.valueOf(total));
+		}
+		else {
+			counter.set(total);
+		}
+	}
+
+	private static void incrementTotal(final String key, final AtomicInteger counter)
+	{
+		if (!clustered) {
+			counter.incrementAndGet();
+			return;
+		}
+
+		synchronized (MUTEX_TOTALS) {
+			cache.add(FQN, key, Integer.valueOf(getTotal(key, counter) + 1));
+		}
 	}
 
 	/**
@@ -764,75 +874,49 @@ public class ForumRepository implements Cacheable
 	}
 
 	/**
-	 * Loads all forums.
+	 * Loads all forums into their categories.
      * @param fm ForumDAO
+     * @param categories the categories, indexed by id
      */
-	private void loadForums(ForumDAO fm)
+	private void loadForums(ForumDAO fm, Map<Integer, Category> categories)
 	{
 		List<Forum> list = fm.selectAll();
 
-		Map<String, String> m = (Map<String, String>)cache.get(FQN, RELATION);
-		if (m == null) {
-			m = new ConcurrentHashMap<String, String>();
-		}
-
-		int lastId = 0;
-		Category category = null;
-		String catId = null;
-
 		for (Iterator<Forum> iter = list.iterator(); iter.hasNext(); ) {
 			Forum forum = iter.next();
-
-			if (forum.getCategoryId() != lastId) {
-				if (category != null) {
-					cache.add(FQN, catId, category);
-				}
-
-				lastId = forum.getCategoryId();
-				catId = Integer.toString(forum.getCategoryId());
-				category = (Category)cache.get(FQN, catId);
-			}
+			Category category = categories.get(Integer.valueOf(forum.getCategoryId()));
 
 			if (category == null) {
 				throw new CategoryNotFoundException("Category for forum #" + forum.getId() + " not found");
 			}
 
-			String forumId = Integer.toString(forum.getId());
 			category.addForum(forum);
-			m.put(forumId, catId);
-		}
-
-		if (category != null) {
-			cache.add(FQN, catId, category);
 		}
-
-		cache.add(FQN, RELATION, m);
 	}
 
 	private void loadUsersInfo()
 	{
 		UserDAO udao = DataAccessDriver.getInstance().newUserDAO();
 		cache.add(FQN, LAST_USER, udao.getLastUserInfo());
-		cache.add(FQN, TOTAL_USERS, Integer.valueOf(udao.getTotalUsers()));
+		setTotal(TOTAL_USERS, USERS_COUNTER, udao.getTotalUsers());
 	}
 
 	/**
 	 * Loads all categories.
      * @param cm CategoryDAO
+     * @return the categories, indexed by id
      */
-	private void loadCategories(CategoryDAO cm)
+	private Map<Integer, Category> loadCategories(CategoryDAO cm)
 	{
 		List<Category> categories = cm.selectAll();
-		Set<Category> categoriesSet = new TreeSet<Category>(new CategoryOrderComparator());
+		Map<Integer, Category> map = new HashMap<Integer, Category>();
 
 		for (Iterator<Category> iter = categories.iterator(); iter.hasNext(); ) {
 			Category category = iter.next();
-
-			cache.add(FQN, Integer.toString(category.getId()), category);
-			categoriesSet.add(category);
+			map.put(Integer.valueOf(category.getId()), category);
 		}
 
-		cache.add(FQN, CATEGORIES_SET, categoriesSet);
+		return map;
 	}
 
 	private synchronized MostUsersEverOnline loadMostUsersEverOnline(ConfigDAO cm) 
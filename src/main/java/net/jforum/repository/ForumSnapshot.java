@@ -0,0 +1,148 @@
+/*
+ * Copyright (c) JForum Team
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, 
+ * with or without modification, are permitted provided 
+ * that the following conditions are met:
+ * 
+ * 1) Redistributions of source code must retain the above 
+ * copyright notice, this list of conditions and the 
+ * following disclaimer.
+ * 2) Redistributions in binary form must reproduce the 
+ * above copyright notice, this list of conditions and 
+ * the following disclaimer in the documentation and/or 
+ * other materials provided with the distribution.
+ * 3) Neither the name of "Rafael Steil" nor 
+ * the names of its contributors may be used to endorse 
+ * or promote products derived from this software without 
+ * specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT 
+ * HOLDERS AND CONTRIBUTORS "AS IS" AND ANY 
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, 
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF 
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR 
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL 
+ * THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, 
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, 
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER 
+ * IN CONTRACT, STRICT LIABILITY, OR TORT 
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN 
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF 
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE
+ * 
+ * The JForum Project
+ * http://www.jforum.net
+ */
+package net.jforum.repository;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import net.jforum.entities.Category;
+import net.jforum.entities.Forum;
+import net.jforum.util.CategoryOrderComparator;
+import net.jforum.util.IntObjectMap;
+
+/**
+ * Immutable view of all categories and forums, as held by {@link ForumRepository}.
+ * A snapshot is never changed after being built: structural changes build
+ * a new one from private copies of the affected categories, and publish it
+ * at once, so readers never see a half updated board nor need any lock.
+ */
+final class ForumSnapshot
+{
+	private final Collection<Category> source;
+	private final Set<Category> categories;
+	private final IntObjectMap<Category> categoriesById;
+	private final IntObjectMap<Category> categoryByForumId;
+	private final IntObjectMap<Forum> forumsById;
+
+	ForumSnapshot(final Collection<Category> source)
+	{
+		final Set<Category> ordered = new TreeSet<Category>(new CategoryOrderComparator());
+		final Map<Integer, Category> byId = new HashMap<Integer, Category>();
+		final Map<Integer, Category> byForum = new HashMap<Integer, Category>();
+		final Map<Integer, Forum> forums = new HashMap<Integer, Forum>();
+		this.source = source;
+
+		for (final Iterator<Category> iter = source.iterator(); iter.hasNext(); ) {
+			final Category category = iter.next();
+			ordered.add(category);
+			byId.put(Integer.valueOf(category.getId()), category);
+
+			for (final Iterator<Forum> forumIter = category.getAllForums().iterator(); forumIter.hasNext(); ) {
+				final Forum forum = forumIter.next();
+				byForum.put(Integer.valueOf(forum.getId()), category);
+				forums.put(Integer.valueOf(forum.getId()), forum);
+			}
+		}
+
+		this.categories = Collections.unmodifiableSet(ordered);
+		this.categoriesById = IntObjectMap.copyOf(byId);
+		this.categoryByForumId = IntObjectMap.copyOf(byForum);
+		this.forumsById = IntObjectMap.copyOf(forums);
+	}
+
+	/**
+	 * @return the categories this snapshot was built from
+	 */
+	Collection<Category> source()
+	{
+		return this.source;
+	}
+
+	/**
+	 * @return all categories, in display order
+	 */
+	Set<Category> categories()
+	{
+		return this.categories;
+	}
+
+	Category category(final int categoryId)
+	{
+		return this.categoriesById.get(categoryId);
+	}
+
+	Category categoryOfForum(final int forumId)
+	{
+		return this.categoryByForumId.get(forumId);
+	}
+
+	/**
+	 * Gets a forum, without checking for access rights.
+	 * @param forumId the forum's id
+	 * @return the forum, or <code>null</code> if it does not exist
+	 */
+	Forum forum(final int forumId)
+	{
+		return this.forumsById.get(forumId);
+	}
+
+	/**
+	 * @return a mutable map of the current categories, indexed by id, 
+	 * from which a new snapshot can be built
+	 */
+	Map<Integer, Category> copyCategories()
+	{
+		final Map<Integer, Category> map = new HashMap<Integer, Category>();
+
+		for (final Iterator<Category> iter = this.categories.iterator(); iter.hasNext(); ) {
+			final Category category = iter.next();
+			map.put(Integer.valueOf(category.getId()), category);
+		}
+
+		return map;
+	}
+}
@@ -42,44 +42,155 @@
  */
 package net.jforum.repository;
 
-import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.TreeSet;
 import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.log4j.Logger;
 
+import net.jforum.Command;
 import net.jforum.ConfigLoader;
 import net.jforum.JForumExecutionContext;
+import net.jforum.UrlPatternCollection;
+import net.jforum.exceptions.ForumException;
 import net.jforum.util.preferences.ConfigKeys;
 import net.jforum.util.preferences.SystemGlobals;
 
 /**
+ * Maps module names to the classes that handle them.
+ * <p>
+ * Each time the mapping is loaded, the classes are resolved up front into an
+ * immutable table of {@link Module}s, holding a handle to the constructor and
+ * one to each action, so handling a request is a map lookup and a direct call
+ * instead of a reflective one.
+ * 
  * @author Rafael Steil
  * @version $Id$
  */
 public class ModulesRepository
 {
 	private static final Logger LOGGER = Logger.getLogger(ModulesRepository.class);
+	private static final MethodType FACTORY_TYPE = MethodType.methodType(Command.class);
+	private static final MethodType ACTION_TYPE = MethodType.methodType(void.class, Command.class);
 	
 	private static Map<String, Properties> cache = new ConcurrentHashMap<String, Properties>();
 	private static final String ENTRIES = "entries";
 
+	private static volatile Map<String, Module> modules = Collections.emptyMap();
+
+	/**
+	 * The actions of each command class: its public methods without arguments.
+	 * Computed once per class, as the classes do not change on reloads
+	 */
+	private static final ClassValue<Map<String, MethodHandle>> ACTIONS = new ClassValue<Map<String, MethodHandle>>() {
+		@Override protected Map<String, MethodHandle> computeValue(final Class<?> type) {
+			return resolveActions(type);
+		}
+	};
+
+	/**
+	 * A module, resolved.
+	 */
+	public static final class Module
+	{
+		private final String name;
+		private final Class<?> type;
+		private final MethodHandle factory;
+
+		Module(final String name, final Class<?> type, final MethodHandle factory)
+		{
+			this.name = name;
+			this.type = type;
+			this.factory = factory;
+		}
+
+		/**
+		 * @return the module's name, as used in the URLs
+		 */
+		public String getName()
+		{
+			return this.name;
+		}
+
+		/**
+		 * @return the class which handles the module
+		 */
+		public Class<?> getType()
+		{
+			return this.type;
+		}
+
+		/**
+		 * Creates the command to handle a request. 
+		 * Commands keep the request, so a new one is needed every time.
+		 * 
+		 * @return the new command
+		 */
+		public Command newCommand()
+		{
+			try {
+				return (Command)this.factory.invokeExact();
+			}
+			catch (RuntimeException e) {
+				throw e;
+			}
+			catch (Throwable e) {
+				throw new ForumException("Could not create the command of module " + this.name, e);
+			}
+		}
+
+		/**
+		 * @param action the action's name
+		 * @return <code>true</code> if the module has such action
+		 */
+		public boolean hasAction(final String action)
+		{
+			return ACTIONS.get(this.type).containsKey(action);
+		}
+	}
+
 	/**
 	 * Loads all modules mapping.
 	 * 
 	 * @param baseDir The directory where the file "modulesMapping.properties"
 	 * is placed.
-	 * @throws IOException
 	 */
 	public static void init(final String baseDir)
 	{
-		cache.put(ENTRIES, ConfigLoader.loadModulesMapping(baseDir));
+		final Properties mapping = ConfigLoader.loadModulesMapping(baseDir);
+		final Map<String, Module> table = new HashMap<String, Module>();
+
+		for (final Iterator<String> iter = mapping.stringPropertyNames().iterator(); iter.hasNext(); ) {
+			final String name = iter.next();
+			final Module module = resolveModule(name, mapping.getProperty(name).trim());
+
+			if (module != null) {
+				table.put(name, module);
+			}
+		}
+
+		cache.put(ENTRIES, mapping);
+		modules = Collections.unmodifiableMap(table);
 	}
 	
+	/**
+	 * @return how many modules are available
+	 */
 	public static int size()
 	{
-		return cache.size();
+		return modules.size();
 	}
 	
 	/**
@@ -103,4 +214,143 @@ public class ModulesRepository
 		
 		return properties == null ? null : properties.getProperty(moduleName);
 	}
+
+	/**
+	 * Gets some module, ready to handle requests.
+	 * 
+	 * @param moduleName The module's name
+	 * @return The module, or <code>null</code> if there is no such 
+	 * module or its class could not be used.
+	 */
+	public static Module getModule(final String moduleName)
+	{
+		if (cache.get(ENTRIES) == null) {
+			ModulesRepository.init(SystemGlobals.getValue(ConfigKeys.CONFIG_DIR));
+		}
+
+		return modules.get(moduleName);
+	}
+
+	/**
+	 * Gets an action of some command class.
+	 * Actions are the public methods, without arguments, of 
+	 * <code>Command</code> and its subclasses.
+	 * 
+	 * @param type The command's class
+	 * @param action The action's name
+	 * @return A handle taking the command as its only argument, 
+	 * or <code>null</code> if there is no such action.
+	 */
+	public static MethodHandle getAction(final Class<? extends Command> type, final String action)
+	{
+		return ACTIONS.get(type).get(action);
+	}
+
+	/**
+	 * Finds the URL patterns whose module or action does not exist.
+	 * 
+	 * @param patternNames The names of the patterns, in the 
+	 * form <i>module.action.numberOfParameters</i>
+	 * @return The patterns which would not reach their action, sorted
+	 */
+	public static List<String> findUnresolvedActions(final Collection<String> patternNames)
+	{
+		final Collection<String> unresolved = new TreeSet<String>();
+
+		for (final Iterator<String> iter = patternNames.iterator(); iter.hasNext(); ) {
+			final String pattern = iter.next();
+			final String[] parts = pattern.split("\\.");
+
+			if (parts.length != 3) {
+				unresolved.add(pattern);
+				continue;
+			}
+
+			final Module module = modules.get(parts[0]);
+
+			if (module == null || !module.hasAction(parts[1])) {
+				unresolved.add(pattern);
+			}
+		}
+
+		return new ArrayList<String>(unresolved);
+	}
+
+	/**
+	 * Logs the URL patterns which do not resolve to an action. 
+	 * Requests to them get the module's listing instead, or no page at all.
+	 */
+	public static void reportUnresolvedActions()
+	{
+		final List<String> unresolved = findUnresolvedActions(UrlPatternCollection.getPatternNames());
+
+		if (!unresolved.isEmpty()) {
+			LOGGER.warn("URL patterns without a matching action: " + unresolved);
+		}
+	}
+
+	/**
+	 * Resolves a module, as done for each entry of the mapping.
+	 * 
+	 * @param name The module's name
+	 * @param className The fully qualified name of the command class
+	 * @return The module, or <code>null</code> if the class cannot be used
+	 */
+	public static Module resolveModule(final String name, final String className)
+	{
+		try {
+			final Class<?> type = Class.forName(className);
+
+			if (!Command.class.isAssignableFrom(type)) {
+				LOGGER.error("Module " + name + ": " + className + " is not a command");
+				return null;
+			}
+
+			final MethodHandle factory = MethodHandles.publicLookup()
+				.findConstructor(type, MethodType.methodType(void.class))
+				.asType(FACTORY_TYPE);
+
+			ACTIONS.get(type);
+
+			return new Module(name, type, factory);
+		}
+		catch (ReflectiveOperationException e) {
+			LOGGER.error("Module " + name + " cannot be used: " + e, e);
+		}
+		catch (LinkageError e) {
+			LOGGER.error("Module " + name + " cannot be used: " + e, e);
+		}
+
+		return null;
+	}
+
+	private static Map<String, MethodHandle> resolveActions(final Class<?> type)
+	{
+		final Map<String, MethodHandle> actions = new HashMap<String, MethodHandle>();
+		final MethodHandles.Lookup lookup = MethodHandles.lookup();
+		final Method[] methods = type.getMethods();
+
+		for (int i = 0; i < methods.length; i++) {
+			final Method method = methods[i];
+
+			if (method.getParameterTypes().length > 0 
+				|| Modifier.isStatic(method.getModifiers())
+				|| !Command.class.isAssignableFrom(method.getDeclaringClass())) {
+				continue;
+			}
+
+			try {
+				if (!Modifier.isPublic(method.getDeclaringClass().getModifiers())) {
+					method.setAccessible(true);
+				}
+
+				actions.put(method.getName(), lookup.unreflect(method).asType(ACTION_TYPE));
+			}
+			catch (IllegalAccessException e) {
+				LOGGER.warn("Action " + method.getName() + " of " + type.getName() + " cannot be used: " + e);
+			}
+		}
+
+		return Collections.unmodifiableMap(actions);
+	}
 }
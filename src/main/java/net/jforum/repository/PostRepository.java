@@ -56,7 +56,6 @@ import net.jforum.dao.PostDAO;
 import net.jforum.entities.Post;
 import net.jforum.util.preferences.ConfigKeys;
 import net.jforum.util.preferences.SystemGlobals;
-import net.jforum.view.forum.common.PostCommon;
 
 /**
  * Repository for the post in the top n topics for each forum.
@@ -117,7 +116,7 @@ public class PostRepository implements Cacheable
 			posts = pm.selectAllByTopic(topicId);
 			
 			for (Iterator<Post> iter = posts.iterator(); iter.hasNext(); ) {
-				PostCommon.preparePostForDisplay(iter.next());
+				RenderedPostRepository.prepareForDisplay(iter.next());
 			}
 	
 			Map<String, List<Post>> topics = (Map<String, List<Post>>)cache.get(FQN);
@@ -156,6 +155,8 @@ public class PostRepository implements Cacheable
 	public static void remove(int topicId, Post post)
 	{
 		synchronized (MUTEX_FQN) {
+			RenderedPostRepository.remove(post.getId());
+
 			String tid = Integer.toString(topicId);			
 			List<Post> posts = (List<Post>)cache.get(FQN, tid);			
 			if (posts != null) {
@@ -168,6 +169,8 @@ public class PostRepository implements Cacheable
 	public static void update(int topicId, Post post)
 	{
 		synchronized (MUTEX_FQN) {
+			RenderedPostRepository.remove(post.getId());
+
 			String tid = Integer.toString(topicId);
 			List<Post> posts = (List<Post>)cache.get(FQN, tid);
 			if (posts != null && posts.contains(post)) {
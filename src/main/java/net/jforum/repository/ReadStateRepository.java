@@ -0,0 +1,578 @@
+/*
+ * Copyright (c) JForum Team
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, 
+ * with or without modification, are permitted provided 
+ * that the following conditions are met:
+ * 
+ * 1) Redistributions of source code must retain the above 
+ * copyright notice, this list of conditions and the 
+ * following disclaimer.
+ * 2) Redistributions in binary form must reproduce the 
+ * above copyright notice, this list of conditions and 
+ * the following disclaimer in the documentation and/or 
+ * other materials provided with the distribution.
+ * 3) Neither the name of "Rafael Steil" nor 
+ * the names of its contributors may be used to endorse 
+ * or promote products derived from this software without 
+ * specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT 
+ * HOLDERS AND CONTRIBUTORS "AS IS" AND ANY 
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, 
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF 
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR 
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL 
+ * THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, 
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, 
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER 
+ * IN CONTRACT, STRICT LIABILITY, OR TORT 
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN 
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF 
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE
+ * 
+ * The JForum Project
+ * http://www.jforum.net
+ */
+package net.jforum.repository;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.log4j.Logger;
+
+import net.jforum.JForumExecutionContext;
+import net.jforum.dao.DataAccessDriver;
+import net.jforum.dao.ReadStateDAO;
+import net.jforum.entities.Forum;
+import net.jforum.entities.LastPostInfo;
+import net.jforum.entities.ReadMark;
+import net.jforum.entities.Topic;
+import net.jforum.entities.UserSession;
+import net.jforum.util.BoundedLinkedHashMap;
+import net.jforum.util.IntLongMap;
+import net.jforum.util.concurrent.NamedThreadFactory;
+import net.jforum.util.preferences.ConfigKeys;
+import net.jforum.util.preferences.SystemGlobals;
+import net.jforum.util.stats.Stats;
+
+/**
+ * Keeps what each user has read: the time each topic was last read, and the
+ * time each forum was marked as read as a whole.
+ * <p>
+ * Marks live in the database, so they survive the session, and the ones of
+ * recently active users are kept in memory, in <i>topics.read.cache.size</i>
+ * compact maps. Anything posted before the last visit of the user counts as
+ * read, so older marks are dropped, both here and in the database.
+ * <p>
+ * New marks, and the removal of old ones, are written the same way
+ * {@link TopicViewCounter} writes views:
+ * every <i>topics.read.flush.interval</i> seconds, or sooner when
+ * <i>topics.read.flush.threshold</i> marks are pending. Until {@link #start()}
+ * is called, or if the interval is zero, every mark goes straight to the database.
+ */
+public final class ReadStateRepository
+{
+	private static final Logger LOGGER = Logger.getLogger(ReadStateRepository.class);
+	private static final String GAUGE_PENDING = "Read marks pending";
+	private static final String GAUGE_CACHED = "Read marks cached users";
+	private static final String GAUGE_LAST_FLUSH = "Read marks last flush";
+
+	private static final ConcurrentMap<Long, Long> PENDING_TOPICS = new ConcurrentHashMap<Long, Long>();
+	private static final ConcurrentMap<Long, Long> PENDING_FORUMS = new ConcurrentHashMap<Long, Long>();
+	private static final ConcurrentMap<Long, Long> FLUSHING_TOPICS = new ConcurrentHashMap<Long, Long>();
+	private static final ConcurrentMap<Long, Long> FLUSHING_FORUMS = new ConcurrentHashMap<Long, Long>();
+	/** For each user, the time up to which marks can be removed */
+	private static final ConcurrentMap<Integer, Long> PENDING_DELETES = new ConcurrentHashMap<Integer, Long>();
+	private static final AtomicBoolean FLUSH_REQUESTED = new AtomicBoolean();
+	private static final Object MUTEX_FLUSH = new Object();
+	private static final Object MUTEX_LIFECYCLE = new Object();
+
+	private static volatile Map<Integer, Marks> users;
+	private static volatile ScheduledExecutorService scheduler;
+	private static volatile int threshold;
+	private static volatile String lastFlush = "";
+
+	private static final Runnable FLUSH_TASK = new Runnable() {
+		@Override public void run() {
+			try {
+				flush();
+			}
+			catch (Exception e) {
+				LOGGER.error("Error while writing read marks: " + e, e);
+			}
+		}
+	};
+
+	/**
+	 * Tells, for one request, what the current user has read.
+	 * Anonymous users have read everything.
+	 */
+	public static final class Reader
+	{
+		private static final Reader NONE = new Reader(null, 0);
+
+		private final Marks marks;
+		private final long lastVisit;
+
+		Reader(final Marks marks, final long lastVisit)
+		{
+			this.marks = marks;
+			this.lastVisit = lastVisit;
+		}
+
+		/**
+		 * @param topic the topic
+		 * @return <code>true</code> if there is nothing new in the topic
+		 */
+		public boolean isRead(final Topic topic)
+		{
+			final long lastPostTime = topic.getLastPostDate().getTime();
+
+			if (this.marks == null || lastPostTime <= this.lastVisit) {
+				return true;
+			}
+
+			synchronized (this.marks) {
+				return lastPostTime <= this.marks.forums.get(topic.getForumId())
+					|| lastPostTime <= this.marks.topics.get(topic.getId());
+			}
+		}
+
+		/**
+		 * @param forum the forum
+		 * @return <code>true</code> if the last message of the forum was not read
+		 */
+		public boolean hasUnread(final Forum forum)
+		{
+			final LastPostInfo lpi = forum.getLastPostInfo();
+
+			if (this.marks == null || lpi == null || lpi.getPostTimeMillis() <= this.lastVisit) {
+				return false;
+			}
+
+			synchronized (this.marks) {
+				if (lpi.getPostTimeMillis() <= this.marks.forums.get(forum.getId())) {
+					return false;
+				}
+
+				final long readTime = this.marks.topics.get(lpi.getTopicId());
+				return readTime == 0 || lpi.getPostTimeMillis() > readTime;
+			}
+		}
+	}
+
+	/**
+	 * The marks of one user, newer than the last visit.
+	 * Guarded by its own lock.
+	 */
+	private static final class Marks
+	{
+		final IntLongMap topics = new IntLongMap();
+		final IntLongMap forums = new IntLongMap();
+		long since;
+
+		Marks(final long since)
+		{
+			this.since = since;
+		}
+
+		void prune(final long lastVisit)
+		{
+			if (lastVisit > this.since) {
+				this.since = lastVisit;
+				this.topics.removeUpTo(lastVisit);
+				this.forums.removeUpTo(lastVisit);
+			}
+		}
+	}
+
+	/**
+	 * Starts the background flushes, according to the current configuration.
+	 * Calling it again while started does nothing.
+	 */
+	public static void start()
+	{
+		synchronized (MUTEX_LIFECYCLE) {
+			final int interval = SystemGlobals.getIntValue(ConfigKeys.TOPICS_READ_FLUSH_INTERVAL);
+
+			if (scheduler != null || interval <= 0) {
+				return;
+			}
+
+			threshold = Math.max(1, SystemGlobals.getIntValue(ConfigKeys.TOPICS_READ_FLUSH_THRESHOLD));
+
+			final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(
+				new NamedThreadFactory("jforum-read-marks"));
+			executor.scheduleWithFixedDelay(FLUSH_TASK, interval, interval, TimeUnit.SECONDS);
+			scheduler = executor;
+
+			Stats.registerGauge(GAUGE_PENDING, new Stats.Gauge() {
+				@Override public Object getValue() {
+					return Integer.valueOf(PENDING_TOPICS.size() + PENDING_FORUMS.size());
+				}
+			});
+			Stats.registerGauge(GAUGE_CACHED, new Stats.Gauge() {
+				@Override public Object getValue() {
+					return Integer.valueOf(cache().size());
+				}
+			});
+			Stats.registerGauge(GAUGE_LAST_FLUSH, new Stats.Gauge() {
+				@Override public Object getValue() {
+					return lastFlush;
+				}
+			});
+
+			LOGGER.info("Writing read marks every " + interval + " seconds or " + threshold + " marks");
+		}
+	}
+
+	/**
+	 * Stops the background flushes, and writes all pending marks.
+	 * Must be called while the database is still available.
+	 */
+	public static void stop()
+	{
+		synchronized (MUTEX_LIFECYCLE) {
+			final ScheduledExecutorService executor = scheduler;
+
+			if (executor == null) {
+				return;
+			}
+
+			scheduler = null;
+			executor.shutdown();
+
+			try {
+				executor.awaitTermination(10, TimeUnit.SECONDS);
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+
+			flush();
+
+			Stats.unregisterGauge(GAUGE_PENDING);
+			Stats.unregisterGauge(GAUGE_CACHED);
+			Stats.unregisterGauge(GAUGE_LAST_FLUSH);
+		}
+	}
+
+	/**
+	 * Gets what the user of some session has read.
+	 * 
+	 * @param userSession the session, may be <code>null</code>
+	 * @return the reader to use while handling the current request
+	 */
+	public static Reader readerFor(final UserSession userSession)
+	{
+		if (userSession == null || userSession.getLastVisit() == null
+			|| userSession.getUserId() == SystemGlobals.getIntValue(ConfigKeys.ANONYMOUS_USER_ID)) {
+			return Reader.NONE;
+		}
+
+		final long lastVisit = userSession.getLastVisit().getTime();
+		return new Reader(marksOf(userSession.getUserId(), lastVisit), lastVisit);
+	}
+
+	/**
+	 * Records that some user has read a topic.
+	 * 
+	 * @param userId the user id
+	 * @param topicId the topic id
+	 * @param time when it was read
+	 */
+	public static void markTopicRead(final int userId, final int topicId, final long time)
+	{
+		final Marks marks = cache().get(Integer.valueOf(userId));
+
+		if (marks != null) {
+			synchronized (marks) {
+				if (time > marks.since) {
+					marks.topics.putMax(topicId, time);
+				}
+			}
+		}
+
+		save(PENDING_TOPICS, userId, topicId, time);
+	}
+
+	/**
+	 * Records that some user has read everything in a forum.
+	 * 
+	 * @param userId the user id
+	 * @param forumId the forum id
+	 * @param time when it was marked as read
+	 */
+	public static void markForumRead(final int userId, final int forumId, final long time)
+	{
+		final Marks marks = cache().get(Integer.valueOf(userId));
+
+		if (marks != null) {
+			synchronized (marks) {
+				if (time > marks.since) {
+					marks.forums.putMax(forumId, time);
+				}
+			}
+		}
+
+		save(PENDING_FORUMS, userId, forumId, time);
+	}
+
+	/**
+	 * Drops the marks of some user from memory. They are read again
+	 * from the database, along with the pending ones, when needed.
+	 * 
+	 * @param userId the user id
+	 */
+	static void forget(final int userId)
+	{
+		cache().remove(Integer.valueOf(userId));
+	}
+
+	/**
+	 * Writes all pending marks to the database, using a batch per table,
+	 * and removes the old ones, in its own connection and transaction. If
+	 * that or its commit fails, everything is kept to be written in the
+	 * next flush.
+	 */
+	public static void flush()
+	{
+		synchronized (MUTEX_FLUSH) {
+			FLUSH_REQUESTED.set(false);
+
+			if (PENDING_TOPICS.isEmpty() && PENDING_FORUMS.isEmpty() && PENDING_DELETES.isEmpty()) {
+				return;
+			}
+
+			final long start = System.currentTimeMillis();
+			final List<ReadMark> topics = drain(PENDING_TOPICS, FLUSHING_TOPICS);
+			final List<ReadMark> forums = drain(PENDING_FORUMS, FLUSHING_FORUMS);
+			final Map<Integer, Long> deletes = new HashMap<Integer, Long>();
+			final JForumExecutionContext requestContext = JForumExecutionContext.exists()
+				? JForumExecutionContext.get()
+				: null;
+			boolean written = false;
+
+			for (final Iterator<Integer> iter = PENDING_DELETES.keySet().iterator(); iter.hasNext(); ) {
+				final Integer userId = iter.next();
+				final Long until = PENDING_DELETES.remove(userId);
+
+				if (until != null) {
+					deletes.put(userId, until);
+				}
+			}
+
+			JForumExecutionContext.set(new JForumExecutionContext());
+
+			try {
+				final ReadStateDAO dao = DataAccessDriver.getInstance().newReadStateDAO();
+
+				for (final Map.Entry<Integer, Long> entry : deletes.entrySet()) {
+					dao.deleteMarks(entry.getKey().intValue(), entry.getValue().longValue());
+				}
+
+				dao.saveTopicMarks(topics);
+				dao.saveForumMarks(forums);
+				JForumExecutionContext.commit();
+				written = true;
+			}
+			catch (Exception e) {
+				LOGGER.error("Could not write " + (topics.size() + forums.size()) + " read marks, will try again: " + e, e);
+				JForumExecutionContext.enableRollback();
+			}
+			finally {
+				JForumExecutionContext.finish();
+				JForumExecutionContext.set(requestContext);
+			}
+
+			if (!written) {
+				restore(FLUSHING_TOPICS, PENDING_TOPICS);
+				restore(FLUSHING_FORUMS, PENDING_FORUMS);
+
+				for (final Map.Entry<Integer, Long> entry : deletes.entrySet()) {
+					PENDING_DELETES.merge(entry.getKey(), entry.getValue(), Long::max);
+				}
+			}
+			else {
+				lastFlush = topics.size() + " topic and " + forums.size() + " forum marks in "
+					+ (System.currentTimeMillis() - start) + " ms";
+			}
+
+			FLUSHING_TOPICS.clear();
+			FLUSHING_FORUMS.clear();
+		}
+	}
+
+	private static Marks marksOf(final int userId, final long lastVisit)
+	{
+		final Map<Integer, Marks> cache = cache();
+		final Integer key = Integer.valueOf(userId);
+		Marks marks = cache.get(key);
+
+		if (marks != null) {
+			synchronized (marks) {
+				marks.prune(lastVisit);
+			}
+
+			return marks;
+		}
+
+		final ReadStateDAO dao = DataAccessDriver.getInstance().newReadStateDAO();
+		expire(dao, userId, lastVisit);
+
+		marks = new Marks(lastVisit);
+		load(dao.selectTopicMarks(userId, lastVisit), marks.topics, lastVisit);
+		load(dao.selectForumMarks(userId, lastVisit), marks.forums, lastVisit);
+
+		// marks still waiting to be written are not in the database yet
+		overlay(PENDING_TOPICS, userId, marks.topics, lastVisit);
+		overlay(FLUSHING_TOPICS, userId, marks.topics, lastVisit);
+		overlay(PENDING_FORUMS, userId, marks.forums, lastVisit);
+		overlay(FLUSHING_FORUMS, userId, marks.forums, lastVisit);
+
+		synchronized (cache) {
+			final Marks current = cache.get(key);
+
+			if (current != null) {
+				return current;
+			}
+
+			cache.put(key, marks);
+		}
+
+		return marks;
+	}
+
+	private static void load(final List<ReadMark> list, final IntLongMap map, final long since)
+	{
+		for (final Iterator<ReadMark> iter = list.iterator(); iter.hasNext(); ) {
+			final ReadMark mark = iter.next();
+
+			if (mark.getTime() > since) {
+				map.putMax(mark.getId(), mark.getTime());
+			}
+		}
+	}
+
+	private static void overlay(final Map<Long, Long> source, final int userId, final IntLongMap map, final long since)
+	{
+		for (final Iterator<Map.Entry<Long, Long>> iter = source.entrySet().iterator(); iter.hasNext(); ) {
+			final Map.Entry<Long, Long> entry = iter.next();
+			final long key = entry.getKey().longValue();
+
+			if ((int)(key >>> 32) == userId && entry.getValue().longValue() > since) {
+				map.putMax((int)key, entry.getValue().longValue());
+			}
+		}
+	}
+
+	/**
+	 * Removes the marks of some user up to some time, in the next flush.
+	 */
+	private static void expire(final ReadStateDAO dao, final int userId, final long until)
+	{
+		if (scheduler == null) {
+			dao.deleteMarks(userId, until);
+		}
+		else {
+			PENDING_DELETES.merge(Integer.valueOf(userId), Long.valueOf(until), Long::max);
+		}
+	}
+
+	private static void save(final ConcurrentMap<Long, Long> pending, final int userId, final int id, final long time)
+	{
+		final ScheduledExecutorService executor = scheduler;
+
+		if (executor == null) {
+			final List<ReadMark> marks = Collections.singletonList(new ReadMark(userId, id, time));
+			final ReadStateDAO dao = DataAccessDriver.getInstance().newReadStateDAO();
+
+			if (pending == PENDING_TOPICS) {
+				dao.saveTopicMarks(marks);
+			}
+			else {
+				dao.saveForumMarks(marks);
+			}
+
+			return;
+		}
+
+		pending.merge(Long.valueOf(((long)userId << 32) | (id & 0xffffffffL)), Long.valueOf(time), Long::max);
+
+		if (PENDING_TOPICS.size() + PENDING_FORUMS.size() >= threshold && FLUSH_REQUESTED.compareAndSet(false, true)) {
+			try {
+				executor.execute(FLUSH_TASK);
+			}
+			catch (RejectedExecutionException e) {
+				FLUSH_REQUESTED.set(false);
+			}
+		}
+	}
+
+	private static List<ReadMark> drain(final ConcurrentMap<Long, Long> pending, final ConcurrentMap<Long, Long> flushing)
+	{
+		final List<ReadMark> marks = new ArrayList<ReadMark>(pending.size());
+
+		for (final Iterator<Long> iter = pending.keySet().iterator(); iter.hasNext(); ) {
+			final Long key = iter.next();
+			final Long time = pending.remove(key);
+
+			if (time != null) {
+				flushing.put(key, time);
+				marks.add(new ReadMark((int)(key.longValue() >>> 32), (int)key.longValue(), time.longValue()));
+			}
+		}
+
+		return marks;
+	}
+
+	private static void restore(final ConcurrentMap<Long, Long> flushing, final ConcurrentMap<Long, Long> pending)
+	{
+		for (final Iterator<Map.Entry<Long, Long>> iter = flushing.entrySet().iterator(); iter.hasNext(); ) {
+			final Map.Entry<Long, Long> entry = iter.next();
+			pending.merge(entry.getKey(), entry.getValue(), Long::max);
+		}
+	}
+
+	private static Map<Integer, Marks> cache()
+	{
+		Map<Integer, Marks> cache = users;
+
+		if (cache == null) {
+			synchronized (MUTEX_LIFECYCLE) {
+				if (users == null) {
+					users = newCache();
+				}
+
+				cache = users;
+			}
+		}
+
+		return cache;
+	}
+
+	private static Map<Integer, Marks> newCache()
+	{
+		final int size = Math.max(1, SystemGlobals.getIntValue(ConfigKeys.TOPICS_READ_CACHE_SIZE));
+		return Collections.synchronizedMap(new BoundedLinkedHashMap<Integer, Marks>(size, true));
+	}
+
+	private ReadStateRepository() {}
+}
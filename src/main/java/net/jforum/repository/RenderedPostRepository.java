@@ -0,0 +1,327 @@
+/*
+ * Copyright (c) JForum Team
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, 
+ * with or without modification, are permitted provided 
+ * that the following conditions are met:
+ * 
+ * 1) Redistributions of source code must retain the above 
+ * copyright notice, this list of conditions and the 
+ * following disclaimer.
+ * 2) Redistributions in binary form must reproduce the 
+ * above copyright notice, this list of conditions and 
+ * the following disclaimer in the documentation and/or 
+ * other materials provided with the distribution.
+ * 3) Neither the name of "Rafael Steil" nor 
+ * the names of its contributors may be used to endorse 
+ * or promote products derived from this software without 
+ * specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT 
+ * HOLDERS AND CONTRIBUTORS "AS IS" AND ANY 
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, 
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF 
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR 
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL 
+ * THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, 
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, 
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER 
+ * IN CONTRACT, STRICT LIABILITY, OR TORT 
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN 
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF 
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE
+ * 
+ * The JForum Project
+ * http://www.jforum.net
+ */
+package net.jforum.repository;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.apache.log4j.Logger;
+
+import net.jforum.cache.CacheRegionSettings;
+import net.jforum.cache.CacheWeigher;
+import net.jforum.cache.ConcurrentCacheEngine;
+import net.jforum.cache.EvictionPolicy;
+import net.jforum.entities.Post;
+import net.jforum.util.preferences.ConfigKeys;
+import net.jforum.util.preferences.SystemGlobals;
+import net.jforum.view.forum.common.PostCommon;
+
+/**
+ * Keeps the display HTML of posts, so BBCode, smilies and
+ * <code>SafeHtml</code> run only once per post version.
+ * <p>
+ * A fragment is reused only while the edit count, the edit time and the
+ * bbcode / html / smilies flags of the post are the same as when it was
+ * rendered. The fragments always live in a {@link ConcurrentCacheEngine}
+ * bounded by <i>posts.rendered.cache.size</i> bytes, whatever the configured
+ * cache engine is, as they are derived data which never needs to be shared
+ * between nodes.
+ */
+public final class RenderedPostRepository
+{
+	private static final Logger LOGGER = Logger.getLogger(RenderedPostRepository.class);
+
+	private static final String FQN = "renderedPosts";
+
+	/** Texts shorter than this are not worth compressing */
+	private static final int MIN_COMPRESS_LENGTH = 256;
+
+	private static final int FLAG_BBCODE = 1;
+	private static final int FLAG_HTML = 2;
+	private static final int FLAG_SMILIES = 4;
+
+	private static final CacheWeigher WEIGHER = new CacheWeigher() {
+		@Override public int weigh(final String key, final Object value)
+		{
+			return ((Fragment)value).weight();
+		}
+	};
+
+	private static volatile ConcurrentCacheEngine cache;
+
+	private RenderedPostRepository() { }
+
+	/**
+	 * Sets the display text and subject of a post, either from the cache or
+	 * by rendering it with {@link PostCommon#preparePostForDisplay(Post)}.
+	 *
+	 * @param post a post as read from the database
+	 * @return the same post instance
+	 */
+	public static Post prepareForDisplay(final Post post)
+	{
+		if (post.getId() == 0 || post.getText() == null
+			|| !SystemGlobals.getBoolValue(ConfigKeys.POSTS_RENDERED_CACHE_ENABLED)) {
+			return PostCommon.preparePostForDisplay(post);
+		}
+
+		final String key = Integer.toString(post.getId());
+		final long editTime = post.getEditTime() == null ? 0 : post.getEditTime().getTime();
+		final int flags = flags(post);
+
+		final Fragment fragment = (Fragment)engine().get(FQN, key);
+
+		if (fragment != null && fragment.isVersion(post.getEditCount(), editTime, flags)) {
+			final String text = fragment.getText();
+
+			if (text != null) {
+				post.setText(text);
+				post.setSubject(fragment.getSubject());
+				return post;
+			}
+		}
+
+		PostCommon.preparePostForDisplay(post);
+
+		engine().add(FQN, key, new Fragment(post.getEditCount(), editTime, flags, post.getText(), post.getSubject(),
+			SystemGlobals.getBoolValue(ConfigKeys.POSTS_RENDERED_CACHE_COMPRESS)));
+
+		return post;
+	}
+
+	/**
+	 * Drops the rendered fragment of a post.
+	 *
+	 * @param postId the post id
+	 */
+	public static void remove(final int postId)
+	{
+		final ConcurrentCacheEngine engine = cache;
+
+		if (engine != null) {
+			engine.remove(FQN, Integer.toString(postId));
+		}
+	}
+
+	/**
+	 * Drops all rendered fragments, for when BBCodes or smilies change.
+	 */
+	public static void clear()
+	{
+		final ConcurrentCacheEngine engine = cache;
+
+		if (engine != null) {
+			engine.remove(FQN);
+		}
+	}
+
+	public static void stop()
+	{
+		synchronized (RenderedPostRepository.class) {
+			if (cache != null) {
+				cache.stop();
+				cache = null;
+			}
+		}
+	}
+
+	private static ConcurrentCacheEngine engine()
+	{
+		ConcurrentCacheEngine engine = cache;
+
+		if (engine == null) {
+			synchronized (RenderedPostRepository.class) {
+				engine = cache;
+
+				if (engine == null) {
+					final CacheRegionSettings settings = new CacheRegionSettings(
+						SystemGlobals.getIntValue(ConfigKeys.POSTS_RENDERED_CACHE_SIZE), 0, EvictionPolicy.TINYLFU,
+						WEIGHER, SystemGlobals.getIntValue(ConfigKeys.CACHE_CONCURRENT_SEGMENTS));
+
+					engine = new ConcurrentCacheEngine() {
+						@Override protected CacheRegionSettings settingsFor(final String fqn)
+						{
+							return settings;
+						}
+					};
+
+					engine.init();
+					cache = engine;
+				}
+			}
+		}
+
+		return engine;
+	}
+
+	private static int flags(final Post post)
+	{
+		return (post.isBbCodeEnabled() ? FLAG_BBCODE : 0)
+			| (post.isHtmlEnabled() ? FLAG_HTML : 0)
+			| (post.isSmiliesEnabled() ? FLAG_SMILIES : 0);
+	}
+
+	/**
+	 * The display HTML of one version of a post. Long texts may be kept
+	 * deflated, trading some CPU on each hit for a smaller footprint.
+	 */
+	private static final class Fragment
+	{
+		/** Rough size of a fragment without its text */
+		private static final int OVERHEAD = 96;
+
+		private final int editCount;
+		private final long editTime;
+		private final int flags;
+		private final String subject;
+		private final String text;
+		private final byte[] deflated;
+		private final int length;
+
+		Fragment(final int editCount, final long editTime, final int flags, final String text,
+			final String subject, final boolean compress)
+		{
+			this.editCount = editCount;
+			this.editTime = editTime;
+			this.flags = flags;
+			this.subject = subject;
+
+			if (compress && text.length() >= MIN_COMPRESS_LENGTH) {
+				final byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+				this.deflated = deflate(bytes);
+				this.length = bytes.length;
+				this.text = null;
+			}
+			else {
+				this.deflated = null;
+				this.length = text.length();
+				this.text = text;
+			}
+		}
+
+		boolean isVersion(final int editCount, final long editTime, final int flags)
+		{
+			return this.editCount == editCount && this.editTime == editTime && this.flags == flags;
+		}
+
+		String getSubject()
+		{
+			return this.subject;
+		}
+
+		/**
+		 * @return the display text, or <code>null</code> if it cannot be inflated
+		 */
+		String getText()
+		{
+			if (this.deflated == null) {
+				return this.text;
+			}
+
+			final Inflater inflater = new Inflater();
+
+			try {
+				inflater.setInput(this.deflated);
+				final byte[] bytes = new byte[this.length];
+				int offset = 0;
+
+				while (offset < bytes.length && !inflater.finished()) {
+					final int count = inflater.inflate(bytes, offset, bytes.length - offset);
+
+					if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+						break;
+					}
+
+					offset += count;
+				}
+
+				if (offset != bytes.length) {
+					LOGGER.warn("Truncated rendered post fragment, it will be rendered again");
+					return null;
+				}
+
+				return new String(bytes, StandardCharsets.UTF_8);
+			}
+			catch (DataFormatException e) {
+				LOGGER.warn("Corrupted rendered post fragment, it will be rendered again: " + e);
+				return null;
+			}
+			finally {
+				inflater.end();
+			}
+		}
+
+		int weight()
+		{
+			final long weight = OVERHEAD
+				+ 2L * (this.subject == null ? 0 : this.subject.length())
+				+ (this.deflated == null ? 2L * this.length : this.deflated.length);
+
+			return (int)Math.min(weight, Integer.MAX_VALUE);
+		}
+
+		private static byte[] deflate(final byte[] bytes)
+		{
+			final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+
+			try {
+				deflater.setInput(bytes);
+				deflater.finish();
+
+				final ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 2 + 16);
+				final byte[] buffer = new byte[4096];
+
+				while (!deflater.finished()) {
+					out.write(buffer, 0, deflater.deflate(buffer));
+				}
+
+				return out.toByteArray();
+			}
+			finally {
+				deflater.end();
+			}
+		}
+	}
+}
@@ -45,6 +45,7 @@ package net.jforum.repository;
 import net.jforum.cache.CacheEngine;
 import net.jforum.cache.Cacheable;
 import net.jforum.dao.generic.security.SecurityCommon;
+import net.jforum.security.PermissionControl;
 import net.jforum.security.RoleCollection;
 
 /**
@@ -54,6 +55,7 @@ import net.jforum.security.RoleCollection;
 public class RolesRepository implements Cacheable
 {
 	private static final String FQN = "roles";
+	private static final String FQN_PERMISSIONS = "permissions";
 	private static CacheEngine cache;
 	
 	/**
@@ -86,6 +88,7 @@ public class RolesRepository implements Cacheable
 	public static void clear()
 	{
 		cache.remove(FQN);
+		cache.remove(FQN_PERMISSIONS);
 	}
 	
 	/**
@@ -108,4 +111,27 @@ public class RolesRepository implements Cacheable
 	{
 		cache.add(FQN, SecurityCommon.groupIdAsString(groupIds), roles);
 	}
+	
+	/**
+	 * Gets the permissions shared by the users of a set of groups.
+	 * 
+	 * @param groupIds The sorted ids of the groups
+	 * @return The permissions, if found, or <code>null</code> otherwise.
+	 */
+	public static PermissionControl getPermissionControl(final int[] groupIds)
+	{
+		return (PermissionControl)cache.get(FQN_PERMISSIONS, SecurityCommon.groupIdAsString(groupIds));
+	}
+	
+	/**
+	 * Adds the permissions of a set of groups to the cache, to be shared
+	 * by all users of these groups.
+	 * 
+	 * @param groupIds The sorted ids of the groups
+	 * @param pc The permissions built from the merged roles of the groups
+	 */
+	public static void addPermissionControl(final int[] groupIds, final PermissionControl pc)
+	{
+		cache.add(FQN_PERMISSIONS, SecurityCommon.groupIdAsString(groupIds), pc);
+	}
 }
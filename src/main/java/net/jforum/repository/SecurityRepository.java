@@ -51,6 +51,7 @@ import net.jforum.cache.Cacheable;
 import net.jforum.dao.DataAccessDriver;
 import net.jforum.dao.GroupSecurityDAO;
 import net.jforum.dao.UserDAO;
+import net.jforum.dao.generic.security.SecurityCommon;
 import net.jforum.entities.User;
 import net.jforum.entities.UserSession;
 import net.jforum.exceptions.SecurityLoadException;
@@ -149,11 +150,19 @@ public class SecurityRepository implements Cacheable
 		String userId = Integer.toString(user.getId());
 		
 		if (force || cache.get(FQN, userId) == null) {
-			PermissionControl pc = new PermissionControl();
+			// Users of the same groups have the same permissions, so they share one instance
+			int[] groupIds = SecurityCommon.sortedGroupIds(user.getGroupsList());
+			PermissionControl pc = RolesRepository.getPermissionControl(groupIds);
 			
-			// load roles
-			GroupSecurityDAO dao = DataAccessDriver.getInstance().newGroupSecurityDAO();
-			pc.setRoles(dao.loadRolesByUserGroups(user));
+			if (pc == null) {
+				pc = new PermissionControl();
+				
+				// load roles
+				GroupSecurityDAO dao = DataAccessDriver.getInstance().newGroupSecurityDAO();
+				pc.setRoles(dao.loadRolesByUserGroups(user));
+				
+				RolesRepository.addPermissionControl(groupIds, pc);
+			}
 			
 			cache.add(FQN, userId, pc);			
 			return pc;
@@ -192,6 +201,37 @@ public class SecurityRepository implements Cacheable
 	 * @return <code>true</code> if the user has access to the role, <code>false</code> if access is denied
 	 */
 	public static boolean canAccess(String roleName, String value)
+	{
+		return canAccess(currentUserId(), roleName, value);
+	}
+	
+	/**
+	 * Check if the logged user has access to the role, for a value that is
+	 * an id, such as the id of a forum or category.
+	 * 
+	 * @param roleName The role name to verify
+	 * @param value The value related to the role to verify for access
+	 * @return <code>true</code> if the user has access to the role, <code>false</code> if access is denied
+	 * @see #canAccess(String, String)
+	 */
+	public static boolean canAccess(String roleName, int value)
+	{
+		return canAccess(currentUserId(), roleName, value);
+	}
+	
+	public static boolean canAccess(int userId, String roleName, int value)
+	{
+		return permissions(userId, roleName, value).canAccess(roleName, value);
+	}
+	
+	public static boolean canAccess(int userId, String roleName, String value)
+	{
+		PermissionControl pc = permissions(userId, roleName, value);
+		
+		return (value != null ? pc.canAccess(roleName, value) : pc.canAccess(roleName));
+	}
+
+	private static int currentUserId()
 	{
 		UserSession us = SessionFacade.getUserSession();
 		
@@ -202,10 +242,10 @@ public class SecurityRepository implements Cacheable
 			us.makeAnonymous();
 		}
 		
-		return canAccess(us.getUserId(), roleName, value);
+		return us.getUserId();
 	}
-	
-	public static boolean canAccess(int userId, String roleName, String value)
+
+	private static PermissionControl permissions(int userId, String roleName, Object value)
 	{
 		PermissionControl pc = SecurityRepository.get(userId);
 		
@@ -214,7 +254,7 @@ public class SecurityRepository implements Cacheable
 				+ "roleName=" + roleName + ", roleValue=" + value);
 		}
 		
-		return (value != null ? pc.canAccess(roleName, value) : pc.canAccess(roleName));
+		return pc;
 	}
 
 	/**
@@ -50,6 +50,7 @@ import net.jforum.cache.Cacheable;
 import net.jforum.dao.DataAccessDriver;
 import net.jforum.entities.Smilie;
 import net.jforum.exceptions.SmiliesLoadException;
+import net.jforum.util.bbcode.SmiliesMatcher;
 import net.jforum.util.preferences.ConfigKeys;
 import net.jforum.util.preferences.SystemGlobals;
 
@@ -62,7 +63,7 @@ public class SmiliesRepository implements Cacheable
 	private static CacheEngine cache;
 	private static final String FQN = "smilies";
 	private static final String ENTRIES = "entries";
-	private static boolean contexted = false;
+	private static final String MATCHER = "matcher";
 
 	/**
 	 * @see net.jforum.cache.Cacheable#setCacheEngine(net.jforum.cache.CacheEngine)
@@ -80,36 +81,58 @@ public class SmiliesRepository implements Cacheable
 	public static void loadSmilies()
 	{
 		try {
-			cache.add(FQN, ENTRIES, DataAccessDriver.getInstance().newSmilieDAO().selectAll());
-			contexted = false;
+			loadSmilies(DataAccessDriver.getInstance().newSmilieDAO().selectAll());
 		}
 		catch (Exception e) {
 			throw new SmiliesLoadException("Error while loading smilies: " + e);
 		}
 	}
-	
+
+	/**
+	 * Puts some smilies in the cache, and builds the matcher used to replace them.
+	 * 
+	 * @param smilies the smilies, in the order they are replaced
+	 */
+	public static void loadSmilies(final List<Smilie> smilies)
+	{
+		String forumLink = SystemGlobals.getValue(ConfigKeys.FORUM_LINK);
+		if (forumLink.endsWith("/")) {
+			forumLink = forumLink.substring(0, forumLink.length() -1);
+		}
+
+		for (final Iterator<Smilie> iter = smilies.iterator(); iter.hasNext(); ) {
+			final Smilie smilie = iter.next();
+			smilie.setUrl(smilie.getUrl().replaceAll("#CONTEXT#", forumLink).replaceAll("\\\\", ""));
+		}
+
+		cache.add(FQN, ENTRIES, smilies);
+		cache.add(FQN, MATCHER, new SmiliesMatcher(smilies));
+		RenderedPostRepository.clear();
+		UserCardRepository.clear();
+	}
+
 	public static List<Smilie> getSmilies()
 	{
 		List<Smilie> list = (List<Smilie>)cache.get(FQN, ENTRIES);
-        if (list == null) {
-           loadSmilies();
-           list = (List<Smilie>)cache.get(FQN, ENTRIES);
-        }
-		if (!contexted) {
-			String forumLink = SystemGlobals.getValue(ConfigKeys.FORUM_LINK);
-			if (forumLink.endsWith("/")) {
-                forumLink = forumLink.substring(0, forumLink.length() -1);
-            }
-			
-			for (final Iterator<Smilie> iter = list.iterator(); iter.hasNext(); ) {
-				final Smilie smilie = iter.next();
-				smilie.setUrl(smilie.getUrl().replaceAll("#CONTEXT#", forumLink).replaceAll("\\\\", ""));
-			}
-			
-			cache.add(FQN, ENTRIES, list);
-			contexted = true;
+		if (list == null) {
+			loadSmilies();
+			list = (List<Smilie>)cache.get(FQN, ENTRIES);
 		}
-		
+
 		return list;
 	}
+
+	/**
+	 * @return the matcher which replaces all smilies of a text in a single pass
+	 */
+	public static SmiliesMatcher getMatcher()
+	{
+		SmiliesMatcher matcher = (SmiliesMatcher)cache.get(FQN, MATCHER);
+		if (matcher == null) {
+			matcher = new SmiliesMatcher(getSmilies());
+			cache.add(FQN, MATCHER, matcher);
+		}
+
+		return matcher;
+	}
 }
@@ -43,13 +43,15 @@
 package net.jforum.repository;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
 
+import net.jforum.ConfigLoader;
 import net.jforum.cache.CacheEngine;
 import net.jforum.cache.Cacheable;
 import net.jforum.dao.DataAccessDriver;
@@ -61,24 +63,44 @@ import net.jforum.util.preferences.SystemGlobals;
 
 /**
  * Repository for the last n topics for each forum.
+ * <p>
+ * The topics of each forum are changed by one thread at a time, holding
+ * {@link #lockFor(int)}, so posts in different forums do not wait for each
+ * other. The lists are never changed once cached, only replaced, so readers
+ * take no lock. The recent topics list is replaced the same way, with a
+ * compare-and-set. It lives in this node only, unless the cache engine is
+ * clustered, see {@link ConfigLoader#isClustered(CacheEngine)}, in which case
+ * it is kept in the cache engine, so that all nodes show the same topics.
  * 
  * @author Rafael Steil
  * @author James Yong
  */
 public class TopicRepository implements Cacheable {
 	private static final String FQN = "topics";
-	private static final String RECENT = "recent";
 	private static final String FQN_FORUM = FQN + "/byforum";
 	private static final String RELATION = "relation";
 	private static final String FQN_LOADED = FQN + "/loaded";
+	private static final String RECENT = "recent";
 	private static final Comparator<Topic> TYPE_COMPARATOR = new TopicTypeComparator();
+	private static final int STRIPES = 64;
 
 	private static CacheEngine cache;
+	private static volatile boolean clustered;
 
+	private static final Object[] FORUM_LOCKS = new Object[STRIPES];
+	private static final Object MUTEX_RELATION = new Object();
 	private static final Object MUTEX_RECENT = new Object();
-	private static final Object MUTEX_FQN_FORUM = new Object();
 
-	private static int maxRecentTopics = SystemGlobals.getIntValue(ConfigKeys.TOPICS_PER_PAGE);
+	/** The most recent topics, newest first, unless kept in the cache engine */
+	private static final AtomicReference<List<Topic>> RECENT_TOPICS = new AtomicReference<List<Topic>>(Collections.<Topic>emptyList());
+
+	private static volatile int maxRecentTopics = SystemGlobals.getIntValue(ConfigKeys.TOPICS_PER_PAGE);
+
+	static {
+		for (int i = 0; i < STRIPES; i++) {
+			FORUM_LOCKS[i] = new Object();
+		}
+	}
 
 	/**
 	 * @see net.jforum.cache.Cacheable#setCacheEngine(net.jforum.cache.CacheEngine)
@@ -89,6 +111,18 @@ public class TopicRepository implements Cacheable {
 
 	private static void setEngine(CacheEngine engine) {
 		cache = engine;
+		clustered = ConfigLoader.isClustered(engine);
+	}
+
+	/**
+	 * Gets the lock which orders the changes to the topics of some forum.
+	 * Forums with different ids, up to 64 of them, never share a lock.
+	 * 
+	 * @param forumId The forum id
+	 * @return the lock
+	 */
+	public static Object lockFor(int forumId) {
+		return FORUM_LOCKS[forumId & (STRIPES - 1)];
 	}
 
 	public static boolean isLoaded(int forumId) {
@@ -104,20 +138,26 @@ public class TopicRepository implements Cacheable {
 		if (SystemGlobals.getBoolValue(ConfigKeys.TOPIC_CACHE_ENABLED)) {
 			int limit = SystemGlobals.getIntValue(ConfigKeys.TOPICS_PER_PAGE);
 
-			LinkedList<Topic> latestList = (LinkedList<Topic>) cache.get(FQN, RECENT);
-			if (latestList == null || latestList.isEmpty()) {
-				latestList = new LinkedList<Topic>(loadMostRecentTopics());
+			if (recentTopics().isEmpty()) {
+				loadMostRecentTopics();
 			}
 
-			latestList.remove(topic);
-			latestList.addFirst(topic);
+			List<Topic> current;
+			List<Topic> latestList;
 
-			while (latestList.size() > limit) {
-				latestList.removeLast();
-			}
-			synchronized (MUTEX_RECENT) {
-				cache.add(FQN, RECENT, latestList);
-			}
+			do {
+				current = recentTopics();
+				latestList = new ArrayList<Topic>(Math.min(limit, current.size() + 1));
+				latestList.add(topic);
+
+				for (Iterator<Topic> iter = current.iterator(); iter.hasNext() && latestList.size() < limit; ) {
+					Topic t = iter.next();
+
+					if (!t.equals(topic)) {
+						latestList.add(t);
+					}
+				}
+			} while (!replaceRecentTopics(current, Collections.unmodifiableList(latestList)));
 		}
 	}
 
@@ -134,9 +174,9 @@ public class TopicRepository implements Cacheable {
 	 */
 	public static List<Topic> getRecentTopics (int start, int limit) {
 		if (start == 0) {
-			List<Topic> latestList = (List<Topic>) cache.get(FQN, RECENT);
+			List<Topic> latestList = recentTopics();
 
-			if (limit != maxRecentTopics || latestList == null || latestList.isEmpty()
+			if (limit != maxRecentTopics || latestList.isEmpty()
 					|| !SystemGlobals.getBoolValue(ConfigKeys.TOPIC_CACHE_ENABLED)) {
 				latestList = loadMostRecentTopics();
 				maxRecentTopics = limit;
@@ -156,8 +196,15 @@ public class TopicRepository implements Cacheable {
 		int limit = SystemGlobals.getIntValue(ConfigKeys.TOPICS_PER_PAGE);
 
 		List<Topic> latestList = tm.selectRecentTopics(limit);
-		synchronized (MUTEX_RECENT) {
-			cache.add(FQN, RECENT, new LinkedList<Topic>(latestList));
+		List<Topic> copy = Collections.unmodifiableList(new ArrayList<Topic>(latestList));
+
+		if (clustered) {
+			synchronized (MUTEX_RECENT) {
+				cache.add(FQN, RECENT, copy);
+			}
+		}
+		else {
+			RECENT_TOPICS.set(copy);
 		}
 
 		return latestList;
@@ -190,15 +237,10 @@ public class TopicRepository implements Cacheable {
 	 */
 	public static void addAll(int forumId, List<Topic> topics) {
 		if (SystemGlobals.getBoolValue(ConfigKeys.TOPIC_CACHE_ENABLED)) {
-			synchronized (MUTEX_FQN_FORUM) {
-				cache.add(FQN_FORUM, Integer.toString(forumId), new LinkedList<Topic>(topics));
-
-				Map<Integer, Integer> m = (Map<Integer, Integer>) cache.get(FQN, RELATION);
-
-				if (m == null) {
-					m = new ConcurrentHashMap<Integer, Integer>();
-				}
+			synchronized (lockFor(forumId)) {
+				cache.add(FQN_FORUM, Integer.toString(forumId), Collections.unmodifiableList(new ArrayList<Topic>(topics)));
 
+				Map<Integer, Integer> m = relation();
 				Integer fId = Integer.valueOf(forumId);
 
 				for (Iterator<Topic> iter = topics.iterator(); iter.hasNext();) {
@@ -219,12 +261,15 @@ public class TopicRepository implements Cacheable {
 	 * @param forumId The forum id to clear the cache
 	 */
 	public static void clearCache(int forumId) {
-		synchronized (MUTEX_FQN_FORUM) {
-			cache.add(FQN_FORUM, Integer.toString(forumId), new LinkedList<Topic>());
+		synchronized (lockFor(forumId)) {
+			cache.add(FQN_FORUM, Integer.toString(forumId), Collections.<Topic>emptyList());
+		}
+
+		synchronized (MUTEX_RELATION) {
 			cache.remove(FQN, RELATION); 
-			// TODO: is the next line necessary or not? https://coderanch.com/t/425011#1887278
-			// cache.remove(FQN_LOADED, Integer.toString(forumId));
 		}
+		// TODO: is the next line necessary or not? https://coderanch.com/t/425011#1887278
+		// cache.remove(FQN_LOADED, Integer.toString(forumId));
 	}
 
 	/**
@@ -237,37 +282,33 @@ public class TopicRepository implements Cacheable {
 			return;
 		}
 
-		synchronized (MUTEX_FQN_FORUM) {
+		synchronized (lockFor(topic.getForumId())) {
 			String forumId = Integer.toString(topic.getForumId());
-			LinkedList<Topic> forumTopicsList = (LinkedList<Topic>) cache.get(FQN_FORUM, forumId);
+			List<Topic> current = (List<Topic>) cache.get(FQN_FORUM, forumId);
+			List<Topic> forumTopicsList;
 
-			if (forumTopicsList == null) {
-				forumTopicsList = new LinkedList<Topic>();
+			if (current == null) {
+				forumTopicsList = new ArrayList<Topic>(1);
 				forumTopicsList.add(topic);
 			} else {
-				boolean contains = forumTopicsList.contains(topic);
+				forumTopicsList = new ArrayList<Topic>(current.size() + 1);
+				forumTopicsList.addAll(current);
+				boolean contains = forumTopicsList.remove(topic);
 
 				// If the cache is full, remove the eldest element
 				int topicCacheSize = SystemGlobals.getIntValue(ConfigKeys.TOPIC_CACHE_SIZE);
-				if (!contains && forumTopicsList.size() + 1 > topicCacheSize) {
-					forumTopicsList.removeLast();
-				} else if (contains) {
-					forumTopicsList.remove(topic);
+				if (!contains && !forumTopicsList.isEmpty() && forumTopicsList.size() + 1 > topicCacheSize) {
+					forumTopicsList.remove(forumTopicsList.size() - 1);
 				}
 
 				forumTopicsList.add(topic);
 				forumTopicsList.sort(TYPE_COMPARATOR);
 			}
 
-			cache.add(FQN_FORUM, forumId, forumTopicsList);
-
-			Map<Integer, Integer> m = (Map<Integer, Integer>) cache.get(FQN, RELATION);
-
-			if (m == null) {
-				m = new ConcurrentHashMap<Integer, Integer>();
-			}
+			cache.add(FQN_FORUM, forumId, Collections.unmodifiableList(forumTopicsList));
 
-			m.put(Integer.valueOf(topic.getId()), Integer.valueOf(forumId));
+			Map<Integer, Integer> m = relation();
+			m.put(Integer.valueOf(topic.getId()), Integer.valueOf(topic.getForumId()));
 
 			cache.add(FQN, RELATION, m);
 		}
@@ -280,7 +321,7 @@ public class TopicRepository implements Cacheable {
 	 */
 	public static void updateTopic(Topic topic) {
 		if (SystemGlobals.getBoolValue(ConfigKeys.TOPIC_CACHE_ENABLED)) {
-			synchronized (MUTEX_FQN_FORUM) {
+			synchronized (lockFor(topic.getForumId())) {
 				String forumId = Integer.toString(topic.getForumId());
 				List<Topic> forumTopicsList = (List<Topic>) cache.get(FQN_FORUM, forumId);
 
@@ -288,24 +329,24 @@ public class TopicRepository implements Cacheable {
 					int index = forumTopicsList.indexOf(topic);
 
 					if (index > -1) {
-						forumTopicsList.set(index, topic);
-						cache.add(FQN_FORUM, forumId, forumTopicsList);
+						cache.add(FQN_FORUM, forumId, replace(forumTopicsList, index, topic));
 					}
 				}
 			}
 
-			synchronized (MUTEX_RECENT) {
-				List<Topic> latestList = (List<Topic>) cache.get(FQN, RECENT);
+			List<Topic> current;
+			List<Topic> latestList;
 
-				if (latestList != null) {
-					int index = latestList.indexOf(topic);
+			do {
+				current = recentTopics();
+				int index = current.indexOf(topic);
 
-					if (index > -1) {
-						latestList.set(index, topic);
-						cache.add(FQN, RECENT, latestList);
-					}
+				if (index == -1) {
+					break;
 				}
-			}
+
+				latestList = replace(current, index, topic);
+			} while (!replaceRecentTopics(current, latestList));
 		}
 	}
 
@@ -375,9 +416,7 @@ public class TopicRepository implements Cacheable {
 	public static List<Topic> getTopics(int forumid) {
 		List<Topic> returnList = null;
 		if (SystemGlobals.getBoolValue(ConfigKeys.TOPIC_CACHE_ENABLED)) {
-			synchronized (MUTEX_FQN_FORUM) {
-				returnList = (List<Topic>) cache.get(FQN_FORUM,	Integer.toString(forumid));				
-			}
+			returnList = (List<Topic>) cache.get(FQN_FORUM,	Integer.toString(forumid));				
 		}
 
 		if (returnList == null) {
@@ -386,4 +425,60 @@ public class TopicRepository implements Cacheable {
 			return new ArrayList<Topic>(returnList);
 		}
 	}
+
+	private static Map<Integer, Integer> relation() {
+		Map<Integer, Integer> m = (Map<Integer, Integer>) cache.get(FQN, RELATION);
+
+		if (m == null) {
+			synchronized (MUTEX_RELATION) {
+				m = (Map<Integer, Integer>) cache.get(FQN, RELATION);
+
+				if (m == null) {
+					m = new ConcurrentHashMap<Integer, Integer>();
+					cache.add(FQN, RELATION, m);
+				}
+			}
+		}
+
+		return m;
+	}
+
+	private static List<Topic> recentTopics() {
+		if (!clustered) {
+			return RECENT_TOPICS.get();
+		}
+
+		List<Topic> list = (List<Topic>) cache.get(FQN, RECENT);
+
+		return list == null ? Collections.<Topic>emptyList() : list;
+	}
+
+	/**
+	 * Replaces the recent topics, if they are still the ones given.
+	 * 
+	 * @param current the recent topics the new ones were built from
+	 * @param latestList the new recent topics
+	 * @return <code>false</code> if someone else replaced them first
+	 */
+	private static boolean replaceRecentTopics(List<Topic> current, List<Topic> latestList) {
+		if (!clustered) {
+			return RECENT_TOPICS.compareAndSet(current, latestList);
+		}
+
+		synchronized (MUTEX_RECENT) {
+			if (recentTopics() != current) {
+				return false;
+			}
+
+			cache.add(FQN, RECENT, latestList);
+			return true;
+		}
+	}
+
+	private static List<Topic> replace(List<Topic> list, int index, Topic topic) {
+		List<Topic> copy = new ArrayList<Topic>(list);
+		copy.set(index, topic);
+
+		return Collections.unmodifiableList(copy);
+	}
 }
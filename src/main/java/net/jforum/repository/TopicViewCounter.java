@@ -0,0 +1,291 @@
+/*
+ * Copyright (c) JForum Team
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, 
+ * with or without modification, are permitted provided 
+ * that the following conditions are met:
+ * 
+ * 1) Redistributions of source code must retain the above 
+ * copyright notice, this list of conditions and the 
+ * following disclaimer.
+ * 2) Redistributions in binary form must reproduce the 
+ * above copyright notice, this list of conditions and 
+ * the following disclaimer in the documentation and/or 
+ * other materials provided with the distribution.
+ * 3) Neither the name of "Rafael Steil" nor 
+ * the names of its contributors may be used to endorse 
+ * or promote products derived from this software without 
+ * specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT 
+ * HOLDERS AND CONTRIBUTORS "AS IS" AND ANY 
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, 
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF 
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR 
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL 
+ * THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, 
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, 
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER 
+ * IN CONTRACT, STRICT LIABILITY, OR TORT 
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN 
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF 
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE
+ * 
+ * The JForum Project
+ * http://www.jforum.net
+ */
+package net.jforum.repository;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+import net.jforum.JForumExecutionContext;
+import net.jforum.dao.DataAccessDriver;
+import net.jforum.util.concurrent.NamedThreadFactory;
+import net.jforum.util.preferences.ConfigKeys;
+import net.jforum.util.preferences.SystemGlobals;
+import net.jforum.util.stats.Stats;
+
+/**
+ * Write-behind counter of topic views.
+ * Views are summed in memory, per topic, and written to the database with a
+ * single batch every <i>topic.views.flush.interval</i> seconds, or sooner when
+ * <i>topic.views.flush.threshold</i> topics have pending views. This avoids one
+ * UPDATE, and the row lock that comes with it, for every page view.
+ * <p>
+ * Until {@link #start()} is called, or if the interval is zero, every view
+ * goes straight to the database, as before.
+ */
+public final class TopicViewCounter
+{
+	private static final Logger LOGGER = Logger.getLogger(TopicViewCounter.class);
+	private static final String GAUGE_PENDING = "Topic views pending topics";
+	private static final String GAUGE_LAG = "Topic views flush lag (ms)";
+	private static final String GAUGE_LAST_FLUSH = "Topic views last flush";
+	private static final Integer ONE = Integer.valueOf(1);
+
+	private static final ConcurrentMap<Integer, Integer> PENDING = new ConcurrentHashMap<Integer, Integer>();
+	private static final ConcurrentMap<Integer, Integer> FLUSHING = new ConcurrentHashMap<Integer, Integer>();
+	private static final AtomicLong OLDEST_PENDING = new AtomicLong();
+	private static final AtomicBoolean FLUSH_REQUESTED = new AtomicBoolean();
+	private static final Object MUTEX_FLUSH = new Object();
+	private static final Object MUTEX_LIFECYCLE = new Object();
+
+	private static volatile ScheduledExecutorService scheduler;
+	private static volatile int threshold;
+	private static volatile String lastFlush = "";
+
+	private static final Runnable FLUSH_TASK = new Runnable() {
+		@Override public void run() {
+			try {
+				flush();
+			}
+			catch (Exception e) {
+				LOGGER.error("Error while writing topic views: " + e, e);
+			}
+		}
+	};
+
+	/**
+	 * Starts the background flushes, according to the current configuration.
+	 * Calling it again while started does nothing.
+	 */
+	public static void start()
+	{
+		synchronized (MUTEX_LIFECYCLE) {
+			final int interval = SystemGlobals.getIntValue(ConfigKeys.TOPIC_VIEWS_FLUSH_INTERVAL);
+
+			if (scheduler != null || interval <= 0) {
+				return;
+			}
+
+			threshold = Math.max(1, SystemGlobals.getIntValue(ConfigKeys.TOPIC_VIEWS_FLUSH_THRESHOLD));
+
+			final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(
+				new NamedThreadFactory("jforum-topic-views"));
+			executor.scheduleWithFixedDelay(FLUSH_TASK, interval, interval, TimeUnit.SECONDS);
+			scheduler = executor;
+
+			Stats.registerGauge(GAUGE_PENDING, new Stats.Gauge() {
+				@Override public Object getValue() {
+					return Integer.valueOf(PENDING.size());
+				}
+			});
+			Stats.registerGauge(GAUGE_LAG, new Stats.Gauge() {
+				@Override public Object getValue() {
+					final long oldest = OLDEST_PENDING.get();
+					return Long.valueOf(oldest == 0 ? 0 : System.currentTimeMillis() - oldest);
+				}
+			});
+			Stats.registerGauge(GAUGE_LAST_FLUSH, new Stats.Gauge() {
+				@Override public Object getValue() {
+					return lastFlush;
+				}
+			});
+
+			LOGGER.info("Writing topic views every " + interval + " seconds or " + threshold + " topics");
+		}
+	}
+
+	/**
+	 * Stops the background flushes, and writes all pending views.
+	 * Must be called while the database is still available.
+	 */
+	public static void stop()
+	{
+		synchronized (MUTEX_LIFECYCLE) {
+			final ScheduledExecutorService executor = scheduler;
+
+			if (executor == null) {
+				return;
+			}
+
+			scheduler = null;
+			executor.shutdown();
+
+			try {
+				executor.awaitTermination(10, TimeUnit.SECONDS);
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+
+			flush();
+
+			Stats.unregisterGauge(GAUGE_PENDING);
+			Stats.unregisterGauge(GAUGE_LAG);
+			Stats.unregisterGauge(GAUGE_LAST_FLUSH);
+		}
+	}
+
+	/**
+	 * Accounts for a new view of some topic.
+	 * 
+	 * @param topicId the topic's id
+	 */
+	public static void increment(final int topicId)
+	{
+		final ScheduledExecutorService executor = scheduler;
+
+		if (executor == null) {
+			DataAccessDriver.getInstance().newTopicDAO().incrementTotalViews(topicId);
+			return;
+		}
+
+		if (PENDING.merge(Integer.valueOf(topicId), ONE, Integer::sum).intValue() == 1) {
+			OLDEST_PENDING.compareAndSet(0, System.currentTimeMillis());
+
+			if (PENDING.size() >= threshold && FLUSH_REQUESTED.compareAndSet(false, true)) {
+				try {
+					executor.execute(FLUSH_TASK);
+				}
+				catch (RejectedExecutionException e) {
+					FLUSH_REQUESTED.set(false);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Gets the number of views of some topic not written to the database yet.
+	 * 
+	 * @param topicId the topic's id
+	 * @return the number of views to add to the value in the database
+	 */
+	public static int getPendingViews(final int topicId)
+	{
+		if (PENDING.isEmpty() && FLUSHING.isEmpty()) {
+			return 0;
+		}
+
+		final Integer key = Integer.valueOf(topicId);
+		final Integer pending = PENDING.get(key);
+		final Integer flushing = FLUSHING.get(key);
+
+		return (pending == null ? 0 : pending.intValue()) + (flushing == null ? 0 : flushing.intValue());
+	}
+
+	/**
+	 * Writes all pending views to the database, using a single batch, in its own
+	 * connection and transaction. If the batch or its commit fails, the views are
+	 * kept to be written in the next flush.
+	 */
+	public static void flush()
+	{
+		synchronized (MUTEX_FLUSH) {
+			FLUSH_REQUESTED.set(false);
+
+			if (PENDING.isEmpty()) {
+				return;
+			}
+
+			final long oldest = OLDEST_PENDING.getAndSet(0);
+			final long start = System.currentTimeMillis();
+			int views = 0;
+
+			for (final Iterator<Integer> iter = PENDING.keySet().iterator(); iter.hasNext(); ) {
+				final Integer topicId = iter.next();
+				final Integer count = PENDING.remove(topicId);
+
+				if (count != null) {
+					FLUSHING.put(topicId, count);
+					views += count.intValue();
+				}
+			}
+
+			final JForumExecutionContext requestContext = JForumExecutionContext.exists()
+				? JForumExecutionContext.get()
+				: null;
+			boolean written = false;
+
+			JForumExecutionContext.set(new JForumExecutionContext());
+
+			try {
+				DataAccessDriver.getInstance().newTopicDAO().incrementTotalViews(new HashMap<Integer, Integer>(FLUSHING));
+				JForumExecutionContext.commit();
+				written = true;
+			}
+			catch (Exception e) {
+				LOGGER.error("Could not write the views of " + FLUSHING.size() + " topics, will try again: " + e, e);
+				JForumExecutionContext.enableRollback();
+			}
+			finally {
+				JForumExecutionContext.finish();
+				JForumExecutionContext.set(requestContext);
+			}
+
+			if (!written) {
+				for (final Iterator<Map.Entry<Integer, Integer>> iter = FLUSHING.entrySet().iterator(); iter.hasNext(); ) {
+					final Map.Entry<Integer, Integer> entry = iter.next();
+					PENDING.merge(entry.getKey(), entry.getValue(), Integer::sum);
+				}
+
+				OLDEST_PENDING.set(oldest);
+			}
+			else {
+				lastFlush = views + " views of " + FLUSHING.size() + " topics in "
+					+ (System.currentTimeMillis() - start) + " ms";
+			}
+
+			FLUSHING.clear();
+		}
+	}
+
+	private TopicViewCounter() {}
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright (c) JForum Team
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, 
+ * with or without modification, are permitted provided 
+ * that the following conditions are met:
+ * 
+ * 1) Redistributions of source code must retain the above 
+ * copyright notice, this list of conditions and the 
+ * following disclaimer.
+ * 2) Redistributions in binary form must reproduce the 
+ * above copyright notice, this list of conditions and 
+ * the following disclaimer in the documentation and/or 
+ * other materials provided with the distribution.
+ * 3) Neither the name of "Rafael Steil" nor 
+ * the names of its contributors may be used to endorse 
+ * or promote products derived from this software without 
+ * specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT 
+ * HOLDERS AND CONTRIBUTORS "AS IS" AND ANY 
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, 
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF 
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR 
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL 
+ * THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, 
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, 
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER 
+ * IN CONTRACT, STRICT LIABILITY, OR TORT 
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN 
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF 
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE
+ * 
+ * The JForum Project
+ * http://www.jforum.net
+ */
+package net.jforum.repository;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import net.jforum.JForumExecutionContext;
+import net.jforum.cache.CacheEngine;
+import net.jforum.cache.Cacheable;
+import net.jforum.dao.DataAccessDriver;
+import net.jforum.entities.Post;
+import net.jforum.entities.User;
+import net.jforum.view.forum.common.ViewCommon;
+
+/**
+ * Keeps what is shown next to each post about its author: name, avatar,
+ * rank, karma, reputation and the signature, already rendered.
+ * <p>
+ * Cards are loaded only for the authors of the posts on the page, and the
+ * ones missing from the cache with a single batched query. The DAO methods
+ * changing these fields drop the card of the user, right away and again once
+ * their transaction ended, so a card loaded meanwhile with the old values is
+ * not kept.
+ * 
+ * @version $Id$
+ */
+public class UserCardRepository implements Cacheable
+{
+	private static final String FQN = "userCards";
+	private static CacheEngine cache;
+
+	/**
+	 * @see net.jforum.cache.Cacheable#setCacheEngine(net.jforum.cache.CacheEngine)
+	 */
+	@Override public void setCacheEngine(final CacheEngine engine)
+	{
+		UserCardRepository.setEngine(engine);
+	}
+
+	private static void setEngine(final CacheEngine engine)
+	{
+		cache = engine;
+	}
+
+	/**
+	 * Gets the cards of the authors of some posts.
+	 * The cards are shared, so they must not be changed.
+	 * 
+	 * @param posts the posts shown on the page
+	 * @return the cards, by user id
+	 */
+	public static Map<Integer, User> cardsOf(final List<Post> posts)
+	{
+		final Map<Integer, User> cards = new ConcurrentHashMap<Integer, User>();
+		final Set<Integer> missing = new HashSet<Integer>();
+
+		for (final Post post : posts) {
+			final Integer userId = Integer.valueOf(post.getUserId());
+
+			if (cards.containsKey(userId) || missing.contains(userId)) {
+				continue;
+			}
+
+			final User card = (User)cache.get(FQN, userId.toString());
+
+			if (card == null) {
+				missing.add(userId);
+			}
+			else {
+				cards.put(userId, card);
+			}
+		}
+
+		if (!missing.isEmpty()) {
+			final int[] userIds = new int[missing.size()];
+			int i = 0;
+
+			for (final Integer userId : missing) {
+				userIds[i++] = userId.intValue();
+			}
+
+			final List<User> loaded = DataAccessDriver.getInstance().newUserDAO().selectCards(userIds);
+
+			for (final User user : loaded) {
+				ViewCommon.prepareUserSignature(user);
+				cache.add(FQN, Integer.toString(user.getId()), user);
+				cards.put(Integer.valueOf(user.getId()), user);
+			}
+		}
+
+		return cards;
+	}
+
+	/**
+	 * Drops the card of a user, for when some of its fields change. It is
+	 * dropped now and again after the current transaction ends, as requests
+	 * may load it from the database before the change is committed.
+	 * 
+	 * @param userId the user id
+	 */
+	public static void remove(final int userId)
+	{
+		evict(userId);
+
+		JForumExecutionContext.afterFinish(new Runnable() {
+			@Override public void run() {
+				evict(userId);
+			}
+		});
+	}
+
+	private static void evict(final int userId)
+	{
+		if (cache != null) {
+			cache.remove(FQN, Integer.toString(userId));
+		}
+	}
+
+	/**
+	 * Drops all cards, for when the way signatures are rendered changes.
+	 */
+	public static void clear()
+	{
+		if (cache != null) {
+			cache.remove(FQN);
+		}
+	}
+}
@@ -0,0 +1,540 @@
+/*
+ * Copyright (c) JForum Team
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, 
+ * with or without modification, are permitted provided 
+ * that the following conditions are met:
+ * 
+ * 1) Redistributions of source code must retain the above 
+ * copyright notice, this list of conditions and the 
+ * following disclaimer.
+ * 2) Redistributions in binary form must reproduce the 
+ * above copyright notice, this list of conditions and 
+ * the following disclaimer in the documentation and/or 
+ * other materials provided with the distribution.
+ * 3) Neither the name of "Rafael Steil" nor 
+ * the names of its contributors may be used to endorse 
+ * or promote products derived from this software without 
+ * specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT 
+ * HOLDERS AND CONTRIBUTORS "AS IS" AND ANY 
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, 
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF 
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR 
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL 
+ * THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, 
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, 
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER 
+ * IN CONTRACT, STRICT LIABILITY, OR TORT 
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN 
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF 
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE
+ * 
+ * The JForum Project
+ * http://www.jforum.net
+ */
+package net.jforum.search;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+import org.apache.log4j.Logger;
+import org.apache.tika.metadata.Metadata;
+import org.apache.tika.metadata.TikaCoreProperties;
+import org.apache.tika.parser.AutoDetectParser;
+import org.apache.tika.parser.ParseContext;
+import org.apache.tika.parser.Parser;
+import org.apache.tika.sax.BodyContentHandler;
+import org.apache.tika.sax.WriteOutContentHandler;
+
+import net.jforum.util.BoundedLinkedHashMap;
+import net.jforum.util.concurrent.Executor;
+import net.jforum.util.concurrent.NamedThreadFactory;
+import net.jforum.util.preferences.ConfigKeys;
+import net.jforum.util.preferences.SystemGlobals;
+import net.jforum.util.stats.Stats;
+
+/**
+ * Extracts the text of attachments, to be indexed along with their posts.
+ * <p>
+ * Extracted text is kept in <i>lucene.attachments.text.store</i>, under the
+ * physical filename and the checksum of the file, so a post can be updated or
+ * reindexed without parsing its attachments again. The checksum is only computed
+ * again when the size or the modification time of the file changed since it was
+ * last seen. Parsing runs in the "extraction" task pool and is limited by file size,
+ * by number of characters and by time, as set by the <i>lucene.attachments.*</i> keys.
+ * The time limit starts when the parse does, so waiting in the pool does not count,
+ * and a parse stopped by it is not kept, so the file is parsed again next time.
+ * Stopping a parse interrupts its thread and closes the file; a parser which ignores
+ * both keeps running, so while {@link #MAX_OVERDUE} of them do no other file is parsed.
+ */
+public class AttachmentTextExtractor
+{
+	private static final Logger LOGGER = Logger.getLogger(AttachmentTextExtractor.class);
+
+	private static final String GAUGE_CACHE = "Attachment text cache";
+	private static final String GAUGE_TIME = "Attachment text extraction (ms)";
+
+	private static final Pattern UNSAFE_CHARS = Pattern.compile("[^A-Za-z0-9._-]");
+	private static final int KNOWN_FILES = 10000;
+	/** How many parses may still be running after their time limit, before no more are started */
+	static final int MAX_OVERDUE = 2;
+
+	private static final Set<String> TEXTUAL_METADATA_FIELDS = new HashSet<String>(Arrays.asList(
+		TikaCoreProperties.TITLE.getName(),
+		TikaCoreProperties.COMMENTS.getName(),
+		TikaCoreProperties.KEYWORDS.getName(),
+		TikaCoreProperties.DESCRIPTION.getName()));
+
+	private final Parser parser;
+	private final File attachDir;
+	private final File storeDir;
+	private final long maxSize;
+	private final int maxChars;
+	private final long timeout;
+	private ScheduledExecutorService watchdog;
+
+	/** The files whose text is in the store, so their checksum is not computed again */
+	private final Map<String, KnownFile> known = new BoundedLinkedHashMap<String, KnownFile>(KNOWN_FILES, true);
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong skipped = new AtomicLong();
+	private final AtomicLong timeouts = new AtomicLong();
+	/** Parses which were stopped by the time limit but did not end yet */
+	private final AtomicInteger overdue = new AtomicInteger();
+	private final AtomicLong totalTime = new AtomicLong();
+	private volatile long lastTime;
+
+	public AttachmentTextExtractor()
+	{
+		this(new File(SystemGlobals.getValue(ConfigKeys.ATTACHMENTS_STORE_DIR)),
+			new File(SystemGlobals.getValue(ConfigKeys.LUCENE_ATTACHMENTS_TEXT_STORE)),
+			SystemGlobals.getIntValue(ConfigKeys.LUCENE_ATTACHMENTS_MAX_SIZE) * 1024L,
+			SystemGlobals.getIntValue(ConfigKeys.LUCENE_ATTACHMENTS_MAX_CHARS),
+			TimeUnit.SECONDS.toMillis(SystemGlobals.getIntValue(ConfigKeys.LUCENE_ATTACHMENTS_TIMEOUT)));
+	}
+
+	/**
+	 * @param attachDir where attachments are stored
+	 * @param storeDir where extracted text is kept
+	 * @param maxSize files bigger than this, in bytes, are not parsed; 0 for no limit
+	 * @param maxChars text is cut after this many characters; 0 for no limit
+	 * @param timeout maximum time, in milliseconds, to parse a file; 0 for no limit
+	 */
+	public AttachmentTextExtractor(final File attachDir, final File storeDir, final long maxSize,
+		final int maxChars, final long timeout)
+	{
+		this(new AutoDetectParser(), attachDir, storeDir, maxSize, maxChars, timeout);
+	}
+
+	AttachmentTextExtractor(final Parser parser, final File attachDir, final File storeDir, final long maxSize,
+		final int maxChars, final long timeout)
+	{
+		this.parser = parser;
+		this.attachDir = attachDir;
+		this.storeDir = storeDir;
+		this.maxSize = maxSize;
+		this.maxChars = maxChars;
+		this.timeout = timeout;
+
+		if (!this.storeDir.exists() && !this.storeDir.mkdirs()) {
+			LOGGER.warn("Could not create " + this.storeDir + ", extracted text won't be kept");
+		}
+	}
+
+	/**
+	 * Shows the cache hit rate and the extraction time on the statistics page.
+	 */
+	public void registerGauges()
+	{
+		Stats.registerGauge(GAUGE_CACHE, new Stats.Gauge() {
+			@Override public Object getValue() {
+				final long found = hits.get();
+				final long total = found + misses.get();
+				final long rate = total == 0 ? 0 : found * 100 / total;
+				return "hits " + found + " of " + total + " (" + rate + "%), too big " + skipped.get();
+			}
+		});
+		Stats.registerGauge(GAUGE_TIME, new Stats.Gauge() {
+			@Override public Object getValue() {
+				final long count = misses.get();
+				final long average = count == 0 ? 0 : totalTime.get() / count;
+				return "last " + lastTime + ", average " + average + " over " + count + " files, timeouts " + timeouts.get()
+					+ " (" + overdue.get() + " still running)";
+			}
+		});
+	}
+
+	public void unregisterGauges()
+	{
+		Stats.unregisterGauge(GAUGE_CACHE);
+		Stats.unregisterGauge(GAUGE_TIME);
+	}
+
+	/**
+	 * Stops the thread which enforces the time limit. A parse started afterwards starts it again.
+	 */
+	public synchronized void shutdown()
+	{
+		if (this.watchdog != null) {
+			this.watchdog.shutdownNow();
+			this.watchdog = null;
+		}
+	}
+
+	/**
+	 * Gets the text of an attachment, from the store if it was already extracted.
+	 *
+	 * @param physicalFilename the name of the attachment file, relative to the attachments directory
+	 * @return the text, empty if the file can't be read or parsed
+	 */
+	public String extract(final String physicalFilename)
+	{
+		final File file = new File(this.attachDir, physicalFilename);
+
+		if (!file.isFile()) {
+			LOGGER.info("Attachment " + file + " does not exist, not indexing it");
+			return "";
+		}
+
+		if (this.maxSize > 0 && file.length() > this.maxSize) {
+			this.skipped.incrementAndGet();
+			LOGGER.info("Attachment " + file + " is bigger than " + this.maxSize + " bytes, not indexing it");
+			return "";
+		}
+
+		File stored = this.knownText(physicalFilename, file);
+
+		try {
+			if (stored == null) {
+				stored = new File(this.storeDir, UNSAFE_CHARS.matcher(physicalFilename).replaceAll("_")
+					+ "." + checksum(file) + ".txt");
+			}
+
+			if (stored.isFile()) {
+				this.hits.incrementAndGet();
+				final String text = new String(Files.readAllBytes(stored.toPath()), StandardCharsets.UTF_8);
+				this.remember(physicalFilename, file, stored);
+				return text;
+			}
+		}
+		catch (IOException e) {
+			LOGGER.info("Error reading " + file + ": " + e.getMessage());
+			return "";
+		}
+
+		this.misses.incrementAndGet();
+		final long start = System.currentTimeMillis();
+		final String text = this.parse(file);
+		final long time = System.currentTimeMillis() - start;
+		this.lastTime = time;
+		this.totalTime.addAndGet(time);
+
+		if (text == null) {
+			return "";
+		}
+
+		if (this.store(stored, text)) {
+			this.remember(physicalFilename, file, stored);
+		}
+
+		return text;
+	}
+
+	/**
+	 * @return the file the text was stored in, if the attachment did not change since, or <code>null</code>
+	 */
+	private File knownText(final String physicalFilename, final File file)
+	{
+		final KnownFile knownFile;
+
+		synchronized (this.known) {
+			knownFile = this.known.get(physicalFilename);
+		}
+
+		return knownFile != null && knownFile.length == file.length() && knownFile.lastModified == file.lastModified()
+			? knownFile.stored
+			: null;
+	}
+
+	private void remember(final String physicalFilename, final File file, final File stored)
+	{
+		final KnownFile knownFile = new KnownFile(file.length(), file.lastModified(), stored);
+
+		synchronized (this.known) {
+			this.known.put(physicalFilename, knownFile);
+		}
+	}
+
+	/**
+	 * Parses a file in the extraction pool. Whatever could be read before the size
+	 * or characters limits were reached is returned, and kept, so the file is not
+	 * parsed again. A parse stopped by the time limit gives <code>null</code>.
+	 *
+	 * @return the text, or <code>null</code> if the file should be parsed again next time
+	 */
+	private String parse(final File file)
+	{
+		if (this.overdue.get() >= MAX_OVERDUE) {
+			LOGGER.warn(this.overdue.get() + " parses are still running past the time limit, not indexing "
+				+ file.getName() + " now");
+			return null;
+		}
+
+		InputStream is = null;
+		final AtomicBoolean timedOut = new AtomicBoolean();
+
+		try {
+			is = new FileInputStream(file);
+			final InputStream input = is;
+			final WriteOutContentHandler limited = new WriteOutContentHandler(this.maxChars > 0 ? this.maxChars : -1);
+			final BodyContentHandler handler = new BodyContentHandler(limited);
+			final Metadata metadata = new Metadata();
+			metadata.set(Metadata.RESOURCE_NAME_KEY, file.getName());
+			final FutureTask<?>[] self = new FutureTask<?>[1];
+
+			final FutureTask<String> task = new FutureTask<String>(new Callable<String>() {
+				@Override public String call() throws Exception {
+					// The limit counts from here, not from when the task was queued
+					final Limit limit = AttachmentTextExtractor.this.startLimit(self[0], input, timedOut);
+					final ParseContext context = new ParseContext();
+					context.set(Parser.class, parser);
+
+					try {
+						parser.parse(input, handler, metadata, context);
+					}
+					catch (Exception e) {
+						if (!limited.isWriteLimitReached(e)) {
+							throw e;
+						}
+
+						LOGGER.info("Only the first " + maxChars + " characters of " + file.getName() + " are indexed");
+					}
+					finally {
+						if (limit != null) {
+							limit.finish();
+						}
+					}
+
+					final StringBuilder sb = new StringBuilder(handler.toString());
+
+					for (final String name : metadata.names()) {
+						if (TEXTUAL_METADATA_FIELDS.contains(name)) {
+							sb.append('\n').append(metadata.get(name));
+						}
+					}
+
+					return sb.toString();
+				}
+			});
+			self[0] = task;
+
+			// With the caller_runs policy the task may run right here, still under the limit
+			if (!Executor.execute(Executor.EXTRACTION, task)) {
+				LOGGER.warn("The extraction pool is full, not indexing " + file.getName());
+				return null;
+			}
+
+			final String text = task.get();
+			return timedOut.get() ? this.timedOut(file) : text;
+		}
+		catch (CancellationException e) {
+			return timedOut.get() ? this.timedOut(file) : null;
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return null;
+		}
+		catch (ExecutionException e) {
+			if (timedOut.get()) {
+				return this.timedOut(file);
+			}
+
+			LOGGER.info("error indexing " + file.getName() + ": " + e.getCause().getMessage());
+			return "";
+		}
+		catch (IOException e) {
+			LOGGER.info("error indexing " + file.getName() + ": " + e.getMessage());
+			return null;
+		}
+		finally {
+			if (is != null) {
+				try { is.close(); } catch (IOException e) { LOGGER.error(e); }
+			}
+		}
+	}
+
+	/**
+	 * Schedules the stop of the parse running in the current thread, if there is a time limit.
+	 *
+	 * @return the limit, to be finished when the parse ends, or <code>null</code> if there is none
+	 */
+	private Limit startLimit(final FutureTask<?> task, final InputStream input, final AtomicBoolean timedOut)
+	{
+		if (this.timeout <= 0) {
+			return null;
+		}
+
+		final Limit limit = new Limit(task, input, timedOut);
+		limit.future = this.watchdog().schedule(limit, this.timeout, TimeUnit.MILLISECONDS);
+
+		return limit;
+	}
+
+	private synchronized ScheduledExecutorService watchdog()
+	{
+		if (this.watchdog == null) {
+			this.watchdog = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("jforum-extraction-limit"));
+		}
+
+		return this.watchdog;
+	}
+
+	private String timedOut(final File file)
+	{
+		this.timeouts.incrementAndGet();
+		LOGGER.warn("Parsing " + file.getName() + " took longer than " + this.timeout + " ms, not indexing it now");
+		return null;
+	}
+
+	private boolean store(final File stored, final String text)
+	{
+		try {
+			final File temp = File.createTempFile("extract", ".tmp", this.storeDir);
+
+			try {
+				Files.write(temp.toPath(), text.getBytes(StandardCharsets.UTF_8));
+				Files.move(temp.toPath(), stored.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			}
+			finally {
+				Files.deleteIfExists(temp.toPath());
+			}
+
+			return true;
+		}
+		catch (IOException e) {
+			LOGGER.warn("Could not keep the text extracted to " + stored + ": " + e.getMessage());
+			return false;
+		}
+	}
+
+	private static String checksum(final File file) throws IOException
+	{
+		final CRC32 crc = new CRC32();
+		final byte[] buffer = new byte[64 * 1024];
+		InputStream is = null;
+
+		try {
+			is = new FileInputStream(file);
+			int read;
+
+			while ((read = is.read(buffer)) != -1) {
+				crc.update(buffer, 0, read);
+			}
+		}
+		finally {
+			if (is != null) {
+				is.close();
+			}
+		}
+
+		return Long.toHexString(crc.getValue());
+	}
+
+	/**
+	 * Stops a parse which took too long: releases whoever waits for it, interrupts
+	 * the thread running it and closes the file, which makes the parser fail if it
+	 * is still reading. With the caller_runs policy that thread is the caller's, so
+	 * the interrupt is cleared again when the parse ends.
+	 */
+	private final class Limit implements Runnable
+	{
+		private final FutureTask<?> task;
+		private final InputStream input;
+		private final AtomicBoolean timedOut;
+		private final Thread runner = Thread.currentThread();
+		private ScheduledFuture<?> future;
+		private boolean finished;
+
+		Limit(final FutureTask<?> task, final InputStream input, final AtomicBoolean timedOut)
+		{
+			this.task = task;
+			this.input = input;
+			this.timedOut = timedOut;
+		}
+
+		@Override public void run()
+		{
+			synchronized (this) {
+				if (this.finished) {
+					return;
+				}
+
+				overdue.incrementAndGet();
+				this.timedOut.set(true);
+				this.task.cancel(false);
+				this.runner.interrupt();
+			}
+
+			try { this.input.close(); } catch (IOException e) { LOGGER.debug(e); }
+		}
+
+		/**
+		 * Called by the parsing thread when the parse ends, in time or not.
+		 */
+		synchronized void finish()
+		{
+			this.finished = true;
+			this.future.cancel(false);
+
+			if (this.timedOut.get()) {
+				overdue.decrementAndGet();
+				// the interrupt was ours
+				Thread.interrupted();
+			}
+		}
+	}
+
+	private static final class KnownFile
+	{
+		final long length;
+		final long lastModified;
+		final File stored;
+
+		KnownFile(final long length, final long lastModified, final File stored)
+		{
+			this.length = length;
+			this.lastModified = lastModified;
+			this.stored = stored;
+		}
+	}
+}
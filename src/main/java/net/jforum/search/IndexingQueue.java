@@ -0,0 +1,725 @@
+/*
+ * Copyright (c) JForum Team
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, 
+ * with or without modification, are permitted provided 
+ * that the following conditions are met:
+ * 
+ * 1) Redistributions of source code must retain the above 
+ * copyright notice, this list of conditions and the 
+ * following disclaimer.
+ * 2) Redistributions in binary form must reproduce the 
+ * above copyright notice, this list of conditions and 
+ * the following disclaimer in the documentation and/or 
+ * other materials provided with the distribution.
+ * 3) Neither the name of "Rafael Steil" nor 
+ * the names of its contributors may be used to endorse 
+ * or promote products derived from this software without 
+ * specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT 
+ * HOLDERS AND CONTRIBUTORS "AS IS" AND ANY 
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, 
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF 
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR 
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL 
+ * THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, 
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, 
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER 
+ * IN CONTRACT, STRICT LIABILITY, OR TORT 
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN 
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF 
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE
+ * 
+ * The JForum Project
+ * http://www.jforum.net
+ */
+package net.jforum.search;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.log4j.Logger;
+
+import net.jforum.JForumExecutionContext;
+import net.jforum.dao.DataAccessDriver;
+import net.jforum.entities.Post;
+import net.jforum.util.concurrent.NamedThreadFactory;
+import net.jforum.util.stats.Stats;
+
+/**
+ * Bounded queue of index changes, applied to the index by a dedicated worker thread,
+ * so posting a message doesn't wait for Lucene.
+ * <p>
+ * Changes to the same post are coalesced while they wait: an update after a create
+ * is still a create, a delete after a create cancels both, and so on. Every change
+ * is also appended to a journal, which is compacted after the index is committed.
+ * A post leaves the journal only once a commit made its change durable: posts still
+ * queued, being applied or whose change failed are kept. If the application dies,
+ * the posts still in the journal are reindexed, from the database, when the queue
+ * starts again.
+ * <p>
+ * When the queue is full, the change is applied right away by the calling thread.
+ * Changes to the same post are never applied at the same time, so they reach the
+ * index in the order they were made.
+ */
+public class IndexingQueue
+{
+	private static final Logger LOGGER = Logger.getLogger(IndexingQueue.class);
+	private static final String GAUGE_DEPTH = "Search indexing queue depth";
+	private static final String GAUGE_LATENCY = "Search indexing latency (ms)";
+
+	static final int CREATE = 'C';
+	static final int UPDATE = 'U';
+	static final int DELETE = 'D';
+	/** Journaled before a restart: the post must be read again from the database */
+	static final int REPLAY = 'R';
+
+	private final LuceneIndexer indexer;
+	private final File journal;
+	private final int capacity;
+	private final int batchSize;
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition notEmpty = this.lock.newCondition();
+	private final Condition idle = this.lock.newCondition();
+	/** Signalled when a post is no longer in flight */
+	private final Condition settled = this.lock.newCondition();
+	private final Map<Integer, Event> pending = new LinkedHashMap<Integer, Event>();
+	private Set<Integer> uncommitted = new HashSet<Integer>();
+	/** Being applied, by the worker or by a caller when the queue is full */
+	private final Set<Integer> inFlight = new HashSet<Integer>();
+	/** Could not be applied; retried when the post changes again, or on the next start */
+	private final Set<Integer> failed = new HashSet<Integer>();
+	private Writer journalWriter;
+	private boolean applying;
+	private volatile boolean running;
+	private Thread worker;
+
+	private final AtomicLong applied = new AtomicLong();
+	private final AtomicLong totalLatency = new AtomicLong();
+	private volatile long lastLatency;
+
+	public IndexingQueue(final LuceneIndexer indexer, final File journal, final int capacity, final int batchSize)
+	{
+		this.indexer = indexer;
+		this.journal = journal;
+		this.capacity = capacity;
+		this.batchSize = Math.max(1, batchSize);
+	}
+
+	/**
+	 * Reads what was left in the journal, if anything, and starts the worker thread.
+	 */
+	public void start()
+	{
+		this.lock.lock();
+
+		try {
+			if (this.running) {
+				return;
+			}
+
+			for (final Integer postId : this.readJournal()) {
+				this.pending.put(postId, new Event(REPLAY, postId.intValue(), null));
+			}
+
+			if (!this.pending.isEmpty()) {
+				LOGGER.info("Reindexing " + this.pending.size() + " posts left in " + this.journal);
+			}
+
+			this.openJournal(true);
+			this.running = true;
+		}
+		finally {
+			this.lock.unlock();
+		}
+
+		this.worker = new NamedThreadFactory("jforum-lucene-indexing").newThread(new Runnable() {
+			@Override public void run() {
+				IndexingQueue.this.work();
+			}
+		});
+		this.worker.start();
+
+		Stats.registerGauge(GAUGE_DEPTH, new Stats.Gauge() {
+			@Override public Object getValue() {
+				return Integer.valueOf(IndexingQueue.this.size());
+			}
+		});
+		Stats.registerGauge(GAUGE_LATENCY, new Stats.Gauge() {
+			@Override public Object getValue() {
+				final long count = IndexingQueue.this.applied.get();
+				final long average = count == 0 ? 0 : IndexingQueue.this.totalLatency.get() / count;
+				return "last " + IndexingQueue.this.lastLatency + ", average " + average + " over " + count + " changes";
+			}
+		});
+	}
+
+	/**
+	 * Applies everything still queued, stops the worker thread and commits the index.
+	 * Changes made afterwards are applied right away, without the journal.
+	 */
+	public void stop()
+	{
+		this.lock.lock();
+
+		try {
+			if (!this.running) {
+				return;
+			}
+
+			this.running = false;
+			this.notEmpty.signalAll();
+		}
+		finally {
+			this.lock.unlock();
+		}
+
+		try {
+			this.worker.join(TimeUnit.SECONDS.toMillis(30));
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		if (this.worker.isAlive()) {
+			LOGGER.warn(this.size() + " index changes were not applied, they will be when the application starts again");
+		}
+
+		this.worker = null;
+
+		try {
+			this.commit();
+		}
+		catch (Exception e) {
+			LOGGER.error("Could not commit the search index: " + e, e);
+		}
+
+		this.lock.lock();
+
+		try {
+			this.closeJournal();
+		}
+		finally {
+			this.lock.unlock();
+		}
+
+		Stats.unregisterGauge(GAUGE_DEPTH);
+		Stats.unregisterGauge(GAUGE_LATENCY);
+	}
+
+	public void create(final Post post)
+	{
+		this.enqueue(CREATE, post);
+	}
+
+	public void update(final Post post)
+	{
+		this.enqueue(UPDATE, post);
+	}
+
+	public void delete(final Post post)
+	{
+		this.enqueue(DELETE, post);
+	}
+
+	/**
+	 * @return the number of posts waiting to be indexed
+	 */
+	public int size()
+	{
+		this.lock.lock();
+
+		try {
+			return this.pending.size();
+		}
+		finally {
+			this.lock.unlock();
+		}
+	}
+
+	/**
+	 * Waits until every queued change was applied to the index.
+	 * 
+	 * @param timeout the maximum time to wait, in milliseconds
+	 * @return <code>true</code> if the queue is empty
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public boolean awaitIdle(final long timeout) throws InterruptedException
+	{
+		long nanos = TimeUnit.MILLISECONDS.toNanos(timeout);
+		this.lock.lock();
+
+		try {
+			while (!this.pending.isEmpty() || this.applying) {
+				if (nanos <= 0) {
+					return false;
+				}
+
+				nanos = this.idle.awaitNanos(nanos);
+			}
+
+			return true;
+		}
+		finally {
+			this.lock.unlock();
+		}
+	}
+
+	/**
+	 * Commits the index, and then removes from the journal every change the commit made durable.
+	 */
+	public void commit()
+	{
+		final Set<Integer> committing;
+		this.lock.lock();
+
+		try {
+			committing = this.uncommitted;
+			this.uncommitted = new HashSet<Integer>();
+		}
+		finally {
+			this.lock.unlock();
+		}
+
+		boolean committed = false;
+
+		try {
+			this.indexer.commit();
+			committed = true;
+		}
+		finally {
+			this.lock.lock();
+
+			try {
+				if (committed) {
+					this.compactJournal();
+				}
+				else {
+					this.uncommitted.addAll(committing);
+				}
+			}
+			finally {
+				this.lock.unlock();
+			}
+		}
+	}
+
+	private void enqueue(final int op, final Post post)
+	{
+		final Integer postId = Integer.valueOf(post.getId());
+		this.lock.lock();
+
+		try {
+			Event previous = this.pending.get(postId);
+
+			while (!this.running || (previous == null && this.pending.size() >= this.capacity)) {
+				if (this.inFlight.contains(postId)) {
+					// An older change to the post is being applied, and must land first
+					this.settled.awaitUninterruptibly();
+					previous = this.pending.get(postId);
+					continue;
+				}
+
+				this.appendJournal(op, post.getId());
+				this.inFlight.add(postId);
+				// Once stopped, a change may still be queued: it is older, so it goes along with this one
+				final Event event = coalesce(this.pending.remove(postId), new Event(op, post.getId(), post));
+				this.lock.unlock();
+				boolean done = false;
+
+				try {
+					if (event != null) {
+						this.apply(event);
+					}
+
+					done = true;
+				}
+				catch (RuntimeException e) {
+					LOGGER.error("Could not index post " + postId + ": " + e, e);
+				}
+				finally {
+					this.lock.lock();
+					this.settle(postId, done);
+				}
+
+				return;
+			}
+
+			this.appendJournal(op, post.getId());
+
+			final Event event = coalesce(previous, new Event(op, post.getId(), copyOf(post)));
+
+			if (event == null) {
+				this.pending.remove(postId);
+			}
+			else {
+				// Keep the place in the queue of the first change, so a busy post doesn't wait forever
+				this.pending.put(postId, event);
+			}
+
+			this.notEmpty.signal();
+		}
+		finally {
+			this.lock.unlock();
+		}
+	}
+
+	/**
+	 * Merges two changes to the same post.
+	 * 
+	 * @param previous the change already queued, or <code>null</code>
+	 * @param next the new change
+	 * @return the change to apply, or <code>null</code> if there is nothing to do
+	 */
+	static Event coalesce(final Event previous, final Event next)
+	{
+		if (previous == null) {
+			return next;
+		}
+
+		if (previous.op == CREATE) {
+			if (next.op == DELETE) {
+				return null;
+			}
+
+			return new Event(CREATE, next.postId, next.post, previous.enqueuedAt);
+		}
+
+		if (next.op == CREATE) {
+			// The document may still be in the index, so it must be replaced
+			return new Event(UPDATE, next.postId, next.post, previous.enqueuedAt);
+		}
+
+		return new Event(next.op, next.postId, next.post, previous.enqueuedAt);
+	}
+
+	private void work()
+	{
+		final List<Event> batch = new ArrayList<Event>(this.batchSize);
+
+		while (true) {
+			this.lock.lock();
+
+			try {
+				this.applying = false;
+
+				if (this.pending.isEmpty()) {
+					this.idle.signalAll();
+				}
+
+				while (this.takeBatch(batch) == 0) {
+					if (this.pending.isEmpty() && !this.running) {
+						return;
+					}
+
+					// Either nothing is queued, or only posts a caller is applying
+					this.notEmpty.awaitUninterruptibly();
+				}
+
+				this.applying = true;
+			}
+			finally {
+				this.lock.unlock();
+			}
+
+			this.applyBatch(batch);
+			batch.clear();
+		}
+	}
+
+	private void applyBatch(final List<Event> batch)
+	{
+		// Attachments are read from the database while indexing, as are replayed posts
+		final boolean ownContext = !JForumExecutionContext.exists();
+		final Set<Integer> done = new HashSet<Integer>();
+
+		try {
+			for (final Event event : batch) {
+				try {
+					this.apply(event);
+					done.add(Integer.valueOf(event.postId));
+
+					final long latency = System.currentTimeMillis() - event.enqueuedAt;
+					this.lastLatency = latency;
+					this.totalLatency.addAndGet(latency);
+					this.applied.incrementAndGet();
+				}
+				catch (Exception e) {
+					// Left in the journal, so it is retried on the next start
+					LOGGER.error("Could not index post " + event.postId + ": " + e, e);
+				}
+			}
+		}
+		finally {
+			if (ownContext) {
+				JForumExecutionContext.finish();
+			}
+		}
+
+		this.lock.lock();
+
+		try {
+			for (final Event event : batch) {
+				final Integer postId = Integer.valueOf(event.postId);
+				this.settle(postId, done.contains(postId));
+			}
+		}
+		finally {
+			this.lock.unlock();
+		}
+	}
+
+	/**
+	 * Moves queued changes to the batch, skipping posts that are in flight.
+	 * Must be called holding the lock.
+	 *
+	 * @return the size of the batch
+	 */
+	private int takeBatch(final List<Event> batch)
+	{
+		for (final Iterator<Event> iter = this.pending.values().iterator(); iter.hasNext() && batch.size() < this.batchSize; ) {
+			final Event event = iter.next();
+
+			if (this.inFlight.add(Integer.valueOf(event.postId))) {
+				batch.add(event);
+				iter.remove();
+			}
+		}
+
+		return batch.size();
+	}
+
+	/**
+	 * Records the outcome of a change, and wakes up whoever waits for the post.
+	 * Must be called holding the lock.
+	 */
+	private void settle(final Integer postId, final boolean done)
+	{
+		this.inFlight.remove(postId);
+		this.settled.signalAll();
+		this.notEmpty.signal();
+
+		if (done) {
+			this.failed.remove(postId);
+			this.uncommitted.add(postId);
+		}
+		else {
+			this.failed.add(postId);
+		}
+	}
+
+	private void apply(final Event event)
+	{
+		if (event.op == CREATE) {
+			this.indexer.create(event.post);
+		}
+		else if (event.op == UPDATE) {
+			this.indexer.update(event.post);
+		}
+		else if (event.op == DELETE) {
+			this.indexer.delete(event.post);
+		}
+		else {
+			final Post post = this.loadPost(event.postId);
+
+			if (post == null) {
+				final Post deleted = new Post();
+				deleted.setId(event.postId);
+				this.indexer.delete(deleted);
+			}
+			else {
+				this.indexer.update(post);
+			}
+		}
+	}
+
+	/**
+	 * Reads a post to reindex it.
+	 * 
+	 * @param postId the post's id
+	 * @return the post, or <code>null</code> if it no longer exists
+	 */
+	Post loadPost(final int postId)
+	{
+		final List<Post> posts = DataAccessDriver.getInstance().newLuceneDAO().getPostsToIndex(postId, postId);
+		return posts.isEmpty() ? null : posts.get(0);
+	}
+
+	/**
+	 * The caller may keep changing the post after it was queued
+	 */
+	private static Post copyOf(final Post post)
+	{
+		final Post copy = new Post(post);
+		copy.setTopicType(post.getTopicType());
+		return copy;
+	}
+
+	private Set<Integer> readJournal()
+	{
+		final Set<Integer> postIds = new LinkedHashSet<Integer>();
+
+		if (!this.journal.exists()) {
+			return postIds;
+		}
+
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+				new FileInputStream(this.journal), StandardCharsets.US_ASCII))) {
+			String line;
+
+			while ((line = reader.readLine()) != null) {
+				// The last line may be incomplete, if the application died while writing it
+				final int space = line.indexOf(' ');
+
+				if (space > 0) {
+					try {
+						postIds.add(Integer.valueOf(line.substring(space + 1)));
+					}
+					catch (NumberFormatException e) {
+						LOGGER.warn("Ignoring invalid journal entry: " + line);
+					}
+				}
+			}
+		}
+		catch (IOException e) {
+			LOGGER.error("Could not read " + this.journal + ", some posts may be missing from the search index: " + e, e);
+		}
+
+		return postIds;
+	}
+
+	private void openJournal(final boolean append)
+	{
+		try {
+			this.journalWriter = new BufferedWriter(new OutputStreamWriter(
+				new FileOutputStream(this.journal, append), StandardCharsets.US_ASCII));
+		}
+		catch (IOException e) {
+			LOGGER.error("Could not open " + this.journal + ", index changes won't survive a crash: " + e, e);
+			this.journalWriter = null;
+		}
+	}
+
+	private void appendJournal(final int op, final int postId)
+	{
+		if (this.journalWriter == null) {
+			return;
+		}
+
+		try {
+			this.journalWriter.write((char)op + " " + postId + "\n");
+			this.journalWriter.flush();
+		}
+		catch (IOException e) {
+			LOGGER.error("Could not write to " + this.journal + ": " + e, e);
+		}
+	}
+
+	/**
+	 * Rewrites the journal with only the changes not committed yet: the ones
+	 * queued, being applied, applied after the commit started or failed.
+	 * Must be called holding the lock.
+	 */
+	private void compactJournal()
+	{
+		if (this.journalWriter == null) {
+			return;
+		}
+
+		final File temp = new File(this.journal.getPath() + ".tmp");
+
+		try {
+			try (Writer writer = new BufferedWriter(new OutputStreamWriter(
+					new FileOutputStream(temp), StandardCharsets.US_ASCII))) {
+				for (final Event event : this.pending.values()) {
+					writer.write((char)event.op + " " + event.postId + "\n");
+				}
+
+				final Set<Integer> replay = new LinkedHashSet<Integer>(this.inFlight);
+				replay.addAll(this.uncommitted);
+				replay.addAll(this.failed);
+
+				for (final Integer postId : replay) {
+					if (!this.pending.containsKey(postId)) {
+						writer.write((char)REPLAY + " " + postId + "\n");
+					}
+				}
+			}
+
+			this.closeJournal();
+			Files.move(temp.toPath(), this.journal.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+		catch (IOException e) {
+			LOGGER.error("Could not compact " + this.journal + ": " + e, e);
+		}
+		finally {
+			if (this.running) {
+				this.openJournal(true);
+			}
+		}
+	}
+
+	private void closeJournal()
+	{
+		if (this.journalWriter != null) {
+			try {
+				this.journalWriter.close();
+			}
+			catch (IOException e) {
+				LOGGER.warn("Could not close " + this.journal + ": " + e);
+			}
+
+			this.journalWriter = null;
+		}
+	}
+
+	static final class Event
+	{
+		final int op;
+		final int postId;
+		final Post post;
+		final long enqueuedAt;
+
+		Event(final int op, final int postId, final Post post)
+		{
+			this(op, postId, post, System.currentTimeMillis());
+		}
+
+		Event(final int op, final int postId, final Post post, final long enqueuedAt)
+		{
+			this.op = op;
+			this.postId = postId;
+			this.post = post;
+			this.enqueuedAt = enqueuedAt;
+		}
+	}
+}
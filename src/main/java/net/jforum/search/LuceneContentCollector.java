@@ -45,12 +45,15 @@ package net.jforum.search;
 
 import java.io.IOException;
 import java.io.StringReader;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
 
 import org.apache.lucene.analysis.TokenStream;
-import org.apache.lucene.document.Document;
-import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.ReaderUtil;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.ScoreDoc;
@@ -76,24 +79,64 @@ public class LuceneContentCollector
 		this.settings = settings;
 	}
 
-	public List<Post> collect (SearchArgs args, ScoreDoc[] results, Query query) {
+	/**
+	 * Gets the posts of the page requested by <code>args</code>.
+	 * 
+	 * @param args the search arguments
+	 * @param hits the hits of the current page
+	 * @param query the query, used to highlight the matching terms
+	 * @param searcher the searcher which found the hits
+	 * @return the posts of the current page
+	 */
+	public List<Post> collect (SearchArgs args, ScoreDoc[] hits, Query query, IndexSearcher searcher) {
 		try {
-			int[] postIds = new int[Math.min(args.fetchCount(), results.length)];
-
-			IndexSearcher searcher = new IndexSearcher(DirectoryReader.open(this.settings.directory()));
-			for (int docIndex = args.startFrom(), i = 0; 
-				docIndex < args.startFrom() + args.fetchCount() && docIndex < results.length; 
-				docIndex++, i++) {
-				ScoreDoc hit = results[docIndex];
-		        Document doc = searcher.doc(hit.doc);
-				postIds[i] = Integer.parseInt(doc.get(SearchFields.Keyword.POST_ID));
-			}
-			return this.retrieveRealPosts(postIds, query);
+			return this.retrieveRealPosts(this.postIds(hits, searcher), query);
 		} catch (Exception e) {
 			throw new ForumException(e.toString(), e);
 		}		
 	}
 
+	/**
+	 * Reads the post ids from the doc values, instead of loading the stored documents.
+	 * Doc values can only be read forward, so the hits are visited in index order.
+	 */
+	private int[] postIds (final ScoreDoc[] hits, IndexSearcher searcher) throws IOException
+	{
+		Integer[] order = new Integer[hits.length];
+
+		for (int i = 0; i < order.length; i++) {
+			order[i] = Integer.valueOf(i);
+		}
+
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override public int compare(Integer a, Integer b) {
+				return Integer.compare(hits[a.intValue()].doc, hits[b.intValue()].doc);
+			}
+		});
+
+		List<LeafReaderContext> leaves = searcher.getIndexReader().leaves();
+		LeafReaderContext leaf = null;
+		NumericDocValues values = null;
+		int[] postIds = new int[hits.length];
+
+		for (Integer index : order) {
+			int doc = hits[index.intValue()].doc;
+
+			if (leaf == null || doc >= leaf.docBase + leaf.reader().maxDoc()) {
+				leaf = leaves.get(ReaderUtil.subIndex(doc, leaves));
+				values = leaf.reader().getNumericDocValues(SearchFields.Keyword.POST_ID);
+			}
+
+			if (values != null && values.advanceExact(doc - leaf.docBase)) {
+				postIds[index.intValue()] = (int)values.longValue();
+			} else {
+				postIds[index.intValue()] = Integer.parseInt(searcher.doc(doc).get(SearchFields.Keyword.POST_ID));
+			}
+		}
+
+		return postIds;
+	}
+
 	private List<Post> retrieveRealPosts (int[] postIds, Query query) throws IOException, InvalidTokenOffsetsException
 	{
 		List<Post> posts = DataAccessDriver.getInstance().newLuceneDAO().getPostsData(postIds);
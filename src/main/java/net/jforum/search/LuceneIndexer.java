@@ -43,15 +43,15 @@
  */
 package net.jforum.search;
 
-import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Set;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
 
 import org.apache.log4j.Logger;
 import org.apache.lucene.document.Document;
@@ -61,17 +61,7 @@ import org.apache.lucene.document.StoredField;
 import org.apache.lucene.document.StringField;
 import org.apache.lucene.document.TextField;
 import org.apache.lucene.index.IndexWriter;
-import org.apache.lucene.index.IndexWriterConfig;
 import org.apache.lucene.index.Term;
-import org.apache.lucene.store.Directory;
-import org.apache.lucene.store.RAMDirectory;
-import org.apache.tika.metadata.Metadata;
-import org.apache.tika.metadata.TikaCoreProperties;
-import org.apache.tika.parser.AutoDetectParser;
-import org.apache.tika.parser.ParseContext;
-import org.apache.tika.parser.Parser;
-import org.apache.tika.sax.BodyContentHandler;
-import org.xml.sax.ContentHandler;
 
 import net.jforum.dao.AttachmentDAO;
 import net.jforum.dao.DataAccessDriver;
@@ -83,154 +73,159 @@ import net.jforum.util.preferences.ConfigKeys;
 import net.jforum.util.preferences.SystemGlobals;
 
 /**
+ * Changes the search index through the writer shared in {@link LuceneSettings}.
+ * Changes are not committed right away: searches see them as soon as the
+ * near-real-time searchers are refreshed, and {@link #commit()} makes them durable,
+ * which {@link LuceneManager} does on a time and size policy.
+ * 
  * @author Rafael Steil
  */
 public class LuceneIndexer
 {
 	private static final Logger LOGGER = Logger.getLogger(LuceneIndexer.class);
 
+	private static final Pattern OPENING_TAG = Pattern.compile("\\[[^\\]=/]+?\\]");
+	private static final Pattern CLOSING_TAG = Pattern.compile("\\[/[^\\]]+?\\]");
+	private static final Pattern TAG_WITH_VALUE = Pattern.compile("\\[[^\\]=]+?=([^\\]]+?)\\]");
+
 	private LuceneSettings settings;
-	private Directory ramDirectory;
-	private IndexWriter ramWriter;
-	private int ramNumDocs;
-	private List<NewDocumentAdded> newDocumentAddedList = new ArrayList<NewDocumentAdded>();
+	private final AtomicInteger uncommitted = new AtomicInteger();
+	private volatile long lastCommit = System.currentTimeMillis();
+	private final int commitThreshold = SystemGlobals.getIntValue(ConfigKeys.LUCENE_INDEXER_RAM_NUMDOCS);
+	/** Keeps commits from seeing a batch without its commit data, or the other way around */
+	private final Object commitLock = new Object();
+	private List<NewDocumentAdded> newDocumentAddedList = new CopyOnWriteArrayList<NewDocumentAdded>();
 
 	private AttachmentDAO attachDAO;
-	private String attachDir = SystemGlobals.getValue(ConfigKeys.ATTACHMENTS_STORE_DIR);
+	private final AttachmentTextExtractor extractor = new AttachmentTextExtractor();
 
 	public LuceneIndexer(final LuceneSettings settings)
 	{
 		this.settings = settings;
-		this.createRAMWriter();
 		this.attachDAO = DataAccessDriver.getInstance().newAttachmentDAO();
 	}
 
-	public void watchNewDocuDocumentAdded(NewDocumentAdded newDoc)
+	public AttachmentTextExtractor attachmentTextExtractor()
 	{
-		this.newDocumentAddedList.add(newDoc);
+		return this.extractor;
 	}
 
-	public void batchCreate(final Post post)
+	/**
+	 * Registers a listener to be called after every change made by
+	 * {@link #create(Post)}, {@link #update(Post)} or {@link #delete(Post)}.
+	 * Searchers are refreshed in the background anyway, so this is only
+	 * needed by who must see its own changes right away.
+	 * 
+	 * @param newDoc the listener
+	 */
+	public void watchNewDocuDocumentAdded(NewDocumentAdded newDoc)
 	{
-		synchronized (LOGGER) {
-			try {
-				final Document document = this.createDocument(post);
-				this.ramWriter.addDocument(document);
-				this.flushRAMDirectoryIfNecessary();
-			}
-			catch (IOException e) {
-				throw new SearchException(e);
-			}
-		}
+		this.newDocumentAddedList.add(newDoc);
 	}
 
-	private void createRAMWriter()
+	/**
+	 * Commits all changes made so far, making them durable.
+	 */
+	public void commit()
 	{
+		final int changes = this.uncommitted.getAndSet(0);
+
 		try {
-			if (this.ramWriter != null) {
-				this.ramWriter.close();
+			synchronized (this.commitLock) {
+				this.settings.indexWriter().commit();
 			}
 
-			this.ramDirectory = new RAMDirectory();
-			final IndexWriterConfig conf = new IndexWriterConfig(this.settings.analyzer()).setOpenMode(IndexWriterConfig.OpenMode.CREATE_OR_APPEND);
-			this.ramWriter = new IndexWriter(this.ramDirectory, conf);
-			this.ramNumDocs = SystemGlobals.getIntValue(ConfigKeys.LUCENE_INDEXER_RAM_NUMDOCS);
+			this.lastCommit = System.currentTimeMillis();
 		}
 		catch (IOException e) {
+			this.uncommitted.addAndGet(changes);
 			throw new SearchException(e);
 		}
-	}
 
-	private void flushRAMDirectoryIfNecessary()
-	{
-		if (this.ramWriter.getDocStats().maxDoc >= this.ramNumDocs) {
-			this.flushRAMDirectory();
+		if (changes > 0) {
+			this.notifyNewDocumentAdded();
 		}
 	}
 
-	public void flushRAMDirectory()
+	/**
+	 * Checks whether there are enough changes, or old enough ones, to commit.
+	 * 
+	 * @param maxAge the maximum time, in milliseconds, to keep changes uncommitted
+	 * @return <code>true</code> if {@link #commit()} should be called
+	 */
+	public boolean needsCommit(final long maxAge)
 	{
-		synchronized (LOGGER) {
-			IndexWriter writer = null;
-
-			try {
-				final IndexWriterConfig conf = new IndexWriterConfig(this.settings.analyzer()).setOpenMode(IndexWriterConfig.OpenMode.CREATE_OR_APPEND);
-				writer = new IndexWriter(this.settings.directory(), conf);
-				this.ramWriter.commit();
-				this.ramWriter.close();
-				writer.addIndexes(new Directory[] { this.ramDirectory });
-				writer.forceMergeDeletes();
-
-				this.createRAMWriter();
-			}
-			catch (IOException e) {
-				throw new SearchException(e);
-			}
-			finally {
-				if (writer != null) {
-					try { 
-						writer.commit(); 
-						writer.close();
-
-						this.notifyNewDocumentAdded();
-					}
-					catch (Exception e) {
-						LOGGER.error(e.toString(), e);
-					}
-				}
-			}
-		}
+		final int changes = this.uncommitted.get();
+
+		return changes >= this.commitThreshold
+			|| (changes > 0 && System.currentTimeMillis() - this.lastCommit >= maxAge);
 	}
 
 	public void create(final Post post)
 	{
-		synchronized (LOGGER) {
-			IndexWriter writer = null;
-
-			try {
-				final IndexWriterConfig conf = new IndexWriterConfig(this.settings.analyzer()).setOpenMode(IndexWriterConfig.OpenMode.CREATE_OR_APPEND);
-				writer = new IndexWriter(this.settings.directory(), conf);
-
-				final Document document = this.createDocument(post);
-				writer.addDocument(document);
+		try {
+			final Document document = this.createDocument(post);
+			this.settings.indexWriter().addDocument(document);
+			this.changed();
 
-				if (LOGGER.isDebugEnabled()) {
-					LOGGER.debug("Indexed " + document);
-				}
-			}
-			catch (Exception e) {
-				LOGGER.error(e.toString(), e);
-			}
-			finally {
-				if (writer != null) {
-					try {
-						writer.commit();
-						writer.close();
-
-						this.notifyNewDocumentAdded();
-					}
-					catch (Exception e) {
-						LOGGER.error(e.toString(), e);
-					}
-				}
+			if (LOGGER.isDebugEnabled()) {
+				LOGGER.debug("Indexed " + document);
 			}
 		}
+		catch (IOException e) {
+			throw new SearchException(e);
+		}
 	}
 
 	public void update(final Post post)
 	{
-		if (this.performDelete(post)) {
-			this.create(post);
+		try {
+			this.settings.indexWriter().updateDocument(this.postIdTerm(post), this.createDocument(post));
+			this.changed();
+		}
+		catch (IOException e) {
+			throw new SearchException(e);
 		}
 	}
 
 	private Document createDocument(final Post post)
+	{
+		return this.createDocument(post, this.attachmentsOf(post));
+	}
+
+	/**
+	 * Loads the attachments whose contents go in the document of a post.
+	 * Needs a database connection.
+	 * 
+	 * @param post the post
+	 * @return the attachments, empty if attachments are not indexed
+	 */
+	public List<Attachment> attachmentsOf(final Post post)
+	{
+		if (!post.hasAttachments() || !SystemGlobals.getBoolValue(ConfigKeys.LUCENE_INDEX_ATTACHMENTS)) {
+			return Collections.emptyList();
+		}
+
+		return this.attachDAO.selectAttachments(post.getId());
+	}
+
+	/**
+	 * Builds the document of a post. Does not touch the database nor the
+	 * index, so it may run in several threads at once.
+	 * 
+	 * @param post the post
+	 * @param attachments the attachments, as given by {@link #attachmentsOf(Post)}
+	 * @return the document
+	 */
+	public Document createDocument(final Post post, final List<Attachment> attachments)
 	{
 		Document doc = new Document();
 
 		doc.add(new TextField(SearchFields.Indexed.SUBJECT, post.getSubject(), Field.Store.NO));
 		doc.add(new StringField(SearchFields.Keyword.POST_ID, String.valueOf(post.getId()), Field.Store.YES));
+		doc.add(new NumericDocValuesField(SearchFields.Keyword.POST_ID, post.getId()));
 		doc.add(new StringField(SearchFields.Keyword.FORUM_ID, String.valueOf(post.getForumId()), Field.Store.YES));
+		doc.add(new NumericDocValuesField(SearchFields.Keyword.FORUM_ID, post.getForumId()));
 		doc.add(new StringField(SearchFields.Keyword.TOPIC_ID, String.valueOf(post.getTopicId()), Field.Store.YES));
 		doc.add(new StringField(SearchFields.Keyword.USER_ID, String.valueOf(post.getUserId()), Field.Store.YES));
 		doc.add(new NumericDocValuesField(SearchFields.Keyword.DATE, post.getTime().getTime()));
@@ -240,64 +235,57 @@ public class LuceneIndexer
 		// remove UBB tags so that searches for "quote" doesn't find posts that include a quote tag
 		String text = post.getText();
 		// remove [quote] and similar
-		text = text.replaceAll("\\[[^\\]=/]+?\\]", "");
+		text = OPENING_TAG.matcher(text).replaceAll("");
 		// remove [/quote] and similar
-		text = text.replaceAll("\\[/[^\\]]+?\\]", "");
+		text = CLOSING_TAG.matcher(text).replaceAll("");
 		// replace [quote=foo bar] by "foo bar "
-		text = text.replaceAll("\\[[^\\]=]+?=([^\\]]+?)\\]", "$1 ");
+		text = TAG_WITH_VALUE.matcher(text).replaceAll("$1 ");
 		doc.add(new TextField(SearchFields.Indexed.CONTENTS, text, Field.Store.NO));
 
-		boolean indexAttachments = SystemGlobals.getBoolValue(ConfigKeys.LUCENE_INDEX_ATTACHMENTS);
-
-		if (indexAttachments && post.hasAttachments()) {
-			for (Attachment att : attachDAO.selectAttachments(post.getId())) {
-				AttachmentInfo info = att.getInfo();
-				doc.add(new TextField(SearchFields.Indexed.CONTENTS, info.getComment(), Field.Store.NO));
-
-				File f = new File(attachDir + File.separatorChar + info.getPhysicalFilename());
-				LOGGER.debug("indexing "+f.getName());
-				InputStream is = null;
-				try {
-					Metadata metadata = new Metadata();
-					metadata.set(Metadata.RESOURCE_NAME_KEY, f.getName());
-					is = new FileInputStream(f);
-					Parser parser = new AutoDetectParser();
-					ContentHandler handler = new BodyContentHandler(-1);
-					//-1 disables the character size limit; otherwise only the first 100.000 characters are indexed
-					ParseContext context = new ParseContext();
-					context.set(Parser.class, parser);
-
-					Set<String> textualMetadataFields = new HashSet<String>();
-					textualMetadataFields.add(TikaCoreProperties.TITLE.getName());
-					textualMetadataFields.add(TikaCoreProperties.COMMENTS.getName());
-					textualMetadataFields.add(TikaCoreProperties.KEYWORDS.getName());
-					textualMetadataFields.add(TikaCoreProperties.DESCRIPTION.getName());
-
-					parser.parse(is, handler, metadata, context);
-
-					doc.add(new TextField(SearchFields.Indexed.CONTENTS, handler.toString(), Field.Store.NO));
-
-					String[] names = metadata.names();
-					for (int j=0; j<names.length; j++) {
-						String value = metadata.get(names[j]);
-
-						if (textualMetadataFields.contains(names[j])) {
-							doc.add(new TextField(SearchFields.Indexed.CONTENTS, value, Field.Store.NO));
-						}
-					}
-				} catch (Exception ex) {
-					LOGGER.info("error indexing "+f.getName()+": " + ex.getMessage());
-				} finally {
-					try {
-						is.close();
-					} catch (Exception e) { 
-						LOGGER.error("error  closing FileInputStream " +f.getName() + ": " + e.getMessage());
-					}
+		for (Attachment att : attachments) {
+			AttachmentInfo info = att.getInfo();
+			doc.add(new TextField(SearchFields.Indexed.CONTENTS, info.getComment(), Field.Store.NO));
+
+			LOGGER.debug("indexing " + info.getPhysicalFilename());
+			doc.add(new TextField(SearchFields.Indexed.CONTENTS, this.extractor.extract(info.getPhysicalFilename()), Field.Store.NO));
+		}
+
+		return doc;
+	}
+
+	/**
+	 * Adds documents built by {@link #createDocument(Post, List)}, as part
+	 * of a larger batch, along with the data to save with the next commit.
+	 * No commit happens in between, so a commit either has both or neither.
+	 * Listeners are not notified.
+	 * 
+	 * @param documents the documents
+	 * @param commitData the data to save with the next commit, replacing the current one
+	 */
+	public void addDocuments(final List<Document> documents, final Map<String, String> commitData)
+	{
+		try {
+			final IndexWriter writer = this.settings.indexWriter();
+
+			synchronized (this.commitLock) {
+				for (final Document document : documents) {
+					writer.addDocument(document);
 				}
+
+				writer.setLiveCommitData(new HashMap<String, String>(commitData).entrySet());
 			}
+
+			this.uncommitted.addAndGet(documents.size());
 		}
+		catch (IOException e) {
+			throw new SearchException(e);
+		}
+	}
 
-		return doc;
+	private void changed()
+	{
+		this.uncommitted.incrementAndGet();
+		this.notifyNewDocumentAdded();
 	}
 
 	private void notifyNewDocumentAdded()
@@ -307,40 +295,19 @@ public class LuceneIndexer
 		}
 	}
 
-	public void delete(final Post post)
+	private Term postIdTerm(final Post post)
 	{
-		this.performDelete(post);
+		return new Term(SearchFields.Keyword.POST_ID, String.valueOf(post.getId()));
 	}
 
-	private boolean performDelete(final Post post)
+	public void delete(final Post post)
 	{
-		synchronized (LOGGER) {
-			IndexWriter writer = null;
-			boolean status = false;
-
-			try {
-				final IndexWriterConfig conf = new IndexWriterConfig(this.settings.analyzer()).setOpenMode(IndexWriterConfig.OpenMode.CREATE_OR_APPEND);
-				writer = new IndexWriter(this.settings.directory(), conf);
-				writer.deleteDocuments(new Term(SearchFields.Keyword.POST_ID, String.valueOf(post.getId())));
-				status = true;
-			}
-			catch (IOException e) {
-				LOGGER.error(e.toString(), e);
-			}
-			finally {
-				if (writer != null) {
-					try {
-						writer.commit();
-						writer.close();
-						this.flushRAMDirectory();
-					}
-					catch (IOException e) {
-						LOGGER.error(e.toString(), e);
-					}
-				}
-			}
-
-			return status;
+		try {
+			this.settings.indexWriter().deleteDocuments(this.postIdTerm(post));
+			this.changed();
+		}
+		catch (IOException e) {
+			throw new SearchException(e);
 		}
 	}
 }
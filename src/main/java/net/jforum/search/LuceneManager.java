@@ -47,13 +47,20 @@ import java.io.File;
 import java.io.IOException;
 import java.util.Date;
 import java.util.GregorianCalendar;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.log4j.Logger;
 import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.DocValuesType;
+import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.index.FieldInfos;
 
 import net.jforum.entities.Post;
 import net.jforum.exceptions.ForumException;
+import net.jforum.util.concurrent.NamedThreadFactory;
 import net.jforum.util.preferences.ConfigKeys;
 import net.jforum.util.preferences.SystemGlobals;
 
@@ -68,11 +75,16 @@ public class LuceneManager
 	private LuceneSearch search;
 	private LuceneSettings settings;
 	private LuceneIndexer indexer;
+	private IndexingQueue queue;
+	private ScheduledExecutorService maintenance;
 
 	public void init()
 	{
 		String dirPath = SystemGlobals.getValue(ConfigKeys.LUCENE_INDEX_WRITE_PATH);
 
+		// When reconfigured at runtime, the previous writer must release the index
+		this.stop();
+
 		try {
 			Class<?> clazz = Class.forName(SystemGlobals.getValue(ConfigKeys.LUCENE_ANALYZER));
 
@@ -80,8 +92,13 @@ public class LuceneManager
 			settings.useFSDirectory(dirPath);
 
 			boolean reindex = false;
-			try {
-				DirectoryReader.open(settings.directory());
+			try (DirectoryReader reader = DirectoryReader.open(settings.directory())) {
+				// Results are sorted and read using doc values, which older indexes don't have
+				FieldInfo postId = FieldInfos.getMergedFieldInfos(reader).fieldInfo(SearchFields.Keyword.POST_ID);
+
+				if (postId != null && postId.getDocValuesType() != DocValuesType.NUMERIC) {
+					throw new IllegalStateException("post ids have no doc values");
+				}
 			} catch (IOException | RuntimeException ex) {
 				LOGGER.warn("Index can't be opened, possibly because of an old index format: " + ex.getMessage());
 				LOGGER.warn("Reindexing all posts, which can take a while");
@@ -96,10 +113,16 @@ public class LuceneManager
 			}
 
 			indexer = new LuceneIndexer(settings);
+			indexer.attachmentTextExtractor().registerGauges();
+
+			queue = new IndexingQueue(indexer, new File(SystemGlobals.getValue(ConfigKeys.LUCENE_QUEUE_JOURNAL)),
+				SystemGlobals.getIntValue(ConfigKeys.LUCENE_QUEUE_CAPACITY),
+				SystemGlobals.getIntValue(ConfigKeys.LUCENE_QUEUE_BATCH_SIZE));
+			queue.start();
 
 			search = new LuceneSearch(settings, new LuceneContentCollector(settings));
 
-			indexer.watchNewDocuDocumentAdded(search);
+			this.startMaintenance();
 
 			SystemGlobals.setObjectValue(ConfigKeys.LUCENE_SETTINGS, settings);
 
@@ -115,6 +138,69 @@ public class LuceneManager
 		}
 	}
 
+	/**
+	 * Periodically refreshes the near-real-time searchers, so they see new posts,
+	 * and commits the index when {@link LuceneIndexer#needsCommit(long)} says so.
+	 */
+	private void startMaintenance()
+	{
+		final long refreshInterval = Math.max(1, SystemGlobals.getIntValue(ConfigKeys.LUCENE_NRT_REFRESH_INTERVAL));
+		final long commitInterval = SystemGlobals.getIntValue(ConfigKeys.LUCENE_COMMIT_INTERVAL) * 1000L;
+		final LuceneIndexer currentIndexer = this.indexer;
+		final IndexingQueue currentQueue = this.queue;
+		final LuceneSearch currentSearch = this.search;
+
+		this.maintenance = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("jforum-lucene-maintenance"));
+
+		this.maintenance.scheduleWithFixedDelay(new Runnable() {
+			@Override public void run() {
+				try {
+					if (currentIndexer.needsCommit(commitInterval)) {
+						currentQueue.commit();
+					}
+
+					currentSearch.refresh();
+				}
+				catch (Exception e) {
+					LOGGER.error("Error while maintaining the search index: " + e, e);
+				}
+			}
+		}, refreshInterval, refreshInterval, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Stops the background maintenance, applies and commits pending changes and closes the index.
+	 */
+	public void stop()
+	{
+		if (this.maintenance != null) {
+			this.maintenance.shutdown();
+
+			try {
+				this.maintenance.awaitTermination(10, TimeUnit.SECONDS);
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+
+			this.maintenance = null;
+		}
+
+		if (this.queue != null) {
+			this.queue.stop();
+			this.queue = null;
+		}
+
+		if (this.indexer != null) {
+			this.indexer.attachmentTextExtractor().unregisterGauges();
+			this.indexer.attachmentTextExtractor().shutdown();
+		}
+
+		if (this.settings != null) {
+			this.settings.closeIndex();
+		}
+	}
+
 	public LuceneSearch luceneSearch()
 	{
 		return search;
@@ -125,14 +211,19 @@ public class LuceneManager
 		return indexer;
 	}
 
+	public IndexingQueue indexingQueue()
+	{
+		return queue;
+	}
+
 	public void create(final Post post)
 	{
-		indexer.create(post);
+		queue.create(post);
 	}
 
 	public void update(final Post post)
 	{
-		indexer.update(post);
+		queue.update(post);
 	}
 
 	public SearchResult<Post> search(final SearchArgs args, int userId)
@@ -142,6 +233,6 @@ public class LuceneManager
 
 	public void delete(final Post post)
 	{
-		indexer.delete(post);
+		queue.delete(post);
 	}
 }
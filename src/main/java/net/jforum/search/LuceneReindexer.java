@@ -44,44 +44,123 @@
 package net.jforum.search;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
 import java.util.Date;
-import java.util.Iterator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.log4j.Logger;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.IndexWriter;
 
 import net.jforum.JForumExecutionContext;
 import net.jforum.dao.DataAccessDriver;
 import net.jforum.dao.LuceneDAO;
+import net.jforum.entities.Attachment;
 import net.jforum.entities.Post;
 import net.jforum.exceptions.ForumException;
+import net.jforum.util.concurrent.Executor;
+import net.jforum.util.concurrent.NamedThreadFactory;
 import net.jforum.util.preferences.ConfigKeys;
 import net.jforum.util.preferences.SystemGlobals;
 
 /**
+ * Rebuilds the search index in three stages: posts are fetched from the
+ * database by the calling thread, turned into documents by a pool of
+ * builders, and added to the index, in fetch order, by a single writer.
+ * The next post to index is saved along with every index commit, so an
+ * interrupted process can be resumed with {@link #resumeArgs(LuceneSettings)}.
+ * Each batch and its checkpoint are added at once, so a commit never holds
+ * one without the other.
+ * 
  * @author Rafael Steil
  */
 public class LuceneReindexer
 {
 	private static final Logger LOGGER = Logger.getLogger(LuceneReindexer.class);
-    
+
+	private static final String CHECKPOINT_NEXT = "jforum.reindex.next";
+	private static final String CHECKPOINT_LAST = "jforum.reindex.last";
+
+	private static final Batch END = new Batch(0, 0, Collections.<Document>emptyList());
+
+	private static volatile ReindexProgress progress;
+
 	private LuceneSettings settings;
 	private LuceneReindexArgs args;
-    
+
 	public LuceneReindexer(LuceneSettings settings, LuceneReindexArgs args)
 	{
 		this.settings = settings;
 		this.args = args;
 	}
-    
+
+	/**
+	 * @return the progress of the running process, or of the last one, if any
+	 */
+	public static ReindexProgress getProgress()
+	{
+		return progress;
+	}
+
+	/**
+	 * Gets the arguments to continue an interrupted reindexing process
+	 * from where it stopped.
+	 * 
+	 * @param settings the settings of the index
+	 * @return the arguments, or <code>null</code> if there is nothing to resume
+	 */
+	public static LuceneReindexArgs resumeArgs(LuceneSettings settings)
+	{
+		try {
+			Map<String, String> checkpoint = new HashMap<String, String>();
+			Iterable<Map.Entry<String, String>> data = settings.indexWriter().getLiveCommitData();
+
+			if (data != null) {
+				for (Map.Entry<String, String> entry : data) {
+					checkpoint.put(entry.getKey(), entry.getValue());
+				}
+			}
+
+			if (!checkpoint.containsKey(CHECKPOINT_NEXT) || !checkpoint.containsKey(CHECKPOINT_LAST)) {
+				return null;
+			}
+
+			int next = Integer.parseInt(checkpoint.get(CHECKPOINT_NEXT));
+			int last = Integer.parseInt(checkpoint.get(CHECKPOINT_LAST));
+
+			// Skipping what is already indexed is cheap insurance, should a batch
+			// have been committed by someone else before its checkpoint
+			return next > last
+				? null
+				: new LuceneReindexArgs(null, null, next, last, true, LuceneReindexArgs.TYPE_MESSAGE, false);
+		}
+		catch (IOException | NumberFormatException e) {
+			LOGGER.warn("Could not read the reindexing checkpoint: " + e);
+			return null;
+		}
+	}
+
 	public void startProcess()
 	{
 		reindex();
 	}
-    
+
 	public void startBackgroundProcess()
 	{
-		Runnable indexingJob = new Runnable() {	    
+		Runnable indexingJob = new Runnable() {
 			@Override public void run() {
 				reindex();
 			}
@@ -89,7 +168,9 @@ public class LuceneReindexer
 
 		SystemGlobals.setValue(ConfigKeys.LUCENE_CURRENTLY_INDEXING, "1");
 
-		new Thread(indexingJob).start();
+		if (!Executor.execute(Executor.SEARCH, indexingJob)) {
+			SystemGlobals.setValue(ConfigKeys.LUCENE_CURRENTLY_INDEXING, "0");
+		}
 	}
 
 	private void reindex()
@@ -103,101 +184,269 @@ public class LuceneReindexer
 			throw new ForumException(e);
 		}
 
-		LuceneDAO dao = DataAccessDriver.getInstance().newLuceneDAO();
+		final LuceneDAO dao = DataAccessDriver.getInstance().newLuceneDAO();
 
-		LuceneSearch luceneSearch = ((LuceneManager)SearchFacade.manager()).luceneSearch();
-		LuceneIndexer luceneIndexer = ((LuceneManager)SearchFacade.manager()).luceneIndexer();
+		final LuceneSearch luceneSearch = ((LuceneManager)SearchFacade.manager()).luceneSearch();
+		final LuceneIndexer luceneIndexer = ((LuceneManager)SearchFacade.manager()).luceneIndexer();
 
 		int fetchCount = SystemGlobals.getIntValue(ConfigKeys.LUCENE_INDEXER_DB_FETCH_COUNT);
+		int threads = SystemGlobals.getIntValue(ConfigKeys.LUCENE_REINDEX_THREADS);
+
+		if (threads <= 0) {
+			threads = Runtime.getRuntime().availableProcessors();
+		}
+
+		ExecutorService builders = null;
+		Thread writer = null;
+		BlockingQueue<Future<Batch>> pending = null;
+		ReindexProgress current = null;
+		boolean completed = false;
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
 
 		try {
 			long processStart = System.currentTimeMillis();
 
-			int firstPostId = args.filterByMessage() ? args.getFirstPostId() : dao.firstPostIdByDate(args.getFromDate());
-			int lastPostId = args.filterByMessage()	? args.getLastPostId() : dao.lastPostIdByDate(args.getToDate());
+			int firstPostId;
+			int lastPostId;
 
-			int dbFirstPostId = dao.firstPostIdByDate(new Date(0L));
-			int dbLastPostId = dao.lastPostIdByDate(new Date());
-			if (args.filterByMessage()) {
-				if (firstPostId < dbFirstPostId) {
-					firstPostId = dbFirstPostId;
-				}
-				if (lastPostId > dbLastPostId) {
-					lastPostId = dbLastPostId;
+			JForumExecutionContext ex = JForumExecutionContext.get();
+			JForumExecutionContext.set(ex);
+
+			try {
+				firstPostId = args.filterByMessage() ? args.getFirstPostId() : dao.firstPostIdByDate(args.getFromDate());
+				lastPostId = args.filterByMessage() ? args.getLastPostId() : dao.lastPostIdByDate(args.getToDate());
+
+				int dbFirstPostId = dao.firstPostIdByDate(new Date(0L));
+				int dbLastPostId = dao.lastPostIdByDate(new Date());
+				if (args.filterByMessage()) {
+					if (firstPostId < dbFirstPostId) {
+						firstPostId = dbFirstPostId;
+					}
+					if (lastPostId > dbLastPostId) {
+						lastPostId = dbLastPostId;
+					}
 				}
 			}
-			LOGGER.info("LuceneReindexer: indexing posts "+firstPostId+ " through "+lastPostId);
+			finally {
+				JForumExecutionContext.finish();
+			}
 
-			int counter = 0;
-			int indexTotal = 0;
-			long indexRangeStart = System.currentTimeMillis();
-			boolean hasMorePosts = true;
-			while (hasMorePosts) {
-				boolean contextFinished = false;
+			LOGGER.info("LuceneReindexer: indexing posts " + firstPostId + " through " + lastPostId
+				+ " with " + threads + " document builders");
 
-				int toPostId = firstPostId + fetchCount < lastPostId
-					? (firstPostId + fetchCount - 1)
-					: lastPostId;
+			current = new ReindexProgress(firstPostId, lastPostId);
+			progress = current;
 
-				try {
-					JForumExecutionContext ex = JForumExecutionContext.get();
-					JForumExecutionContext.set(ex);
+			// One pass over the post ids already in the index, instead of a search per post
+			final BitSet indexed = !args.recreate() && args.avoidDuplicatedRecords()
+				? luceneSearch.findIndexedPostIds()
+				: null;
 
-					List<Post> l = dao.getPostsToIndex(firstPostId, toPostId);
+			builders = Executors.newFixedThreadPool(threads, new NamedThreadFactory("jforum-reindex"));
+			pending = new ArrayBlockingQueue<Future<Batch>>(threads * 2);
+			writer = this.startWriter(luceneIndexer, pending, current, lastPostId, failure);
 
-					if (counter >= 1000) {
-						long end = System.currentTimeMillis();
-						LOGGER.info("LuceneReindexer: indexed ~1000 documents in " 					    
-							+ (end - indexRangeStart) + " ms (" + indexTotal + " so far)");
-						indexRangeStart = end;
-						counter = 0;
-					}
+			int fromPostId = firstPostId;
 
-					JForumExecutionContext.finish();
-					contextFinished = true;
+			while (fromPostId <= lastPostId) {
+				if ("0".equals(SystemGlobals.getValue(ConfigKeys.LUCENE_CURRENTLY_INDEXING)) || failure.get() != null) {
+					break;
+				}
 
-					for (Iterator<Post> iter = l.iterator(); iter.hasNext(); ) {
-						if ("0".equals(SystemGlobals.getValue(ConfigKeys.LUCENE_CURRENTLY_INDEXING))) {
-							hasMorePosts = false;						    
-							break;
-						}
+				final int toPostId = Math.min(lastPostId, fromPostId + fetchCount - 1);
+				final List<Post> posts = new ArrayList<Post>();
+				final List<List<Attachment>> attachments = new ArrayList<List<Attachment>>();
 
-						Post post = iter.next();
+				ex = JForumExecutionContext.get();
+				JForumExecutionContext.set(ex);
 
-						if (!args.recreate() && args.avoidDuplicatedRecords()) {
-							if (luceneSearch.findDocumentByPostId(post.getId()) != null) {
-								continue;
-							}
-						}
+				try {
+					List<Post> l = dao.getPostsToIndex(fromPostId, toPostId);
+					current.fetched(l.size());
 
-						luceneIndexer.batchCreate(post);
+					for (Post post : l) {
+						if (indexed != null && indexed.get(post.getId())) {
+							current.skipped(1);
+							continue;
+						}
 
-						counter++;
-						indexTotal++;
+						posts.add(post);
+						attachments.add(luceneIndexer.attachmentsOf(post));
 					}
-
-					firstPostId += fetchCount;
-					hasMorePosts = hasMorePosts && toPostId < lastPostId;
 				}
 				finally {
-					if (!contextFinished) {
-						JForumExecutionContext.finish();
-					}
+					JForumExecutionContext.finish();
 				}
+
+				pending.put(builders.submit(new Callable<Batch>() {
+					@Override public Batch call() {
+						List<Document> documents = new ArrayList<Document>(posts.size());
+
+						for (int i = 0; i < posts.size(); i++) {
+							documents.add(luceneIndexer.createDocument(posts.get(i), attachments.get(i)));
+						}
+
+						return new Batch(toPostId, posts.isEmpty() ? toPostId : posts.get(posts.size() - 1).getId(), documents);
+					}
+				}));
+
+				fromPostId = toPostId + 1;
+			}
+
+			pending.put(CompletableFuture.completedFuture(END));
+			writer.join();
+			writer = null;
+
+			if (failure.get() != null) {
+				throw new ForumException(failure.get());
 			}
 
-			long end = System.currentTimeMillis();
+			completed = fromPostId > lastPostId;
 
-			LOGGER.info("LuceneReindexer: Total time " + (end - processStart) + " ms");
+			LOGGER.info("LuceneReindexer: Total time " + (System.currentTimeMillis() - processStart) + " ms, "
+				+ current.getIndexed() + " documents indexed, " + current.getSkipped() + " already in the index");
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new ForumException(e);
+		}
+		catch (ForumException e) {
+			throw e;
 		}
 		catch (Exception e) {
-			e.printStackTrace();
 			throw new ForumException(e);
 		}
 		finally {
+			if (builders != null) {
+				builders.shutdownNow();
+			}
+
+			if (writer != null) {
+				// let the writer drain what was already queued and stop
+				writer.interrupt();
+			}
+
 			SystemGlobals.setValue(ConfigKeys.LUCENE_CURRENTLY_INDEXING, "0");
 
-			luceneIndexer.flushRAMDirectory();
+			if (completed) {
+				this.saveCheckpoint(Collections.<String, String>emptyMap());
+			}
+
+			luceneIndexer.commit();
+
+			if (current != null) {
+				current.finish(completed
+					? ReindexProgress.FINISHED
+					: failure.get() != null ? ReindexProgress.FAILED : ReindexProgress.CANCELLED);
+			}
+		}
+	}
+
+	/**
+	 * Starts the single thread adding the built documents to the index, in the
+	 * order the batches were fetched, and moving the checkpoint along.
+	 */
+	private Thread startWriter(final LuceneIndexer luceneIndexer, final BlockingQueue<Future<Batch>> pending,
+		final ReindexProgress current, final int lastPostId, final AtomicReference<Throwable> failure)
+	{
+		Thread thread = new NamedThreadFactory("jforum-reindex-writer").newThread(new Runnable() {
+			@Override public void run() {
+				long rangeStart = System.currentTimeMillis();
+				long counter = 0;
+
+				try {
+					while (true) {
+						Future<Batch> future = pending.take();
+						Batch batch;
+
+						try {
+							batch = future.get();
+						}
+						catch (ExecutionException e) {
+							failure.compareAndSet(null, e.getCause());
+							continue;
+						}
+
+						if (batch == END) {
+							break;
+						}
+
+						if (failure.get() != null) {
+							// keep draining, so the fetcher is never left waiting
+							continue;
+						}
+
+						try {
+							luceneIndexer.addDocuments(batch.documents, checkpoint(batch.toPostId + 1, lastPostId));
+
+							current.indexed(batch.documents.size(), batch.lastPostId);
+							counter += batch.documents.size();
+
+							if (counter >= 1000) {
+								long end = System.currentTimeMillis();
+								LOGGER.info("LuceneReindexer: indexed " + counter + " documents in "
+									+ (end - rangeStart) + " ms (" + current.getIndexed() + " so far)");
+								rangeStart = end;
+								counter = 0;
+							}
+						}
+						catch (RuntimeException e) {
+							failure.compareAndSet(null, e);
+						}
+					}
+				}
+				catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		});
+
+		thread.start();
+
+		return thread;
+	}
+
+	/**
+	 * Builds the data saved with a commit, telling where to resume.
+	 * 
+	 * @param next the first post not indexed yet
+	 * @param last the last post to index
+	 * @return the commit data
+	 */
+	static Map<String, String> checkpoint(int next, int last)
+	{
+		Map<String, String> checkpoint = new HashMap<String, String>();
+		checkpoint.put(CHECKPOINT_NEXT, Integer.toString(next));
+		checkpoint.put(CHECKPOINT_LAST, Integer.toString(last));
+
+		return checkpoint;
+	}
+
+	/**
+	 * Saves the checkpoint along with the next index commit.
+	 */
+	private void saveCheckpoint(Map<String, String> checkpoint)
+	{
+		try {
+			IndexWriter indexWriter = this.settings.indexWriter();
+			indexWriter.setLiveCommitData(new HashMap<String, String>(checkpoint).entrySet());
+		}
+		catch (IOException e) {
+			LOGGER.warn("Could not save the reindexing checkpoint: " + e);
+		}
+	}
+
+	private static class Batch
+	{
+		final int toPostId;
+		final int lastPostId;
+		final List<Document> documents;
+
+		Batch(int toPostId, int lastPostId, List<Document> documents)
+		{
+			this.toPostId = toPostId;
+			this.lastPostId = lastPostId;
+			this.documents = documents;
 		}
 	}
 }
@@ -46,26 +46,33 @@ package net.jforum.search;
 import java.io.IOException;
 import java.io.StringReader;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.List;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import org.apache.log4j.Logger;
 import org.apache.lucene.analysis.TokenStream;
 import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
 import org.apache.lucene.document.Document;
-import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.PostingsEnum;
 import org.apache.lucene.index.Term;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
 import org.apache.lucene.queryparser.classic.QueryParser;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.FieldDoc;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.SearcherManager;
 import org.apache.lucene.search.Sort;
 import org.apache.lucene.search.SortField;
 import org.apache.lucene.search.TermQuery;
 import org.apache.lucene.search.TopDocs;
-import org.apache.lucene.search.TopFieldDocs;
+import org.apache.lucene.search.TopFieldCollector;
 import org.apache.lucene.search.TotalHits;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
 
 import net.jforum.entities.Post;
 import net.jforum.exceptions.SearchException;
@@ -79,11 +86,6 @@ public class LuceneSearch implements NewDocumentAdded
 {
 	private static final Logger LOGGER = Logger.getLogger(LuceneSearch.class);
 
-	private final ReentrantReadWriteLock rwl = new ReentrantReadWriteLock();
-	private final Lock read = rwl.readLock();
-	private final Lock write = rwl.writeLock();
-
-	private IndexSearcher searcher;
 	private LuceneSettings settings;
 	private LuceneContentCollector collector;
 
@@ -91,19 +93,29 @@ public class LuceneSearch implements NewDocumentAdded
 	{
 		this.settings = settings;
 		this.collector = collector;
-
-		this.openSearch();
 	}
 
+	/**
+	 * Makes the changes made so far visible to the next searches, waiting for it.
+	 */
 	@Override public void newDocumentAdded() {		
 		try {
-			write.lock();
-            // open a new searcher
-			openSearch();
-		} catch (Exception e) {
-			throw new RuntimeException(e);
-		} finally {
-			write.unlock();
+			this.settings.searcherManager().maybeRefreshBlocking();
+		} catch (IOException e) {
+			throw new SearchException(e);
+		}
+	}
+
+	/**
+	 * Makes the changes made so far visible to the next searches, unless
+	 * another thread is already doing it. Called periodically by {@link LuceneManager}.
+	 */
+	public void refresh()
+	{
+		try {
+			this.settings.searcherManager().maybeRefresh();
+		} catch (IOException e) {
+			throw new SearchException(e);
 		}
 	}
 
@@ -119,27 +131,78 @@ public class LuceneSearch implements NewDocumentAdded
 		Document doc = null;
 
 		try {
-			read.lock();
-			TopDocs results = searcher.search(new TermQuery(new Term(SearchFields.Keyword.POST_ID, String.valueOf(postId))), 1);
-			ScoreDoc[] hits = results.scoreDocs;
-			for (ScoreDoc hit : hits) {
-				doc = searcher.doc(hit.doc);
+			SearcherManager manager = this.settings.searcherManager();
+			IndexSearcher searcher = manager.acquire();
+
+			try {
+				TopDocs results = searcher.search(new TermQuery(new Term(SearchFields.Keyword.POST_ID, String.valueOf(postId))), 1);
+				ScoreDoc[] hits = results.scoreDocs;
+				for (ScoreDoc hit : hits) {
+					doc = searcher.doc(hit.doc);
+				}
+			} finally {
+				manager.release(searcher);
 			}
 		} catch (IOException e) {
-			throw new RuntimeException(e);
-		} finally {
-			read.unlock();
+			throw new SearchException(e);
 		}
 
 		return doc;
 	}
 
+	/**
+	 * Gets the ids of all posts in the index, walking the post id terms
+	 * once instead of searching for each post.
+	 * 
+	 * @return the ids of the indexed posts
+	 */
+	public BitSet findIndexedPostIds()
+	{
+		final BitSet ids = new BitSet();
+
+		try {
+			SearcherManager manager = this.settings.searcherManager();
+			manager.maybeRefreshBlocking();
+			IndexSearcher searcher = manager.acquire();
+
+			try {
+				for (LeafReaderContext leaf : searcher.getIndexReader().leaves()) {
+					final Terms terms = leaf.reader().terms(SearchFields.Keyword.POST_ID);
+
+					if (terms == null) {
+						continue;
+					}
+
+					final Bits liveDocs = leaf.reader().getLiveDocs();
+					final TermsEnum termsEnum = terms.iterator();
+					PostingsEnum postings = null;
+
+					for (BytesRef term = termsEnum.next(); term != null; term = termsEnum.next()) {
+						postings = termsEnum.postings(postings, PostingsEnum.NONE);
+
+						for (int doc = postings.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = postings.nextDoc()) {
+							if (liveDocs == null || liveDocs.get(doc)) {
+								ids.set(Integer.parseInt(term.utf8ToString()));
+								break;
+							}
+						}
+					}
+				}
+			} finally {
+				manager.release(searcher);
+			}
+		} catch (IOException e) {
+			throw new SearchException(e);
+		}
+
+		return ids;
+	}
+
 	private SearchResult<Post> performSearch (SearchArgs args, LuceneContentCollector resultCollector, int userId)
 	{
 		SearchResult<Post> result;
 
 		try {
-			read.lock();
 			StringBuilder criteria = new StringBuilder(256);
 
 			this.filterByForum(args, criteria);
@@ -155,21 +218,44 @@ public class LuceneSearch implements NewDocumentAdded
 				Query query = new QueryParser(SearchFields.Indexed.CONTENTS, this.settings.analyzer()).parse(criteria.toString());
 
 				final int limit = SystemGlobals.getIntValue(ConfigKeys.SEARCH_RESULT_LIMIT);
-				TopFieldDocs tfd = searcher.search(query, limit, getSorter(args));
-				ScoreDoc[] docs = tfd.scoreDocs;
-				TotalHits th = tfd.totalHits;
-				if (th.value > 0) {
-					result = new SearchResult<Post>(resultCollector.collect(args, docs, query));
-				} else {
-					result = new SearchResult<Post>(new ArrayList<Post>());
-				}
+				final int threshold = SystemGlobals.getIntValue(ConfigKeys.SEARCH_TOTAL_HITS_THRESHOLD);
+				final Sort sort = this.getSorter(args);
+
+				// With a cursor only the requested page is collected, however deep it is
+				final FieldDoc after = decodeCursor(args.getSearchAfter(), sort);
+				final int start = after == null ? args.startFrom() : 0;
+				final int numHits = Math.min(start + args.fetchCount(), limit);
+
+				SearcherManager manager = this.settings.searcherManager();
+				IndexSearcher searcher = manager.acquire();
+
+				try {
+					if (numHits <= start) {
+						result = new SearchResult<Post>(new ArrayList<Post>());
+					} else {
+						TopFieldCollector topCollector = TopFieldCollector.create(sort, numHits, after, Math.max(numHits, threshold));
+						searcher.search(query, topCollector);
+
+						TopDocs page = topCollector.topDocs(start, args.fetchCount());
+						ScoreDoc[] docs = page.scoreDocs;
+						TotalHits th = page.totalHits;
+
+						if (docs.length > 0) {
+							int totalHits = (int)Math.min(th.value, limit);
+							String cursor = docs.length == args.fetchCount() ? encodeCursor((FieldDoc)docs[docs.length - 1]) : null;
+							result = new SearchResult<Post>(resultCollector.collect(args, docs, query, searcher), totalHits, cursor);
+						} else {
+							result = new SearchResult<Post>(new ArrayList<Post>());
+						}
 
-				LOGGER.debug((th.relation == TotalHits.Relation.EQUAL_TO ? "" : "minimum ") + "number of hits="+th.value);
+						LOGGER.debug((th.relation == TotalHits.Relation.EQUAL_TO ? "" : "minimum ") + "number of hits="+th.value);
+					}
+				} finally {
+					manager.release(searcher);
+				}
 			}
 		} catch (Exception e) {
 			throw new SearchException(e);
-		} finally {
-			read.unlock();
 		}
 
 		return result;
@@ -183,25 +269,99 @@ public class LuceneSearch implements NewDocumentAdded
 		SortField dateSortField = new SortField(SearchFields.Keyword.DATE, SortField.Type.LONG, args.isOrderDirectionDescending());
 		// TODO: for wiki topics, we should use the edit date, not the post date
 
+		// The post id comes last so that hits never tie, and a cursor identifies
+		// the same position even after the index changed
 		if ("time".equals(args.getOrderBy())) {
 			// sort by date
+			SortField postIdSortField = new SortField(SearchFields.Keyword.POST_ID, SortField.Type.INT, args.isOrderDirectionDescending());
+
 			if (args.isGroupByForum()) {
-				sort = new Sort(new SortField[] { forumGroupingSortField, dateSortField });
+				sort = new Sort(new SortField[] { forumGroupingSortField, dateSortField, postIdSortField });
 			} else {
-				sort = new Sort(new SortField[] { dateSortField });
+				sort = new Sort(new SortField[] { dateSortField, postIdSortField });
 			}
 		} else {
 			// sort by relevance
+			SortField postIdSortField = new SortField(SearchFields.Keyword.POST_ID, SortField.Type.INT, true);
+
 			if (args.isGroupByForum()) {
-				sort = new Sort(new SortField[] { forumGroupingSortField, SortField.FIELD_SCORE });
+				sort = new Sort(new SortField[] { forumGroupingSortField, SortField.FIELD_SCORE, postIdSortField });
 			} else {
-				sort = new Sort(new SortField[] { SortField.FIELD_SCORE });
+				sort = new Sort(new SortField[] { SortField.FIELD_SCORE, postIdSortField });
 			}
 		}
 
 		return sort;
 	}
 
+	/**
+	 * Builds the cursor of a hit, to be passed back by {@link SearchArgs#setSearchAfter(String)}.
+	 * It holds the sort values of the hit: scores as the hexadecimal bits of the float.
+	 */
+	static String encodeCursor (FieldDoc hit)
+	{
+		StringBuilder sb = new StringBuilder();
+
+		for (int i = 0; i < hit.fields.length; i++) {
+			if (i > 0) {
+				sb.append('_');
+			}
+
+			Object value = hit.fields[i];
+
+			if (value instanceof Float) {
+				sb.append(Integer.toHexString(Float.floatToIntBits(((Float)value).floatValue())));
+			} else {
+				sb.append(value);
+			}
+		}
+
+		return sb.toString();
+	}
+
+	/**
+	 * @return the hit to search after, or <code>null</code> if there is no valid cursor for this sort
+	 */
+	static FieldDoc decodeCursor (String cursor, Sort sort)
+	{
+		if (cursor == null || cursor.length() == 0) {
+			return null;
+		}
+
+		SortField[] fields = sort.getSort();
+		String[] parts = cursor.split("_");
+
+		if (parts.length != fields.length) {
+			return null;
+		}
+
+		Object[] values = new Object[fields.length];
+
+		try {
+			for (int i = 0; i < fields.length; i++) {
+				switch (fields[i].getType()) {
+					case SCORE:
+						values[i] = Float.valueOf(Float.intBitsToFloat((int)Long.parseLong(parts[i], 16)));
+						break;
+					case INT:
+						values[i] = Integer.valueOf(parts[i]);
+						break;
+					case LONG:
+						values[i] = Long.valueOf(parts[i]);
+						break;
+					default:
+						return null;
+				}
+			}
+		} catch (NumberFormatException e) {
+			LOGGER.debug("Ignoring invalid search cursor " + cursor);
+			return null;
+		}
+
+		// Ties are impossible, see getSorter(), so the document number doesn't matter
+		return new FieldDoc(Integer.MAX_VALUE, Float.NaN, values);
+	}
+
 	private void filterByDateRange (SearchArgs args, StringBuilder criteria)
 	{
 		if (args.getFromDate() != null) {
@@ -341,14 +501,4 @@ public class LuceneSearch implements NewDocumentAdded
 			throw new SearchException(e);
 		}
 	}
-
-	private void openSearch()
-	{
-		try {
-			this.searcher = new IndexSearcher(DirectoryReader.open(this.settings.directory()));
-		}
-		catch (IOException e) {
-			throw new SearchException(e.toString(), e);
-		}
-	}
 }
@@ -54,11 +54,19 @@ import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.search.SearcherManager;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
 import org.apache.lucene.store.RAMDirectory;
 
+import net.jforum.util.preferences.ConfigKeys;
+import net.jforum.util.preferences.SystemGlobals;
+
 /**
+ * Settings of the search index. It also holds the single {@link IndexWriter}
+ * opened on the index directory, and the {@link SearcherManager} which gives
+ * near-real-time searchers from it, since Lucene allows only one writer per directory.
+ * 
  * @author Rafael Steil
  */
 public class LuceneSettings
@@ -67,6 +75,8 @@ public class LuceneSettings
 
 	private Class<?> clazz;
 	private Directory directory;
+	private volatile IndexWriter writer;
+	private volatile SearcherManager searcherManager;
 
 	public LuceneSettings (final Class<?> clazz)
 	{
@@ -75,6 +85,7 @@ public class LuceneSettings
 
 	public void useRAMDirectory() throws IOException
 	{
+		this.closeIndex();
 		this.directory = new RAMDirectory();
 		final IndexWriterConfig conf = new IndexWriterConfig(analyzer()).setOpenMode(IndexWriterConfig.OpenMode.CREATE_OR_APPEND);
 		final IndexWriter writer = new IndexWriter(this.directory, conf);
@@ -83,6 +94,8 @@ public class LuceneSettings
 
 	public void useFSDirectory (final String indexDirectory) throws IOException
 	{
+		this.closeIndex();
+
 		if (!DirectoryReader.indexExists(FSDirectory.open(Paths.get(indexDirectory)))) {
 			this.createIndexDirectory(indexDirectory);
 		}
@@ -92,6 +105,15 @@ public class LuceneSettings
 
 	public void createIndexDirectory (final String directoryPath) throws IOException 
 	{
+		synchronized (this) {
+			if (this.writer != null && this.writer.isOpen()) {
+				// The writer holds the directory lock, so it has to do the job
+				this.writer.deleteAll();
+				this.writer.commit();
+				return;
+			}
+		}
+
 		final FSDirectory fsDir = FSDirectory.open(Paths.get(directoryPath));	    
 		final IndexWriterConfig conf = new IndexWriterConfig(analyzer()).setOpenMode(IndexWriterConfig.OpenMode.CREATE);
 		final IndexWriter writer = new IndexWriter(fsDir, conf);
@@ -103,6 +125,105 @@ public class LuceneSettings
 		return this.directory;
 	}
 
+	/**
+	 * Gets the writer shared by everybody changing the index, opening it if needed.
+	 * 
+	 * @return the index writer
+	 * @throws IOException if the index can't be opened
+	 */
+	public IndexWriter indexWriter() throws IOException
+	{
+		IndexWriter current = this.writer;
+
+		if (current == null || !current.isOpen()) {
+			synchronized (this) {
+				current = this.writer;
+
+				if (current == null || !current.isOpen()) {
+					this.closeSearcherManager();
+
+					final IndexWriterConfig conf = new IndexWriterConfig(analyzer()).setOpenMode(IndexWriterConfig.OpenMode.CREATE_OR_APPEND);
+					final double ramBuffer = SystemGlobals.getIntValue(ConfigKeys.LUCENE_INDEXER_RAM_BUFFER);
+
+					if (ramBuffer > 0) {
+						// documents are flushed to new segments when the buffer is full,
+						// so a bigger one means fewer and larger segments while reindexing
+						conf.setRAMBufferSizeMB(ramBuffer);
+					}
+
+					current = new IndexWriter(this.directory, conf);
+					this.writer = current;
+				}
+			}
+		}
+
+		return current;
+	}
+
+	/**
+	 * Gets the manager of near-real-time searchers over {@link #indexWriter()}.
+	 * Searchers must be released with {@link SearcherManager#release(Object)} after use.
+	 * 
+	 * @return the searcher manager
+	 * @throws IOException if the index can't be opened
+	 */
+	public SearcherManager searcherManager() throws IOException
+	{
+		SearcherManager current = this.searcherManager;
+
+		if (current == null) {
+			final IndexWriter indexWriter = this.indexWriter();
+
+			synchronized (this) {
+				current = this.searcherManager;
+
+				if (current == null) {
+					current = new SearcherManager(indexWriter, null);
+					this.searcherManager = current;
+				}
+			}
+		}
+
+		return current;
+	}
+
+	/**
+	 * Closes the searchers and the writer, committing pending changes.
+	 */
+	public synchronized void closeIndex()
+	{
+		this.closeSearcherManager();
+
+		if (this.writer != null) {
+			try {
+				if (this.writer.isOpen()) {
+					this.writer.commit();
+				}
+
+				this.writer.close();
+			}
+			catch (IOException e) {
+				LOGGER.error("Error while closing the index writer: " + e, e);
+			}
+
+			this.writer = null;
+		}
+	}
+
+	private synchronized void closeSearcherManager()
+	{
+		if (this.searcherManager != null) {
+			try {
+				this.searcherManager.close();
+			}
+			catch (IOException e) {
+				LOGGER.error("Error while closing the searchers: " + e, e);
+			}
+
+			this.searcherManager = null;
+		}
+	}
+
 	public Analyzer analyzer()
 	{
 		try {
@@ -0,0 +1,165 @@
+/*
+ * Copyright (c) JForum Team
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, 
+ * with or without modification, are permitted provided 
+ * that the following conditions are met:
+ * 
+ * 1) Redistributions of source code must retain the above 
+ * copyright notice, this list of conditions and the 
+ * following disclaimer.
+ * 2) Redistributions in binary form must reproduce the 
+ * above copyright notice, this list of conditions and 
+ * the following disclaimer in the documentation and/or 
+ * other materials provided with the distribution.
+ * 3) Neither the name of "Rafael Steil" nor 
+ * the names of its contributors may be used to endorse 
+ * or promote products derived from this software without 
+ * specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT 
+ * HOLDERS AND CONTRIBUTORS "AS IS" AND ANY 
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, 
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF 
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR 
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL 
+ * THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, 
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, 
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER 
+ * IN CONTRACT, STRICT LIABILITY, OR TORT 
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN 
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF 
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE
+ * 
+ * The JForum Project
+ * http://www.jforum.net
+ */
+package net.jforum.search;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Live figures of a running (or the last) reindexing process, as shown
+ * in the search statistics page.
+ */
+public class ReindexProgress
+{
+	public static final String RUNNING = "running";
+	public static final String FINISHED = "finished";
+	public static final String CANCELLED = "cancelled";
+	public static final String FAILED = "failed";
+
+	private final int firstPostId;
+	private final int lastPostId;
+	private final long startTime = System.currentTimeMillis();
+
+	private final AtomicLong fetched = new AtomicLong();
+	private final AtomicLong skipped = new AtomicLong();
+	private final AtomicLong indexed = new AtomicLong();
+
+	private volatile int lastIndexedPostId;
+	private volatile long endTime;
+	private volatile String state = RUNNING;
+
+	public ReindexProgress(final int firstPostId, final int lastPostId)
+	{
+		this.firstPostId = firstPostId;
+		this.lastPostId = lastPostId;
+		this.lastIndexedPostId = firstPostId - 1;
+	}
+
+	void fetched(final int count)
+	{
+		this.fetched.addAndGet(count);
+	}
+
+	void skipped(final int count)
+	{
+		this.skipped.addAndGet(count);
+	}
+
+	void indexed(final int count, final int upToPostId)
+	{
+		this.indexed.addAndGet(count);
+		this.lastIndexedPostId = upToPostId;
+	}
+
+	void finish(final String finalState)
+	{
+		this.endTime = System.currentTimeMillis();
+		this.state = finalState;
+	}
+
+	public int getFirstPostId()
+	{
+		return this.firstPostId;
+	}
+
+	public int getLastPostId()
+	{
+		return this.lastPostId;
+	}
+
+	public int getLastIndexedPostId()
+	{
+		return this.lastIndexedPostId;
+	}
+
+	public long getFetched()
+	{
+		return this.fetched.get();
+	}
+
+	public long getSkipped()
+	{
+		return this.skipped.get();
+	}
+
+	public long getIndexed()
+	{
+		return this.indexed.get();
+	}
+
+	public String getState()
+	{
+		return this.state;
+	}
+
+	public boolean isRunning()
+	{
+		return RUNNING.equals(this.state);
+	}
+
+	public long getElapsedSeconds()
+	{
+		final long end = this.endTime > 0 ? this.endTime : System.currentTimeMillis();
+		return (end - this.startTime) / 1000;
+	}
+
+	public long getPostsPerSecond()
+	{
+		final long end = this.endTime > 0 ? this.endTime : System.currentTimeMillis();
+		final long elapsed = Math.max(1, end - this.startTime);
+		return this.indexed.get() * 1000 / elapsed;
+	}
+
+	/**
+	 * @return how much of the post id range was already covered, from 0 to 100
+	 */
+	public int getPercentDone()
+	{
+		final long total = (long)this.lastPostId - this.firstPostId + 1;
+
+		if (total <= 0) {
+			return 100;
+		}
+
+		final long done = (long)this.lastIndexedPostId - this.firstPostId + 1;
+		return (int)Math.max(0, Math.min(100, done * 100 / total));
+	}
+}
@@ -63,6 +63,7 @@ public class SearchArgs
 	private String orderBy = "relevance";
 	private int forumId;
 	private int initialRecord;
+	private String searchAfter;
 	private String searchDate;
 	private Date fromDate;
 	private Date toDate;
@@ -153,6 +154,22 @@ public class SearchArgs
 		return this.initialRecord;
 	}
 
+	/**
+	 * Makes the search start right after the last hit of the previous page,
+	 * instead of collecting and skipping all hits before {@link #startFrom()}.
+	 * 
+	 * @param searchAfter the cursor given by {@link SearchResult#getCursor()}
+	 */
+	public void setSearchAfter(String searchAfter)
+	{
+		this.searchAfter = searchAfter;
+	}
+
+	public String getSearchAfter()
+	{
+		return formatNullOrTrim(this.searchAfter);
+	}
+
 	public void setKeywords(String keywords)
 	{
 		this.keywords = keywords;
@@ -101,6 +101,16 @@ public final class SearchFacade
 		}
 	}
 
+	/**
+	 * Commits and closes the search index. Called when the application is shut down.
+	 */
+	public static void stop()
+	{
+		if (searchManager != null) {
+			searchManager.stop();
+		}
+	}
+
 	public static LuceneManager manager()
 	{
 		return searchManager;
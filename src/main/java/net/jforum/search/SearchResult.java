@@ -51,10 +51,24 @@ import java.util.List;
 public class SearchResult<T>
 {
 	private transient final List<T> records;
+	private transient final int numberOfHits;
+	private transient final String cursor;
 
 	public SearchResult (final List<T> records)
+	{
+		this(records, records.size(), null);
+	}
+
+	/**
+	 * @param records the records of the current page
+	 * @param numberOfHits the number of records of all pages
+	 * @param cursor where the next page starts, or <code>null</code>
+	 */
+	public SearchResult (final List<T> records, final int numberOfHits, final String cursor)
 	{
 		this.records = records;
+		this.numberOfHits = numberOfHits;
+		this.cursor = cursor;
 	}
 
 	public List<T> getRecords()
@@ -64,6 +78,15 @@ public class SearchResult<T>
 
 	public int getNumberOfHits()
 	{
-		return records.size();
+		return this.numberOfHits;
+	}
+
+	/**
+	 * @return the value to pass to {@link SearchArgs#setSearchAfter(String)} to get
+	 * the next page, or <code>null</code> if there is no cheaper way than its offset
+	 */
+	public String getCursor()
+	{
+		return this.cursor;
 	}
 }
@@ -0,0 +1,527 @@
+/*
+ * Copyright (c) JForum Team
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, 
+ * with or without modification, are permitted provided 
+ * that the following conditions are met:
+ * 
+ * 1) Redistributions of source code must retain the above 
+ * copyright notice, this list of conditions and the 
+ * following disclaimer.
+ * 2) Redistributions in binary form must reproduce the 
+ * above copyright notice, this list of conditions and 
+ * the following disclaimer in the documentation and/or 
+ * other materials provided with the distribution.
+ * 3) Neither the name of "Rafael Steil" nor 
+ * the names of its contributors may be used to endorse 
+ * or promote products derived from this software without 
+ * specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT 
+ * HOLDERS AND CONTRIBUTORS "AS IS" AND ANY 
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, 
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF 
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR 
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL 
+ * THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, 
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, 
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER 
+ * IN CONTRACT, STRICT LIABILITY, OR TORT 
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN 
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF 
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE
+ * 
+ * The JForum Project
+ * http://www.jforum.net
+ */
+package net.jforum.security;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.apache.commons.lang3.StringUtils;
+
+import net.jforum.entities.Banlist;
+
+/**
+ * The ban list compiled for the check done on every request.
+ * <p>
+ * User ids and emails are looked up in a sorted array and a hash set.
+ * Addresses go into binary prefix tries, one for IPv4 and one for IPv6,
+ * where a plain address is a prefix of all of its bits, a wildcard at the
+ * end such as <code>192.168.*.*</code> is a prefix of the fixed octets, and
+ * a range such as <code>10.0.0.0/8</code> or <code>2001:db8::/32</code> is
+ * a prefix of the given length. Wildcards elsewhere, like
+ * <code>*.168.7.*</code>, are kept by the mask of their fixed octets.
+ * Checking an address then takes at most one step per bit, plus one lookup
+ * per distinct wildcard mask, and creates no objects besides a small array.
+ * <p>
+ * Entries the matcher can not read are checked as before, with
+ * {@link Banlist#matches(Banlist)}, and so are addresses which are not
+ * IPv4 or IPv6. An instance never changes, so the repository builds a new
+ * one when the list changes.
+ *
+ * @version $Id$
+ */
+public final class BanlistMatcher
+{
+	private final int size;
+	/** Sorted ids of the banned users */
+	private final int[] userIds;
+	private final Set<String> emails = new HashSet<String>();
+	private final PrefixTrie ipv4 = new PrefixTrie();
+	private final PrefixTrie ipv6 = new PrefixTrie();
+	private final int[] wildcardMasks;
+	/** Sorted masked addresses, by wildcard mask */
+	private final int[][] wildcardAddresses;
+	/** Entries with an address the matcher can not read */
+	private final List<Banlist> unreadable = new ArrayList<Banlist>();
+	/** All entries with an address, to check addresses which are not IPv4 or IPv6 */
+	private final List<Banlist> withIp = new ArrayList<Banlist>();
+
+	public BanlistMatcher(final Collection<Banlist> banlist)
+	{
+		final int[] users = new int[banlist.size()];
+		int userCount = 0;
+		final Map<Integer, List<Integer>> wildcards = new TreeMap<Integer, List<Integer>>();
+		final int[] groups = new int[8];
+
+		for (final Banlist ban : banlist) {
+			if (ban.getUserId() > 0) {
+				users[userCount++] = ban.getUserId();
+			}
+
+			if (StringUtils.isNotEmpty(ban.getEmail())) {
+				this.emails.add(ban.getEmail());
+			}
+
+			final String ip = ban.getIp();
+
+			if (StringUtils.isNotEmpty(ip)) {
+				this.withIp.add(ban);
+
+				if (!this.addAddress(ip, groups, wildcards)) {
+					this.unreadable.add(ban);
+				}
+			}
+		}
+
+		this.size = banlist.size();
+		this.userIds = Arrays.copyOf(users, userCount);
+		Arrays.sort(this.userIds);
+
+		this.wildcardMasks = new int[wildcards.size()];
+		this.wildcardAddresses = new int[wildcards.size()][];
+		int i = 0;
+
+		for (final Map.Entry<Integer, List<Integer>> entry : wildcards.entrySet()) {
+			final int[] addresses = new int[entry.getValue().size()];
+
+			for (int j = 0; j < addresses.length; j++) {
+				addresses[j] = entry.getValue().get(j);
+			}
+
+			Arrays.sort(addresses);
+			this.wildcardMasks[i] = entry.getKey();
+			this.wildcardAddresses[i++] = addresses;
+		}
+
+		this.ipv4.trim();
+		this.ipv6.trim();
+	}
+
+	/**
+	 * @return the number of entries of the list
+	 */
+	public int size()
+	{
+		return this.size;
+	}
+
+	/**
+	 * Checks if some entry of the list matches the user id, the email or
+	 * the address of <code>ban</code>, the same as calling
+	 * {@link Banlist#matches(Banlist)} for each of them.
+	 *
+	 * @param ban the user id, email and address to check
+	 * @return <code>true</code> if it is banned
+	 */
+	public boolean matches(final Banlist ban)
+	{
+		if (ban.getUserId() > 0 && Arrays.binarySearch(this.userIds, ban.getUserId()) >= 0) {
+			return true;
+		}
+
+		if (StringUtils.isNotEmpty(ban.getEmail()) && this.emails.contains(ban.getEmail())) {
+			return true;
+		}
+
+		return StringUtils.isNotEmpty(ban.getIp()) && this.matchesIp(ban);
+	}
+
+	private boolean matchesIp(final Banlist ban)
+	{
+		final String ip = ban.getIp();
+		final int[] groups = new int[8];
+
+		if (parseIpv4(ip, 0, ip.length(), groups)) {
+			if (this.ipv4.contains(groups, 32) || this.matchesWildcard(groups[0] << 16 | groups[1])) {
+				return true;
+			}
+		}
+		else if (parseIpv6(ip, 0, ip.length(), groups)) {
+			if (this.ipv6.contains(groups, 128)) {
+				return true;
+			}
+		}
+		else {
+			return matchesAny(this.withIp, ban);
+		}
+
+		return !this.unreadable.isEmpty() && matchesAny(this.unreadable, ban);
+	}
+
+	private boolean matchesWildcard(final int address)
+	{
+		for (int i = 0; i < this.wildcardMasks.length; i++) {
+			if (Arrays.binarySearch(this.wildcardAddresses[i], address & this.wildcardMasks[i]) >= 0) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	private static boolean matchesAny(final List<Banlist> list, final Banlist ban)
+	{
+		for (final Banlist current : list) {
+			if (current.matches(ban)) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Adds an address, a range or a wildcard to the tries.
+	 *
+	 * @return <code>false</code> if <code>ip</code> is not something the matcher can read
+	 */
+	private boolean addAddress(final String ip, final int[] groups, final Map<Integer, List<Integer>> wildcards)
+	{
+		final int slash = ip.indexOf('/');
+
+		if (slash >= 0) {
+			final int length = parseNumber(ip, slash + 1, ip.length());
+
+			if (length > 0 && length <= 32 && parseIpv4(ip, 0, slash, groups)) {
+				this.ipv4.add(groups, length);
+				return true;
+			}
+
+			if (length > 0 && length <= 128 && parseIpv6(ip, 0, slash, groups)) {
+				this.ipv6.add(groups, length);
+				return true;
+			}
+
+			return false;
+		}
+
+		if (parseIpv6(ip, 0, ip.length(), groups)) {
+			this.ipv6.add(groups, 128);
+			return true;
+		}
+
+		// Dotted addresses, where any octet starting with '*' is a wildcard
+		final String[] octets = StringUtils.splitPreserveAllTokens(ip, '.');
+
+		if (octets.length != 4) {
+			return false;
+		}
+
+		int address = 0;
+		int mask = 0;
+		boolean prefix = true;
+		int prefixLength = 0;
+
+		for (int i = 0; i < 4; i++) {
+			address <<= 8;
+			mask <<= 8;
+
+			if (octets[i].length() > 0 && octets[i].charAt(0) == '*') {
+				prefix = false;
+				continue;
+			}
+
+			final int value = parseNumber(octets[i], 0, octets[i].length());
+
+			if (value < 0 || value > 255) {
+				return false;
+			}
+
+			if (!prefix) {
+				prefixLength = -1;
+			}
+			else {
+				prefixLength += 8;
+			}
+
+			address |= value;
+			mask |= 0xff;
+		}
+
+		if (mask == 0) {
+			// Only wildcards never match anything
+			return true;
+		}
+
+		if (prefixLength > 0) {
+			groups[0] = address >>> 16;
+			groups[1] = address & 0xffff;
+			this.ipv4.add(groups, prefixLength);
+		}
+		else {
+			List<Integer> addresses = wildcards.get(mask);
+
+			if (addresses == null) {
+				addresses = new ArrayList<Integer>();
+				wildcards.put(mask, addresses);
+			}
+
+			addresses.add(address);
+		}
+
+		return true;
+	}
+
+	/**
+	 * Reads a decimal number without sign or leading zeros.
+	 *
+	 * @return the number, or -1 if the text is something else
+	 */
+	private static int parseNumber(final String s, final int from, final int to)
+	{
+		final int length = to - from;
+
+		if (length == 0 || length > 3 || (length > 1 && s.charAt(from) == '0')) {
+			return -1;
+		}
+
+		int value = 0;
+
+		for (int i = from; i < to; i++) {
+			final char c = s.charAt(i);
+
+			if (c < '0' || c > '9') {
+				return -1;
+			}
+
+			value = value * 10 + (c - '0');
+		}
+
+		return value;
+	}
+
+	/**
+	 * Reads an IPv4 address into two groups of 16 bits.
+	 */
+	static boolean parseIpv4(final String s, final int from, final int to, final int[] groups)
+	{
+		int address = 0;
+		int start = from;
+
+		for (int octet = 0; octet < 4; octet++) {
+			int end = start;
+
+			while (end < to && s.charAt(end) != '.') {
+				end++;
+			}
+
+			if ((octet < 3) == (end == to)) {
+				return false;
+			}
+
+			final int value = parseNumber(s, start, end);
+
+			if (value < 0 || value > 255) {
+				return false;
+			}
+
+			address = address << 8 | value;
+			start = end + 1;
+		}
+
+		groups[0] = address >>> 16;
+		groups[1] = address & 0xffff;
+
+		return true;
+	}
+
+	/**
+	 * Reads an IPv6 address, with or without <code>::</code>, into eight groups of 16 bits.
+	 */
+	static boolean parseIpv6(final String s, final int from, final int to, final int[] groups)
+	{
+		int count = 0;
+		int gap = -1;
+		int i = from;
+
+		if (to - from >= 2 && s.charAt(from) == ':' && s.charAt(from + 1) == ':') {
+			gap = 0;
+			i += 2;
+		}
+
+		while (i < to) {
+			if (count == 8) {
+				return false;
+			}
+
+			int value = 0;
+			int digits = 0;
+
+			for (; i < to && s.charAt(i) != ':'; i++) {
+				final int digit = hexDigit(s.charAt(i));
+
+				if (digit < 0 || ++digits > 4) {
+					return false;
+				}
+
+				value = value << 4 | digit;
+			}
+
+			if (digits == 0) {
+				return false;
+			}
+
+			groups[count++] = value;
+
+			if (i < to) {
+				i++;
+
+				if (i < to && s.charAt(i) == ':') {
+					if (gap >= 0) {
+						return false;
+					}
+
+					gap = count;
+					i++;
+				}
+				else if (i == to) {
+					return false;
+				}
+			}
+		}
+
+		if (gap < 0) {
+			return count == 8;
+		}
+
+		if (count == 8) {
+			return false;
+		}
+
+		final int tail = count - gap;
+		System.arraycopy(groups, gap, groups, 8 - tail, tail);
+		Arrays.fill(groups, gap, 8 - tail, 0);
+
+		return true;
+	}
+
+	private static int hexDigit(final char c)
+	{
+		if (c >= '0' && c <= '9') {
+			return c - '0';
+		}
+
+		if (c >= 'a' && c <= 'f') {
+			return c - 'a' + 10;
+		}
+
+		if (c >= 'A' && c <= 'F') {
+			return c - 'A' + 10;
+		}
+
+		return -1;
+	}
+
+	/**
+	 * A binary trie of address prefixes, with two child slots per node
+	 * in a single array. The root is node 0, so 0 also means no child.
+	 */
+	private static final class PrefixTrie
+	{
+		private int[] children = new int[64];
+		private final BitSet ends = new BitSet();
+		private int nodes = 1;
+
+		void add(final int[] groups, final int length)
+		{
+			int node = 0;
+
+			for (int i = 0; i < length && !this.ends.get(node); i++) {
+				final int slot = 2 * node + bit(groups, i);
+
+				if (this.children[slot] == 0) {
+					// newNode() may replace the array, so it must run before the store
+					final int child = this.newNode();
+					this.children[slot] = child;
+				}
+
+				node = this.children[slot];
+			}
+
+			this.ends.set(node);
+		}
+
+		boolean contains(final int[] groups, final int length)
+		{
+			int node = 0;
+
+			for (int i = 0; !this.ends.get(node); i++) {
+				if (i == length) {
+					return false;
+				}
+
+				node = this.children[2 * node + bit(groups, i)];
+
+				if (node == 0) {
+					return false;
+				}
+			}
+
+			return true;
+		}
+
+		void trim()
+		{
+			this.children = Arrays.copyOf(this.children, 2 * this.nodes);
+		}
+
+		private int newNode()
+		{
+			if (2 * this.nodes + 2 > this.children.length) {
+				this.children = Arrays.copyOf(this.children, this.children.length * 2);
+			}
+
+			return this.nodes++;
+		}
+
+		private static int bit(final int[] groups, final int index)
+		{
+			return groups[index >> 4] >>> (15 - (index & 15)) & 1;
+		}
+	}
+}
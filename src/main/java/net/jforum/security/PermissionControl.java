@@ -60,9 +60,13 @@ public class PermissionControl implements Serializable
 
 	private transient GroupSecurityDAO smodel;
 
+	/** The roles compiled for the checks, built again when needed after being read back */
+	private transient volatile RoleIndex index;
+
 	public void setRoles(RoleCollection roles)
 	{
 		this.roles = roles;
+		this.index = null;
 	}
 
 	public void setSecurityModel(GroupSecurityDAO smodel)
@@ -111,7 +115,7 @@ public class PermissionControl implements Serializable
 	 */
 	public boolean canAccess(String roleName)
 	{
-		return this.roles.containsKey(roleName);
+		return this.index().canAccess(roleName);
 	}
 
 	/**
@@ -124,12 +128,31 @@ public class PermissionControl implements Serializable
 	 */
 	public boolean canAccess(String roleName, String roleValue)
 	{
-		Role role = this.roles.get(roleName);
+		return this.index().canAccess(roleName, roleValue);
+	}
+
+	/**
+	 * Same as {@link #canAccess(String, String)}, for values that are ids,
+	 * without building a string for them.
+	 * 
+	 * @param roleName The role's name
+	 * @param roleValue The value, usually a forum or category id
+	 * @return boolean
+	 */
+	public boolean canAccess(String roleName, int roleValue)
+	{
+		return this.index().canAccess(roleName, roleValue);
+	}
+
+	private RoleIndex index()
+	{
+		RoleIndex current = this.index;
 
-		if (role == null) {
-			return false;
+		if (current == null) {
+			current = new RoleIndex(this.roles);
+			this.index = current;
 		}
 
-		return role.getValues().contains(new RoleValue(roleValue));
+		return current;
 	}
 }
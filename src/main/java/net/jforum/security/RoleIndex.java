@@ -0,0 +1,205 @@
+/*
+ * Copyright (c) JForum Team
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, 
+ * with or without modification, are permitted provided 
+ * that the following conditions are met:
+ * 
+ * 1) Redistributions of source code must retain the above 
+ * copyright notice, this list of conditions and the 
+ * following disclaimer.
+ * 2) Redistributions in binary form must reproduce the 
+ * above copyright notice, this list of conditions and 
+ * the following disclaimer in the documentation and/or 
+ * other materials provided with the distribution.
+ * 3) Neither the name of "Rafael Steil" nor 
+ * the names of its contributors may be used to endorse 
+ * or promote products derived from this software without 
+ * specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT 
+ * HOLDERS AND CONTRIBUTORS "AS IS" AND ANY 
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, 
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF 
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR 
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL 
+ * THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, 
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, 
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER 
+ * IN CONTRACT, STRICT LIABILITY, OR TORT 
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN 
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF 
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE
+ * 
+ * The JForum Project
+ * http://www.jforum.net
+ */
+package net.jforum.security;
+
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The roles of a {@link PermissionControl} compiled for fast checks.
+ * <p>
+ * Role names are given small integer ids, shared by all indexes, and the
+ * values of each role, which are mostly forum and category ids, are kept
+ * as bits. Checking a permission then costs a lookup of the role name
+ * and a bit test, instead of hashing the name and a <code>RoleValue</code>
+ * built from <code>Integer.toString(forumId)</code>.
+ *
+ * @version $Id$
+ */
+final class RoleIndex
+{
+	private static final ConcurrentMap<String, Integer> IDS = new ConcurrentHashMap<String, Integer>();
+	private static final BitSet[] NO_VALUES = new BitSet[0];
+
+	private final BitSet granted = new BitSet();
+	private final BitSet[] values;
+	/** Values that are not small non negative numbers, by role id */
+	private final Set<String>[] otherValues;
+
+	@SuppressWarnings("unchecked")
+	RoleIndex(final RoleCollection roles)
+	{
+		if (roles == null || roles.isEmpty()) {
+			this.values = NO_VALUES;
+			this.otherValues = new Set[0];
+			return;
+		}
+
+		int maxId = -1;
+
+		for (final String name : roles.keySet()) {
+			maxId = Math.max(maxId, intern(name));
+		}
+
+		this.values = new BitSet[maxId + 1];
+		this.otherValues = new Set[maxId + 1];
+
+		for (final Role role : roles.values()) {
+			final int id = intern(role.getName());
+			this.granted.set(id);
+
+			for (final Iterator<Object> iter = role.getValues().iterator(); iter.hasNext(); ) {
+				final String value = ((RoleValue)iter.next()).getValue();
+				final int bit = asIndex(value);
+
+				if (bit >= 0) {
+					if (this.values[id] == null) {
+						this.values[id] = new BitSet();
+					}
+
+					this.values[id].set(bit);
+				}
+				else {
+					if (this.otherValues[id] == null) {
+						this.otherValues[id] = new HashSet<String>();
+					}
+
+					this.otherValues[id].add(value);
+				}
+			}
+		}
+	}
+
+	boolean canAccess(final String roleName)
+	{
+		final int id = idOf(roleName);
+		return id >= 0 && this.granted.get(id);
+	}
+
+	boolean canAccess(final String roleName, final int value)
+	{
+		final int id = idOf(roleName);
+
+		if (id < 0 || id >= this.values.length) {
+			return false;
+		}
+
+		if (value >= 0) {
+			return this.values[id] != null && this.values[id].get(value);
+		}
+
+		return this.otherValues[id] != null && this.otherValues[id].contains(Integer.toString(value));
+	}
+
+	boolean canAccess(final String roleName, final String value)
+	{
+		final int bit = asIndex(value);
+
+		if (bit >= 0) {
+			return this.canAccess(roleName, bit);
+		}
+
+		final int id = idOf(roleName);
+		return id >= 0 && id < this.otherValues.length
+			&& this.otherValues[id] != null && this.otherValues[id].contains(value);
+	}
+
+	/**
+	 * @return the id of a role name, or -1 if no index has such role
+	 */
+	private static int idOf(final String name)
+	{
+		final Integer id = IDS.get(name);
+		return id == null ? -1 : id.intValue();
+	}
+
+	private static int intern(final String name)
+	{
+		Integer id = IDS.get(name);
+
+		if (id == null) {
+			synchronized (IDS) {
+				id = IDS.get(name);
+
+				if (id == null) {
+					id = Integer.valueOf(IDS.size());
+					IDS.put(name, id);
+				}
+			}
+		}
+
+		return id.intValue();
+	}
+
+	/**
+	 * Reads a value written as a plain non negative number, such as "12" but
+	 * not "012" or "+12", which are not the same string.
+	 *
+	 * @return the number, or -1 if the value is something else
+	 */
+	static int asIndex(final String value)
+	{
+		final int length = value == null ? 0 : value.length();
+
+		if (length == 0 || length > 9 || (length > 1 && value.charAt(0) == '0')) {
+			return -1;
+		}
+
+		int result = 0;
+
+		for (int i = 0; i < length; i++) {
+			final char c = value.charAt(i);
+
+			if (c < '0' || c > '9') {
+				return -1;
+			}
+
+			result = result * 10 + (c - '0');
+		}
+
+		return result;
+	}
+}
@@ -42,6 +42,7 @@
  */
 package net.jforum.summary;
 
+import org.quartz.DisallowConcurrentExecution;
 import org.quartz.Job;
 import org.quartz.JobExecutionContext;
 import org.quartz.JobExecutionException;
@@ -50,15 +51,26 @@ import org.quartz.JobExecutionException;
  * @author Franklin S. Dattein (<a href="mailto:franklin@hp.com">franklin@hp.com</a>)
  * @version $Id$
  */
+@DisallowConcurrentExecution
 public class SummaryJob implements Job
 {
+	/**
+	 * Job data telling to only go on with an interrupted summary
+	 */
+	public static final String RESUME_ONLY = "resumeOnly";
+
 	/**
 	 * @see org.quartz.Job#execute(org.quartz.JobExecutionContext)
 	 */
 	@Override public void execute(final JobExecutionContext context) throws JobExecutionException
 	{
 		final SummaryModel model = new SummaryModel();
-		
-		model.sendPostsSummary(model.listRecipients());		
+
+		if (Boolean.TRUE.equals(context.getMergedJobDataMap().get(RESUME_ONLY))) {
+			model.resumePostsSummary();
+		}
+		else {
+			model.sendPostsSummary();
+		}
 	}
 }
@@ -46,6 +46,7 @@ import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.List;
+import java.util.UUID;
 
 import org.apache.log4j.Logger;
 
@@ -54,6 +55,7 @@ import net.jforum.JForumExecutionContext;
 import net.jforum.dao.DataAccessDriver;
 import net.jforum.dao.SummaryDAO;
 import net.jforum.entities.Post;
+import net.jforum.entities.SummaryRun;
 import net.jforum.entities.User;
 import net.jforum.util.mail.Spammer;
 import net.jforum.util.preferences.ConfigKeys;
@@ -72,14 +74,26 @@ import net.jforum.view.forum.common.ViewCommon;
 public class SummaryModel extends Spammer
 {
 	private static final Logger LOGGER = Logger.getLogger(SummaryModel.class);
+	private static volatile SummaryRun lastRun;
 	private transient final SummaryDAO dao;
 
 	public SummaryModel()
+	{
+		this(DataAccessDriver.getInstance().newSummaryDAO());
+	}
+
+	SummaryModel(final SummaryDAO dao)
 	{
 		super();
-		this.dao = DataAccessDriver.getInstance().newSummaryDAO();
+		this.dao = dao;
 	}
 
+	/**
+	 * Sends the summary of the last days to some recipients, all at once.
+	 * 
+	 * @param recipients the email addresses
+	 * @see #sendPostsSummary()
+	 */
 	public void sendPostsSummary(final List<String> recipients)
 	{
 		if (!recipients.isEmpty()) { // make sure somebody want to receive it
@@ -92,19 +106,12 @@ public class SummaryModel extends Spammer
 			final List<Post> posts = listPosts(new Date(dateBefore), new Date());
 			if (!posts.isEmpty()) { // make sure there is at least one new post
 
-				final String forumLink = ViewCommon.getForumLink();
-
-				final SimpleHash params = JForumExecutionContext.newSimpleHash();
-				params.put("posts", posts);
-				params.put("url", forumLink);
-				params.put("extension", SystemGlobals.getValue(ConfigKeys.SERVLET_EXTENSION));
-
 				final String subject = SystemGlobals.getValue(ConfigKeys.MAIL_SUMMARY_SUBJECT);
 
 				LOGGER.info("Sending Weekly summary...");
 
 				this.setUsers(this.recipientsAsUsers(recipients));
-				this.setTemplateParams(params);
+				this.setTemplateParams(this.summaryParams(posts));
 
 				this.prepareMessage(subject, SystemGlobals.getValue(ConfigKeys.MAIL_SUMMARY_FILE));
 				super.dispatchMessages();
@@ -112,6 +119,229 @@ public class SummaryModel extends Spammer
 		}
 	}
 
+	/**
+	 * Sends the summary to everybody who wants it, going on with the
+	 * last run if it was interrupted before the next one was due.
+	 * 
+	 * @return the run
+	 * @see #resumePostsSummary()
+	 */
+	public SummaryRun sendPostsSummary()
+	{
+		final long period = this.period();
+
+		final SummaryRun run = this.withDao(new SummaryWork<SummaryRun>() {
+			@Override public SummaryRun run(final SummaryDAO summaryDao) {
+				final SummaryRun unfinished = unfinishedRun(summaryDao, period);
+
+				if (unfinished != null) {
+					return unfinished;
+				}
+
+				final long now = System.currentTimeMillis();
+				final SummaryRun newRun = new SummaryRun(UUID.randomUUID().toString(), new Date(now - period), new Date(now));
+				summaryDao.addRun(newRun);
+
+				return newRun;
+			}
+		});
+
+		return this.send(run);
+	}
+
+	/**
+	 * Goes on with the last run, if it was interrupted before the next one was due.
+	 * 
+	 * @return the run, or null if there was none to go on with
+	 */
+	public SummaryRun resumePostsSummary()
+	{
+		final long period = this.period();
+
+		final SummaryRun run = this.withDao(new SummaryWork<SummaryRun>() {
+			@Override public SummaryRun run(final SummaryDAO summaryDao) {
+				return unfinishedRun(summaryDao, period);
+			}
+		});
+
+		return run == null ? null : this.send(run);
+	}
+
+	/**
+	 * Gets the last run, which may still be going on.
+	 * 
+	 * @return the run, or null if no summary was sent since the start
+	 */
+	public static SummaryRun getLastRun()
+	{
+		return lastRun;
+	}
+
+	/**
+	 * Renders the summary once, then hands it to the mail dispatcher a page
+	 * of recipients at a time, in user id order. The last user id is saved
+	 * after each page stored in the mail outbox, so an interrupted run hands
+	 * over at most that page again. Once a page is only kept in memory, the
+	 * run goes on without saving, as it would have to start over from there.
+	 */
+	private SummaryRun send(final SummaryRun run)
+	{
+		lastRun = run;
+
+		final List<Post> posts = this.withDao(new SummaryWork<List<Post>>() {
+			@Override public List<Post> run(final SummaryDAO summaryDao) {
+				return summaryDao.selectLastPosts(run.getPeriodStart(), run.getPeriodEnd());
+			}
+		});
+
+		if (!posts.isEmpty()) { // make sure there is at least one new post
+			final int pageSize = Math.max(1, SystemGlobals.getIntValue(ConfigKeys.SUMMARY_PAGE_SIZE));
+			final int sentBefore = run.getSent();
+
+			LOGGER.info("Sending weekly summary of " + posts.size() + " topics"
+				+ (run.getLastUserId() > 0 ? ", going on after user " + run.getLastUserId() : ""));
+
+			this.prepareSummary(posts);
+
+			List<User> page;
+			int lastUserId = run.getLastUserId();
+			boolean stored = true;
+
+			do {
+				final int after = lastUserId;
+
+				page = this.withDao(new SummaryWork<List<User>>() {
+					@Override public List<User> run(final SummaryDAO summaryDao) {
+						return summaryDao.listRecipients(after, pageSize);
+					}
+				});
+
+				if (page.isEmpty()) {
+					break;
+				}
+
+				final List<User> recipients = new ArrayList<User>(page.size());
+
+				for (final User user : page) {
+					if (user.getEmail() != null && !"".equals(user.getEmail().trim())) {
+						recipients.add(user);
+					}
+				}
+
+				this.setUsers(recipients);
+				stored &= this.dispatchMessages();
+
+				lastUserId = page.get(page.size() - 1).getId();
+				run.setSent(run.getSent() + recipients.size());
+
+				if (stored) {
+					run.setLastUserId(lastUserId);
+					this.saveRun(run);
+				}
+
+				lastRun = run;
+			} while (page.size() == pageSize);
+
+			LOGGER.info("Weekly summary sent to " + (run.getSent() - sentBefore) + " users, " + run);
+		}
+
+		run.setFinished(new Date());
+		this.saveRun(run);
+		lastRun = run;
+
+		return run;
+	}
+
+	/**
+	 * Renders the summary, the same for everybody.
+	 */
+	void prepareSummary(final List<Post> posts)
+	{
+		// nobody gets a customized message, so the template is processed right here, only once
+		this.setUsers(new ArrayList<User>());
+		this.setTemplateParams(this.summaryParams(posts));
+		this.prepareMessage(SystemGlobals.getValue(ConfigKeys.MAIL_SUMMARY_SUBJECT),
+			SystemGlobals.getValue(ConfigKeys.MAIL_SUMMARY_FILE));
+	}
+
+	/**
+	 * Gets the latest run, if it is not done and the next one is not due yet.
+	 * Any other unfinished run is closed, as a later one covers the same posts.
+	 */
+	private static SummaryRun unfinishedRun(final SummaryDAO summaryDao, final long period)
+	{
+		SummaryRun resumed = null;
+
+		for (final SummaryRun run : summaryDao.selectUnfinishedRuns()) {
+			if (resumed == null && System.currentTimeMillis() - run.getStarted().getTime() < period) {
+				resumed = run;
+				continue;
+			}
+
+			LOGGER.warn("Giving up the weekly summary started at " + run.getStarted()
+				+ ", it was sent to " + run.getSent() + " users only");
+			run.setFinished(new Date());
+			summaryDao.updateRun(run);
+		}
+
+		return resumed;
+	}
+
+	private void saveRun(final SummaryRun run)
+	{
+		this.withDao(new SummaryWork<Void>() {
+			@Override public Void run(final SummaryDAO summaryDao) {
+				summaryDao.updateRun(run);
+				return null;
+			}
+		});
+	}
+
+	private long period()
+	{
+		return 1000L * 60 * 60 * 24 * Integer.parseInt(SystemGlobals.getValue(ConfigKeys.SUMMARY_DAYS_BEFORE));
+	}
+
+	private SimpleHash summaryParams(final List<Post> posts)
+	{
+		final SimpleHash params = JForumExecutionContext.newSimpleHash();
+		params.put("posts", posts);
+		params.put("url", ViewCommon.getForumLink());
+		params.put("extension", SystemGlobals.getValue(ConfigKeys.SERVLET_EXTENSION));
+
+		return params;
+	}
+
+	/**
+	 * Runs some work with its own connection, committed right away,
+	 * unless the calling thread already has one.
+	 */
+	private <T> T withDao(final SummaryWork<T> work)
+	{
+		final boolean ownContext = !JForumExecutionContext.exists();
+
+		try {
+			return work.run(this.dao);
+		}
+		catch (RuntimeException e) {
+			if (ownContext) {
+				JForumExecutionContext.enableRollback();
+			}
+
+			throw e;
+		}
+		finally {
+			if (ownContext) {
+				JForumExecutionContext.finish();
+			}
+		}
+	}
+
+	private interface SummaryWork<T>
+	{
+		T run(SummaryDAO summaryDao);
+	}
+
 	private List<User> recipientsAsUsers(final List<String> recipients)
 	{
 		final List<User> list = new ArrayList<User>();
@@ -43,18 +43,23 @@
 package net.jforum.summary;
 
 import static org.quartz.CronScheduleBuilder.cronSchedule;
+import static org.quartz.DateBuilder.futureDate;
 import static org.quartz.JobBuilder.newJob;
 import static org.quartz.TriggerBuilder.newTrigger;
 
 import org.apache.log4j.Logger;
 import org.quartz.CronTrigger;
+import org.quartz.DateBuilder.IntervalUnit;
 import org.quartz.JobDetail;
 import org.quartz.Scheduler;
 import org.quartz.SchedulerException;
+import org.quartz.Trigger;
 import org.quartz.impl.StdSchedulerFactory;
 
+import net.jforum.entities.SummaryRun;
 import net.jforum.util.preferences.ConfigKeys;
 import net.jforum.util.preferences.SystemGlobals;
+import net.jforum.util.stats.Stats;
 
 /**
  * Schedule the summaries to be sent to the users.
@@ -67,6 +72,7 @@ import net.jforum.util.preferences.SystemGlobals;
 public final class SummaryScheduler
 {
 	private static final Logger LOGGER = Logger.getLogger(SummaryScheduler.class);
+	private static final String GAUGE = "Weekly summary";
 	private static Scheduler scheduler;
 	private static boolean isStarted = false;
 	private static final Object MUTEX = new Object();
@@ -94,8 +100,22 @@ public final class SummaryScheduler
 				final CronTrigger trigger = newTrigger().withIdentity("trigger1", "group1").withSchedule(cronSchedule(cronExpression)).build();
 
 				scheduler.scheduleJob(job, trigger);
+
+				// goes on with a summary interrupted by a restart, once the forum is up
+				final Trigger resume = newTrigger().withIdentity("trigger2", "group1").forJob(job)
+					.usingJobData(SummaryJob.RESUME_ONLY, Boolean.TRUE)
+					.startAt(futureDate(1, IntervalUnit.MINUTE)).build();
+
+				scheduler.scheduleJob(resume);
 				LOGGER.info("Starting quartz summary expression " + cronExpression);
 				scheduler.start();
+
+				Stats.registerGauge(GAUGE, new Stats.Gauge() {
+					@Override public Object getValue() {
+						final SummaryRun run = SummaryModel.getLastRun();
+						return run == null ? "not sent yet" : run.toString();
+					}
+				});
 			}
 
 			isStarted = true;
@@ -118,7 +138,8 @@ public final class SummaryScheduler
 				final String cronExpression = SystemGlobals.getValue("org.quartz.context.summary.cron.expression");
 					
 				LOGGER.info("Stopping quartz summary expression " + cronExpression);
-				scheduler.shutdown(true);				
+				scheduler.shutdown(true);
+				Stats.unregisterGauge(GAUGE);
 			}
 
 			isStarted = false;
@@ -53,6 +53,17 @@ public class BoundedLinkedHashMap<K, V> extends LinkedHashMap<K, V>
 	    this.size = size;
 	}
 
+	/**
+	 * @param size the most entries to keep
+	 * @param accessOrder if <code>true</code>, the entry dropped is the least recently
+	 * read, otherwise it is the oldest one
+	 */
+	public BoundedLinkedHashMap(final int size, final boolean accessOrder)
+	{
+	    super(16, 0.75f, accessOrder);
+	    this.size = size;
+	}
+
 	@Override protected boolean removeEldestEntry(final java.util.Map.Entry<K, V> eldest)
 	{
 		return this.size() > size;
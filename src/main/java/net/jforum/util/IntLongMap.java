@@ -0,0 +1,212 @@
+/*
+ * Copyright (c) JForum Team
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, 
+ * with or without modification, are permitted provided 
+ * that the following conditions are met:
+ * 
+ * 1) Redistributions of source code must retain the above 
+ * copyright notice, this list of conditions and the 
+ * following disclaimer.
+ * 2) Redistributions in binary form must reproduce the 
+ * above copyright notice, this list of conditions and 
+ * the following disclaimer in the documentation and/or 
+ * other materials provided with the distribution.
+ * 3) Neither the name of "Rafael Steil" nor 
+ * the names of its contributors may be used to endorse 
+ * or promote products derived from this software without 
+ * specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT 
+ * HOLDERS AND CONTRIBUTORS "AS IS" AND ANY 
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, 
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF 
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR 
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL 
+ * THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, 
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, 
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER 
+ * IN CONTRACT, STRICT LIABILITY, OR TORT 
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN 
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF 
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE
+ * 
+ * The JForum Project
+ * http://www.jforum.net
+ */
+package net.jforum.util;
+
+/**
+ * Map from primitive <code>int</code> keys to positive <code>long</code>
+ * values, kept in two arrays with open addressing. It neither boxes nor
+ * allocates per entry, so it takes about a tenth of the memory of a
+ * <code>HashMap&lt;Integer, Long&gt;</code>.
+ * <p>
+ * Not thread safe. A zero value means there is no entry.
+ */
+public final class IntLongMap
+{
+	private int[] keys;
+	private long[] values;
+	private int mask;
+	private int size;
+
+	public IntLongMap()
+	{
+		this(8);
+	}
+
+	/**
+	 * @param expected how many entries are expected
+	 */
+	public IntLongMap(final int expected)
+	{
+		this.allocate(capacityFor(expected));
+	}
+
+	/**
+	 * Gets the value associated to some key.
+	 * 
+	 * @param key the key to look for
+	 * @return the value, or zero if there is no such key
+	 */
+	public long get(final int key)
+	{
+		int index = hash(key) & this.mask;
+
+		while (this.values[index] != 0) {
+			if (this.keys[index] == key) {
+				return this.values[index];
+			}
+
+			index = (index + 1) & this.mask;
+		}
+
+		return 0;
+	}
+
+	/**
+	 * Associates a value to some key, unless the key has a greater one already.
+	 * 
+	 * @param key the key
+	 * @param value the value, greater than zero
+	 * @return <code>true</code> if the value was stored
+	 */
+	public boolean putMax(final int key, final long value)
+	{
+		if (value <= 0) {
+			throw new IllegalArgumentException("Values must be positive: " + value);
+		}
+
+		int index = hash(key) & this.mask;
+
+		while (this.values[index] != 0) {
+			if (this.keys[index] == key) {
+				if (this.values[index] >= value) {
+					return false;
+				}
+
+				this.values[index] = value;
+				return true;
+			}
+
+			index = (index + 1) & this.mask;
+		}
+
+		this.keys[index] = key;
+		this.values[index] = value;
+
+		if (++this.size * 2 > this.keys.length) {
+			this.rehash(this.keys.length << 1);
+		}
+
+		return true;
+	}
+
+	/**
+	 * Removes all entries whose value is not greater than some limit.
+	 * 
+	 * @param limit the greatest value to remove
+	 */
+	public void removeUpTo(final long limit)
+	{
+		final int[] oldKeys = this.keys;
+		final long[] oldValues = this.values;
+		int count = 0;
+
+		for (int i = 0; i < oldValues.length; i++) {
+			if (oldValues[i] > limit) {
+				count++;
+			}
+		}
+
+		this.allocate(capacityFor(count));
+		this.size = 0;
+
+		for (int i = 0; i < oldValues.length; i++) {
+			if (oldValues[i] > limit) {
+				this.putMax(oldKeys[i], oldValues[i]);
+			}
+		}
+	}
+
+	public int size()
+	{
+		return this.size;
+	}
+
+	public boolean isEmpty()
+	{
+		return this.size == 0;
+	}
+
+	private void rehash(final int capacity)
+	{
+		final int[] oldKeys = this.keys;
+		final long[] oldValues = this.values;
+
+		this.allocate(capacity);
+
+		for (int i = 0; i < oldValues.length; i++) {
+			if (oldValues[i] != 0) {
+				int index = hash(oldKeys[i]) & this.mask;
+
+				while (this.values[index] != 0) {
+					index = (index + 1) & this.mask;
+				}
+
+				this.keys[index] = oldKeys[i];
+				this.values[index] = oldValues[i];
+			}
+		}
+	}
+
+	private void allocate(final int capacity)
+	{
+		this.keys = new int[capacity];
+		this.values = new long[capacity];
+		this.mask = capacity - 1;
+	}
+
+	private static int capacityFor(final int expected)
+	{
+		int capacity = 8;
+
+		while (capacity < expected * 2) {
+			capacity <<= 1;
+		}
+
+		return capacity;
+	}
+
+	private static int hash(final int key)
+	{
+		final int h = key * 0x9e3779b9;
+		return h ^ (h >>> 16);
+	}
+}
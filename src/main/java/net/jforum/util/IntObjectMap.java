@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) JForum Team
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, 
+ * with or without modification, are permitted provided 
+ * that the following conditions are met:
+ * 
+ * 1) Redistributions of source code must retain the above 
+ * copyright notice, this list of conditions and the 
+ * following disclaimer.
+ * 2) Redistributions in binary form must reproduce the 
+ * above copyright notice, this list of conditions and 
+ * the following disclaimer in the documentation and/or 
+ * other materials provided with the distribution.
+ * 3) Neither the name of "Rafael Steil" nor 
+ * the names of its contributors may be used to endorse 
+ * or promote products derived from this software without 
+ * specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT 
+ * HOLDERS AND CONTRIBUTORS "AS IS" AND ANY 
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, 
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF 
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR 
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL 
+ * THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, 
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, 
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER 
+ * IN CONTRACT, STRICT LIABILITY, OR TORT 
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN 
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF 
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE
+ * 
+ * The JForum Project
+ * http://www.jforum.net
+ */
+package net.jforum.util;
+
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Immutable map from primitive <code>int</code> keys to objects.
+ * Lookups don't box the key nor allocate, which makes it suitable
+ * for read-mostly structures that are shared among all requests.
+ * Instances are built once and never change, so they can be
+ * safely published through a volatile reference.
+ * 
+ * @param <V> the type of the values
+ */
+public final class IntObjectMap<V>
+{
+	private static final IntObjectMap<Object> EMPTY = new IntObjectMap<Object>(new int[1], new Object[1], 0);
+
+	private final int[] keys;
+	private final Object[] values;
+	private final int mask;
+	private final int size;
+
+	private IntObjectMap(final int[] keys, final Object[] values, final int size)
+	{
+		this.keys = keys;
+		this.values = values;
+		this.mask = keys.length - 1;
+		this.size = size;
+	}
+
+	@SuppressWarnings("unchecked")
+	public static <V> IntObjectMap<V> empty()
+	{
+		return (IntObjectMap<V>)EMPTY;
+	}
+
+	/**
+	 * Builds a new map with the same entries as the given one.
+	 * <code>null</code> keys or values are ignored.
+	 * 
+	 * @param source the entries to copy
+	 * @return the new map
+	 */
+	public static <V> IntObjectMap<V> copyOf(final Map<Integer, ? extends V> source)
+	{
+		if (source.isEmpty()) {
+			return empty();
+		}
+
+		int capacity = 2;
+		while (capacity < source.size() * 2) {
+			capacity <<= 1;
+		}
+
+		final int[] keys = new int[capacity];
+		final Object[] values = new Object[capacity];
+		final int mask = capacity - 1;
+		int size = 0;
+
+		for (final Iterator<? extends Map.Entry<Integer, ? extends V>> iter = source.entrySet().iterator(); iter.hasNext(); ) {
+			final Map.Entry<Integer, ? extends V> entry = iter.next();
+
+			if (entry.getKey() == null || entry.getValue() == null) {
+				continue;
+			}
+
+			final int key = entry.getKey().intValue();
+			int index = hash(key) & mask;
+
+			while (values[index] != null && keys[index] != key) {
+				index = (index + 1) & mask;
+			}
+
+			if (values[index] == null) {
+				size++;
+			}
+
+			keys[index] = key;
+			values[index] = entry.getValue();
+		}
+
+		return new IntObjectMap<V>(keys, values, size);
+	}
+
+	/**
+	 * Gets the value associated to some key.
+	 * 
+	 * @param key the key to look for
+	 * @return the value, or <code>null</code> if there is no such key
+	 */
+	@SuppressWarnings("unchecked")
+	public V get(final int key)
+	{
+		int index = hash(key) & this.mask;
+
+		while (this.values[index] != null) {
+			if (this.keys[index] == key) {
+				return (V)this.values[index];
+			}
+
+			index = (index + 1) & this.mask;
+		}
+
+		return null;
+	}
+
+	public boolean containsKey(final int key)
+	{
+		return this.get(key) != null;
+	}
+
+	public int size()
+	{
+		return this.size;
+	}
+
+	public boolean isEmpty()
+	{
+		return this.size == 0;
+	}
+
+	private static int hash(final int key)
+	{
+		final int h = key * 0x9e3779b9;
+		return h ^ (h >>> 16);
+	}
+}
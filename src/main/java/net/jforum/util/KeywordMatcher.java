@@ -0,0 +1,205 @@
+/*
+ * Copyright (c) JForum Team
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, 
+ * with or without modification, are permitted provided 
+ * that the following conditions are met:
+ * 
+ * 1) Redistributions of source code must retain the above 
+ * copyright notice, this list of conditions and the 
+ * following disclaimer.
+ * 2) Redistributions in binary form must reproduce the 
+ * above copyright notice, this list of conditions and 
+ * the following disclaimer in the documentation and/or 
+ * other materials provided with the distribution.
+ * 3) Neither the name of "Rafael Steil" nor 
+ * the names of its contributors may be used to endorse 
+ * or promote products derived from this software without 
+ * specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT 
+ * HOLDERS AND CONTRIBUTORS "AS IS" AND ANY 
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, 
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF 
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR 
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL 
+ * THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, 
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, 
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER 
+ * IN CONTRACT, STRICT LIABILITY, OR TORT 
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN 
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF 
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE
+ * 
+ * The JForum Project
+ * http://www.jforum.net
+ */
+package net.jforum.util;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Finds if a text contains any of a set of keywords, in a single pass over
+ * the text, however many keywords there are.
+ * <p>
+ * The keywords are compiled into an Aho-Corasick automaton with a full
+ * transition table, so each character of the text costs one table lookup.
+ * The text is lower cased one character at a time as it is read, so the
+ * keywords should be lower case.
+ *
+ * @version $Id$
+ */
+public final class KeywordMatcher
+{
+	private static final int ASCII = 128;
+
+	/** Symbol of each ASCII character, 0 for characters of no keyword */
+	private final int[] asciiSymbols = new int[ASCII];
+	/** Symbol of the other characters of the keywords */
+	private final Map<Character, Integer> otherSymbols = new HashMap<Character, Integer>();
+	private final int alphabetSize;
+	/** Next state, by state and symbol */
+	private final int[] transitions;
+	/** States where some keyword ends */
+	private final boolean[] accepting;
+
+	public KeywordMatcher(final Collection<String> keywords)
+	{
+		int symbols = 1;
+		final List<String> words = new ArrayList<String>();
+
+		for (final String keyword : keywords) {
+			if (keyword == null || keyword.length() == 0) {
+				continue;
+			}
+
+			words.add(keyword);
+
+			for (int i = 0; i < keyword.length(); i++) {
+				final char c = keyword.charAt(i);
+
+				if (c < ASCII) {
+					if (this.asciiSymbols[c] == 0) {
+						this.asciiSymbols[c] = symbols++;
+					}
+				}
+				else if (!this.otherSymbols.containsKey(c)) {
+					this.otherSymbols.put(c, symbols++);
+				}
+			}
+		}
+
+		this.alphabetSize = symbols;
+
+		// The trie of the keywords, where -1 means no child yet
+		int states = 1;
+		int[] trie = new int[symbols * 16];
+		boolean[] ends = new boolean[16];
+		Arrays.fill(trie, -1);
+
+		for (final String word : words) {
+			int state = 0;
+
+			for (int i = 0; i < word.length(); i++) {
+				final int slot = state * symbols + this.symbolOf(word.charAt(i));
+
+				if (trie[slot] < 0) {
+					if ((states + 1) * symbols > trie.length) {
+						final int oldLength = trie.length;
+						trie = Arrays.copyOf(trie, oldLength * 2);
+						Arrays.fill(trie, oldLength, trie.length, -1);
+						ends = Arrays.copyOf(ends, ends.length * 2);
+					}
+
+					trie[slot] = states++;
+				}
+
+				state = trie[slot];
+			}
+
+			ends[state] = true;
+		}
+
+		// Breadth first, fill the missing transitions with those of the failure state
+		this.transitions = Arrays.copyOf(trie, states * symbols);
+		this.accepting = Arrays.copyOf(ends, states);
+		final int[] failure = new int[states];
+		final Deque<Integer> queue = new ArrayDeque<Integer>();
+
+		for (int symbol = 0; symbol < symbols; symbol++) {
+			final int next = this.transitions[symbol];
+
+			if (next < 0) {
+				this.transitions[symbol] = 0;
+			}
+			else {
+				failure[next] = 0;
+				queue.add(next);
+			}
+		}
+
+		while (!queue.isEmpty()) {
+			final int state = queue.poll();
+			this.accepting[state] |= this.accepting[failure[state]];
+
+			for (int symbol = 0; symbol < symbols; symbol++) {
+				final int slot = state * symbols + symbol;
+				final int next = this.transitions[slot];
+				final int fallback = this.transitions[failure[state] * symbols + symbol];
+
+				if (next < 0) {
+					this.transitions[slot] = fallback;
+				}
+				else {
+					failure[next] = fallback;
+					queue.add(next);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @param text the text to look into, may be <code>null</code>
+	 * @return <code>true</code> if the text, lower cased, contains any of the keywords
+	 */
+	public boolean matches(final String text)
+	{
+		if (text == null) {
+			return false;
+		}
+
+		int state = 0;
+
+		for (int i = 0; i < text.length(); i++) {
+			state = this.transitions[state * this.alphabetSize + this.symbolOf(Character.toLowerCase(text.charAt(i)))];
+
+			if (this.accepting[state]) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	private int symbolOf(final char c)
+	{
+		if (c < ASCII) {
+			return this.asciiSymbols[c];
+		}
+
+		final Integer symbol = this.otherSymbols.isEmpty() ? null : this.otherSymbols.get(c);
+		return symbol == null ? 0 : symbol.intValue();
+	}
+}
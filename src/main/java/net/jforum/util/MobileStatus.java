@@ -41,15 +41,9 @@
  */
 package net.jforum.util;
 
-import java.util.WeakHashMap;
-
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpSession;
 
-import net.pieroxy.ua.detection.DeviceType;
-import net.pieroxy.ua.detection.UserAgentDetectionResult;
-import net.pieroxy.ua.detection.UserAgentDetector;
-
 /**
  * If this object is in the session, it represents the state of whether to user has made any mobile requests.
  */
@@ -69,8 +63,6 @@ public enum MobileStatus {
     // -----------------------------------------------------------
     public static final String MOBILE_SESSION_ATTRIBUTE = "mobile";
 
-    private static WeakHashMap<String, UserAgentDetectionResult> cache = new WeakHashMap<>();
-
     public static MobileStatus getMobileRequest (HttpServletRequest request, String requestUri) {
         HttpSession session = request.getSession();
         String nonMobile = request.getParameter("nonMobile");
@@ -93,15 +85,7 @@ public enum MobileStatus {
     }
 
     private static boolean isOnMobileDevice (HttpServletRequest request) {
-        String userAgent = request.getHeader("User-Agent");
-        UserAgentDetectionResult agent = cache.get(userAgent);
-        if (agent == null) {
-			agent = new UserAgentDetector().parseUserAgent(userAgent); 
-			cache.put(userAgent, agent);
-        }
-
-		DeviceType type = agent.getDevice().getDeviceType();
-		return (type == DeviceType.PHONE || type == DeviceType.TABLET || type == DeviceType.UNKNOWN_MOBILE);
+        return UserAgentClassifier.isMobile(request.getHeader("User-Agent"));
     }
 
 }
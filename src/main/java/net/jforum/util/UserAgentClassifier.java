@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) JForum Team
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, 
+ * with or without modification, are permitted provided 
+ * that the following conditions are met:
+ * 
+ * 1) Redistributions of source code must retain the above 
+ * copyright notice, this list of conditions and the 
+ * following disclaimer.
+ * 2) Redistributions in binary form must reproduce the 
+ * above copyright notice, this list of conditions and 
+ * the following disclaimer in the documentation and/or 
+ * other materials provided with the distribution.
+ * 3) Neither the name of "Rafael Steil" nor 
+ * the names of its contributors may be used to endorse 
+ * or promote products derived from this software without 
+ * specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT 
+ * HOLDERS AND CONTRIBUTORS "AS IS" AND ANY 
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, 
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF 
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR 
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL 
+ * THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, 
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, 
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER 
+ * IN CONTRACT, STRICT LIABILITY, OR TORT 
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN 
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF 
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE
+ * 
+ * The JForum Project
+ * http://www.jforum.net
+ */
+package net.jforum.util;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import net.jforum.util.preferences.ConfigKeys;
+import net.jforum.util.preferences.SystemGlobals;
+import net.jforum.util.stats.Stats;
+import net.pieroxy.ua.detection.DeviceType;
+import net.pieroxy.ua.detection.IUserAgentDetector;
+import net.pieroxy.ua.detection.UserAgentDetectionResult;
+import net.pieroxy.ua.detection.UserAgentDetector;
+
+/**
+ * Classifies user agents, keeping the results of the last ones seen.
+ * <p>
+ * Parsing a user agent runs a long chain of rules, and crawlers, which open
+ * a new session on every request, send the same few agents again and again.
+ * The results are kept in a bounded map which drops the least recently used
+ * agent, and a single detector is shared by all threads.
+ *
+ * @version $Id$
+ */
+public final class UserAgentClassifier
+{
+	private static final String GAUGE = "User agents";
+	private static final int DEFAULT_CACHE_SIZE = 5000;
+
+	/**
+	 * Safe to share: the detector has no fields, each parse keeps its state in a
+	 * new <code>UserAgentContext</code>, and the static tables of the library are
+	 * filled when its classes load and only read afterwards.
+	 */
+	private static final IUserAgentDetector DETECTOR = new UserAgentDetector();
+	private static final LongAdder HITS = new LongAdder();
+	private static final LongAdder MISSES = new LongAdder();
+
+	private static volatile Map<String, UserAgentDetectionResult> cache = newCache(DEFAULT_CACHE_SIZE);
+
+	private UserAgentClassifier() {}
+
+	public static void start()
+	{
+		final int size = SystemGlobals.getIntValue(ConfigKeys.USER_AGENT_CACHE_SIZE);
+		cache = newCache(size > 0 ? size : DEFAULT_CACHE_SIZE);
+
+		Stats.registerGauge(GAUGE, new Stats.Gauge() {
+			@Override public Object getValue() {
+				final long hits = HITS.sum();
+				final long requests = hits + MISSES.sum();
+				return String.format("cached %d, hits %d, misses %d, hitRate=%.1f%%", cache.size(), hits,
+					requests - hits, requests == 0 ? 100.0 : hits * 100.0 / requests);
+			}
+		});
+	}
+
+	public static void stop()
+	{
+		Stats.unregisterGauge(GAUGE);
+		cache.clear();
+	}
+
+	/**
+	 * Classifies a user agent.
+	 *
+	 * @param userAgent the <code>User-Agent</code> header, may be <code>null</code>
+	 * @return the result of the detection, shared with other callers, so it must not be changed
+	 */
+	public static UserAgentDetectionResult classify(final String userAgent)
+	{
+		final String key = userAgent == null ? "" : userAgent;
+		final Map<String, UserAgentDetectionResult> current = cache;
+		UserAgentDetectionResult result = current.get(key);
+
+		if (result != null) {
+			HITS.increment();
+			return result;
+		}
+
+		MISSES.increment();
+
+		// Parsed without the lock, two requests may parse the same agent, but that is harmless
+		result = DETECTOR.parseUserAgent(userAgent);
+		current.put(key, result);
+
+		return result;
+	}
+
+	/**
+	 * @param userAgent the <code>User-Agent</code> header, may be <code>null</code>
+	 * @return <code>true</code> if it comes from a phone or a tablet
+	 */
+	public static boolean isMobile(final String userAgent)
+	{
+		final DeviceType type = classify(userAgent).getDevice().getDeviceType();
+		return type == DeviceType.PHONE || type == DeviceType.TABLET || type == DeviceType.UNKNOWN_MOBILE;
+	}
+
+	private static Map<String, UserAgentDetectionResult> newCache(final int size)
+	{
+		return Collections.synchronizedMap(new BoundedLinkedHashMap<String, UserAgentDetectionResult>(size, true));
+	}
+}
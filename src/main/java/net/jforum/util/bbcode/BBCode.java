@@ -43,6 +43,8 @@
 package net.jforum.util.bbcode;
 
 import java.io.Serializable;
+import java.util.Set;
+import java.util.regex.Pattern;
 
 /**
  * Represents a UBB code. Each code is matched through a regular expression,
@@ -55,6 +57,9 @@ public class BBCode implements Serializable
 	private static final long serialVersionUID = -8744755081519897386L;
 	private String tagName = "";
 	private String regex;
+	private Pattern pattern;
+	private String trigger;
+	private transient Substitution substitution;
 	private String replace;
 	private String rssReplace = null;
 	private String className;
@@ -87,11 +92,118 @@ public class BBCode implements Serializable
 	}
 
 	/**
-	 * Sets the regular expression associated to the tag
+	 * Gets the compiled regex
+	 */
+	public Pattern getPattern()
+	{
+		return this.pattern;
+	}
+
+	/**
+	 * Sets the regular expression associated to the tag, and compiles it
 	 */
 	public void setRegex(String regex) 
 	{
 		this.regex = regex;
+		this.pattern = Pattern.compile(regex);
+		this.trigger = triggerOf(regex);
+	}
+
+	/**
+	 * Checks whether the regex may match a text which has the given tags.
+	 * Codes not starting with a literal tag, like automatic links, always may.
+	 * 
+	 * @param tags the tags of the text, as found by {@link BBCodeHandler#findTags(CharSequence)}
+	 * @return <code>false</code> if the regex certainly doesn't match
+	 */
+	public boolean mayMatch(Set<String> tags)
+	{
+		return this.trigger == null || tags.contains(this.trigger);
+	}
+
+	/**
+	 * Gets the tag every match starts with, like "b" for <code>\[b\](.*?)\[/b\]</code>
+	 * or "/quote" for <code>\[/quote\]</code>.
+	 * 
+	 * @return the tag in lower case, or <code>null</code> if the regex doesn't start with a literal one
+	 */
+	static String triggerOf(String regex)
+	{
+		int i = 0;
+
+		// inline flags, like (?s)(?i)
+		while (regex.startsWith("(?", i)) {
+			int close = regex.indexOf(')', i);
+
+			if (close == -1) {
+				return null;
+			}
+
+			for (int k = i + 2; k < close; k++) {
+				if (!Character.isLetter(regex.charAt(k))) {
+					return null;
+				}
+			}
+
+			i = close + 1;
+		}
+
+		if (!regex.startsWith("\\[", i) || hasTopLevelAlternation(regex)) {
+			return null;
+		}
+
+		StringBuilder tag = new StringBuilder();
+		int j = i + 2;
+
+		if (j < regex.length() && regex.charAt(j) == '/') {
+			tag.append('/');
+			j++;
+		}
+
+		int nameStart = j;
+
+		while (j < regex.length() && BBCodeHandler.isTagChar(regex.charAt(j))) {
+			tag.append(BBCodeHandler.toLowerCase(regex.charAt(j)));
+			j++;
+		}
+
+		// The name must end there, not continue with a quantifier or a class
+		if (j == nameStart || !(regex.startsWith("\\]", j) || regex.startsWith("=", j))) {
+			return null;
+		}
+
+		return tag.toString();
+	}
+
+	private static boolean hasTopLevelAlternation(String regex)
+	{
+		int depth = 0;
+		boolean inClass = false;
+
+		for (int i = 0; i < regex.length(); i++) {
+			char c = regex.charAt(i);
+
+			if (c == '\\') {
+				i++;
+			}
+			else if (inClass) {
+				inClass = c != ']';
+			}
+			else if (c == '[') {
+				inClass = true;
+			}
+			else if (c == '(') {
+				depth++;
+			}
+			else if (c == ')') {
+				depth--;
+			}
+			else if (c == '|' && depth == 0) {
+				return true;
+			}
+		}
+
+		return false;
 	}
 
 	/**
@@ -149,9 +261,23 @@ public class BBCode implements Serializable
 	public void setClassName(String className) 
 	{
 		this.className = className;
+		this.substitution = null;
 		isRegexpReplace = false;
 	}
 
+	/**
+	 * Gets the instance of the handler class, creating it on the first call.
+	 * Handlers must be stateless, as the same instance is used by all threads.
+	 */
+	public Substitution getSubstitution() throws ReflectiveOperationException
+	{
+		if (this.substitution == null) {
+			this.substitution = (Substitution)Class.forName(this.className).getDeclaredConstructor().newInstance();
+		}
+
+		return this.substitution;
+	}
+
 	public void enableAlwaysProcess()
 	{
 		this.alwaysProcess = true;
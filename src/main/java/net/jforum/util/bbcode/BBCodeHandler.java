@@ -45,8 +45,10 @@ package net.jforum.util.bbcode;
 import java.io.File;
 import java.io.Serializable;
 import java.util.Collection;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Set;
 
 import javax.xml.XMLConstants;
 import javax.xml.parsers.SAXParser;
@@ -71,6 +73,7 @@ public class BBCodeHandler extends DefaultHandler implements Serializable
 	private static final long serialVersionUID = 8729382987305842571L;
 	private Map<String, BBCode> bbMap = new LinkedHashMap<String, BBCode>();
 	private Map<String, BBCode> alwaysProcessMap = new LinkedHashMap<String, BBCode>();
+	private Set<String> lockedForSmilies = new HashSet<String>();
 	private String tagName = "";
 	private StringBuilder sb;
 	private BBCode bb;
@@ -108,6 +111,10 @@ public class BBCodeHandler extends DefaultHandler implements Serializable
 			this.alwaysProcessMap.put(bb.getTagName(), bb);
 		} else {
 			this.bbMap.put(bb.getTagName(), bb);
+
+			if (bb.getLockedForSmilies() != null) {
+				this.lockedForSmilies.add(bb.getLockedForSmilies());
+			}
 		}
 	}
 
@@ -126,6 +133,74 @@ public class BBCodeHandler extends DefaultHandler implements Serializable
 		return this.bbMap.get(tagName);
 	}
 
+	/**
+	 * Gets the tags inside of which smilies are not replaced, like "url" and "img".
+	 */
+	public Set<String> getLockedForSmilies()
+	{
+		return this.lockedForSmilies;
+	}
+
+	/**
+	 * Finds, in a single pass, the names of all opening and closing tags of a text,
+	 * so that only the codes which may match are tried. For example, 
+	 * <code>[b]some [url=x]text[/url][/b]</code> has the tags "b", "url", "/url" and "/b".
+	 * 
+	 * @param text the text to scan
+	 * @return the tag names, in lower case
+	 * @see BBCode#mayMatch(Set)
+	 */
+	public static Set<String> findTags(CharSequence text)
+	{
+		Set<String> tags = new HashSet<String>();
+		int length = text.length();
+
+		for (int i = 0; i < length; i++) {
+			if (text.charAt(i) != '[') {
+				continue;
+			}
+
+			int j = i + 1;
+
+			if (j < length && text.charAt(j) == '/') {
+				j++;
+			}
+
+			int nameStart = j;
+
+			while (j < length && isTagChar(text.charAt(j))) {
+				j++;
+			}
+
+			if (j > nameStart) {
+				char[] tag = new char[j - i - 1];
+
+				for (int k = 0; k < tag.length; k++) {
+					tag[k] = toLowerCase(text.charAt(i + 1 + k));
+				}
+
+				tags.add(new String(tag));
+			}
+
+			i = j - 1;
+		}
+
+		return tags;
+	}
+
+	static boolean isTagChar(char c)
+	{
+		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '-' || c == '_';
+	}
+
+	/**
+	 * Lower case of ASCII letters only, as regexes match case insensitively
+	 */
+	static char toLowerCase(char c)
+	{
+		return c >= 'A' && c <= 'Z' ? (char)(c + ('a' - 'A')) : c;
+	}
+
 	@Override public void startElement (String uri, String localName, String tag, Attributes attrs)
 	{
 		if ("match".equals(tag)) {
@@ -0,0 +1,306 @@
+/*
+ * Copyright (c) JForum Team
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, 
+ * with or without modification, are permitted provided 
+ * that the following conditions are met:
+ * 
+ * 1) Redistributions of source code must retain the above 
+ * copyright notice, this list of conditions and the 
+ * following disclaimer.
+ * 2) Redistributions in binary form must reproduce the 
+ * above copyright notice, this list of conditions and 
+ * the following disclaimer in the documentation and/or 
+ * other materials provided with the distribution.
+ * 3) Neither the name of "Rafael Steil" nor 
+ * the names of its contributors may be used to endorse 
+ * or promote products derived from this software without 
+ * specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT 
+ * HOLDERS AND CONTRIBUTORS "AS IS" AND ANY 
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, 
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF 
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR 
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL 
+ * THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, 
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, 
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER 
+ * IN CONTRACT, STRICT LIABILITY, OR TORT 
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN 
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF 
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE
+ * 
+ * The JForum Project
+ * http://www.jforum.net
+ */
+package net.jforum.util.bbcode;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import net.jforum.entities.Smilie;
+
+/**
+ * Replaces all smilies of a text in a single pass, using an Aho-Corasick automaton
+ * built from the smilie codes.
+ * <p>
+ * The result is the same as replacing each smilie in turn, in the order of the list:
+ * when matches overlap, the smilie which comes first in the list wins. Smilies inside
+ * of tags locked for smilies, like [url] and [img], are left alone.
+ */
+public class SmiliesMatcher implements Serializable
+{
+	private static final long serialVersionUID = 5072419375402186313L;
+	private static final int[] NO_OUTPUT = new int[0];
+
+	/** As before, in case something goes wrong with some text */
+	private static final int MAX_MATCHES_PER_SMILIE = 100;
+
+	private final String[] codes;
+	private final String[] urls;
+
+	// The automaton: sorted transitions, failure links and smilies ending at each state
+	private final char[][] keys;
+	private final int[][] targets;
+	private final int[] failures;
+	private final int[][] outputs;
+
+	public SmiliesMatcher(List<Smilie> smilies)
+	{
+		this.codes = new String[smilies.size()];
+		this.urls = new String[smilies.size()];
+
+		List<Map<Character, Integer>> children = new ArrayList<Map<Character, Integer>>();
+		List<List<Integer>> ends = new ArrayList<List<Integer>>();
+		children.add(new HashMap<Character, Integer>());
+		ends.add(new ArrayList<Integer>());
+
+		for (int i = 0; i < this.codes.length; i++) {
+			Smilie smilie = smilies.get(i);
+			this.codes[i] = smilie.getCode();
+			this.urls[i] = smilie.getUrl();
+
+			if (this.codes[i] == null || this.codes[i].length() == 0) {
+				continue;
+			}
+
+			int state = 0;
+
+			for (int k = 0; k < this.codes[i].length(); k++) {
+				Character c = Character.valueOf(this.codes[i].charAt(k));
+				Integer next = children.get(state).get(c);
+
+				if (next == null) {
+					next = Integer.valueOf(children.size());
+					children.get(state).put(c, next);
+					children.add(new HashMap<Character, Integer>());
+					ends.add(new ArrayList<Integer>());
+				}
+
+				state = next.intValue();
+			}
+
+			ends.get(state).add(Integer.valueOf(i));
+		}
+
+		int size = children.size();
+		this.keys = new char[size][];
+		this.targets = new int[size][];
+		this.failures = new int[size];
+		this.outputs = new int[size][];
+
+		for (int state = 0; state < size; state++) {
+			Character[] sorted = children.get(state).keySet().toArray(new Character[0]);
+			Arrays.sort(sorted);
+
+			this.keys[state] = new char[sorted.length];
+			this.targets[state] = new int[sorted.length];
+
+			for (int k = 0; k < sorted.length; k++) {
+				this.keys[state][k] = sorted[k].charValue();
+				this.targets[state][k] = children.get(state).get(sorted[k]).intValue();
+			}
+		}
+
+		// Breadth first, so the failure of a state is always known before its children's
+		int[] queue = new int[size];
+		int head = 0;
+		int tail = 0;
+		queue[tail++] = 0;
+
+		while (head < tail) {
+			int state = queue[head++];
+
+			for (int k = 0; k < this.keys[state].length; k++) {
+				int child = this.targets[state][k];
+				this.failures[child] = state == 0 ? 0 : this.next(this.failures[state], this.keys[state][k]);
+				ends.get(child).addAll(ends.get(this.failures[child]));
+				queue[tail++] = child;
+			}
+
+			List<Integer> output = ends.get(state);
+			this.outputs[state] = output.isEmpty() ? NO_OUTPUT : new int[output.size()];
+
+			for (int k = 0; k < output.size(); k++) {
+				this.outputs[state][k] = output.get(k).intValue();
+			}
+		}
+	}
+
+	private int next(int state, char c)
+	{
+		while (true) {
+			int k = Arrays.binarySearch(this.keys[state], c);
+
+			if (k >= 0) {
+				return this.targets[state][k];
+			}
+
+			if (state == 0) {
+				return 0;
+			}
+
+			state = this.failures[state];
+		}
+	}
+
+	/**
+	 * Replaces the smilie codes of a text by their URLs.
+	 * 
+	 * @param text the text to process
+	 * @param lockedTags the tags inside of which smilies are not replaced
+	 * @return the processed text, or <code>text</code> itself if it has no smilies
+	 */
+	public String replace(String text, Set<String> lockedTags)
+	{
+		int length = text.length();
+		int[] matches = null;
+		int count = 0;
+		int state = 0;
+
+		// All matches, overlapping or not, as pairs of smilie and start position
+		for (int i = 0; i < length; i++) {
+			state = this.next(state, text.charAt(i));
+
+			for (int smilie : this.outputs[state]) {
+				if (matches == null) {
+					matches = new int[16];
+				}
+				else if (count * 2 == matches.length) {
+					matches = Arrays.copyOf(matches, matches.length * 2);
+				}
+
+				matches[count * 2] = smilie;
+				matches[count * 2 + 1] = i - this.codes[smilie].length() + 1;
+				count++;
+			}
+		}
+
+		if (count == 0) {
+			return text;
+		}
+
+		// Now, smilie by smilie, take its matches from left to right, as if it were alone
+		boolean[] replaced = new boolean[length];
+		int[] taken = new int[count];
+		int takenCount = 0;
+
+		for (int smilie = 0; smilie < this.codes.length; smilie++) {
+			int from = 0;
+			int found = 0;
+
+			for (int m = 0; m < count && found < MAX_MATCHES_PER_SMILIE; m++) {
+				int start = matches[m * 2 + 1];
+
+				if (matches[m * 2] != smilie || start < from || overlaps(replaced, start, this.codes[smilie].length())) {
+					continue;
+				}
+
+				found++;
+
+				int lockedUntil = lockedUntil(text, start, lockedTags);
+
+				if (lockedUntil > -1) {
+					from = lockedUntil;
+					continue;
+				}
+
+				Arrays.fill(replaced, start, start + this.codes[smilie].length(), true);
+				taken[takenCount++] = m;
+				from = start + this.codes[smilie].length();
+			}
+		}
+
+		if (takenCount == 0) {
+			return text;
+		}
+
+		// Matches were found in order of their end, which is not the order of their start
+		long[] byStart = new long[takenCount];
+
+		for (int t = 0; t < takenCount; t++) {
+			byStart[t] = ((long)matches[taken[t] * 2 + 1] << 32) | matches[taken[t] * 2];
+		}
+
+		Arrays.sort(byStart);
+
+		StringBuilder sb = new StringBuilder(length + takenCount * 64);
+		int last = 0;
+
+		for (long match : byStart) {
+			int start = (int)(match >>> 32);
+			int smilie = (int)match;
+
+			sb.append(text, last, start).append(this.urls[smilie]);
+			last = start + this.codes[smilie].length();
+		}
+
+		return sb.append(text, last, length).toString();
+	}
+
+	private static boolean overlaps(boolean[] replaced, int start, int length)
+	{
+		for (int i = start; i < start + length; i++) {
+			if (replaced[i]) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Checks whether a position is inside of a tag locked for smilies, like [url]...[/url]
+	 * 
+	 * @return the position of the "]" of the closing tag, or -1 if not locked
+	 */
+	private static int lockedUntil(String text, int pos, Set<String> lockedTags)
+	{
+		int idxAfter = text.indexOf("[/", pos);
+
+		if (idxAfter > -1) {
+			int idxBefore = text.lastIndexOf('[', idxAfter - 1);
+
+			if (idxBefore > -1 && idxBefore < pos) {
+				int idx2 = text.indexOf(']', idxAfter);
+
+				if (idx2 > -1 && lockedTags.contains(text.substring(idxAfter + 2, idx2).trim())) {
+					return idx2;
+				}
+			}
+		}
+
+		return -1;
+	}
+}
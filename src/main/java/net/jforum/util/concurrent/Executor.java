@@ -42,34 +42,143 @@
  */
 package net.jforum.util.concurrent;
 
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
 
-import org.apache.log4j.Level;
+import org.apache.commons.lang3.StringUtils;
 import org.apache.log4j.Logger;
 
+import net.jforum.util.preferences.ConfigKeys;
+import net.jforum.util.preferences.SystemGlobals;
+import net.jforum.util.stats.Stats;
 
 /**
+ * Runs background work in named {@link TaskPool}s, one per kind of work.
+ * <p>
+ * Pools are created on first use, from <i>executor.pool.&lt;name&gt;.*</i>,
+ * falling back to <i>executor.default.*</i>. Each one shows its activity
+ * on the statistics page.
+ *
  * @author Rafael Steil
  * @author Andowson Chang
  * @version $Id$
  */
 public final class Executor
 {
+	/** Rendering and queueing of notification mail */
+	public static final String MAIL = "mail";
+	/** Rebuilding the search index */
+	public static final String SEARCH = "search";
+	/** Extracting the text of attachments to index */
+	public static final String EXTRACTION = "extraction";
+	/** Creating the thumbnails of attached images */
+	public static final String IMAGES = "images";
+	/** Talking to external systems, such as fetching mail from POP servers */
+	public static final String INTEGRATION = "integration";
+
 	private static final Logger LOGGER = Logger.getLogger(Executor.class);
-	private static ThreadPoolExecutor poolExecutor = new ThreadPoolExecutor(2, 10, 1000 * 60 * 10, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(5));
-	
-	public static void execute(final Runnable runnable) {
-		try {
-			poolExecutor.execute(runnable);
+	private static final String GAUGE_PREFIX = "Task pool ";
+
+	private static final ConcurrentMap<String, TaskPool> POOLS = new ConcurrentHashMap<String, TaskPool>();
+
+	/**
+	 * Runs a task in the background.
+	 *
+	 * @param pool the name of the pool to run it in
+	 * @param runnable the task
+	 * @return <code>false</code> if the pool was full and dropped the task
+	 */
+	public static boolean execute(final String pool, final Runnable runnable)
+	{
+		return pool(pool).execute(runnable);
+	}
+
+	/**
+	 * Gets a pool, creating it if needed.
+	 *
+	 * @param name the pool name
+	 * @return the pool
+	 */
+	public static TaskPool pool(final String name)
+	{
+		TaskPool pool = POOLS.get(name);
+
+		if (pool == null) {
+			synchronized (POOLS) {
+				pool = POOLS.get(name);
+
+				if (pool == null) {
+					pool = newPool(name);
+					POOLS.put(name, pool);
+
+					final TaskPool registered = pool;
+					Stats.registerGauge(GAUGE_PREFIX + name, new Stats.Gauge() {
+						@Override public Object getValue() {
+							return registered.getStatus();
+						}
+					});
+				}
+			}
 		}
-		catch (Exception e) {
-			if (LOGGER.isEnabledFor(Level.ERROR)) {
-				LOGGER.error("Exception while running task: " + e, e);
+
+		return pool;
+	}
+
+	/**
+	 * Lets every pool finish its work, waiting up to
+	 * <i>executor.shutdown.timeout</i> seconds in total.
+	 */
+	public static void shutdown()
+	{
+		synchronized (POOLS) {
+			final long deadline = System.currentTimeMillis()
+				+ TimeUnit.SECONDS.toMillis(SystemGlobals.getIntValue(ConfigKeys.EXECUTOR_SHUTDOWN_TIMEOUT));
+
+			for (final TaskPool pool : POOLS.values()) {
+				pool.shutdown(deadline);
+				Stats.unregisterGauge(GAUGE_PREFIX + pool.getName());
 			}
+
+			POOLS.clear();
 		}
 	}
-	
+
+	private static TaskPool newPool(final String name)
+	{
+		final TaskPool pool = new TaskPool(name,
+			intValue(name, "threads"),
+			intValue(name, "queue"),
+			RejectionPolicy.fromName(poolValue(name, "rejection")),
+			intValue(name, "spill"),
+			Boolean.parseBoolean(poolValue(name, "virtual")));
+
+		LOGGER.info("Created task pool " + name + ": " + pool.getStatus());
+
+		return pool;
+	}
+
+	private static String poolValue(final String name, final String key)
+	{
+		final String value = SystemGlobals.getValue(ConfigKeys.EXECUTOR_POOL + name + "." + key);
+
+		return StringUtils.isBlank(value)
+			? SystemGlobals.getValue(ConfigKeys.EXECUTOR_DEFAULT + key)
+			: value;
+	}
+
+	private static int intValue(final String name, final String key)
+	{
+		final String value = poolValue(name, key);
+
+		try {
+			return StringUtils.isBlank(value) ? 0 : Integer.parseInt(value.trim());
+		}
+		catch (NumberFormatException e) {
+			LOGGER.warn("Invalid value " + value + " for " + key + " of the " + name + " pool");
+			return 0;
+		}
+	}
+
 	private Executor() {}
 }
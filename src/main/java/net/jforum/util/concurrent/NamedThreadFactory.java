@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) JForum Team
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, 
+ * with or without modification, are permitted provided 
+ * that the following conditions are met:
+ * 
+ * 1) Redistributions of source code must retain the above 
+ * copyright notice, this list of conditions and the 
+ * following disclaimer.
+ * 2) Redistributions in binary form must reproduce the 
+ * above copyright notice, this list of conditions and 
+ * the following disclaimer in the documentation and/or 
+ * other materials provided with the distribution.
+ * 3) Neither the name of "Rafael Steil" nor 
+ * the names of its contributors may be used to endorse 
+ * or promote products derived from this software without 
+ * specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT 
+ * HOLDERS AND CONTRIBUTORS "AS IS" AND ANY 
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, 
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF 
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR 
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL 
+ * THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, 
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, 
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER 
+ * IN CONTRACT, STRICT LIABILITY, OR TORT 
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN 
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF 
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE
+ * 
+ * The JForum Project
+ * http://www.jforum.net
+ */
+package net.jforum.util.concurrent;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Creates daemon threads named <code>prefix-1</code>, <code>prefix-2</code>
+ * and so on, so background work is easy to tell apart in thread dumps.
+ * <p>
+ * Virtual threads are used when asked for and the JVM supports them
+ * (Java 21 or later), otherwise platform threads.
+ */
+public class NamedThreadFactory implements ThreadFactory
+{
+	private static final Logger LOGGER = Logger.getLogger(NamedThreadFactory.class);
+
+	private final String prefix;
+	private final AtomicInteger count = new AtomicInteger();
+	private final ThreadFactory virtual;
+
+	public NamedThreadFactory(final String prefix)
+	{
+		this(prefix, false);
+	}
+
+	/**
+	 * @param prefix the thread name prefix
+	 * @param virtual whether to create virtual threads
+	 */
+	public NamedThreadFactory(final String prefix, final boolean virtual)
+	{
+		this.prefix = prefix;
+		this.virtual = virtual ? virtualThreadFactory(prefix) : null;
+	}
+
+	/**
+	 * @return whether the threads created are virtual
+	 */
+	public boolean isVirtual()
+	{
+		return this.virtual != null;
+	}
+
+	@Override public Thread newThread(final Runnable runnable)
+	{
+		if (this.virtual != null) {
+			return this.virtual.newThread(runnable);
+		}
+
+		final Thread thread = new Thread(runnable, this.prefix + "-" + this.count.incrementAndGet());
+		thread.setDaemon(true);
+		return thread;
+	}
+
+	/**
+	 * Looks up <code>Thread.ofVirtual().name(prefix + "-", 1).factory()</code>,
+	 * which does not exist before Java 21.
+	 */
+	private static ThreadFactory virtualThreadFactory(final String prefix)
+	{
+		try {
+			final Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+
+			final Method name = builderClass.getMethod("name", String.class, long.class);
+			builder = name.invoke(builder, prefix + "-", Long.valueOf(1));
+
+			return (ThreadFactory)builderClass.getMethod("factory").invoke(builder);
+		}
+		catch (ReflectiveOperationException e) {
+			LOGGER.info("Virtual threads are not available in this JVM, " + prefix + " uses platform threads");
+			return null;
+		}
+	}
+}
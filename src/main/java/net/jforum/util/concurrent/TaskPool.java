@@ -0,0 +1,258 @@
+/*
+ * Copyright (c) JForum Team
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, 
+ * with or without modification, are permitted provided 
+ * that the following conditions are met:
+ * 
+ * 1) Redistributions of source code must retain the above 
+ * copyright notice, this list of conditions and the 
+ * following disclaimer.
+ * 2) Redistributions in binary form must reproduce the 
+ * above copyright notice, this list of conditions and 
+ * the following disclaimer in the documentation and/or 
+ * other materials provided with the distribution.
+ * 3) Neither the name of "Rafael Steil" nor 
+ * the names of its contributors may be used to endorse 
+ * or promote products derived from this software without 
+ * specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT 
+ * HOLDERS AND CONTRIBUTORS "AS IS" AND ANY 
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, 
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF 
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR 
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL 
+ * THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, 
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, 
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER 
+ * IN CONTRACT, STRICT LIABILITY, OR TORT 
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN 
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF 
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE
+ * 
+ * The JForum Project
+ * http://www.jforum.net
+ */
+package net.jforum.util.concurrent;
+
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+/**
+ * A bounded pool of threads dedicated to one kind of background work, so
+ * a burst of one workload does not starve or push out the others.
+ * <p>
+ * Idle threads are released after a minute. Tasks arriving while every
+ * thread is busy and the queue is full are handled according to the
+ * {@link RejectionPolicy} of the pool.
+ */
+public class TaskPool
+{
+	private static final Logger LOGGER = Logger.getLogger(TaskPool.class);
+
+	private static final long KEEP_ALIVE_SECONDS = 60;
+
+	private final String name;
+	private final RejectionPolicy policy;
+	private final int spillCapacity;
+	private final ThreadPoolExecutor executor;
+	private final boolean virtual;
+
+	private final ConcurrentLinkedDeque<Runnable> spill = new ConcurrentLinkedDeque<Runnable>();
+	private final AtomicInteger spilled = new AtomicInteger();
+	private final AtomicLong rejected = new AtomicLong();
+	private final AtomicLong callerRuns = new AtomicLong();
+
+	/**
+	 * @param name the pool name, also used to name its threads
+	 * @param threads the maximum number of threads
+	 * @param queueCapacity how many tasks may wait for a thread
+	 * @param policy what to do with tasks which do not fit
+	 * @param spillCapacity how many tasks the {@link RejectionPolicy#SPILL} policy keeps
+	 * @param virtual whether to use virtual threads, when supported
+	 */
+	public TaskPool(final String name, final int threads, final int queueCapacity, final RejectionPolicy policy,
+		final int spillCapacity, final boolean virtual)
+	{
+		this.name = name;
+		this.policy = policy;
+		this.spillCapacity = Math.max(0, spillCapacity);
+
+		final NamedThreadFactory threadFactory = new NamedThreadFactory("jforum-" + name, virtual);
+		this.virtual = threadFactory.isVirtual();
+
+		final BlockingQueue<Runnable> queue = queueCapacity > 0
+			? new ArrayBlockingQueue<Runnable>(queueCapacity)
+			: new SynchronousQueue<Runnable>();
+		final int size = Math.max(1, threads);
+
+		this.executor = new ThreadPoolExecutor(size, size, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, queue, threadFactory,
+			new RejectedExecutionHandler() {
+				@Override public void rejectedExecution(final Runnable task, final ThreadPoolExecutor ignored) {
+					rejected(task);
+				}
+			}) {
+			@Override protected void afterExecute(final Runnable task, final Throwable t) {
+				super.afterExecute(task, t);
+
+				if (t != null) {
+					LOGGER.error("Error while running a task of the " + TaskPool.this.name + " pool: " + t, t);
+				}
+
+				TaskPool.this.feedSpilled();
+			}
+		};
+
+		this.executor.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * Runs a task in the background, unless the pool is saturated and
+	 * its policy says otherwise.
+	 *
+	 * @param task the task
+	 * @return <code>false</code> if the task was dropped
+	 */
+	public boolean execute(final Runnable task)
+	{
+		try {
+			this.executor.execute(task);
+			return true;
+		}
+		catch (RejectedExecutionException e) {
+			LOGGER.error(e.getMessage());
+			return false;
+		}
+	}
+
+	private void rejected(final Runnable task)
+	{
+		this.rejected.incrementAndGet();
+
+		if (this.executor.isShutdown()) {
+			throw new RejectedExecutionException("The " + this.name + " pool is shut down, dropping task " + task);
+		}
+
+		switch (this.policy) {
+			case SPILL:
+				if (this.spilled.incrementAndGet() <= this.spillCapacity) {
+					this.spill.addLast(task);
+					// a thread may have finished meanwhile, and found nothing to feed
+					this.feedSpilled();
+					return;
+				}
+
+				this.spilled.decrementAndGet();
+				this.runInCaller(task);
+				return;
+			case CALLER_RUNS:
+				this.runInCaller(task);
+				return;
+			default:
+				throw new RejectedExecutionException("The " + this.name + " pool is full, dropping task " + task);
+		}
+	}
+
+	private void runInCaller(final Runnable task)
+	{
+		this.callerRuns.incrementAndGet();
+		task.run();
+	}
+
+	/**
+	 * Moves one spilled task to the queue, if there is room for it.
+	 */
+	private void feedSpilled()
+	{
+		final Runnable task = this.spill.pollFirst();
+
+		if (task == null) {
+			return;
+		}
+
+		if (!this.executor.isShutdown() && this.executor.getQueue().offer(task)) {
+			this.spilled.decrementAndGet();
+
+			// the threads may all have timed out while the task was spilled
+			if (this.executor.getPoolSize() == 0) {
+				this.executor.prestartCoreThread();
+			}
+		}
+		else {
+			this.spill.addFirst(task);
+		}
+	}
+
+	/**
+	 * Stops accepting tasks, and waits for the queued and spilled ones to
+	 * complete until the deadline. Whatever is left is dropped.
+	 *
+	 * @param deadline the time, as given by {@link System#currentTimeMillis()}
+	 */
+	public void shutdown(final long deadline)
+	{
+		try {
+			while (this.spilled.get() > 0 && System.currentTimeMillis() < deadline) {
+				this.feedSpilled();
+				Thread.sleep(50);
+			}
+
+			this.executor.shutdown();
+
+			final long remaining = deadline - System.currentTimeMillis();
+
+			if (remaining > 0) {
+				this.executor.awaitTermination(remaining, TimeUnit.MILLISECONDS);
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		if (!this.executor.isTerminated()) {
+			final List<Runnable> dropped = this.executor.shutdownNow();
+			LOGGER.warn("The " + this.name + " pool did not finish in time, dropping "
+				+ (dropped.size() + this.spilled.get()) + " tasks");
+		}
+
+		this.spill.clear();
+		this.spilled.set(0);
+	}
+
+	public String getName()
+	{
+		return this.name;
+	}
+
+	/**
+	 * @return a one line summary of the pool activity, for the statistics page
+	 */
+	public String getStatus()
+	{
+		return "threads " + this.executor.getPoolSize() + "/" + this.executor.getMaximumPoolSize()
+			+ (this.virtual ? " (virtual)" : "")
+			+ ", active " + this.executor.getActiveCount()
+			+ ", queued " + this.executor.getQueue().size()
+			+ ", spilled " + this.spilled.get()
+			+ ", completed " + this.executor.getCompletedTaskCount()
+			+ ", rejected " + this.rejected.get()
+			+ " (ran by caller " + this.callerRuns.get() + ")";
+	}
+}
@@ -45,7 +45,12 @@ package net.jforum.util.image;
 import java.awt.Dimension;
 import java.awt.Image;
 import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
 import java.awt.image.PixelGrabber;
+import java.awt.image.Raster;
+import java.awt.image.SinglePixelPackedSampleModel;
 import java.io.File;
 import java.io.IOException;
 import java.util.Iterator;
@@ -53,9 +58,11 @@ import java.util.Locale;
 
 import javax.imageio.IIOImage;
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
 import javax.imageio.ImageWriteParam;
 import javax.imageio.ImageWriter;
 import javax.imageio.plugins.jpeg.JPEGImageWriteParam;
+import javax.imageio.stream.ImageInputStream;
 import javax.imageio.stream.ImageOutputStream;
 
 import net.jforum.exceptions.ForumException;
@@ -107,6 +114,23 @@ public class ImageUtils
 	 *            int
 	 */
 	public static BufferedImage resizeImage(BufferedImage image, int type, int maxWidth, int maxHeight)
+	{
+		return resizeImage(image, type, maxWidth, maxHeight, false);
+	}
+
+	/**
+	 * Resizes an image, keeping its aspect ratio.
+	 * 
+	 * @param image The image to resize
+	 * @param type int
+	 * @param maxWidth The image's max width
+	 * @param maxHeight The image's max height
+	 * @param progressive if <code>true</code>, the image is first halved as many times as
+	 * possible, which gives better looking thumbnails of big images
+	 * @return A resized <code>BufferedImage</code>
+	 * @see #createSmoothBufferedImage(BufferedImage, int, int, int, boolean)
+	 */
+	public static BufferedImage resizeImage(BufferedImage image, int type, int maxWidth, int maxHeight, boolean progressive)
 	{
 		Dimension largestDimension = new Dimension(maxWidth, maxHeight);
 
@@ -128,7 +152,41 @@ public class ImageUtils
 			imageHeight = largestDimension.height;
 		}
 
-		return createHeadlessSmoothBufferedImage(image, type, imageWidth, imageHeight);
+		return createSmoothBufferedImage(image, type, imageWidth, imageHeight, progressive);
+	}
+
+	/**
+	 * Gets the size of an image by reading only its header.
+	 * 
+	 * @param file the image file
+	 * @return the size, or <code>null</code> if the format is not known
+	 */
+	public static Dimension readSize(File file)
+	{
+		try (ImageInputStream iis = ImageIO.createImageInputStream(file)) {
+			if (iis == null) {
+				return null;
+			}
+
+			Iterator<ImageReader> readers = ImageIO.getImageReaders(iis);
+
+			if (!readers.hasNext()) {
+				return null;
+			}
+
+			ImageReader reader = readers.next();
+
+			try {
+				reader.setInput(iis, true, true);
+				return new Dimension(reader.getWidth(0), reader.getHeight(0));
+			}
+			finally {
+				reader.dispose();
+			}
+		}
+		catch (IOException e) {
+			throw new ForumException(e);
+		}
 	}
 
 	/**
@@ -286,6 +344,209 @@ public class ImageUtils
 		return dest;
 	}
 
+	/**
+	 * Scales an image using bilinear filtering, like
+	 * {@link #createHeadlessSmoothBufferedImage(BufferedImage, int, int, int)} and with the very
+	 * same result when not progressive, but reading and writing the pixel arrays instead of going
+	 * through <code>getRGB</code> and <code>setRGB</code> for every pixel.
+	 * 
+	 * @param source The image to convert
+	 * @param origType The image type
+	 * @param width The desired image width
+	 * @param height The desired image height
+	 * @param progressive if <code>true</code>, the source is halved with a box filter while it is
+	 * at least twice the desired size, so that no source pixel is skipped
+	 * @return The converted image
+	 */
+	public static BufferedImage createSmoothBufferedImage(BufferedImage source, int origType, int width, int height,
+		boolean progressive)
+	{
+		boolean alpha = origType == ImageUtils.IMAGE_PNG && hasAlpha(source);
+		BufferedImage dest = new BufferedImage(width, height, alpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+		int[] destPixels = ((DataBufferInt) dest.getRaster().getDataBuffer()).getData();
+
+		int sourceWidth = source.getWidth();
+		int sourceHeight = source.getHeight();
+		PixelReader pixels = reader(source);
+
+		while (progressive && sourceWidth >= width * 2 && sourceHeight >= height * 2) {
+			pixels = halve(pixels, sourceWidth, sourceHeight);
+			sourceWidth /= 2;
+			sourceHeight /= 2;
+		}
+
+		// The columns to read and the weights don't change from one row to another
+		int[] x0 = new int[width];
+		int[] x1 = new int[width];
+		double[] xdiff = new double[width];
+		double scalex = (double) width / sourceWidth;
+
+		for (int x = 0; x < width; x++) {
+			x0[x] = x * sourceWidth / width;
+			x1[x] = Math.min(sourceWidth - 1, x0[x] + 1);
+			xdiff[x] = scale(x, scalex) - x0[x];
+		}
+
+		double scaley = (double) height / sourceHeight;
+		int mask = alpha ? 0xFFFFFFFF : 0x00FFFFFF;
+
+		for (int y = 0; y < height; y++) {
+			int y0 = y * sourceHeight / height;
+			int y1 = Math.min(sourceHeight - 1, y0 + 1);
+			double ydiff = scale(y, scaley) - y0;
+			int offset = y * width;
+
+			for (int x = 0; x < width; x++) {
+				int rgb1 = getRGBInterpolation(pixels.getRGB(x0[x], y0), pixels.getRGB(x1[x], y0), xdiff[x]);
+				int rgb2 = getRGBInterpolation(pixels.getRGB(x0[x], y1), pixels.getRGB(x1[x], y1), xdiff[x]);
+
+				destPixels[offset + x] = getRGBInterpolation(rgb1, rgb2, ydiff) & mask;
+			}
+		}
+
+		return dest;
+	}
+
+	/**
+	 * Reads pixels as non premultiplied ARGB values, the same as <code>BufferedImage.getRGB</code>.
+	 */
+	private interface PixelReader
+	{
+		int getRGB(int x, int y);
+
+		void getRow(int y, int[] row);
+	}
+
+	/**
+	 * Reads straight from the image's own arrays for the types image readers usually return,
+	 * which is much faster than going through the color model for every pixel.
+	 */
+	private static PixelReader reader(final BufferedImage image)
+	{
+		final Raster raster = image.getRaster();
+		final int type = image.getType();
+		final boolean simple = raster.getSampleModelTranslateX() == 0 && raster.getSampleModelTranslateY() == 0
+			&& raster.getDataBuffer().getNumBanks() == 1;
+
+		if (simple && (type == BufferedImage.TYPE_INT_ARGB || type == BufferedImage.TYPE_INT_RGB)
+			&& raster.getSampleModel() instanceof SinglePixelPackedSampleModel) {
+			final int[] data = ((DataBufferInt) raster.getDataBuffer()).getData();
+			final int offset = raster.getDataBuffer().getOffset();
+			final int stride = ((SinglePixelPackedSampleModel) raster.getSampleModel()).getScanlineStride();
+			final int opaque = type == BufferedImage.TYPE_INT_RGB ? 0xFF000000 : 0;
+
+			return new PixelReader() {
+				@Override public int getRGB(int x, int y) {
+					return data[offset + y * stride + x] | opaque;
+				}
+
+				@Override public void getRow(int y, int[] row) {
+					for (int x = 0, i = offset + y * stride; x < row.length; x++, i++) {
+						row[x] = data[i] | opaque;
+					}
+				}
+			};
+		}
+
+		if (simple && (type == BufferedImage.TYPE_3BYTE_BGR || type == BufferedImage.TYPE_4BYTE_ABGR)
+			&& raster.getSampleModel() instanceof ComponentSampleModel) {
+			final ComponentSampleModel model = (ComponentSampleModel) raster.getSampleModel();
+			final byte[] data = ((DataBufferByte) raster.getDataBuffer()).getData();
+			final int offset = raster.getDataBuffer().getOffset();
+			final int stride = model.getScanlineStride();
+			final int pixelStride = model.getPixelStride();
+			final int[] bands = model.getBandOffsets();
+			final int red = bands[0];
+			final int green = bands[1];
+			final int blue = bands[2];
+
+			if (type == BufferedImage.TYPE_3BYTE_BGR) {
+				return new PixelReader() {
+					@Override public int getRGB(int x, int y) {
+						int i = offset + y * stride + x * pixelStride;
+						return 0xFF000000 | ((data[i + red] & 0xFF) << 16) | ((data[i + green] & 0xFF) << 8) | (data[i + blue] & 0xFF);
+					}
+
+					@Override public void getRow(int y, int[] row) {
+						for (int x = 0, i = offset + y * stride; x < row.length; x++, i += pixelStride) {
+							row[x] = 0xFF000000 | ((data[i + red] & 0xFF) << 16) | ((data[i + green] & 0xFF) << 8) | (data[i + blue] & 0xFF);
+						}
+					}
+				};
+			}
+
+			final int alpha = bands[3];
+
+			return new PixelReader() {
+				@Override public int getRGB(int x, int y) {
+					int i = offset + y * stride + x * pixelStride;
+					return ((data[i + alpha] & 0xFF) << 24) | ((data[i + red] & 0xFF) << 16)
+						| ((data[i + green] & 0xFF) << 8) | (data[i + blue] & 0xFF);
+				}
+
+				@Override public void getRow(int y, int[] row) {
+					for (int x = 0, i = offset + y * stride; x < row.length; x++, i += pixelStride) {
+						row[x] = ((data[i + alpha] & 0xFF) << 24) | ((data[i + red] & 0xFF) << 16)
+							| ((data[i + green] & 0xFF) << 8) | (data[i + blue] & 0xFF);
+					}
+				}
+			};
+		}
+
+		return new PixelReader() {
+			@Override public int getRGB(int x, int y) {
+				return image.getRGB(x, y);
+			}
+
+			@Override public void getRow(int y, int[] row) {
+				image.getRGB(0, y, row.length, 1, row, 0, row.length);
+			}
+		};
+	}
+
+	/**
+	 * Halves an image, each pixel being the average of four source pixels.
+	 * An odd last row or column is dropped.
+	 */
+	private static PixelReader halve(PixelReader pixels, int width, int height)
+	{
+		final int halfWidth = width / 2;
+		int halfHeight = height / 2;
+		final int[] half = new int[halfWidth * halfHeight];
+		int[] top = new int[width];
+		int[] bottom = new int[width];
+
+		for (int y = 0; y < halfHeight; y++) {
+			int offset = y * halfWidth;
+			pixels.getRow(y * 2, top);
+			pixels.getRow(y * 2 + 1, bottom);
+
+			for (int x = 0; x < halfWidth; x++) {
+				int p1 = top[x * 2];
+				int p2 = top[x * 2 + 1];
+				int p3 = bottom[x * 2];
+				int p4 = bottom[x * 2 + 1];
+
+				int a = ((p1 >>> 24) + (p2 >>> 24) + (p3 >>> 24) + (p4 >>> 24) + 2) >> 2;
+				int r = (((p1 >> 16) & 0xFF) + ((p2 >> 16) & 0xFF) + ((p3 >> 16) & 0xFF) + ((p4 >> 16) & 0xFF) + 2) >> 2;
+				int g = (((p1 >> 8) & 0xFF) + ((p2 >> 8) & 0xFF) + ((p3 >> 8) & 0xFF) + ((p4 >> 8) & 0xFF) + 2) >> 2;
+				int b = ((p1 & 0xFF) + (p2 & 0xFF) + (p3 & 0xFF) + (p4 & 0xFF) + 2) >> 2;
+
+				half[offset + x] = (a << 24) | (r << 16) | (g << 8) | b;
+			}
+		}
+
+		return new PixelReader() {
+			@Override public int getRGB(int x, int y) {
+				return half[y * halfWidth + x];
+			}
+
+			@Override public void getRow(int y, int[] row) {
+				System.arraycopy(half, y * halfWidth, row, 0, row.length);
+			}
+		};
+	}
+
 	private static double scale(int point, double scale)
 	{
 		return point / scale;
@@ -0,0 +1,371 @@
+/*
+ * Copyright (c) JForum Team
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, 
+ * with or without modification, are permitted provided 
+ * that the following conditions are met:
+ * 
+ * 1) Redistributions of source code must retain the above 
+ * copyright notice, this list of conditions and the 
+ * following disclaimer.
+ * 2) Redistributions in binary form must reproduce the 
+ * above copyright notice, this list of conditions and 
+ * the following disclaimer in the documentation and/or 
+ * other materials provided with the distribution.
+ * 3) Neither the name of "Rafael Steil" nor 
+ * the names of its contributors may be used to endorse 
+ * or promote products derived from this software without 
+ * specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT 
+ * HOLDERS AND CONTRIBUTORS "AS IS" AND ANY 
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, 
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF 
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR 
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL 
+ * THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, 
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, 
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER 
+ * IN CONTRACT, STRICT LIABILITY, OR TORT 
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN 
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF 
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE
+ * 
+ * The JForum Project
+ * http://www.jforum.net
+ */
+package net.jforum.util.image;
+
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.imageio.ImageIO;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.log4j.Logger;
+
+import net.jforum.entities.Attachment;
+import net.jforum.util.BoundedLinkedHashMap;
+import net.jforum.util.Hash;
+import net.jforum.util.concurrent.Executor;
+import net.jforum.util.preferences.ConfigKeys;
+import net.jforum.util.preferences.SystemGlobals;
+import net.jforum.util.stats.Stats;
+
+/**
+ * Creates the thumbnails of attached images, in the background.
+ * <p>
+ * Each image is decoded once and scaled to every size listed in
+ * <i>attachments.images.thumb.sizes</i>, biggest first. The thumbnails are kept
+ * in the <code>thumbs</code> directory of the attachments store, as
+ * <code>thumbs/&lt;attachment id&gt;_&lt;hash&gt;/&lt;width&gt;x&lt;height&gt;.jpg</code>
+ * (<code>.png</code> for PNG and GIF images), so they are served the same way
+ * as the attachments themselves. The hash is taken from the physical filename,
+ * which is random, so the thumbnails can't be found from the attachment ids alone.
+ * <p>
+ * The work runs on the {@link Executor#IMAGES} pool. When it is full the task is
+ * dropped, and tried again the next time the thumbnail is asked for.
+ */
+public final class ThumbnailService
+{
+	private static final Logger LOGGER = Logger.getLogger(ThumbnailService.class);
+	private static final String DIRECTORY = "thumbs";
+	private static final String GAUGE = "Thumbnails";
+	private static final Pattern SIZE = Pattern.compile("(\\d+)\\s*x\\s*(\\d+)");
+
+	/** Attachments whose thumbnails are being created */
+	private static final Set<Integer> PENDING = Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+	/** Attachments that need no thumbnail, because they are small or can't be read */
+	private static final Map<Integer, Boolean> SKIPPED = Collections.synchronizedMap(new BoundedLinkedHashMap<Integer, Boolean>(10000));
+
+	private static final AtomicLong CREATED = new AtomicLong();
+	private static final AtomicLong FAILED = new AtomicLong();
+	private static final AtomicLong DROPPED = new AtomicLong();
+	private static final AtomicLong TOTAL_TIME = new AtomicLong();
+
+	private ThumbnailService() {}
+
+	/**
+	 * Shows the work done on the statistics page.
+	 */
+	public static void start()
+	{
+		Stats.registerGauge(GAUGE, new Stats.Gauge() {
+			@Override public Object getValue() {
+				final long count = CREATED.get();
+				final long average = count == 0 ? 0 : TOTAL_TIME.get() / count;
+				return "created " + count + ", average " + average + "ms, failed " + FAILED.get()
+					+ ", dropped " + DROPPED.get() + ", pending " + PENDING.size();
+			}
+		});
+	}
+
+	public static void stop()
+	{
+		Stats.unregisterGauge(GAUGE);
+	}
+
+	/**
+	 * Gets the thumbnail sizes, in the order they are configured.
+	 *
+	 * @return the sizes, never empty
+	 */
+	public static List<Dimension> sizes()
+	{
+		final List<Dimension> sizes = new ArrayList<Dimension>();
+
+		for (final String size : SystemGlobals.getListValue(ConfigKeys.ATTACHMENTS_IMAGES_THUMB_SIZES)) {
+			final Matcher matcher = SIZE.matcher(size);
+
+			if (matcher.matches() && Integer.parseInt(matcher.group(1)) > 0 && Integer.parseInt(matcher.group(2)) > 0) {
+				sizes.add(new Dimension(Integer.parseInt(matcher.group(1)), Integer.parseInt(matcher.group(2))));
+			}
+			else {
+				LOGGER.warn("Ignoring the thumbnail size " + size + ", expected <width>x<height>");
+			}
+		}
+
+		if (sizes.isEmpty()) {
+			sizes.add(new Dimension(SystemGlobals.getIntValue(ConfigKeys.ATTACHMENTS_IMAGES_MAX_THUMB_W),
+				SystemGlobals.getIntValue(ConfigKeys.ATTACHMENTS_IMAGES_MAX_THUMB_H)));
+		}
+
+		return sizes;
+	}
+
+	/**
+	 * Gets the path, relative to the context, of the thumbnail in the first configured size.
+	 * If it was not created yet, it is scheduled.
+	 *
+	 * @param attachment the attachment
+	 * @return the path, or <code>null</code> if there is no thumbnail yet
+	 */
+	public static String thumbPath(final Attachment attachment)
+	{
+		return thumbPath(attachment, sizes().get(0));
+	}
+
+	/**
+	 * Gets the path, relative to the context, of a thumbnail.
+	 * If it was not created yet, it is scheduled.
+	 *
+	 * @param attachment the attachment
+	 * @param size one of the configured sizes
+	 * @return the path, or <code>null</code> if there is no thumbnail yet
+	 */
+	public static String thumbPath(final Attachment attachment, final Dimension size)
+	{
+		final String name = fileName(attachment.getInfo().getPhysicalFilename(), size);
+
+		final String directoryName = directoryName(attachment.getId(), attachment.getInfo().getPhysicalFilename());
+
+		if (new File(directory(directoryName), name).exists()) {
+			return SystemGlobals.getValue(ConfigKeys.ATTACHMENTS_UPLOAD_DIR) + "/" + DIRECTORY + "/" + directoryName + "/" + name;
+		}
+
+		schedule(attachment);
+
+		return null;
+	}
+
+	/**
+	 * Creates the missing thumbnails of an attachment in the background.
+	 *
+	 * @param attachment the attachment, which must be already saved
+	 */
+	public static void schedule(final Attachment attachment)
+	{
+		final Integer id = Integer.valueOf(attachment.getId());
+		final String physicalFilename = attachment.getInfo().getPhysicalFilename();
+
+		if (id.intValue() <= 0 || SKIPPED.containsKey(id) || !PENDING.add(id)) {
+			return;
+		}
+
+		final boolean queued = Executor.execute(Executor.IMAGES, new Runnable() {
+			@Override public void run() {
+				try {
+					create(id.intValue(), physicalFilename);
+				}
+				finally {
+					PENDING.remove(id);
+				}
+			}
+		});
+
+		if (!queued) {
+			PENDING.remove(id);
+			DROPPED.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Creates the missing thumbnails of an attachment.
+	 *
+	 * @param attachId the attachment id
+	 * @param physicalFilename the name of the attachment file, relative to the attachments directory
+	 * @return how many thumbnails were created
+	 */
+	public static int create(final int attachId, final String physicalFilename)
+	{
+		final long start = System.currentTimeMillis();
+		final File source = new File(SystemGlobals.getValue(ConfigKeys.ATTACHMENTS_STORE_DIR), physicalFilename);
+		final Integer id = Integer.valueOf(attachId);
+		final File directory = directory(directoryName(attachId, physicalFilename));
+
+		try {
+			final Dimension original = source.exists() ? ImageUtils.readSize(source) : null;
+
+			if (original == null) {
+				SKIPPED.put(id, Boolean.TRUE);
+				return 0;
+			}
+
+			final List<Dimension> missing = new ArrayList<Dimension>();
+			boolean needed = false;
+
+			for (final Dimension size : sizes()) {
+				// Images that already fit are shown as they are
+				if (original.width > size.width || original.height > size.height) {
+					needed = true;
+
+					if (!new File(directory, fileName(physicalFilename, size)).exists()) {
+						missing.add(size);
+					}
+				}
+			}
+
+			if (!needed) {
+				SKIPPED.put(id, Boolean.TRUE);
+			}
+
+			if (missing.isEmpty()) {
+				return 0;
+			}
+
+			BufferedImage image = ImageIO.read(source);
+
+			if (image == null) {
+				SKIPPED.put(id, Boolean.TRUE);
+				return 0;
+			}
+
+			Collections.sort(missing, new Comparator<Dimension>() {
+				@Override public int compare(final Dimension d1, final Dimension d2) {
+					return Long.compare((long)d2.width * d2.height, (long)d1.width * d1.height);
+				}
+			});
+
+			final boolean progressive = SystemGlobals.getBoolValue(ConfigKeys.ATTACHMENTS_IMAGES_THUMB_PROGRESSIVE);
+			final int type = isPng(physicalFilename) ? ImageUtils.IMAGE_PNG : ImageUtils.IMAGE_JPEG;
+
+			for (final Dimension size : missing) {
+				final BufferedImage thumb = ImageUtils.resizeImage(image, type, size.width, size.height, progressive);
+				save(thumb, type, new File(directory, fileName(physicalFilename, size)));
+
+				if (progressive) {
+					// Smaller sizes are scaled from this one, which is already halved as needed
+					image = thumb;
+				}
+			}
+
+			CREATED.addAndGet(missing.size());
+			TOTAL_TIME.addAndGet(System.currentTimeMillis() - start);
+
+			return missing.size();
+		}
+		catch (Exception e) {
+			LOGGER.error("Could not create the thumbnails of " + source + ": " + e, e);
+			FAILED.incrementAndGet();
+			SKIPPED.put(id, Boolean.TRUE);
+			return 0;
+		}
+	}
+
+	/**
+	 * Removes the thumbnails of an attachment.
+	 *
+	 * @param attachId the attachment id
+	 * @param physicalFilename the name of the attachment file, relative to the attachments directory
+	 */
+	public static void delete(final int attachId, final String physicalFilename)
+	{
+		SKIPPED.remove(Integer.valueOf(attachId));
+		final File directory = directory(directoryName(attachId, physicalFilename));
+
+		if (directory.exists() && !FileUtils.deleteQuietly(directory)) {
+			LOGGER.error("Delete thumbnails failed: " + directory);
+		}
+	}
+
+	private static void save(final BufferedImage image, final int type, final File file) throws IOException
+	{
+		final File directory = file.getParentFile();
+
+		if (!directory.exists() && !directory.mkdirs() && !directory.exists()) {
+			throw new IOException("Could not create " + directory);
+		}
+
+		// Written aside and then moved, so a thumbnail is never served half written
+		final File temp = File.createTempFile("thumb", ".tmp", directory);
+
+		try {
+			if (!ImageIO.write(image, type == ImageUtils.IMAGE_PNG ? "png" : "jpg", temp)) {
+				throw new IOException("No image writer for " + file);
+			}
+
+			Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+		finally {
+			Files.deleteIfExists(temp.toPath());
+		}
+	}
+
+	private static File directory(final String directoryName)
+	{
+		return new File(SystemGlobals.getValue(ConfigKeys.ATTACHMENTS_STORE_DIR) + "/" + DIRECTORY, directoryName);
+	}
+
+	/**
+	 * The thumbnails are served as static files, so their directory must not be
+	 * guessable from the attachment id, which is sequential.
+	 */
+	static String directoryName(final int attachId, final String physicalFilename)
+	{
+		return attachId + "_" + Hash.md5(physicalFilename);
+	}
+
+	private static String fileName(final String physicalFilename, final Dimension size)
+	{
+		return size.width + "x" + size.height + (isPng(physicalFilename) ? ".png" : ".jpg");
+	}
+
+	/**
+	 * PNG and GIF images may be transparent, so their thumbnails are kept as PNG.
+	 */
+	private static boolean isPng(final String physicalFilename)
+	{
+		final String name = physicalFilename.toLowerCase(Locale.ENGLISH);
+		return name.matches(".*\\.(png|gif)_?");
+	}
+}
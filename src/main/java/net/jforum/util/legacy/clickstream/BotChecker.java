@@ -1,8 +1,5 @@
 package net.jforum.util.legacy.clickstream;
 
-import java.util.Iterator;
-import java.util.List;
-
 import javax.servlet.http.HttpServletRequest;
 
 import net.jforum.util.legacy.clickstream.config.ClickstreamConfig;
@@ -35,42 +32,15 @@ public class BotChecker
 		
 		ClickstreamConfig config = ConfigLoader.getInstance().getConfig();
 		
-		if (userAgent != null && config != null) {
-			List<String> agents = config.getBotAgents();
-			
-			userAgent = userAgent.toLowerCase();
-			
-			for (Iterator<String> iterator = agents.iterator(); iterator.hasNext(); ) {
-				String agent = (String) iterator.next();
-				
-				if (agent == null) {
-					continue;
-				}
-				
-				if (userAgent.indexOf(agent) != -1) {
-					return userAgent;
-				}
-			}
+		if (userAgent != null && config != null && config.getBotAgentMatcher().matches(userAgent)) {
+			return userAgent.toLowerCase();
 		}
 		
 		String remoteHost = request.getRemoteHost(); // requires a DNS lookup
 		
-		if (remoteHost != null && remoteHost.length() > 0 && remoteHost.charAt(remoteHost.length() - 1) > 64) {
-			List<String> hosts = config.getBotHosts();
-			
-			remoteHost = remoteHost.toLowerCase();
-			
-			for (Iterator<String> iterator = hosts.iterator(); iterator.hasNext(); ) {
-				String host = (String) iterator.next();
-				
-				if (host == null) {
-					continue;
-				}
-				
-				if (remoteHost.indexOf(host) != -1) {
-					return remoteHost;
-				}
-			}
+		if (remoteHost != null && remoteHost.length() > 0 && remoteHost.charAt(remoteHost.length() - 1) > 64
+				&& config != null && config.getBotHostMatcher().matches(remoteHost)) {
+			return remoteHost.toLowerCase();
 		}
 
 		return null;
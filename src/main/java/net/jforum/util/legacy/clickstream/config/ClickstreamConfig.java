@@ -3,6 +3,8 @@ package net.jforum.util.legacy.clickstream.config;
 import java.util.ArrayList;
 import java.util.List;
 
+import net.jforum.util.KeywordMatcher;
+
 /**
  * Clickstream configuration data.
  *
@@ -13,13 +15,17 @@ import java.util.List;
 public class ClickstreamConfig {
     private transient final List<String> botAgents = new ArrayList<String>();
     private transient final List<String> botHosts = new ArrayList<String>();
+    private transient volatile KeywordMatcher botAgentMatcher;
+    private transient volatile KeywordMatcher botHostMatcher;
 
     public void addBotAgent(final String agent) {
         botAgents.add(agent);
+        botAgentMatcher = null;
     }
 
     public void addBotHost(final String host) {
         botHosts.add(host);
+        botHostMatcher = null;
     }
 
     public List<String> getBotAgents() {
@@ -29,4 +35,28 @@ public class ClickstreamConfig {
     public List<String> getBotHosts() {
         return botHosts;
     }
+
+    /**
+     * @return a matcher for all bot agents, which the user agent, lower cased, may contain
+     */
+    public KeywordMatcher getBotAgentMatcher() {
+        KeywordMatcher matcher = botAgentMatcher;
+        if (matcher == null) {
+            matcher = new KeywordMatcher(botAgents);
+            botAgentMatcher = matcher;
+        }
+        return matcher;
+    }
+
+    /**
+     * @return a matcher for all bot hosts, which the remote host name, lower cased, may contain
+     */
+    public KeywordMatcher getBotHostMatcher() {
+        KeywordMatcher matcher = botHostMatcher;
+        if (matcher == null) {
+            matcher = new KeywordMatcher(botHosts);
+            botHostMatcher = matcher;
+        }
+        return matcher;
+    }
 }
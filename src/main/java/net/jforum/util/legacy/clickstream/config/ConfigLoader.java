@@ -30,7 +30,7 @@ public class ConfigLoader
 {
 	private static final Logger LOGGER = Logger.getLogger(ConfigLoader.class);
 
-	private transient ClickstreamConfig config;
+	private transient volatile ClickstreamConfig config;
 
 	private static ConfigLoader instance = new ConfigLoader();;
 
@@ -48,7 +48,12 @@ public class ConfigLoader
 		}
 
 		synchronized (instance) {
-			this.config = new ClickstreamConfig();
+			if (this.config != null) {
+				return this.config;
+			}
+
+			// Published only once read, requests must not see it half filled
+			final ClickstreamConfig newConfig = new ClickstreamConfig();
 	
 			try {
 				final SAXParserFactory factory = SAXParserFactory.newInstance();
@@ -65,13 +70,14 @@ public class ConfigLoader
 					final File fileInput = new File(path);
 					
 					if (fileInput.exists()) {
-						parser.parse(fileInput, new ConfigHandler());
+						parser.parse(fileInput, new ConfigHandler(newConfig));
 					}
 					else {
-						parser.parse(new InputSource(path), new ConfigHandler());
+						parser.parse(new InputSource(path), new ConfigHandler(newConfig));
 					}
 				}
-				return config;
+				this.config = newConfig;
+				return newConfig;
 			}
 			catch (SAXException e) {
 				LOGGER.error("Could not parse clickstream XML", e);
@@ -91,15 +97,22 @@ public class ConfigLoader
 	/**
 	 * SAX Handler implementation for handling tags in config file and building config objects.
 	 */
-	private class ConfigHandler extends DefaultHandler
+	private static class ConfigHandler extends DefaultHandler
 	{
+		private final ClickstreamConfig config;
+
+		ConfigHandler(final ClickstreamConfig config)
+		{
+			this.config = config;
+		}
+
 		@Override public void startElement(final String uri, final String localName, final String qName, final Attributes attributes) throws SAXException
 		{
 			if ("bot-host".equals(qName)) {
-				config.addBotHost(attributes.getValue("name"));
+				this.config.addBotHost(attributes.getValue("name"));
 			}
 			else if ("bot-agent".equals(qName)) {
-				config.addBotAgent(attributes.getValue("name"));
+				this.config.addBotAgent(attributes.getValue("name"));
 			}
 		}
 	}
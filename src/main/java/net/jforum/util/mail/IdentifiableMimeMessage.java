@@ -80,7 +80,7 @@ public class IdentifiableMimeMessage extends MimeMessage
 			super.updateMessageID();	
 		}
 		else {			
-			this.addHeader("Message-ID", this.messageId);
+			this.setHeader("Message-ID", this.messageId);
 		}
 	}
 }
@@ -0,0 +1,699 @@
+/*
+ * Copyright (c) JForum Team
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, 
+ * with or without modification, are permitted provided 
+ * that the following conditions are met:
+ * 
+ * 1) Redistributions of source code must retain the above 
+ * copyright notice, this list of conditions and the 
+ * following disclaimer.
+ * 2) Redistributions in binary form must reproduce the 
+ * above copyright notice, this list of conditions and 
+ * the following disclaimer in the documentation and/or 
+ * other materials provided with the distribution.
+ * 3) Neither the name of "Rafael Steil" nor 
+ * the names of its contributors may be used to endorse 
+ * or promote products derived from this software without 
+ * specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT 
+ * HOLDERS AND CONTRIBUTORS "AS IS" AND ANY 
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, 
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF 
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR 
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL 
+ * THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, 
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, 
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER 
+ * IN CONTRACT, STRICT LIABILITY, OR TORT 
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN 
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF 
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE
+ * 
+ * The JForum Project
+ * http://www.jforum.net
+ */
+package net.jforum.util.mail;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.mail.Address;
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.SendFailedException;
+import javax.mail.Transport;
+import javax.mail.internet.AddressException;
+import javax.mail.internet.InternetAddress;
+import javax.mail.internet.MimeMessage;
+
+import org.apache.log4j.Logger;
+
+import net.jforum.JForumExecutionContext;
+import net.jforum.dao.DataAccessDriver;
+import net.jforum.dao.MailOutboxDAO;
+import net.jforum.entities.OutboxMessage;
+import net.jforum.entities.OutboxRecipient;
+import net.jforum.util.concurrent.NamedThreadFactory;
+import net.jforum.util.preferences.ConfigKeys;
+import net.jforum.util.preferences.SystemGlobals;
+import net.jforum.util.stats.Stats;
+import net.jforum.util.stats.StatsEvent;
+
+/**
+ * Sends mail in the background, using a few worker threads which share
+ * a {@link SmtpConnectionPool} and a {@link TokenBucket} per server.
+ * <p>
+ * Messages are stored in the outbox tables before being queued, and removed
+ * once sent, so failed deliveries are retried with an increasing delay and
+ * nothing is lost on a restart. Deliveries which do not fit in the queue stay
+ * in the outbox and are picked up by the periodic sweep. When the outbox
+ * cannot be written, messages are kept in memory only.
+ * <p>
+ * While not started, {@link Spammer} sends every message by itself.
+ */
+public final class MailDispatcher
+{
+	private static final Logger LOGGER = Logger.getLogger(MailDispatcher.class);
+	private static final String GAUGE_DEPTH = "Mail queue depth";
+	private static final String GAUGE_LATENCY = "Mail send latency (ms)";
+	private static final String GAUGE_DELIVERIES = "Mail deliveries";
+
+	/** How long a delivery taken from the outbox is reserved for this node */
+	private static final long LEASE = TimeUnit.MINUTES.toMillis(15);
+	/** How long a worker waits for a free SMTP connection */
+	private static final long BORROW_TIMEOUT = TimeUnit.MINUTES.toMillis(1);
+	/** Sent deliveries are removed from the outbox in batches of this size */
+	private static final int COMPLETED_BATCH_SIZE = 100;
+	/** The longest delay between two attempts is the retry interval times this */
+	private static final int MAX_BACKOFF_SHIFT = 6;
+
+	private static final ConcurrentMap<String, TokenBucket> RATE_LIMITERS = new ConcurrentHashMap<String, TokenBucket>();
+	private static final Set<String> IN_FLIGHT = ConcurrentHashMap.newKeySet();
+	private static final ConcurrentLinkedQueue<OutboxRecipient> COMPLETED = new ConcurrentLinkedQueue<OutboxRecipient>();
+	private static final AtomicInteger COMPLETED_SIZE = new AtomicInteger();
+	private static final AtomicBoolean FLUSHING = new AtomicBoolean();
+	private static final Object MUTEX_LIFECYCLE = new Object();
+	private static final Object MUTEX_POOL = new Object();
+
+	private static final AtomicLong SENT = new AtomicLong();
+	private static final AtomicLong RETRIED = new AtomicLong();
+	private static final AtomicLong FAILED = new AtomicLong();
+	private static final AtomicLong TOTAL_LATENCY = new AtomicLong();
+	private static volatile long lastLatency;
+
+	private static volatile boolean running;
+	private static volatile BlockingQueue<Delivery> queue;
+	private static volatile ExecutorService workers;
+	private static volatile ScheduledExecutorService scheduler;
+	private static volatile SmtpConnectionPool pool;
+	private static volatile boolean outboxEnabled;
+	private static volatile long retryInterval;
+	private static volatile int maxAttempts;
+
+	/**
+	 * Starts the workers and the outbox sweep, according to the current configuration.
+	 * Does nothing if already started, or if <i>mail.dispatcher.threads</i> is zero.
+	 */
+	public static void start()
+	{
+		synchronized (MUTEX_LIFECYCLE) {
+			final int threads = SystemGlobals.getIntValue(ConfigKeys.MAIL_DISPATCHER_THREADS);
+
+			if (running || threads <= 0) {
+				return;
+			}
+
+			outboxEnabled = SystemGlobals.getBoolValue(ConfigKeys.MAIL_OUTBOX_ENABLED);
+			retryInterval = TimeUnit.SECONDS.toMillis(Math.max(1, SystemGlobals.getIntValue(ConfigKeys.MAIL_OUTBOX_RETRY_INTERVAL)));
+			maxAttempts = Math.max(1, SystemGlobals.getIntValue(ConfigKeys.MAIL_OUTBOX_MAX_ATTEMPTS));
+			queue = new LinkedBlockingQueue<Delivery>(Math.max(1, SystemGlobals.getIntValue(ConfigKeys.MAIL_QUEUE_CAPACITY)));
+			pool = newPool(SmtpServer.fromConfig());
+			running = true;
+
+			workers = Executors.newFixedThreadPool(threads, new NamedThreadFactory("jforum-mail"));
+			for (int i = 0; i < threads; i++) {
+				workers.execute(new Worker());
+			}
+
+			scheduler = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("jforum-mail-outbox"));
+			scheduler.scheduleWithFixedDelay(new Runnable() {
+				@Override public void run() {
+					sweep();
+				}
+			}, 0, retryInterval, TimeUnit.MILLISECONDS);
+
+			Stats.registerGauge(GAUGE_DEPTH, new Stats.Gauge() {
+				@Override public Object getValue() {
+					final BlockingQueue<Delivery> current = queue;
+					return Integer.valueOf(current == null ? 0 : current.size());
+				}
+			});
+			Stats.registerGauge(GAUGE_LATENCY, new Stats.Gauge() {
+				@Override public Object getValue() {
+					final long count = SENT.get();
+					final long average = count == 0 ? 0 : TOTAL_LATENCY.get() / count;
+					return "last " + lastLatency + ", average " + average + " over " + count + " messages";
+				}
+			});
+			Stats.registerGauge(GAUGE_DELIVERIES, new Stats.Gauge() {
+				@Override public Object getValue() {
+					return "sent " + SENT.get() + ", retried " + RETRIED.get() + ", failed " + FAILED.get();
+				}
+			});
+
+			LOGGER.info("Sending mail with " + threads + " threads through " + pool.getServer()
+				+ (outboxEnabled ? ", using the outbox" : ""));
+		}
+	}
+
+	/**
+	 * Stops the workers, giving them some time to send what is queued.
+	 * Deliveries stored in the outbox are sent after the next start.
+	 */
+	public static void stop()
+	{
+		synchronized (MUTEX_LIFECYCLE) {
+			if (!running) {
+				return;
+			}
+
+			running = false;
+			scheduler.shutdownNow();
+			workers.shutdown();
+
+			try {
+				if (!workers.awaitTermination(10, TimeUnit.SECONDS)) {
+					workers.shutdownNow();
+				}
+			}
+			catch (InterruptedException e) {
+				workers.shutdownNow();
+				Thread.currentThread().interrupt();
+			}
+
+			flushCompleted();
+
+			int lost = 0;
+			for (final Delivery delivery : queue) {
+				if (!delivery.persisted) {
+					lost++;
+				}
+			}
+
+			if (lost > 0) {
+				LOGGER.warn(lost + " queued mail deliveries were not sent and are not in the outbox");
+			}
+
+			pool.close();
+			queue.clear();
+			IN_FLIGHT.clear();
+			RATE_LIMITERS.clear();
+
+			Stats.unregisterGauge(GAUGE_DEPTH);
+			Stats.unregisterGauge(GAUGE_LATENCY);
+			Stats.unregisterGauge(GAUGE_DELIVERIES);
+		}
+	}
+
+	public static boolean isRunning()
+	{
+		return running;
+	}
+
+	/**
+	 * Queues a message to some recipients.
+	 *
+	 * @param message the message, in raw MIME form without the To header
+	 * @param recipients the email addresses
+	 * @return <code>true</code> if the deliveries were stored in the outbox, or
+	 * <code>false</code> if they are only in memory and would be lost on a restart
+	 */
+	public static boolean submit(final OutboxMessage message, final List<String> recipients)
+	{
+		final BlockingQueue<Delivery> current = queue;
+
+		if (outboxEnabled) {
+			// when everything fits in the queue the deliveries are leased to this node,
+			// otherwise they are due right away and the sweep queues what is left
+			final boolean fits = recipients.size() <= current.remainingCapacity();
+			final Date nextAttempt = new Date(System.currentTimeMillis() + (fits ? LEASE : 0));
+
+			final boolean persisted = withOutbox(new OutboxWork() {
+				@Override public void run(final MailOutboxDAO dao) {
+					dao.addNew(message, recipients, nextAttempt);
+				}
+			});
+
+			if (persisted) {
+				for (int i = 0; i < recipients.size(); i++) {
+					if (!offer(new Delivery(message, new OutboxRecipient(message.getId(), recipients.get(i)), true))) {
+						if (fits) {
+							// the queue filled up meanwhile, so the sweep must not wait for the lease
+							release(message, recipients.subList(i, recipients.size()));
+						}
+
+						break;
+					}
+				}
+
+				return true;
+			}
+		}
+
+		try {
+			for (final String email : recipients) {
+				current.put(new Delivery(message, new OutboxRecipient(message.getId(), email), false));
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			LOGGER.warn("Interrupted while queueing mail to " + recipients.size() + " recipients");
+		}
+
+		return false;
+	}
+
+	/**
+	 * Makes some leased deliveries due right away, for the sweep to queue them.
+	 */
+	private static void release(final OutboxMessage message, final List<String> emails)
+	{
+		final List<OutboxRecipient> list = new ArrayList<OutboxRecipient>(emails.size());
+
+		for (final String email : emails) {
+			list.add(new OutboxRecipient(message.getId(), email));
+		}
+
+		withOutbox(new OutboxWork() {
+			@Override public void run(final MailOutboxDAO dao) {
+				dao.reschedule(list, new Date());
+			}
+		});
+	}
+
+	/**
+	 * Gets the rate limiter of some server, shared by everyone sending through it.
+	 *
+	 * @param server the server
+	 * @return the rate limiter
+	 */
+	public static TokenBucket rateLimiter(final SmtpServer server)
+	{
+		TokenBucket bucket = RATE_LIMITERS.get(server.getKey());
+
+		if (bucket == null) {
+			final TokenBucket created = TokenBucket.fromSettings(SystemGlobals.getValue(ConfigKeys.MAIL_SMTP_RATE),
+				SystemGlobals.getIntValue(ConfigKeys.MAIL_SMTP_BURST),
+				SystemGlobals.getIntValue(ConfigKeys.MAIL_SMTP_DELAY));
+			bucket = RATE_LIMITERS.putIfAbsent(server.getKey(), created);
+
+			if (bucket == null) {
+				bucket = created;
+			}
+		}
+
+		return bucket;
+	}
+
+	/**
+	 * Sends a raw message to one recipient through the pool.
+	 */
+	static void send(final SmtpConnectionPool connections, final String content, final String email)
+		throws MessagingException, InterruptedException
+	{
+		final MimeMessage message = new MimeMessage(connections.getServer().getSession(),
+			new ByteArrayInputStream(content.getBytes(StandardCharsets.ISO_8859_1)));
+		final Address address = new InternetAddress(email);
+		message.setRecipient(Message.RecipientType.TO, address);
+
+		rateLimiter(connections.getServer()).acquire();
+
+		final Transport transport = connections.borrow(BORROW_TIMEOUT);
+
+		try {
+			LOGGER.debug("Sending mail to: " + email);
+			transport.sendMessage(message, new Address[] { address });
+		}
+		catch (SendFailedException e) {
+			// the server refused the message, but the connection is fine
+			connections.release(transport);
+			throw e;
+		}
+		catch (MessagingException e) {
+			connections.invalidate(transport);
+			throw e;
+		}
+
+		connections.release(transport);
+		new StatsEvent("Sent email", email).record();
+	}
+
+	private static void deliver(final Delivery delivery)
+	{
+		final String email = delivery.recipient.getEmail();
+		final long start = System.currentTimeMillis();
+
+		try {
+			send(pool, delivery.message.getContent(), email);
+
+			final long latency = System.currentTimeMillis() - start;
+			lastLatency = latency;
+			TOTAL_LATENCY.addAndGet(latency);
+			SENT.incrementAndGet();
+
+			if (delivery.persisted) {
+				complete(delivery.recipient);
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			retry(delivery, e, false);
+		}
+		catch (AddressException e) {
+			retry(delivery, e, true);
+		}
+		catch (SendFailedException e) {
+			final Address[] invalid = e.getInvalidAddresses();
+			retry(delivery, e, invalid != null && invalid.length > 0);
+		}
+		catch (Exception e) {
+			retry(delivery, e, false);
+		}
+		finally {
+			if (delivery.persisted) {
+				IN_FLIGHT.remove(delivery.key());
+			}
+		}
+	}
+
+	private static void retry(final Delivery delivery, final Exception e, final boolean permanent)
+	{
+		final OutboxRecipient recipient = delivery.recipient;
+		final int attempts = recipient.getAttempts() + 1;
+		recipient.setAttempts(attempts);
+		recipient.setLastError(e.toString());
+
+		if (permanent || attempts >= maxAttempts) {
+			FAILED.incrementAndGet();
+			LOGGER.error("Giving up sending mail to " + recipient.getEmail() + " after " + attempts + " attempts: " + e, e);
+
+			if (delivery.persisted) {
+				complete(recipient);
+			}
+
+			return;
+		}
+
+		RETRIED.incrementAndGet();
+		final long delay = retryInterval << Math.min(attempts - 1, MAX_BACKOFF_SHIFT);
+		LOGGER.warn("Could not send mail to " + recipient.getEmail() + ", will try again in " + (delay / 1000) + " seconds: " + e);
+
+		if (delivery.persisted) {
+			final List<OutboxRecipient> list = new ArrayList<OutboxRecipient>(1);
+			list.add(recipient);
+
+			withOutbox(new OutboxWork() {
+				@Override public void run(final MailOutboxDAO dao) {
+					dao.reschedule(list, new Date(System.currentTimeMillis() + delay));
+				}
+			});
+		}
+		else {
+			try {
+				scheduler.schedule(new Runnable() {
+					@Override public void run() {
+						queue.offer(delivery);
+					}
+				}, delay, TimeUnit.MILLISECONDS);
+			}
+			catch (RejectedExecutionException ree) {
+				LOGGER.warn("Mail to " + recipient.getEmail() + " will not be sent again, the dispatcher is stopping");
+			}
+		}
+	}
+
+	private static void complete(final OutboxRecipient recipient)
+	{
+		COMPLETED.add(recipient);
+
+		if (COMPLETED_SIZE.incrementAndGet() >= COMPLETED_BATCH_SIZE) {
+			flushCompleted();
+		}
+	}
+
+	/**
+	 * Removes sent and given up deliveries from the outbox.
+	 */
+	private static void flushCompleted()
+	{
+		if (!FLUSHING.compareAndSet(false, true)) {
+			return;
+		}
+
+		try {
+			final List<OutboxRecipient> list = new ArrayList<OutboxRecipient>();
+
+			for (OutboxRecipient recipient = COMPLETED.poll(); recipient != null; recipient = COMPLETED.poll()) {
+				COMPLETED_SIZE.decrementAndGet();
+				list.add(recipient);
+			}
+
+			if (!list.isEmpty()) {
+				final boolean written = withOutbox(new OutboxWork() {
+					@Override public void run(final MailOutboxDAO dao) {
+						dao.delete(list);
+					}
+				});
+
+				if (!written) {
+					COMPLETED.addAll(list);
+					COMPLETED_SIZE.addAndGet(list.size());
+				}
+			}
+		}
+		finally {
+			FLUSHING.set(false);
+		}
+	}
+
+	/**
+	 * Runs periodically: picks up the SMTP settings if changed, cleans the
+	 * outbox, and queues the deliveries which are due.
+	 */
+	private static void sweep()
+	{
+		try {
+			refreshPool();
+			flushCompleted();
+
+			if (!outboxEnabled) {
+				return;
+			}
+
+			final int room = queue.remainingCapacity();
+
+			if (room == 0) {
+				return;
+			}
+
+			final List<Delivery> due = new ArrayList<Delivery>();
+
+			withOutbox(new OutboxWork() {
+				@Override public void run(final MailOutboxDAO dao) {
+					final Date now = new Date();
+					final List<OutboxRecipient> claimed = new ArrayList<OutboxRecipient>();
+					final Map<String, OutboxMessage> messages = new HashMap<String, OutboxMessage>();
+
+					for (final OutboxRecipient recipient : dao.selectDue(now, room)) {
+						if (IN_FLIGHT.contains(Delivery.key(recipient))) {
+							continue;
+						}
+
+						OutboxMessage message = messages.get(recipient.getMessageId());
+
+						if (message == null) {
+							message = dao.selectMessage(recipient.getMessageId());
+
+							if (message == null) {
+								complete(recipient);
+								continue;
+							}
+
+							messages.put(message.getId(), message);
+						}
+
+						claimed.add(recipient);
+						due.add(new Delivery(message, recipient, true));
+					}
+
+					if (!claimed.isEmpty()) {
+						dao.reschedule(claimed, new Date(now.getTime() + LEASE));
+					}
+
+					dao.deleteOrphanMessages();
+				}
+			});
+
+			for (final Delivery delivery : due) {
+				if (!offer(delivery)) {
+					break;
+				}
+			}
+		}
+		catch (Exception e) {
+			LOGGER.error("Error while sweeping the mail outbox: " + e, e);
+		}
+	}
+
+	/**
+	 * Queues a delivery stored in the outbox, unless already queued.
+	 *
+	 * @return <code>false</code> if the queue is full
+	 */
+	private static boolean offer(final Delivery delivery)
+	{
+		if (!IN_FLIGHT.add(delivery.key())) {
+			return true;
+		}
+
+		if (!queue.offer(delivery)) {
+			// stays in the outbox, the sweep queues it later
+			IN_FLIGHT.remove(delivery.key());
+			return false;
+		}
+
+		return true;
+	}
+
+	private static void refreshPool()
+	{
+		final SmtpServer server = SmtpServer.fromConfig();
+
+		synchronized (MUTEX_POOL) {
+			if (!server.equals(pool.getServer())) {
+				LOGGER.info("SMTP settings changed, sending mail through " + server);
+				final SmtpConnectionPool old = pool;
+				pool = newPool(server);
+				old.close();
+			}
+		}
+	}
+
+	private static SmtpConnectionPool newPool(final SmtpServer server)
+	{
+		return new SmtpConnectionPool(server,
+			SystemGlobals.getIntValue(ConfigKeys.MAIL_DISPATCHER_THREADS),
+			TimeUnit.SECONDS.toMillis(SystemGlobals.getIntValue(ConfigKeys.MAIL_SMTP_POOL_IDLE)));
+	}
+
+	/**
+	 * Runs some outbox operation in its own connection and transaction, which
+	 * is committed before returning. The transaction of a request, if any, is
+	 * left alone: it commits later, when the deliveries may be already sent.
+	 *
+	 * @return whether the operation succeeded
+	 */
+	private static boolean withOutbox(final OutboxWork work)
+	{
+		final JForumExecutionContext requestContext = JForumExecutionContext.exists()
+			? JForumExecutionContext.get()
+			: null;
+
+		JForumExecutionContext.set(new JForumExecutionContext());
+
+		try {
+			work.run(DataAccessDriver.getInstance().newMailOutboxDAO());
+			JForumExecutionContext.commit();
+			return true;
+		}
+		catch (Exception e) {
+			LOGGER.error("Error while writing the mail outbox: " + e, e);
+			JForumExecutionContext.enableRollback();
+			return false;
+		}
+		finally {
+			JForumExecutionContext.finish();
+			JForumExecutionContext.set(requestContext);
+		}
+	}
+
+	private interface OutboxWork
+	{
+		void run(MailOutboxDAO dao);
+	}
+
+	private static final class Delivery
+	{
+		final OutboxMessage message;
+		final OutboxRecipient recipient;
+		final boolean persisted;
+
+		Delivery(final OutboxMessage message, final OutboxRecipient recipient, final boolean persisted)
+		{
+			this.message = message;
+			this.recipient = recipient;
+			this.persisted = persisted;
+		}
+
+		String key()
+		{
+			return key(this.recipient);
+		}
+
+		static String key(final OutboxRecipient recipient)
+		{
+			return recipient.getMessageId() + '\n' + recipient.getEmail();
+		}
+	}
+
+	private static final class Worker implements Runnable
+	{
+		@Override public void run()
+		{
+			while (running || !queue.isEmpty()) {
+				try {
+					final Delivery delivery = queue.poll(1, TimeUnit.SECONDS);
+
+					if (delivery != null) {
+						deliver(delivery);
+					}
+				}
+				catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+				catch (Exception e) {
+					LOGGER.error("Unexpected error while sending mail: " + e, e);
+				}
+			}
+		}
+	}
+
+	private MailDispatcher() {}
+}
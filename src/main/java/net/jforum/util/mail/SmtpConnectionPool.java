@@ -0,0 +1,241 @@
+/*
+ * Copyright (c) JForum Team
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, 
+ * with or without modification, are permitted provided 
+ * that the following conditions are met:
+ * 
+ * 1) Redistributions of source code must retain the above 
+ * copyright notice, this list of conditions and the 
+ * following disclaimer.
+ * 2) Redistributions in binary form must reproduce the 
+ * above copyright notice, this list of conditions and 
+ * the following disclaimer in the documentation and/or 
+ * other materials provided with the distribution.
+ * 3) Neither the name of "Rafael Steil" nor 
+ * the names of its contributors may be used to endorse 
+ * or promote products derived from this software without 
+ * specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT 
+ * HOLDERS AND CONTRIBUTORS "AS IS" AND ANY 
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, 
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF 
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR 
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL 
+ * THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, 
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, 
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER 
+ * IN CONTRACT, STRICT LIABILITY, OR TORT 
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN 
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF 
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE
+ * 
+ * The JForum Project
+ * http://www.jforum.net
+ */
+package net.jforum.util.mail;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.TimeUnit;
+
+import javax.mail.MessagingException;
+import javax.mail.Transport;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Keeps connected, authenticated transports to one {@link SmtpServer},
+ * so a burst of notifications does not open a new connection and
+ * log in again for every message.
+ * <p>
+ * At most <code>size</code> transports exist at any time; callers
+ * wait for one to be released when all are in use. Transports idle 
+ * for longer than the idle timeout are closed instead of reused, 
+ * as servers drop such connections on their own.
+ */
+public class SmtpConnectionPool
+{
+	private static final Logger LOGGER = Logger.getLogger(SmtpConnectionPool.class);
+
+	private final SmtpServer server;
+	private final int size;
+	private final long idleTimeout;
+	private final Deque<PooledTransport> idle = new ArrayDeque<PooledTransport>();
+
+	private int open;
+	private boolean closed;
+
+	/**
+	 * @param server the server to connect to
+	 * @param size the maximum number of connections
+	 * @param idleTimeout milliseconds a connection may stay unused
+	 */
+	public SmtpConnectionPool(final SmtpServer server, final int size, final long idleTimeout)
+	{
+		this.server = server;
+		this.size = Math.max(1, size);
+		this.idleTimeout = idleTimeout;
+	}
+
+	public SmtpServer getServer()
+	{
+		return this.server;
+	}
+
+	/**
+	 * Gets a connected transport. It must be given back with
+	 * {@link #release(Transport)}, or {@link #invalidate(Transport)}
+	 * if it failed.
+	 * 
+	 * @param timeout how long to wait for a free connection, in milliseconds
+	 * @return the transport
+	 * @throws MessagingException if no connection could be made
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public Transport borrow(final long timeout) throws MessagingException, InterruptedException
+	{
+		final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+
+		while (true) {
+			PooledTransport candidate = null;
+
+			synchronized (this) {
+				if (this.closed) {
+					throw new MessagingException("The SMTP connection pool is closed");
+				}
+
+				candidate = this.idle.pollFirst();
+
+				if (candidate == null) {
+					if (this.open < this.size) {
+						this.open++;
+					}
+					else {
+						final long remaining = deadline - System.nanoTime();
+
+						if (remaining <= 0) {
+							throw new MessagingException("Timeout waiting for a SMTP connection to " + this.server);
+						}
+
+						TimeUnit.NANOSECONDS.timedWait(this, remaining);
+						continue;
+					}
+				}
+			}
+
+			if (candidate != null) {
+				if (System.currentTimeMillis() - candidate.releasedAt < this.idleTimeout && candidate.transport.isConnected()) {
+					return candidate.transport;
+				}
+
+				// drop it, and open a new connection in its place
+				close(candidate.transport);
+			}
+
+			try {
+				return this.server.connect();
+			}
+			catch (MessagingException e) {
+				this.discard();
+				throw e;
+			}
+			catch (RuntimeException e) {
+				this.discard();
+				throw e;
+			}
+		}
+	}
+
+	/**
+	 * Gives back a healthy transport.
+	 * 
+	 * @param transport the transport taken with {@link #borrow(long)}
+	 */
+	public void release(final Transport transport)
+	{
+		synchronized (this) {
+			if (!this.closed) {
+				this.idle.addFirst(new PooledTransport(transport));
+				this.notifyAll();
+				return;
+			}
+		}
+
+		close(transport);
+		this.discard();
+	}
+
+	/**
+	 * Closes a transport which failed, freeing its slot.
+	 * 
+	 * @param transport the transport taken with {@link #borrow(long)}
+	 */
+	public void invalidate(final Transport transport)
+	{
+		close(transport);
+		this.discard();
+	}
+
+	/**
+	 * Closes all idle connections. Connections in use are 
+	 * closed when released.
+	 */
+	public void close()
+	{
+		final PooledTransport[] toClose;
+
+		synchronized (this) {
+			this.closed = true;
+			toClose = this.idle.toArray(new PooledTransport[this.idle.size()]);
+			this.open -= toClose.length;
+			this.idle.clear();
+			this.notifyAll();
+		}
+
+		for (final PooledTransport pooled : toClose) {
+			close(pooled.transport);
+		}
+	}
+
+	/**
+	 * @return the number of open connections, idle or in use
+	 */
+	public synchronized int getOpenConnections()
+	{
+		return this.open;
+	}
+
+	private synchronized void discard()
+	{
+		this.open--;
+		this.notifyAll();
+	}
+
+	private static void close(final Transport transport)
+	{
+		try {
+			transport.close();
+		}
+		catch (Exception e) {
+			LOGGER.debug("Error while closing SMTP connection: " + e);
+		}
+	}
+
+	private static final class PooledTransport
+	{
+		final Transport transport;
+		final long releasedAt = System.currentTimeMillis();
+
+		PooledTransport(final Transport transport)
+		{
+			this.transport = transport;
+		}
+	}
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright (c) JForum Team
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, 
+ * with or without modification, are permitted provided 
+ * that the following conditions are met:
+ * 
+ * 1) Redistributions of source code must retain the above 
+ * copyright notice, this list of conditions and the 
+ * following disclaimer.
+ * 2) Redistributions in binary form must reproduce the 
+ * above copyright notice, this list of conditions and 
+ * the following disclaimer in the documentation and/or 
+ * other materials provided with the distribution.
+ * 3) Neither the name of "Rafael Steil" nor 
+ * the names of its contributors may be used to endorse 
+ * or promote products derived from this software without 
+ * specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT 
+ * HOLDERS AND CONTRIBUTORS "AS IS" AND ANY 
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, 
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF 
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR 
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL 
+ * THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, 
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, 
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER 
+ * IN CONTRACT, STRICT LIABILITY, OR TORT 
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN 
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF 
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE
+ * 
+ * The JForum Project
+ * http://www.jforum.net
+ */
+package net.jforum.util.mail;
+
+import java.util.Properties;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.mail.MessagingException;
+import javax.mail.NoSuchProviderException;
+import javax.mail.Session;
+import javax.mail.Transport;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.log4j.Logger;
+
+import net.jforum.util.preferences.ConfigKeys;
+import net.jforum.util.preferences.SystemGlobals;
+
+/**
+ * The SMTP settings in use when an instance is created. Two instances
+ * are equal when they would connect to the same server the same way,
+ * which tells when pooled connections have to be dropped.
+ */
+public final class SmtpServer
+{
+	private static final Logger LOGGER = Logger.getLogger(SmtpServer.class);
+
+	// the regex looks for a property in form "prop_key.name=propValue"
+	private static final Pattern EXTRA_PROPS_PATTERN = Pattern.compile("([\\p{IsAlphabetic}0-9_\\-\\.]*)=(.*)$");
+
+	private final Properties properties = new Properties();
+	private final String host;
+	private final String port;
+	private final boolean ssl;
+	private final boolean auth;
+	private final String username;
+	private final String password;
+	private final Session session;
+
+	private SmtpServer()
+	{
+		this.ssl = SystemGlobals.getBoolValue(ConfigKeys.MAIL_SMTP_SSL);
+		this.auth = SystemGlobals.getBoolValue(ConfigKeys.MAIL_SMTP_AUTH);
+		this.host = SystemGlobals.getValue(ConfigKeys.MAIL_SMTP_HOST);
+		this.port = SystemGlobals.getValue(ConfigKeys.MAIL_SMTP_PORT);
+		this.username = SystemGlobals.getValue(ConfigKeys.MAIL_SMTP_USERNAME);
+		this.password = SystemGlobals.getValue(ConfigKeys.MAIL_SMTP_PASSWORD);
+
+		this.properties.put(this.ssl ? ConfigKeys.MAIL_SMTP_SSL_HOST : ConfigKeys.MAIL_SMTP_HOST, this.host);
+		this.properties.put(this.ssl ? ConfigKeys.MAIL_SMTP_SSL_PORT : ConfigKeys.MAIL_SMTP_PORT, this.port);
+
+		final String localhost = SystemGlobals.getValue(ConfigKeys.MAIL_SMTP_LOCALHOST);
+
+		if (StringUtils.isNotEmpty(localhost)) {
+			LOGGER.debug("localhost=" + localhost);
+			this.properties.put(this.ssl ? ConfigKeys.MAIL_SMTP_SSL_LOCALHOST : ConfigKeys.MAIL_SMTP_LOCALHOST, localhost);
+		}
+
+		this.properties.put("mail.mime.charset", SystemGlobals.getValue(ConfigKeys.MAIL_CHARSET));
+		this.properties.put(this.ssl ? ConfigKeys.MAIL_SMTP_SSL_AUTH : ConfigKeys.MAIL_SMTP_AUTH,
+			SystemGlobals.getValue(ConfigKeys.MAIL_SMTP_AUTH));
+		this.applyExtraMailProperties();
+
+		this.session = Session.getInstance(this.properties);
+	}
+
+	/**
+	 * @return the settings currently found in <code>SystemGlobals</code>
+	 */
+	public static SmtpServer fromConfig()
+	{
+		return new SmtpServer();
+	}
+
+	/**
+	 * Check if there any extra mail parameters to be applied to the properties before attempting to
+	 * connect to the mail server. Uses a regex matcher to avoid malformed strings.
+	 */
+	private void applyExtraMailProperties()
+	{
+		final String mailProperties = SystemGlobals.getValue(ConfigKeys.MAIL_SMTP_ADDITIONAL_PROPERTIES);
+
+		// if there are extra SMTP parameters to process
+		if (!StringUtils.isEmpty(mailProperties)) {
+			for (final String keyVal : mailProperties.split(",")) {
+				final Matcher keyValMatcher = EXTRA_PROPS_PATTERN.matcher(keyVal);
+				if (keyValMatcher.matches()) {
+					final String key = keyValMatcher.group(1).trim();
+					final String value = keyValMatcher.group(2).trim();
+					LOGGER.debug("Additional SMTP property: " + key + "=" + value);
+					this.properties.put(key, value);
+				} else {
+					LOGGER.warn("Property " + keyVal + " is not valid");
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return a new connected transport, authenticated if so configured
+	 * @throws MessagingException if the server cannot be reached or refuses the login
+	 */
+	public Transport connect() throws MessagingException
+	{
+		final Transport transport = this.newTransport();
+
+		if (this.auth && StringUtils.isNotEmpty(this.username) && StringUtils.isNotEmpty(this.password)) {
+			transport.connect(this.host, this.username, this.password);
+		}
+		else {
+			transport.connect();
+		}
+
+		return transport;
+	}
+
+	private Transport newTransport() throws NoSuchProviderException
+	{
+		return this.session.getTransport(this.ssl ? "smtps" : "smtp");
+	}
+
+	public Session getSession()
+	{
+		return this.session;
+	}
+
+	/**
+	 * @return host:port, identifying the server for rate limiting
+	 */
+	public String getKey()
+	{
+		return this.host + ":" + this.port;
+	}
+
+	@Override public boolean equals(final Object o)
+	{
+		if (this == o) {
+			return true;
+		}
+
+		if (!(o instanceof SmtpServer)) {
+			return false;
+		}
+
+		final SmtpServer other = (SmtpServer)o;
+
+		return this.properties.equals(other.properties)
+			&& StringUtils.equals(this.username, other.username)
+			&& StringUtils.equals(this.password, other.password);
+	}
+
+	@Override public int hashCode()
+	{
+		return this.properties.hashCode();
+	}
+
+	@Override public String toString()
+	{
+		return (this.ssl ? "smtps://" : "smtp://") + this.getKey();
+	}
+}
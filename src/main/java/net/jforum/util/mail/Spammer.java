@@ -42,20 +42,20 @@
  */
 package net.jforum.util.mail;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Properties;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.UUID;
 
 import javax.mail.Address;
 import javax.mail.Message;
 import javax.mail.MessagingException;
-import javax.mail.Session;
 import javax.mail.Transport;
 import javax.mail.internet.InternetAddress;
 import javax.mail.internet.MimeMessage;
@@ -67,6 +67,7 @@ import freemarker.template.SimpleHash;
 import freemarker.template.Template;
 import freemarker.template.TemplateException;
 import net.jforum.JForumExecutionContext;
+import net.jforum.entities.OutboxMessage;
 import net.jforum.entities.User;
 import net.jforum.exceptions.MailException;
 import net.jforum.util.preferences.ConfigKeys;
@@ -85,15 +86,9 @@ public class Spammer
 	private static final int MESSAGE_HTML = 0;
 	private static final int MESSAGE_TEXT = 1;
 
-	// the regex looks for a property in form "prop_key.name=propValue"
-	private static final Pattern EXTRA_PROPS_PATTERN = Pattern.compile("([\\p{IsAlphabetic}0-9_\\-\\.]*)=(.*)$");
+	private final SmtpServer server;
+	private int messageFormat;
 
-	private static int messageFormat;
-	private Session session;
-	private String username;
-	private String password;
-	
-	private Properties mailProps = new Properties();
 	private MimeMessage message;
 	private List<User> users = new ArrayList<User>();
 	private String messageId;
@@ -104,140 +99,157 @@ public class Spammer
 	
 	protected Spammer() throws MailException
 	{
-		final boolean ssl = SystemGlobals.getBoolValue(ConfigKeys.MAIL_SMTP_SSL);
-
-		final String hostProperty = this.hostProperty(ssl);
-		final String portProperty = this.portProperty(ssl);
-		final String authProperty = this.authProperty(ssl);
-		final String localhostProperty = this.localhostProperty(ssl);
+		this.server = SmtpServer.fromConfig();
 
-		mailProps.put(hostProperty, SystemGlobals.getValue(ConfigKeys.MAIL_SMTP_HOST));
-		mailProps.put(portProperty, SystemGlobals.getValue(ConfigKeys.MAIL_SMTP_PORT));
+		this.messageFormat = SystemGlobals.getValue(ConfigKeys.MAIL_MESSAGE_FORMAT).equals("html")
+			? MESSAGE_HTML
+			: MESSAGE_TEXT;
+	}
 
-		String localhost = SystemGlobals.getValue(ConfigKeys.MAIL_SMTP_LOCALHOST);
-		
-		if (StringUtils.isNotEmpty(localhost)) {
-			LOGGER.debug("localhost="+localhost);
-			mailProps.put(localhostProperty, localhost);
+	/**
+	 * Hands the messages to the {@link MailDispatcher}, which sends them in
+	 * the background. When the dispatcher is not running, they are sent right
+	 * away with {@link #sendMessages()}.
+	 *
+	 * @return <code>false</code> if some message could not be dispatched, or is
+	 * kept in memory only and would be lost on a restart
+	 */
+	public boolean dispatchMessages()
+	{
+		if (!MailDispatcher.isRunning()) {
+			this.sendMessages();
+			return true;
 		}
-		
-		mailProps.put("mail.mime.charset", SystemGlobals.getValue(ConfigKeys.MAIL_CHARSET));
-		mailProps.put(authProperty, SystemGlobals.getValue(ConfigKeys.MAIL_SMTP_AUTH));
-		applyExtraMailProperties();
 
-		username = SystemGlobals.getValue(ConfigKeys.MAIL_SMTP_USERNAME);
-		password = SystemGlobals.getValue(ConfigKeys.MAIL_SMTP_PASSWORD);
+		boolean stored = true;
 
-		messageFormat = SystemGlobals.getValue(ConfigKeys.MAIL_MESSAGE_FORMAT).equals("html") 
-			? MESSAGE_HTML
-			: MESSAGE_TEXT;
+		try {
+			for (final List<User> group : this.recipientGroups()) {
+				this.defineVariant(group.get(0));
+
+				final List<String> emails = new ArrayList<String>(group.size());
 
-		this.session = Session.getInstance(mailProps);
+				for (final User user : group) {
+					emails.add(user.getEmail());
+				}
+
+				if (!MailDispatcher.submit(new OutboxMessage(UUID.randomUUID().toString(), this.rawMessage()), emails)) {
+					stored = false;
+				}
+			}
+		}
+		catch (Exception e) {
+			LOGGER.error("Error while dispatching the message. " + e, e);
+			stored = false;
+		}
+
+		return stored;
 	}
 
 	/**
-	 * Check if there any extra mail parameters to be applied to mailProps before attempting to
-	 * connect to the mail server. Uses a regex matcher to avoid malformed strings.
+	 * Sends the messages from the calling thread, over a single connection.
+	 *
+	 * @throws MailException if some message could not be sent
 	 */
-	private void applyExtraMailProperties() {
-		String mailProperties = SystemGlobals.getValue(ConfigKeys.MAIL_SMTP_ADDITIONAL_PROPERTIES);
-
-		// if there are extra SMTP parameters to process
-		if (!StringUtils.isEmpty(mailProperties)) {
-			String[] propKeyVals = mailProperties.split(",");
-			for (String keyVal : propKeyVals) {
-				Matcher keyValMatcher = EXTRA_PROPS_PATTERN.matcher(keyVal);
-				if (keyValMatcher.matches()) {
-					String key = keyValMatcher.group(1).trim();
-					String value = keyValMatcher.group(2).trim();
-					LOGGER.debug("Additional SMTP property: " + key + "=" + value);
-					mailProps.put(key, value);
-				} else {
-					LOGGER.warn("Property " + keyVal + " is not valid");
+	public void sendMessages()
+	{
+		final List<List<User>> recipients = this.recipientGroups();
+
+		if (recipients.isEmpty()) {
+			return;
+		}
+
+		Transport transport = null;
+
+		try {
+			final TokenBucket rateLimiter = MailDispatcher.rateLimiter(this.server);
+			transport = this.server.connect();
+
+			for (final List<User> group : recipients) {
+				this.defineVariant(group.get(0));
+
+				for (final User user : group) {
+					final Address address = new InternetAddress(user.getEmail());
+					LOGGER.debug("Sending mail to: " + user.getEmail());
+					this.message.setRecipient(Message.RecipientType.TO, address);
+
+					rateLimiter.acquire();
+					transport.sendMessage(this.message, new Address[] { address });
+					new StatsEvent("Sent email", user.getEmail()).record();
 				}
 			}
 		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new MailException(e);
+		}
+		catch (Exception e) {
+			throw new MailException(e);
+		}
+		finally {
+			if (transport != null) {
+				try { transport.close(); } catch (Exception e) { LOGGER.error(e); }
+			}
+		}
 	}
 
-	public boolean dispatchMessages()
+	/**
+	 * Groups the users with an email address by the message they get.
+	 * Without customization everybody gets the same message, otherwise
+	 * each user gets their own, as it may show their name, links or tokens.
+	 *
+	 * @return the groups, none of them empty
+	 */
+	private List<List<User>> recipientGroups()
 	{
-        try
-        {
-            int sendDelay = SystemGlobals.getIntValue(ConfigKeys.MAIL_SMTP_DELAY);
-            
-			if (SystemGlobals.getBoolValue(ConfigKeys.MAIL_SMTP_AUTH)) {
-				if (StringUtils.isNotEmpty(username) && StringUtils.isNotEmpty(password)) {
-                	boolean ssl = SystemGlobals.getBoolValue(ConfigKeys.MAIL_SMTP_SSL);
-
-                    Transport transport = this.session.getTransport(ssl ? "smtps" : "smtp");
-                    
-                    try {
-	                    String host = SystemGlobals.getValue(ConfigKeys.MAIL_SMTP_HOST);
-
-	                    transport.connect(host, username, password);
-	
-	                    if (transport.isConnected()) {
-	                        for (Iterator<User> userIter = this.users.iterator(); userIter.hasNext(); ) {
-	                        	User user = userIter.next();
-	                        	
-	                        	if (this.needCustomization) {
-	                        		this.defineUserMessage(user);
-	                        	}
-	                        	
-	                        	if (StringUtils.isNotEmpty(user.getEmail())) {
-	                        		Address address = new InternetAddress(user.getEmail());	                        	
-	                        		LOGGER.debug("Sending mail to: " + user.getEmail());	                        	
-	                        		this.message.setRecipient(Message.RecipientType.TO, address);	                            
-									new StatsEvent("Sent email", user.getEmail()).record();
-	                        		transport.sendMessage(this.message, new Address[] { address });
-	                        	}
-	                        	if (sendDelay > 0) {
-		                        	try {
-		                            	Thread.sleep(sendDelay);
-		                            } catch (InterruptedException ie) {
-		                            	LOGGER.error("Error while Thread.sleep." + ie, ie);
-		                            }
-	                        	}
-	                        }
-	                    }
-                    } catch (Exception e) {
-                    	throw new MailException(e);
-                    }
-                    finally {
-                    	try { transport.close(); } catch (Exception e) { LOGGER.error(e); }
-                    }
-                }
-            }
-            else {
-            	for (Iterator<User> iter = this.users.iterator(); iter.hasNext();) {
-                	User user = iter.next();
-                	
-                	if (this.needCustomization) {
-                		this.defineUserMessage(user);
-                	}
-
-                	if (StringUtils.isNotEmpty(user.getEmail())) {
-                		Address address = new InternetAddress(user.getEmail());
-                		LOGGER.debug("Sending mail to: " + user.getEmail());
-                		this.message.setRecipient(Message.RecipientType.TO,address);
-						new StatsEvent("Sent email", user.getEmail()).record();
-                		Transport.send(this.message, new Address[] { address });
-                	}
-                    if (sendDelay > 0) {
-	                    try {
-	                    	Thread.sleep(sendDelay);
-	                    } catch (InterruptedException ie) {
-	                    	LOGGER.error("Error while Thread.sleep." + ie, ie);
-	                    }
-                    }
-                }
-            }
-        }
-        catch (MessagingException e) {
-            LOGGER.error("Error while dispatching the message. " + e, e);
-        }
-
-        return true;
+		final List<List<User>> groups = new ArrayList<List<User>>();
+		final List<User> everybody = new ArrayList<User>();
+
+		for (Iterator<User> iter = this.users.iterator(); iter.hasNext(); ) {
+			final User user = iter.next();
+
+			if (StringUtils.isEmpty(user.getEmail())) {
+				continue;
+			}
+
+			if (this.needCustomization) {
+				groups.add(Collections.singletonList(user));
+			}
+			else {
+				everybody.add(user);
+			}
+		}
+
+		if (!everybody.isEmpty()) {
+			groups.add(everybody);
+		}
+
+		return groups;
+	}
+
+	/**
+	 * Renders the template for a group of users getting the same message.
+	 *
+	 * @param user the first user of the group, made available to the template
+	 */
+	private void defineVariant(final User user) throws MessagingException
+	{
+		if (this.needCustomization) {
+			this.defineUserMessage(user);
+		}
+
+		this.message.removeHeader("To");
+		this.message.saveChanges();
+	}
+
+	/**
+	 * @return the message, as sent over the wire
+	 */
+	private String rawMessage() throws MessagingException, IOException
+	{
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		this.message.writeTo(out);
+		return new String(out.toByteArray(), StandardCharsets.ISO_8859_1);
 	}
 
 	private void defineUserMessage(final User user)
@@ -246,12 +258,12 @@ public class Spammer
 			this.templateParams.put("user", user);
 			
 			String text = this.processTemplate();
-			int oldMessageFormat = messageFormat;
+			int oldMessageFormat = this.messageFormat;
 			if (user.notifyText()) {
-				messageFormat = MESSAGE_HTML;
+				this.messageFormat = MESSAGE_HTML;
 			}
 			this.defineMessageText(text);
-			messageFormat = oldMessageFormat;
+			this.messageFormat = oldMessageFormat;
 		}
 		catch (Exception e) {
 			throw new MailException(e);
@@ -268,11 +280,11 @@ public class Spammer
 	protected void prepareMessage(final String subject, final String messageFile) throws MailException
 	{
 		if (this.messageId != null) {
-			this.message = new IdentifiableMimeMessage(session);
+			this.message = new IdentifiableMimeMessage(this.server.getSession());
 			((IdentifiableMimeMessage)this.message).setMessageId(this.messageId);
 		}
 		else {
-			this.message = new MimeMessage(session);
+			this.message = new MimeMessage(this.server.getSession());
 		}
 		
 		this.templateParams.put("forumName", SystemGlobals.getValue(ConfigKeys.FORUM_NAME));
@@ -309,7 +321,7 @@ public class Spammer
 	{
 		String charset = SystemGlobals.getValue(ConfigKeys.MAIL_CHARSET);
 		
-		if (messageFormat == MESSAGE_HTML) {
+		if (this.messageFormat == MESSAGE_HTML) {
 			this.message.setContent(text.replaceAll("\n", "<br>"), "text/html; charset=" + charset);
 		} else {
 			this.message.setText(text);
@@ -393,32 +405,4 @@ public class Spammer
 	{
 		this.users = users;
 	}
-
-	private String localhostProperty(final boolean ssl)
-	{
-		return ssl 
-			? ConfigKeys.MAIL_SMTP_SSL_LOCALHOST
-			: ConfigKeys.MAIL_SMTP_LOCALHOST;
-	}
-
-	private String authProperty(final boolean ssl)
-	{
-		return ssl 
-			? ConfigKeys.MAIL_SMTP_SSL_AUTH
-			: ConfigKeys.MAIL_SMTP_AUTH;
-	}
-
-	private String portProperty(final boolean ssl)
-	{
-		return ssl 
-			? ConfigKeys.MAIL_SMTP_SSL_PORT
-			: ConfigKeys.MAIL_SMTP_PORT;
-	}
-
-	private String hostProperty(final boolean ssl)
-	{
-		return ssl 
-			? ConfigKeys.MAIL_SMTP_SSL_HOST
-			: ConfigKeys.MAIL_SMTP_HOST;
-	}
 }
@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) JForum Team
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, 
+ * with or without modification, are permitted provided 
+ * that the following conditions are met:
+ * 
+ * 1) Redistributions of source code must retain the above 
+ * copyright notice, this list of conditions and the 
+ * following disclaimer.
+ * 2) Redistributions in binary form must reproduce the 
+ * above copyright notice, this list of conditions and 
+ * the following disclaimer in the documentation and/or 
+ * other materials provided with the distribution.
+ * 3) Neither the name of "Rafael Steil" nor 
+ * the names of its contributors may be used to endorse 
+ * or promote products derived from this software without 
+ * specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT 
+ * HOLDERS AND CONTRIBUTORS "AS IS" AND ANY 
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, 
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF 
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR 
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL 
+ * THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, 
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, 
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER 
+ * IN CONTRACT, STRICT LIABILITY, OR TORT 
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN 
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF 
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE
+ * 
+ * The JForum Project
+ * http://www.jforum.net
+ */
+package net.jforum.util.mail;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits how many messages are handed to a SMTP server per second,
+ * while allowing short bursts. Threads asking for a token when the
+ * bucket is empty wait until one is refilled.
+ */
+public final class TokenBucket
+{
+	private final double tokensPerNano;
+	private final double capacity;
+
+	private double tokens;
+	private long lastRefill;
+
+	/**
+	 * @param ratePerSecond the sustained rate, in tokens per second. 
+	 * Zero or less means no limit.
+	 * @param burst how many tokens may be taken at once after the bucket was idle
+	 */
+	public TokenBucket(final double ratePerSecond, final int burst)
+	{
+		this.tokensPerNano = ratePerSecond <= 0 ? 0 : ratePerSecond / TimeUnit.SECONDS.toNanos(1);
+		this.capacity = Math.max(1, burst);
+		this.tokens = this.capacity;
+		this.lastRefill = System.nanoTime();
+	}
+
+	/**
+	 * Builds the bucket for the configured rate. When <i>mail.smtp.rate</i> 
+	 * is not set, the rate is derived from <i>mail.smtp.delay</i>, 
+	 * so a single message is sent every that many milliseconds.
+	 * 
+	 * @param rate the value of mail.smtp.rate, may be blank
+	 * @param burst the value of mail.smtp.burst
+	 * @param delay the value of mail.smtp.delay
+	 * @return the bucket
+	 */
+	public static TokenBucket fromSettings(final String rate, final int burst, final int delay)
+	{
+		if (rate != null && rate.trim().length() > 0) {
+			return new TokenBucket(Double.parseDouble(rate.trim()), burst);
+		}
+
+		return new TokenBucket(delay > 0 ? 1000.0 / delay : 0, 1);
+	}
+
+	public boolean isUnlimited()
+	{
+		return this.tokensPerNano == 0;
+	}
+
+	/**
+	 * Takes one token, waiting for it if needed.
+	 * 
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public void acquire() throws InterruptedException
+	{
+		if (this.isUnlimited()) {
+			return;
+		}
+
+		long wait;
+
+		synchronized (this) {
+			this.refill();
+			this.tokens -= 1;
+
+			// a negative balance is the time this caller has to wait for its token,
+			// and makes the following callers wait in line after it
+			wait = this.tokens >= 0 ? 0 : (long)Math.ceil(-this.tokens / this.tokensPerNano);
+		}
+
+		if (wait > 0) {
+			TimeUnit.NANOSECONDS.sleep(wait);
+		}
+	}
+
+	/**
+	 * Takes one token if available right now.
+	 * 
+	 * @return whether the token was taken
+	 */
+	public boolean tryAcquire()
+	{
+		if (this.isUnlimited()) {
+			return true;
+		}
+
+		synchronized (this) {
+			this.refill();
+
+			if (this.tokens >= 1) {
+				this.tokens -= 1;
+				return true;
+			}
+
+			return false;
+		}
+	}
+
+	private void refill()
+	{
+		final long now = System.nanoTime();
+		this.tokens = Math.min(this.capacity, this.tokens + (now - this.lastRefill) * this.tokensPerNano);
+		this.lastRefill = now;
+	}
+}
@@ -129,8 +129,6 @@ public final class ConfigKeys
 	public static final String ANONYMOUS_USER_ID = "anonymous.userId";
 	public static final String DEFAULT_USER_GROUP = "defaultUserGroup";
 	public static final String USER_HASH_SEQUENCE = "user.hash.sequence";
-	public static final String TOPICS_READ_TIME = "topics.tracking";
-	public static final String TOPICS_READ_TIME_BY_FORUM = "topics.tracking.byforum";
 
 	public static final String TOPIC_CACHE_ENABLED = "topic.cache.enabled";
 	public static final String TOPIC_CACHE_SIZE = "topic.cache.size";
@@ -162,8 +160,16 @@ public final class ConfigKeys
 	public static final String USERS_PER_PAGE = "usersPerPage";
 	public static final String HOTTEST_TOPICS = "topic.hottest";
 	public static final String HOTTEST_TOPICS_SORT = "topic.hottest.sort";
+	public static final String TOPIC_VIEWS_FLUSH_INTERVAL = "topic.views.flush.interval";
+	public static final String TOPIC_VIEWS_FLUSH_THRESHOLD = "topic.views.flush.threshold";
+	public static final String TOPICS_READ_FLUSH_INTERVAL = "topics.read.flush.interval";
+	public static final String TOPICS_READ_FLUSH_THRESHOLD = "topics.read.flush.threshold";
+	public static final String TOPICS_READ_CACHE_SIZE = "topics.read.cache.size";
 	public static final String POSTS_CACHE_SIZE = "posts.cache.size";
 	public static final String POSTS_CACHE_ENABLED = "posts.cache.enabled";
+	public static final String POSTS_RENDERED_CACHE_ENABLED = "posts.rendered.cache.enabled";
+	public static final String POSTS_RENDERED_CACHE_SIZE = "posts.rendered.cache.size";
+	public static final String POSTS_RENDERED_CACHE_COMPRESS = "posts.rendered.cache.compress";
 	public static final String TOP_DOWNLOADS = "top.downloads";
 
 	public static final String CAPTCHA_IGNORE_CASE = "captcha.ignore.case";
@@ -214,6 +220,18 @@ public final class ConfigKeys
 	public static final String MAIL_SMTP_PASSWORD = "mail.smtp.password";
 	public static final String MAIL_SMTP_DELAY = "mail.smtp.delay";
 	public static final String MAIL_SMTP_ADDITIONAL_PROPERTIES = "mail.smtp.additional.properties";
+	public static final String MAIL_SMTP_RATE = "mail.smtp.rate";
+	public static final String MAIL_SMTP_BURST = "mail.smtp.burst";
+	public static final String MAIL_SMTP_POOL_IDLE = "mail.smtp.pool.idle";
+	public static final String MAIL_DISPATCHER_THREADS = "mail.dispatcher.threads";
+	public static final String MAIL_QUEUE_CAPACITY = "mail.queue.capacity";
+	public static final String MAIL_OUTBOX_ENABLED = "mail.outbox.enabled";
+	public static final String MAIL_OUTBOX_RETRY_INTERVAL = "mail.outbox.retry.interval";
+	public static final String MAIL_OUTBOX_MAX_ATTEMPTS = "mail.outbox.max.attempts";
+
+	public static final String EXECUTOR_SHUTDOWN_TIMEOUT = "executor.shutdown.timeout";
+	public static final String EXECUTOR_DEFAULT = "executor.default.";
+	public static final String EXECUTOR_POOL = "executor.pool.";
 
 	public static final String MAIL_USER_EMAIL_AUTH = "mail.user.email.auth";
 	public static final String MAIL_ACTIVATION_KEY_MESSAGE_FILE = "mail.activationKey.messageFile";
@@ -242,16 +260,25 @@ public final class ConfigKeys
 	public static final String JBOSS_CACHE_PROPERTIES = "jboss.cache.properties";
 	public static final String EHCACHE_CACHE_PROPERTIES = "ehcache.cache.properties";
 	public static final String CACHE_IMPLEMENTATION = "cache.engine.implementation";
+	public static final String CACHE_CLUSTERED = "cache.engine.clustered";
+	public static final String CACHE_CONCURRENT_SEGMENTS = "cache.concurrent.segments";
+	public static final String CACHE_CONCURRENT_DEFAULT = "cache.concurrent.default.";
+	public static final String CACHE_CONCURRENT_REGION = "cache.concurrent.region.";
 
 	public static final String ATTACHMENTS_MAX_POST = "attachments.max.post";
 	public static final String ATTACHMENTS_IMAGES_CREATE_THUMB = "attachments.images.createthumb";
 	public static final String ATTACHMENTS_IMAGES_MAX_THUMB_W = "attachments.images.thumb.maxsize.w";
 	public static final String ATTACHMENTS_IMAGES_MAX_THUMB_H = "attachments.images.thumb.maxsize.h";
 	public static final String ATTACHMENTS_IMAGES_THUMB_BOX_SHOW = "attachments.images.thumb.box.show";
+	public static final String ATTACHMENTS_IMAGES_THUMB_SIZES = "attachments.images.thumb.sizes";
+	public static final String ATTACHMENTS_IMAGES_THUMB_PROGRESSIVE = "attachments.images.thumb.progressive";
 	public static final String ATTACHMENTS_ICON = "attachments.icon";
 	public static final String ATTACHMENTS_STORE_DIR = "attachments.store.dir";
 	public static final String ATTACHMENTS_UPLOAD_DIR = "attachments.upload.dir";
 	public static final String ATTACHMENTS_ANONYMOUS = "attachments.anonymous";
+	public static final String ATTACHMENTS_DOWNLOADS_FLUSH_INTERVAL = "attachments.downloads.flush.interval";
+	public static final String ATTACHMENTS_DOWNLOADS_FLUSH_THRESHOLD = "attachments.downloads.flush.threshold";
+	public static final String ATTACHMENTS_DOWNLOAD_SENDFILE = "attachments.download.sendfile";
 
 	public static final String ANNOUNCEMENT = "announcement";
 
@@ -267,6 +294,7 @@ public final class ConfigKeys
 
 	public static final String SEARCH_INDEXING_ENABLED = "search.indexing.enabled";
 	public static final String SEARCH_RESULT_LIMIT = "search.result.limit";
+	public static final String SEARCH_TOTAL_HITS_THRESHOLD = "search.total.hits.threshold";
 	public static final String EXTENSION_FIELD = "extension.field";
 
 	public static final String LDAP_SECURITY_PROTOCOL = "ldap.security.protocol";
@@ -281,6 +309,7 @@ public final class ConfigKeys
 
 	public static final String CLICKSTREAM_CONFIG = "clickstream.config";
 	public static final String IS_BOT = "clickstream.is.bot";
+	public static final String USER_AGENT_CACHE_SIZE = "user.agent.cache.size";
 
 	public static final String POSTS_NEW_DELAY = "posts.new.delay";
 	public static final String POSTS_EDIT_AFTER_REPLY = "posts.edit.after.reply";
@@ -302,6 +331,7 @@ public final class ConfigKeys
     public static final String MAIL_SUMMARY_FILE = "mail.summary.weekly.messageFile";
     public static final String SUMMARY_DAYS_BEFORE = "summary.days.before";
     public static final String SUMMARY_IS_ENABLED = "summary.enabled";
+    public static final String SUMMARY_PAGE_SIZE = "summary.page.size";
     
     public static final String STACKTRACE_MODERATORS_ONLY = "stacktrace.moderators.only";
     public static final String JFORUM_VERSION_URL = "jforum.version.url";
@@ -319,8 +349,19 @@ public final class ConfigKeys
 	public static final String LUCENE_SETTINGS = "lucene.settings";
 	public static final String LUCENE_CURRENTLY_INDEXING = "lucene.currently.indexing";
 	public static final String LUCENE_INDEXER_RAM_NUMDOCS = "lucene.indexer.ram.numdocs";
+	public static final String LUCENE_INDEXER_RAM_BUFFER = "lucene.indexer.ram.buffer";
+	public static final String LUCENE_NRT_REFRESH_INTERVAL = "lucene.nrt.refresh.interval";
+	public static final String LUCENE_COMMIT_INTERVAL = "lucene.commit.interval";
+	public static final String LUCENE_QUEUE_CAPACITY = "lucene.queue.capacity";
+	public static final String LUCENE_QUEUE_BATCH_SIZE = "lucene.queue.batch.size";
+	public static final String LUCENE_QUEUE_JOURNAL = "lucene.queue.journal";
 	public static final String LUCENE_INDEXER_DB_FETCH_COUNT = "lucene.indexer.db.fetch.count";
+	public static final String LUCENE_REINDEX_THREADS = "lucene.reindex.threads";
 	public static final String LUCENE_INDEX_ATTACHMENTS = "lucene.index.attachments";
+	public static final String LUCENE_ATTACHMENTS_TEXT_STORE = "lucene.attachments.text.store";
+	public static final String LUCENE_ATTACHMENTS_MAX_SIZE = "lucene.attachments.max.size";
+	public static final String LUCENE_ATTACHMENTS_MAX_CHARS = "lucene.attachments.max.chars";
+	public static final String LUCENE_ATTACHMENTS_TIMEOUT = "lucene.attachments.timeout";
 	public static final String LUCENE_STOPWORDs = "lucene.analyzer.stopwords";
 
 	public static final String MODERATION_LOGGING_ENABLED = "moderation.logging.enabled";
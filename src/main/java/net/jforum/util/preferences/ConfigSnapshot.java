@@ -0,0 +1,157 @@
+/*
+ * Copyright (c) JForum Team
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, 
+ * with or without modification, are permitted provided 
+ * that the following conditions are met:
+ * 
+ * 1) Redistributions of source code must retain the above 
+ * copyright notice, this list of conditions and the 
+ * following disclaimer.
+ * 2) Redistributions in binary form must reproduce the 
+ * above copyright notice, this list of conditions and 
+ * the following disclaimer in the documentation and/or 
+ * other materials provided with the distribution.
+ * 3) Neither the name of "Rafael Steil" nor 
+ * the names of its contributors may be used to endorse 
+ * or promote products derived from this software without 
+ * specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT 
+ * HOLDERS AND CONTRIBUTORS "AS IS" AND ANY 
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, 
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF 
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR 
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL 
+ * THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, 
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, 
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER 
+ * IN CONTRACT, STRICT LIABILITY, OR TORT 
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN 
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF 
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE
+ * 
+ * The JForum Project
+ * http://www.jforum.net
+ */
+package net.jforum.util.preferences;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An immutable view of the configuration, with every variable already
+ * expanded and the numbers and lists already parsed.
+ * <p>
+ * {@link SystemGlobals} builds a new snapshot whenever the configuration
+ * changes, so one snapshot may be held for the duration of a request and
+ * gives the same answers throughout it. Code running for longer should call
+ * {@link SystemGlobals#getSnapshot()} again to see changes.
+ *
+ * @see SystemGlobals#getSnapshot()
+ */
+public final class ConfigSnapshot
+{
+	private final Map<String, String> values;
+	private final Map<String, Integer> ints = new HashMap<String, Integer>();
+	private final Map<String, List<String>> lists = new HashMap<String, List<String>>();
+
+	/**
+	 * @param values the expanded values, by key
+	 */
+	ConfigSnapshot(final Map<String, String> values)
+	{
+		this.values = new HashMap<String, String>(values);
+
+		for (final Map.Entry<String, String> entry : this.values.entrySet()) {
+			final String value = entry.getValue();
+
+			try {
+				this.ints.put(entry.getKey(), Integer.valueOf(Integer.parseInt(value)));
+			}
+			catch (NumberFormatException e) {
+				// not a number, getIntValue() will complain if asked for it
+			}
+
+			final List<String> list = new ArrayList<String>();
+
+			for (final String item : value.split(",")) {
+				if (item.trim().length() > 0) {
+					list.add(item.trim());
+				}
+			}
+
+			this.lists.put(entry.getKey(), Collections.unmodifiableList(list));
+		}
+	}
+
+	/**
+	 * @param field the key
+	 * @return <code>true</code> if the key has a value
+	 */
+	public boolean contains(final String field)
+	{
+		return this.values.containsKey(field);
+	}
+
+	/**
+	 * @param field the key
+	 * @return the value, or <code>null</code> if not found
+	 */
+	public String getValue(final String field)
+	{
+		return this.values.get(field);
+	}
+
+	/**
+	 * @param field the key
+	 * @return the value
+	 * @exception NumberFormatException when the field does not exist or is not a number
+	 */
+	public int getIntValue(final String field)
+	{
+		final Integer value = this.ints.get(field);
+
+		if (value == null) {
+			throw new NumberFormatException("For key " + field + ": \"" + this.values.get(field) + "\"");
+		}
+
+		return value.intValue();
+	}
+
+	/**
+	 * @param field the key
+	 * @return <code>true</code> if the value is "true"
+	 */
+	public boolean getBoolValue(final String field)
+	{
+		return "true".equals(this.values.get(field));
+	}
+
+	/**
+	 * @param field the key
+	 * @return the comma separated items of the value, trimmed and without empty ones;
+	 * an empty list if the field does not exist
+	 */
+	public List<String> getListValue(final String field)
+	{
+		final List<String> list = this.lists.get(field);
+		return list == null ? Collections.<String>emptyList() : list;
+	}
+
+	/**
+	 * @return how many keys have a value
+	 */
+	public int size()
+	{
+		return this.values.size();
+	}
+}
@@ -50,10 +50,13 @@ import java.io.InputStream;
 import java.security.InvalidParameterException;
 import java.util.ArrayList;
 import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
 import java.util.TreeMap;
 import java.util.Vector;
 import java.util.concurrent.ConcurrentHashMap;
@@ -74,6 +77,10 @@ import net.jforum.exceptions.ForumException;
  * modified when you change a regular key's value. 
  * </p>
  * 
+ * <p>Values are read from a {@link ConfigSnapshot}, where every key is
+ * already expanded and parsed. The snapshot is built again, once, after
+ * any change to the configuration.</p>
+ * 
  * @author Rafael Steil
  * @author Pieter Olivier
  */
@@ -96,6 +103,9 @@ public final class SystemGlobals implements VariableStore
 
     private VariableExpander expander = new VariableExpander(this, "${", "}");
 
+    /** The expanded values, or <code>null</code> when they must be built again */
+    private volatile ConfigSnapshot snapshot;
+
     private SystemGlobals() {}
 
     /**
@@ -110,14 +120,17 @@ public final class SystemGlobals implements VariableStore
 
     public static void reset()
     {
-        globals.defaults.clear();
-        globals.installation.clear();
-        additionalDefaultsList.clear();
-        queries.clear();
-        transientValues.clear();
+        synchronized (globals) {
+            globals.defaults.clear();
+            globals.installation.clear();
+            additionalDefaultsList.clear();
+            queries.clear();
+            transientValues.clear();
+            globals.changed();
+        }
     }
 
-    private void buildSystem(String appPath, String mainConfigurationFile)
+    private synchronized void buildSystem(String appPath, String mainConfigurationFile)
     {
         if (mainConfigurationFile == null) {
             throw new InvalidParameterException("defaultConfig could not be null");
@@ -144,10 +157,60 @@ public final class SystemGlobals implements VariableStore
         for (File file : additionalDefaultsList) {
             loadAdditionalDefault(file);
         }
-        globals.expander.clearCache();
+        this.changed();
         debugValues( globals.installation, "installation" );
     }
 
+    /**
+     * Drops the expanded values, so they are built again on the next read.
+     */
+    private synchronized void changed()
+    {
+        this.expander.clearCache();
+        this.snapshot = null;
+    }
+
+    /**
+     * Gets the current configuration, with every value expanded and parsed. The
+     * snapshot never changes, so it may be held to read several values that
+     * must agree with each other.
+     * 
+     * @return the configuration as it is now
+     */
+    public static ConfigSnapshot getSnapshot()
+    {
+        ConfigSnapshot current = globals.snapshot;
+        return current != null ? current : globals.buildSnapshot();
+    }
+
+    private synchronized ConfigSnapshot buildSnapshot()
+    {
+        ConfigSnapshot current = this.snapshot;
+
+        if (current == null) {
+            Set<String> keys = new HashSet<String>(this.defaults.stringPropertyNames());
+            keys.addAll(this.installation.stringPropertyNames());
+            Map<String, String> values = new HashMap<String, String>(keys.size() * 2);
+
+            for (String key : keys) {
+                try {
+                    String value = this.getVariableValue(key);
+                    if (value != null) {
+                        values.put(key, value);
+                    }
+                }
+                catch (RuntimeException e) {
+                    LOGGER.warn("Could not expand the value of " + key + ": " + e);
+                }
+            }
+
+            current = new ConfigSnapshot(values);
+            this.snapshot = current;
+        }
+
+        return current;
+    }
+
     /**
      * Sets a value for some property
      * 
@@ -157,8 +220,10 @@ public final class SystemGlobals implements VariableStore
      * */
     public static void setValue(String field, String value)
     {
-        globals.installation.put(field, value);
-        globals.expander.clearCache();
+        synchronized (globals) {
+            globals.installation.put(field, value);
+            globals.changed();
+        }
     }
 
     public static void setObjectValue(String field, Object value)
@@ -193,7 +258,7 @@ public final class SystemGlobals implements VariableStore
     		LOGGER.info("Loading mainConfigurationFile " + globals.defaultConfig + " ...");
     	}
         loadProps( globals.defaults, new File( globals.defaultConfig ) );
-        globals.expander.clearCache();
+        globals.changed();
     }
 
     /**
@@ -208,11 +273,13 @@ public final class SystemGlobals implements VariableStore
         {
             files[i] = new File(file[i]);
         }
-        for ( int i = 0; i < files.length; i++ )
-        {
-            globals.loadAdditionalDefault( files[i] );
+        synchronized (globals) {
+            for ( int i = 0; i < files.length; i++ )
+            {
+                globals.loadAdditionalDefault( files[i] );
+            }
+            globals.changed();
         }
-        globals.expander.clearCache();
         debugValues( globals.installation, "installation" );
     }
 
@@ -288,6 +355,8 @@ public final class SystemGlobals implements VariableStore
 			if (saveToDB) {
 				DataAccessDriver.getInstance().newConfigDAO().update(p);
 			}
+
+			globals.changed();
         }
         catch (IOException e) {
             throw new ForumException(e);
@@ -303,7 +372,13 @@ public final class SystemGlobals implements VariableStore
      * */
     public static String getValue(String field)
     {
-        return globals.getVariableValue(field);
+        String value = getSnapshot().getValue(field);
+
+        if (value == null && LOGGER.isEnabledFor(Level.INFO)) {
+            LOGGER.info("Key '" + field + "' is not found in " + globals.defaultConfig + " and " + globals.installationConfig);
+        }
+
+        return value;
     }
 
     public static String getTransientValue(String field)
@@ -320,7 +395,7 @@ public final class SystemGlobals implements VariableStore
      */
     public static int getIntValue(String field)
     {
-        return Integer.parseInt(getValue(field));
+        return getSnapshot().getIntValue(field);
     }
 
     /**
@@ -332,7 +407,18 @@ public final class SystemGlobals implements VariableStore
      */
     public static boolean getBoolValue(String field)
     {
-        return "true".equals(getValue(field));
+        return getSnapshot().getBoolValue(field);
+    }
+
+    /**
+     * Retrieve a configuration field holding a comma separated list
+     * 
+     * @param field name of the configuration option
+     * @return The items, trimmed and without empty ones
+     */
+    public static List<String> getListValue(String field)
+    {
+        return getSnapshot().getListValue(field);
     }
 
     /**
@@ -342,7 +428,7 @@ public final class SystemGlobals implements VariableStore
      * @param field The field name to retrieve
      * @return The value of the field if present or null if not  
      */
-    @Override public String getVariableValue(String field)
+    @Override public synchronized String getVariableValue(String field)
     {
         String preExpansion = globals.installation.getProperty(field);
 
@@ -523,11 +609,14 @@ public final class SystemGlobals implements VariableStore
             else
             {
                 Map<String,String> sorted = new TreeMap<String,String>();
-                while ( keys.hasMoreElements() )
+                synchronized ( globals )
                 {
-                    String key = (String) keys.nextElement();
-                    String preExpansion = aProps.getProperty( key );
-                    sorted.put( key, globals.expander.expandVariables(preExpansion) );
+                    while ( keys.hasMoreElements() )
+                    {
+                        String key = (String) keys.nextElement();
+                        String preExpansion = aProps.getProperty( key );
+                        sorted.put( key, globals.expander.expandVariables(preExpansion) );
+                    }
                 }
 
                 for (Map.Entry<String,String> entry : sorted.entrySet())
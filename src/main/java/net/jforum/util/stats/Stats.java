@@ -47,6 +47,7 @@ import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
 
 import org.greenrobot.eventbus.EventBus;
@@ -63,6 +64,7 @@ public class Stats {
     
 	private static Stats INSTANCE = new Stats();
     private Map<String, Data> buffers = new ConcurrentHashMap<String, Data>();
+    private Map<String, Gauge> gauges = new ConcurrentHashMap<String, Gauge>();
     private Date restartTime = new Date();
 
 	public static void init() {
@@ -117,10 +119,37 @@ public class Stats {
         return result;
     }
 
+    /**
+     * Registers a value which is sampled every time the statistics are shown,
+     * such as the size of a cache or the depth of a queue.
+     */
+    public static void registerGauge(String name, Gauge gauge) {
+        INSTANCE.gauges.put(name, gauge);
+    }
+
+    public static void unregisterGauge(String name) {
+        INSTANCE.gauges.remove(name);
+    }
+
+    /**
+     * @return the current value of every registered gauge, sorted by name
+     */
+    public static Map<String, Object> getGaugeValues() {
+        Map<String, Object> values = new TreeMap<String, Object>();
+        for (Map.Entry<String, Gauge> entry : INSTANCE.gauges.entrySet()) {
+            values.put(entry.getKey(), entry.getValue().getValue());
+        }
+        return values;
+    }
+
     public static Date getRestartTime() {
         return INSTANCE.restartTime;
     }
 
+    public interface Gauge {
+        Object getValue();
+    }
+
     public static class Record implements Comparable<Object> {
         private String tag;
         private double cps;
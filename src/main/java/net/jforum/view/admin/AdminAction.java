@@ -66,6 +66,7 @@ import net.jforum.repository.ModulesRepository;
 import net.jforum.repository.SecurityRepository;
 import net.jforum.security.PermissionControl;
 import net.jforum.security.SecurityConstants;
+import net.jforum.util.concurrent.Executor;
 import net.jforum.util.preferences.ConfigKeys;
 import net.jforum.util.preferences.SystemGlobals;
 import net.jforum.util.preferences.TemplateKeys;
@@ -137,7 +138,7 @@ public class AdminAction extends Command {
 	
 	public void fetchMail() throws Exception
 	{
-		new Thread(new Runnable() {
+		Executor.execute(Executor.INTEGRATION, new Runnable() {
 			@Override public void run() {
 				try {
 					new POPListener().execute(null);
@@ -146,7 +147,7 @@ public class AdminAction extends Command {
 					LOGGER.error(e.getMessage(), e);
 				}
 			}
-		}).start();
+		});
 		
 		this.main();
 	}
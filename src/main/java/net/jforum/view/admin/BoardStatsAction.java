@@ -98,6 +98,9 @@ public class BoardStatsAction extends AdminCommand {
         } catch (Exception ex) {
             LOGGER.error(ex.getMessage());
         }
+        for (Map.Entry<String, Object> gauge : Stats.getGaugeValues().entrySet()) {
+            sysInfo.add(new Item(gauge.getKey(), String.valueOf(gauge.getValue())));
+        }
         sysInfo.sort(null);
         this.context.put("sysInfo", sysInfo);
     }
@@ -98,6 +98,7 @@ public class CacheAction extends AdminCommand
 	public void modulesReload()
 	{
 		ModulesRepository.init(SystemGlobals.getValue(ConfigKeys.CONFIG_DIR));
+		ModulesRepository.reportUnresolvedActions();
 		this.list();
 	}
 	
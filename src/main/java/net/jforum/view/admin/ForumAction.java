@@ -226,8 +226,7 @@ public class ForumAction extends AdminCommand
 			fm.setOrderDown(toChange, otherForum);
 		}
 		
-		category.changeForumOrder(toChange);
-		ForumRepository.refreshCategory(category);
+		ForumRepository.changeForumOrder(toChange);
 		
 		this.list();
 	}
@@ -101,7 +101,13 @@ public class LuceneStatsAction extends AdminCommand
 
 			this.context.put("isInformationAvailable", isInformationAvailable);
 			this.context.put("indexExists", DirectoryReader.indexExists(fsDir));
-			this.context.put("currentlyIndexing", "1".equals(SystemGlobals.getValue(ConfigKeys.LUCENE_CURRENTLY_INDEXING)));
+			boolean currentlyIndexing = "1".equals(SystemGlobals.getValue(ConfigKeys.LUCENE_CURRENTLY_INDEXING));
+			this.context.put("currentlyIndexing", currentlyIndexing);
+			this.context.put("reindexProgress", LuceneReindexer.getProgress());
+
+			if (!currentlyIndexing && this.settings() != null) {
+				this.context.put("resumeArgs", LuceneReindexer.resumeArgs(this.settings()));
+			}
 
 			if (isInformationAvailable) {
 				this.context.put("isLocked", isWriterLocked(fsDir));
@@ -151,6 +157,18 @@ public class LuceneStatsAction extends AdminCommand
 		this.list();
 	}
 
+	public void resumeIndexing()
+	{
+		LuceneReindexArgs args = LuceneReindexer.resumeArgs(this.settings());
+
+		if (args != null && !"1".equals(SystemGlobals.getValue(ConfigKeys.LUCENE_CURRENTLY_INDEXING))) {
+			LuceneReindexer reindexer = new LuceneReindexer(this.settings(), args);
+			reindexer.startBackgroundProcess();
+		}
+
+		this.list();
+	}
+
 	public void cancelIndexing()
 	{
 		SystemGlobals.setValue(ConfigKeys.LUCENE_CURRENTLY_INDEXING, "0");
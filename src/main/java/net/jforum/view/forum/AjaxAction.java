@@ -146,7 +146,7 @@ public class AjaxAction extends Command
 		Spammer s = new TestSpammer(to);
 
 		try {
-			s.dispatchMessages();
+			s.sendMessages();
 		}
 		catch (Exception e) {
 			status = StringEscapeUtils.escapeEcmaScript(e.toString());
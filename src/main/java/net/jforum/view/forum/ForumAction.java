@@ -60,6 +60,7 @@ import net.jforum.entities.Topic;
 import net.jforum.entities.TopicModerationInfo;
 import net.jforum.entities.UserSession;
 import net.jforum.repository.ForumRepository;
+import net.jforum.repository.ReadStateRepository;
 import net.jforum.repository.SecurityRepository;
 import net.jforum.security.SecurityConstants;
 import net.jforum.util.I18n;
@@ -200,7 +201,7 @@ public class ForumAction extends Command
 		this.context.put("topicsToApprove", topicsToApprove);
 
 		this.context.put("attachmentsEnabled", SecurityRepository.canAccess(SecurityConstants.PERM_ATTACHMENTS_ENABLED,
-		        Integer.toString(forumId))
+		        forumId)
 		        || SecurityRepository.canAccess(SecurityConstants.PERM_ATTACHMENTS_DOWNLOAD));
 
 		this.context.put("topics", TopicsCommon.prepareTopics(tmpTopics));
@@ -209,9 +210,9 @@ public class ForumAction extends Command
 		this.context.put("forum", forum);
 		this.context.put("pageTitle", forum.getName());
 		this.context.put("canApproveMessages", canApproveMessages);
-		this.context.put("replyOnly", !SecurityRepository.canAccess(SecurityConstants.PERM_REPLY_ONLY, Integer.toString(forum.getId())));
+		this.context.put("replyOnly", !SecurityRepository.canAccess(SecurityConstants.PERM_REPLY_ONLY, forum.getId()));
 
-		this.context.put("readonly", !SecurityRepository.canAccess(SecurityConstants.PERM_READ_ONLY_FORUMS, Integer.toString(forumId)));
+		this.context.put("readonly", !SecurityRepository.canAccess(SecurityConstants.PERM_READ_ONLY_FORUMS, forumId));
 
 		this.context.put("watching", fm.isUserSubscribed(forumId, userSession.getUserId()));
 
@@ -254,15 +255,10 @@ public class ForumAction extends Command
 	{
 		String forumId = this.request.getParameter("forum_id");
 
-		if (forumId != null) {
-			Map<Integer, Long> tracking = SessionFacade.getTopicsReadTimeByForum();
-
-			if (tracking == null) {
-				tracking = new ConcurrentHashMap<Integer, Long>();
-			}
+		int userId = SessionFacade.getUserSession().getUserId();
 
-			tracking.put(Integer.valueOf(forumId), Long.valueOf(System.currentTimeMillis()));
-			SessionFacade.setAttribute(ConfigKeys.TOPICS_READ_TIME_BY_FORUM, tracking);
+		if (forumId != null && userId != SystemGlobals.getIntValue(ConfigKeys.ANONYMOUS_USER_ID)) {
+			ReadStateRepository.markForumRead(userId, Integer.parseInt(forumId), System.currentTimeMillis());
 		}
 
 		if (forumId != null) {
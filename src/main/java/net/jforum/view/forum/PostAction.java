@@ -43,9 +43,7 @@
 package net.jforum.view.forum;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.OutputStream;
 import java.util.Collections;
 import java.util.Date;
 import java.util.Iterator;
@@ -83,13 +81,17 @@ import net.jforum.entities.User;
 import net.jforum.entities.UserSession;
 import net.jforum.exceptions.AttachmentException;
 import net.jforum.exceptions.ForumException;
+import net.jforum.repository.AttachmentDownloadCounter;
 import net.jforum.repository.ForumRepository;
 import net.jforum.repository.PostRepository;
 import net.jforum.repository.RankingRepository;
+import net.jforum.repository.ReadStateRepository;
 import net.jforum.repository.SecurityRepository;
 import net.jforum.repository.SmiliesRepository;
 import net.jforum.repository.SpamRepository;
 import net.jforum.repository.TopicRepository;
+import net.jforum.repository.TopicViewCounter;
+import net.jforum.repository.UserCardRepository;
 import net.jforum.security.PermissionControl;
 import net.jforum.security.SecurityConstants;
 import net.jforum.util.I18n;
@@ -98,6 +100,7 @@ import net.jforum.util.preferences.SystemGlobals;
 import net.jforum.util.preferences.TemplateKeys;
 import net.jforum.util.stats.StatsEvent;
 import net.jforum.view.forum.common.AttachmentCommon;
+import net.jforum.view.forum.common.FileDownload;
 import net.jforum.view.forum.common.ForumCommon;
 import net.jforum.view.forum.common.PollCommon;
 import net.jforum.view.forum.common.PostCommon;
@@ -187,12 +190,11 @@ public class PostAction extends Command
 			}
 		}
 
-		topicDao.incrementTotalViews(topic.getId());
+		TopicViewCounter.increment(topic.getId());
 		topic.setTotalViews(topic.getTotalViews() + 1);
 
 		if (us.getUserId() != anonymousUser) {
-			SessionFacade.getTopicsReadTime().put(Integer.valueOf(topic.getId()),
-				Long.valueOf(System.currentTimeMillis()));
+			ReadStateRepository.markTopicRead(us.getUserId(), topic.getId(), System.currentTimeMillis());
 		}
 
 		boolean karmaEnabled = SecurityRepository.canAccess(SecurityConstants.PERM_KARMA_ENABLED);
@@ -207,7 +209,7 @@ public class PostAction extends Command
         Category category = ForumRepository.getCategory(forum.getCategoryId());
 
 		this.setTemplateName(TemplateKeys.POSTS_LIST);
-		this.context.put("attachmentsEnabled", pc.canAccess(SecurityConstants.PERM_ATTACHMENTS_ENABLED, Integer.toString(topic.getForumId())));
+		this.context.put("attachmentsEnabled", pc.canAccess(SecurityConstants.PERM_ATTACHMENTS_ENABLED, topic.getForumId()));
 		this.context.put("canDownloadAttachments", pc.canAccess(SecurityConstants.PERM_ATTACHMENTS_DOWNLOAD));
 		this.context.put("thumbShowBox", SystemGlobals.getBoolValue(ConfigKeys.ATTACHMENTS_IMAGES_THUMB_BOX_SHOW));
 		this.context.put("am", new AttachmentCommon(this.request, topic.getForumId()));
@@ -239,19 +241,13 @@ public class PostAction extends Command
 		this.context.put("showIP", SystemGlobals.getBoolValue(ConfigKeys.IP_SHOW));
 		this.context.put("showOnline", SystemGlobals.getBoolValue(ConfigKeys.ONLINE_SHOW));
 
-		Map<Integer, User> topicPosters = topicDao.topicPosters(topic.getId());
-
-		for (Iterator<User> iter = topicPosters.values().iterator(); iter.hasNext(); ) {
-			ViewCommon.prepareUserSignature(iter.next());
-		}
-
-		this.context.put("users", topicPosters);
-		this.context.put("anonymousPosts", pc.canAccess(SecurityConstants.PERM_ANONYMOUS_POST, Integer.toString(topic.getForumId())));
+		this.context.put("users", UserCardRepository.cardsOf(helperList));
+		this.context.put("anonymousPosts", pc.canAccess(SecurityConstants.PERM_ANONYMOUS_POST, topic.getForumId()));
 		this.context.put("watching", topicDao.isUserSubscribed(topicId, SessionFacade.getUserSession().getUserId()));
 		this.context.put("pageTitle", topic.getTitle());
 		this.context.put("isAdmin", pc.canAccess(SecurityConstants.PERM_ADMINISTRATION));
-		this.context.put("readonly", !pc.canAccess(SecurityConstants.PERM_READ_ONLY_FORUMS,	Integer.toString(topic.getForumId())));
-		this.context.put("replyOnly", !pc.canAccess(SecurityConstants.PERM_REPLY_ONLY, Integer.toString(topic.getForumId())));
+		this.context.put("readonly", !pc.canAccess(SecurityConstants.PERM_READ_ONLY_FORUMS,	topic.getForumId()));
+		this.context.put("replyOnly", !pc.canAccess(SecurityConstants.PERM_REPLY_ONLY, topic.getForumId()));
 
 		this.context.put("isModerator", us.isModerator(topic.getForumId()));
 
@@ -369,7 +365,7 @@ public class PostAction extends Command
 				}
 
 				this.context.put("attachmentsEnabled", SecurityRepository.canAccess(
-						SecurityConstants.PERM_ATTACHMENTS_ENABLED, Integer.toString(topic.getForumId())));
+						SecurityConstants.PERM_ATTACHMENTS_ENABLED, topic.getForumId()));
 				this.context.put("am", new AttachmentCommon(this.request, topic.getForumId()));
 
 				topics.put(Integer.valueOf(topic.getId()), topic);
@@ -430,13 +426,12 @@ public class PostAction extends Command
 		int count = SystemGlobals.getIntValue(ConfigKeys.POSTS_PER_PAGE);
 		int start = ViewCommon.getStartPage();
 
-		Map<Integer, User> usersMap = topicDao.topicPosters(topic.getId());
 		List<Post> helperList = PostCommon.topicPosts(postDao, false, userId, topic.getId(), start, count);
 		Collections.reverse(helperList);
 
 		this.setTemplateName(TemplateKeys.POSTS_REVIEW);
 		this.context.put("posts", helperList);
-		this.context.put("users", usersMap);
+		this.context.put("users", UserCardRepository.cardsOf(helperList));
 	}
 
 	private void topicNotFound() {
@@ -458,7 +453,7 @@ public class PostAction extends Command
 	private boolean isReplyOnly(int forumId)
 	{
 		return !SecurityRepository.canAccess(SecurityConstants.PERM_REPLY_ONLY, 
-				Integer.toString(forumId));
+				forumId);
 	}
 
 	public void reply()
@@ -520,7 +515,7 @@ public class PostAction extends Command
 
 		// Attachments
 		boolean attachmentsEnabled = SecurityRepository.canAccess(
-			SecurityConstants.PERM_ATTACHMENTS_ENABLED, Integer.toString(forumId));
+			SecurityConstants.PERM_ATTACHMENTS_ENABLED, forumId);
 
 		if (attachmentsEnabled && !SessionFacade.isLogged() 
 			&& !SystemGlobals.getBoolValue(ConfigKeys.ATTACHMENTS_ANONYMOUS)) {
@@ -543,7 +538,7 @@ public class PostAction extends Command
 		this.context.put("isNewPost", true);
 		this.context.put("needCaptcha", User.needsCaptcha(userId));
 		this.context.put("htmlAllowed",
-			SecurityRepository.canAccess(SecurityConstants.PERM_HTML_DISABLED, Integer.toString(forumId)));
+			SecurityRepository.canAccess(SecurityConstants.PERM_HTML_DISABLED, forumId));
 		this.context.put("canCreateStickyOrAnnouncementTopics",
 			SecurityRepository.canAccess(SecurityConstants.PERM_CREATE_STICKY_ANNOUNCEMENT_TOPICS));
 		this.context.put("canCreatePolls",
@@ -623,7 +618,7 @@ public class PostAction extends Command
 			this.setTemplateName(TemplateKeys.POSTS_EDIT);
 
 			this.context.put("attachmentsEnabled", SecurityRepository.canAccess(
-					SecurityConstants.PERM_ATTACHMENTS_ENABLED, Integer.toString(post.getForumId())));
+					SecurityConstants.PERM_ATTACHMENTS_ENABLED, post.getForumId()));
 
 			this.context.put("moderationLoggingEnabled", SystemGlobals.getBoolValue(ConfigKeys.MODERATION_LOGGING_ENABLED));
 
@@ -642,7 +637,7 @@ public class PostAction extends Command
 			this.context.put("isModerator", isModerator);
 			this.context.put("start", this.request.getParameter("start"));
 			this.context.put("htmlAllowed", SecurityRepository.canAccess(SecurityConstants.PERM_HTML_DISABLED, 
-					Integer.toString(topic.getForumId())));
+					topic.getForumId()));
 			this.context.put("canCreateStickyOrAnnouncementTopics",
 					SecurityRepository.canAccess(SecurityConstants.PERM_CREATE_STICKY_ANNOUNCEMENT_TOPICS));
 			this.context.put("canCreatePolls",
@@ -713,7 +708,7 @@ public class PostAction extends Command
 		int userId = SessionFacade.getUserSession().getUserId();
 
 		this.context.put("attachmentsEnabled", SecurityRepository.canAccess(
-			SecurityConstants.PERM_ATTACHMENTS_ENABLED, Integer.toString(topic.getForumId())));
+			SecurityConstants.PERM_ATTACHMENTS_ENABLED, topic.getForumId()));
 
 		QuotaLimit ql = new AttachmentCommon(this.request, topic.getForumId()).getQuotaLimit(userId);
 		this.context.put("maxAttachmentsSize", Long.valueOf(ql != null ? ql.getSizeInBytes() : 1));
@@ -726,7 +721,7 @@ public class PostAction extends Command
 		this.context.put("quoteUser", user.getUsername());
 		this.context.put("setType", false);
 		this.context.put("htmlAllowed", SecurityRepository.canAccess(SecurityConstants.PERM_HTML_DISABLED, 
-			Integer.toString(topic.getForumId())));
+			topic.getForumId()));
 		this.context.put("start", this.request.getParameter("start"));
 		this.context.put("user", DataAccessDriver.getInstance().newUserDAO().selectById(userId));
 		this.context.put("pageTitle", I18n.getMessage("PostForm.reply") + " " + topic.getTitle());
@@ -1138,7 +1133,7 @@ public class PostAction extends Command
 			}
 
 			if (!firstPost && pc.canAccess(
-					SecurityConstants.PERM_REPLY_WITHOUT_MODERATION, Integer.toString(topic.getForumId()))) {
+					SecurityConstants.PERM_REPLY_WITHOUT_MODERATION, topic.getForumId())) {
 				moderate = false;
 			}
 
@@ -1223,13 +1218,11 @@ public class PostAction extends Command
 
 				TopicsCommon.updateBoardStatus(topic, postId, firstPost, topicDao, forumDao);
 				ForumRepository.updateForumStats(topic, user, post);
-				ForumRepository.reloadForum(post.getForumId());
 
 				int anonymousUser = SystemGlobals.getIntValue(ConfigKeys.ANONYMOUS_USER_ID);
 
 				if (user.getId() != anonymousUser) {
-					SessionFacade.getTopicsReadTime().put(Integer.valueOf(topic.getId()),
-						Long.valueOf(post.getTime().getTime()));
+					ReadStateRepository.markTopicRead(user.getId(), topic.getId(), post.getTime().getTime());
 				}
 
 				if (SystemGlobals.getBoolValue(ConfigKeys.POSTS_CACHE_ENABLED)) {
@@ -1474,20 +1467,15 @@ public class PostAction extends Command
 			return;
 		}
 
-		try (FileInputStream fis = new FileInputStream(filename);
-				OutputStream os = response.getOutputStream())
-			{
-			a.getInfo().setDownloadCount(a.getInfo().getDownloadCount() + 1);
-			am.updateAttachment(a);
+		try {
+			String contentType = am.isPhysicalDownloadMode(a.getInfo().getExtension().getExtensionGroupId())
+				? "application/octet-stream"
+				: a.getInfo().getMimetype();
+			this.response.setContentType(contentType);
 
-			if (am.isPhysicalDownloadMode(a.getInfo().getExtension().getExtensionGroupId())) {
-				this.response.setContentType("application/octet-stream");
-			}
-			else {
-				this.response.setContentType(a.getInfo().getMimetype());
-			}
+			String userAgent = this.request.getHeader("User-Agent");
 
-			if (this.request.getHeader("User-Agent").indexOf("Firefox") != -1) {
+			if (userAgent != null && userAgent.indexOf("Firefox") != -1) {
 				this.response.setHeader("Content-Disposition", "attachment; filename=\""
 					+ new String(a.getInfo().getRealFilename().getBytes(SystemGlobals.getValue(ConfigKeys.ENCODING)),
 						SystemGlobals.getValue(ConfigKeys.DEFAULT_CONTAINER_ENCODING)) + "\";");
@@ -1497,22 +1485,34 @@ public class PostAction extends Command
 					+ ViewCommon.toUtf8String(a.getInfo().getRealFilename()) + "\";");
 			}
 
-			this.response.setContentLength((int)a.getInfo().getFilesize());
+			// only the user's browser may cache it, as it was checked for permissions
+			this.response.setHeader("Cache-Control", "private, no-cache");
 
-			int c;
-			byte[] b = new byte[4096];
-			while ((c = fis.read(b)) != -1) {
-				os.write(b, 0, c);
-			}
+			JForumExecutionContext.enableCustomContent(true);
 
+			FileDownload download = new FileDownload(new File(filename), this.attachmentETag(a), a.getInfo().getUploadTimeInMillis());
 
-			JForumExecutionContext.enableCustomContent(true);
+			if (download.send(this.request, this.response, contentType)) {
+				AttachmentDownloadCounter.increment(a.getId());
+			}
 		}
 		catch (IOException e) {
 			throw new ForumException(e);
 		}
 	}
 
+	/**
+	 * Strong entity tag of an attachment. Attachment files are never
+	 * changed once uploaded, so the tag depends only on what identifies them.
+	 */
+	private String attachmentETag(Attachment a)
+	{
+		return Integer.toHexString(a.getId())
+			+ "-" + Long.toHexString(a.getInfo().getFilesize())
+			+ "-" + Long.toHexString(a.getInfo().getUploadTimeInMillis())
+			+ "-" + Integer.toHexString(a.getInfo().getPhysicalFilename().hashCode());
+	}
+
 	private void cannotEdit()
 	{
 		this.setTemplateName(TemplateKeys.POSTS_EDIT_CANNOTEDIT);
@@ -1532,7 +1532,7 @@ public class PostAction extends Command
 	}
 
 	private boolean isForumReadonly(int forumId, boolean isReply) {
-		if (!SecurityRepository.canAccess(SecurityConstants.PERM_READ_ONLY_FORUMS, Integer.toString(forumId))) {
+		if (!SecurityRepository.canAccess(SecurityConstants.PERM_READ_ONLY_FORUMS, forumId)) {
 			if (isReply) {
 				this.list();
 			}
@@ -1551,7 +1551,7 @@ public class PostAction extends Command
 	{
 		// Check if anonymous posts are allowed
 		if (!SessionFacade.isLogged()
-				&& !SecurityRepository.canAccess(SecurityConstants.PERM_ANONYMOUS_POST, Integer.toString(forumId))) {
+				&& !SecurityRepository.canAccess(SecurityConstants.PERM_ANONYMOUS_POST, forumId)) {
 			this.setTemplateName(ViewCommon.contextToLogin());
 
 			return false;
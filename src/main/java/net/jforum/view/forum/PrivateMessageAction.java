@@ -283,7 +283,7 @@ public class PrivateMessageAction extends Command
 			if (toUser.getEmail() != null 
 				&& toUser.getEmail().trim().length() > 0
 				&& SystemGlobals.getBoolValue(ConfigKeys.MAIL_NOTIFY_ANSWERS)) {
-				Executor.execute(new EmailSenderTask(new PrivateMessageSpammer(toUser)));
+				Executor.execute(Executor.MAIL, new EmailSenderTask(new PrivateMessageSpammer(toUser)));
 			}
 
 			new StatsEvent(Stats.ForbidDetailDisplay.SENT_PMS.toString(),
@@ -62,6 +62,7 @@ import net.jforum.entities.Post;
 import net.jforum.entities.Topic;
 import net.jforum.entities.User;
 import net.jforum.repository.ForumRepository;
+import net.jforum.repository.TopicViewCounter;
 import net.jforum.util.I18n;
 import net.jforum.util.preferences.ConfigKeys;
 import net.jforum.util.preferences.SystemGlobals;
@@ -137,7 +138,7 @@ public class RSSAction extends Command
             return;
 		}
 		
-		topicDao.incrementTotalViews(topic.getId());
+		TopicViewCounter.increment(topic.getId());
 		
 		final PostDAO postDao = DataAccessDriver.getInstance().newPostDAO();
 		final List<Post> posts = postDao.selectAllByTopic(topicId);
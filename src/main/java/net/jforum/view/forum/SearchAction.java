@@ -143,6 +143,10 @@ public class SearchAction extends Command
 		this.context.put("pageTitle", I18n.getMessage("ForumBase.search"));
 		this.context.put("openModeration", "1".equals(this.request.getParameter("openModeration")));
 		this.context.put("postsPerPage", Integer.valueOf(SystemGlobals.getIntValue(ConfigKeys.POSTS_PER_PAGE)));
+
+		if (searchResults.getCursor() != null) {
+			this.context.put("searchAfter", searchResults.getCursor());
+		}
 		
 		//ViewCommon.contextToPagination(start, results.size(), recordsPerPage);
 		ViewCommon.contextToPagination(start, searchResults.getNumberOfHits(), recordsPerPage);
@@ -159,6 +163,7 @@ public class SearchAction extends Command
         args.setOrderBy(this.request.getParameter("sort_by"));
         args.setOrderDir(this.request.getParameter("sort_dir"));
         args.startFetchingAtRecord(ViewCommon.getStartPage());
+        args.setSearchAfter(this.request.getParameter("search_after"));
         args.setMatchType(this.request.getParameter("match_type"));
 
         // setter handles these optional properties if not passed
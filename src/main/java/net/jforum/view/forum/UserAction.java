@@ -49,7 +49,6 @@ import java.util.Base64;
 import java.util.Date;
 import java.util.Iterator;
 import java.util.List;
-import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang3.StringUtils;
@@ -351,7 +350,7 @@ public class UserAction extends Command
 		int newUserId = userDao.addNew(user);
 
 		if (needMailActivation) {
-			Executor.execute(new EmailSenderTask(new ActivationKeySpammer(user)));
+			Executor.execute(Executor.MAIL, new EmailSenderTask(new ActivationKeySpammer(user)));
 
 			this.setTemplateName(TemplateKeys.USER_INSERT_ACTIVATE_MAIL);
 			this.context.put(MESSAGE, I18n.getMessage("User.GoActivateAccountMessage"));
@@ -514,7 +513,6 @@ public class UserAction extends Command
 				}
 
 				SessionFacade.add(userSession);
-				SessionFacade.setAttribute(ConfigKeys.TOPICS_READ_TIME, new ConcurrentHashMap<Integer, Long>());
 				ControllerUtils.addCookie(SystemGlobals.getValue(ConfigKeys.COOKIE_NAME_DATA), 
 					Integer.toString(user.getId()));
 
@@ -736,7 +734,7 @@ public class UserAction extends Command
 			return;
 		}
 
-		Executor.execute(new EmailSenderTask(new LostPasswordSpammer(user)));
+		Executor.execute(Executor.MAIL, new EmailSenderTask(new LostPasswordSpammer(user)));
 
 		this.setTemplateName(TemplateKeys.USER_LOSTPASSWORD_SEND);
 		this.context.put(MESSAGE, I18n.getMessage(
@@ -42,9 +42,7 @@
  */
 package net.jforum.view.forum.common;
 
-import java.awt.image.BufferedImage;
 import java.io.File;
-import java.io.IOException;
 import java.security.SecureRandom;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -55,8 +53,6 @@ import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
-import javax.imageio.ImageIO;
-
 import org.apache.commons.fileupload.FileItem;
 import org.apache.commons.lang3.ArrayUtils;
 import org.apache.log4j.Logger;
@@ -79,7 +75,7 @@ import net.jforum.repository.SecurityRepository;
 import net.jforum.security.SecurityConstants;
 import net.jforum.util.Hash;
 import net.jforum.util.I18n;
-import net.jforum.util.image.ImageUtils;
+import net.jforum.util.image.ThumbnailService;
 import net.jforum.util.preferences.ConfigKeys;
 import net.jforum.util.preferences.SystemGlobals;
 import net.jforum.util.stats.StatsEvent;
@@ -104,7 +100,7 @@ public class AttachmentCommon
 		this.attachmentDao = DataAccessDriver.getInstance().newAttachmentDAO();
 		
 		this.canProceed = SecurityRepository.canAccess(SecurityConstants.PERM_ATTACHMENTS_ENABLED, 
-			Integer.toString(forumId));
+			forumId);
 	}
 	
 	public void preProcess()
@@ -246,48 +242,14 @@ public class AttachmentCommon
 			this.attachmentDao.addAttachment(attachment);
 			entry.getKey().saveUploadedFile(path);
 			
-			if (this.shouldCreateThumb(attachment)) {
-				this.createSaveThumb(path);
+			if (attachment.hasThumb()) {
+				ThumbnailService.schedule(attachment);
 			}
 
 			new StatsEvent("File upload", entry.getKey().getOriginalName()).record();
 		}
 	}
 	
-	private boolean shouldCreateThumb(final Attachment attachment) {
-		String extension = attachment.getInfo().getExtension().getExtension().toLowerCase();
-		if (SystemGlobals.getBoolValue(ConfigKeys.ATTACHMENTS_IMAGES_CREATE_THUMB)
-            && Attachment.isPicture(extension)) {
-            String path = SystemGlobals.getValue(ConfigKeys.ATTACHMENTS_STORE_DIR)
-			     + "/" 
-			     + attachment.getInfo().getPhysicalFilename();
-		    File imageFile = new File(path);
-		    BufferedImage image = null;
-		    try {
-			    image = ImageIO.read(imageFile);
-		    } catch (IOException e) {
-		    	LOGGER.error(e.toString(), e);
-		    }
-		    int width = image.getWidth(null);
-		    int height = image.getHeight(null);
-		    return (width > SystemGlobals.getIntValue(ConfigKeys.ATTACHMENTS_IMAGES_MAX_THUMB_W) 
-		        || height > SystemGlobals.getIntValue(ConfigKeys.ATTACHMENTS_IMAGES_MAX_THUMB_H));
-        }
-        return false;
-	}
-	
-	private void createSaveThumb(final String path) {
-		try {
-			BufferedImage image = ImageUtils.resizeImage(path, ImageUtils.IMAGE_JPEG, 
-				SystemGlobals.getIntValue(ConfigKeys.ATTACHMENTS_IMAGES_MAX_THUMB_W),
-				SystemGlobals.getIntValue(ConfigKeys.ATTACHMENTS_IMAGES_MAX_THUMB_H));
-			ImageUtils.saveImage(image, path + "_thumb", ImageUtils.IMAGE_JPEG);
-		}
-		catch (Exception e) {
-			LOGGER.error(e.toString(), e);
-		}
-	}
-	
 	public QuotaLimit getQuotaLimit(final int userId)
 	{
 		QuotaLimit ql = new QuotaLimit();
@@ -355,6 +317,8 @@ public class AttachmentCommon
 						}
 					}
 					
+					ThumbnailService.delete(id, a.getInfo().getPhysicalFilename());
+					
 					// Remove the empty parent directory
 					File parent = f.getParentFile();
 					if (parent != null && ArrayUtils.nullToEmpty(parent.list()).length == 0) {
@@ -378,7 +342,7 @@ public class AttachmentCommon
 		}
 		
 		if (!SecurityRepository.canAccess(SecurityConstants.PERM_ATTACHMENTS_ENABLED, 
-				Integer.toString(forumId))
+				forumId)
 				&& !SecurityRepository.canAccess(SecurityConstants.PERM_ATTACHMENTS_DOWNLOAD)) {
 			return;
 		}
@@ -442,7 +406,7 @@ public class AttachmentCommon
 	{
 		if (!SecurityRepository.canAccess(SecurityConstants.PERM_ATTACHMENTS_DOWNLOAD)
 				&& !SecurityRepository.canAccess(SecurityConstants.PERM_ATTACHMENTS_ENABLED, 
-						Integer.toString(forumId))) {
+						forumId)) {
 			return new ArrayList<Attachment>();
 		}
 		
@@ -0,0 +1,398 @@
+/*
+ * Copyright (c) JForum Team
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, 
+ * with or without modification, are permitted provided 
+ * that the following conditions are met:
+ * 
+ * 1) Redistributions of source code must retain the above 
+ * copyright notice, this list of conditions and the 
+ * following disclaimer.
+ * 2) Redistributions in binary form must reproduce the 
+ * above copyright notice, this list of conditions and 
+ * the following disclaimer in the documentation and/or 
+ * other materials provided with the distribution.
+ * 3) Neither the name of "Rafael Steil" nor 
+ * the names of its contributors may be used to endorse 
+ * or promote products derived from this software without 
+ * specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT 
+ * HOLDERS AND CONTRIBUTORS "AS IS" AND ANY 
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, 
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF 
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR 
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL 
+ * THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, 
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, 
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER 
+ * IN CONTRACT, STRICT LIABILITY, OR TORT 
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN 
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF 
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE
+ * 
+ * The JForum Project
+ * http://www.jforum.net
+ */
+package net.jforum.view.forum.common;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.UUID;
+
+import javax.servlet.http.HttpServletResponse;
+
+import net.jforum.context.RequestContext;
+import net.jforum.context.ResponseContext;
+import net.jforum.util.preferences.ConfigKeys;
+import net.jforum.util.preferences.SystemGlobals;
+
+/**
+ * Sends a file as the response, honoring conditional requests
+ * (<i>If-None-Match</i>, <i>If-Modified-Since</i>) and byte ranges
+ * (<i>Range</i>, <i>If-Range</i>), so downloads can be cached and resumed.
+ * <p>
+ * The file is copied with {@link FileChannel#transferTo(long, long, WritableByteChannel)}.
+ * When the container supports it and <i>attachments.download.sendfile</i> is
+ * set, whole files and single ranges are handed to the container instead,
+ * which sends them straight from the disk without going through our threads.
+ */
+public class FileDownload
+{
+	private static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+	private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+	private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+	private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
+	/** Requests asking for more ranges than this get the whole file */
+	private static final int MAX_RANGES = 20;
+
+	private final File file;
+	private final String etag;
+	private final long lastModified;
+	private final long length;
+
+	/**
+	 * @param file the file to send
+	 * @param etag its strong entity tag, without quotes
+	 * @param lastModified when it was last changed, in milliseconds
+	 */
+	public FileDownload(final File file, final String etag, final long lastModified)
+	{
+		this.file = file;
+		this.etag = '"' + etag + '"';
+		this.lastModified = lastModified / 1000 * 1000;
+		this.length = file.length();
+	}
+
+	/**
+	 * Answers the request. The content type and disposition must be already set.
+	 * 
+	 * @param request the request
+	 * @param response the response
+	 * @param contentType the content type, repeated in each part of multiple range responses
+	 * @return <code>true</code> if the start of the file was sent, so the download should be counted
+	 * @throws IOException if the file could not be sent
+	 */
+	public boolean send(final RequestContext request, final ResponseContext response, final String contentType)
+		throws IOException
+	{
+		response.setHeader("ETag", this.etag);
+		response.setHeader("Last-Modified", formatDate(this.lastModified));
+		response.setHeader("Accept-Ranges", "bytes");
+
+		if (this.notModified(request)) {
+			response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+			return false;
+		}
+
+		final List<long[]> ranges = this.ranges(request);
+
+		if (ranges == null) {
+			response.setContentLengthLong(this.length);
+			this.transfer(request, response, 0, this.length);
+			return true;
+		}
+
+		if (ranges.isEmpty()) {
+			response.setHeader("Content-Range", "bytes */" + this.length);
+			response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+			return false;
+		}
+
+		response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+
+		if (ranges.size() == 1) {
+			final long[] range = ranges.get(0);
+			response.setHeader("Content-Range", this.contentRange(range));
+			response.setContentLengthLong(range[1] - range[0] + 1);
+			this.transfer(request, response, range[0], range[1] + 1);
+		}
+		else {
+			this.sendMultipart(response, contentType, ranges);
+		}
+
+		return ranges.get(0)[0] == 0;
+	}
+
+	private boolean notModified(final RequestContext request)
+	{
+		final String ifNoneMatch = request.getHeader("If-None-Match");
+
+		if (ifNoneMatch != null) {
+			for (String tag : ifNoneMatch.split(",")) {
+				tag = tag.trim();
+
+				if (tag.startsWith("W/")) {
+					tag = tag.substring(2);
+				}
+
+				if ("*".equals(tag) || this.etag.equals(tag)) {
+					return true;
+				}
+			}
+
+			return false;
+		}
+
+		final long ifModifiedSince = parseDate(request.getHeader("If-Modified-Since"));
+
+		return ifModifiedSince != -1 && this.lastModified <= ifModifiedSince;
+	}
+
+	private List<long[]> ranges(final RequestContext request)
+	{
+		final String header = request.getHeader("Range");
+
+		return header == null || !this.ifRangeMatches(request)
+			? null
+			: parseRanges(header, this.length);
+	}
+
+	/**
+	 * Parses a <i>Range</i> header.
+	 * 
+	 * @param header the header value
+	 * @param length the length of the file
+	 * @return the ranges to send, as [first, last] byte positions, sorted and merged;
+	 * empty if none can be satisfied, or <code>null</code> to send the whole file
+	 */
+	static List<long[]> parseRanges(final String header, final long length)
+	{
+		if (!header.startsWith("bytes=")) {
+			return null;
+		}
+
+		final String[] specs = header.substring("bytes=".length()).split(",");
+
+		if (specs.length > MAX_RANGES) {
+			return null;
+		}
+
+		final List<long[]> ranges = new ArrayList<long[]>();
+
+		for (final String spec : specs) {
+			final String trimmed = spec.trim();
+			final int dash = trimmed.indexOf('-');
+
+			if (dash < 0) {
+				return null;
+			}
+
+			long first;
+			long last;
+
+			try {
+				if (dash == 0) {
+					// the last N bytes
+					final long suffix = Long.parseLong(trimmed.substring(1));
+
+					if (suffix == 0) {
+						continue;
+					}
+
+					first = Math.max(0, length - suffix);
+					last = suffix < 0 ? -1 : length - 1;
+				}
+				else {
+					first = Long.parseLong(trimmed.substring(0, dash));
+					last = dash == trimmed.length() - 1
+						? Long.MAX_VALUE
+						: Long.parseLong(trimmed.substring(dash + 1));
+				}
+			}
+			catch (NumberFormatException e) {
+				return null;
+			}
+
+			if (first < 0 || last < first) {
+				// not a valid range, so the header is ignored
+				return null;
+			}
+
+			if (first < length) {
+				ranges.add(new long[] { first, Math.min(last, length - 1) });
+			}
+		}
+
+		return merge(ranges);
+	}
+
+	private boolean ifRangeMatches(final RequestContext request)
+	{
+		final String ifRange = request.getHeader("If-Range");
+
+		if (ifRange == null) {
+			return true;
+		}
+
+		if (ifRange.startsWith("\"")) {
+			return this.etag.equals(ifRange.trim());
+		}
+
+		return parseDate(ifRange) == this.lastModified;
+	}
+
+	private static List<long[]> merge(final List<long[]> ranges)
+	{
+		if (ranges.size() < 2) {
+			return ranges;
+		}
+
+		Collections.sort(ranges, (a, b) -> Long.compare(a[0], b[0]));
+
+		final List<long[]> merged = new ArrayList<long[]>();
+		long[] current = ranges.get(0);
+
+		for (int i = 1; i < ranges.size(); i++) {
+			final long[] next = ranges.get(i);
+
+			if (next[0] <= current[1] + 1) {
+				current[1] = Math.max(current[1], next[1]);
+			}
+			else {
+				merged.add(current);
+				current = next;
+			}
+		}
+
+		merged.add(current);
+
+		return merged;
+	}
+
+	private void sendMultipart(final ResponseContext response, final String contentType, final List<long[]> ranges)
+		throws IOException
+	{
+		final String boundary = UUID.randomUUID().toString().replace("-", "");
+		final List<byte[]> headers = new ArrayList<byte[]>(ranges.size());
+		final byte[] end = ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII);
+		long total = end.length;
+
+		for (final long[] range : ranges) {
+			final byte[] header = ("\r\n--" + boundary + "\r\nContent-Type: " + contentType
+				+ "\r\nContent-Range: " + this.contentRange(range) + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+			headers.add(header);
+			total += header.length + range[1] - range[0] + 1;
+		}
+
+		response.setContentType("multipart/byteranges; boundary=" + boundary);
+		response.setContentLengthLong(total);
+
+		final OutputStream out = response.getOutputStream();
+
+		try (FileChannel channel = FileChannel.open(this.file.toPath(), StandardOpenOption.READ)) {
+			final WritableByteChannel target = Channels.newChannel(out);
+
+			for (int i = 0; i < ranges.size(); i++) {
+				out.write(headers.get(i));
+				copy(channel, target, ranges.get(i)[0], ranges.get(i)[1] + 1);
+			}
+
+			out.write(end);
+		}
+	}
+
+	private void transfer(final RequestContext request, final ResponseContext response, final long start, final long end)
+		throws IOException
+	{
+		if (SystemGlobals.getBoolValue(ConfigKeys.ATTACHMENTS_DOWNLOAD_SENDFILE)
+			&& Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT))) {
+			request.setAttribute(SENDFILE_FILENAME, this.file.getCanonicalPath());
+			request.setAttribute(SENDFILE_START, Long.valueOf(start));
+			request.setAttribute(SENDFILE_END, Long.valueOf(end));
+			return;
+		}
+
+		try (FileChannel channel = FileChannel.open(this.file.toPath(), StandardOpenOption.READ)) {
+			copy(channel, Channels.newChannel(response.getOutputStream()), start, end);
+		}
+	}
+
+	private static void copy(final FileChannel channel, final WritableByteChannel target, final long start, final long end)
+		throws IOException
+	{
+		long position = start;
+
+		while (position < end) {
+			final long sent = channel.transferTo(position, end - position, target);
+
+			if (sent <= 0) {
+				// the file was truncated while being sent
+				throw new IOException("Could not send bytes " + position + " to " + end + " of the file");
+			}
+
+			position += sent;
+		}
+	}
+
+	private String contentRange(final long[] range)
+	{
+		return "bytes " + range[0] + "-" + range[1] + "/" + this.length;
+	}
+
+	private static SimpleDateFormat httpDateFormat()
+	{
+		final SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+		format.setTimeZone(TimeZone.getTimeZone("GMT"));
+		return format;
+	}
+
+	static String formatDate(final long time)
+	{
+		return httpDateFormat().format(new Date(time));
+	}
+
+	static long parseDate(final String value)
+	{
+		if (value == null) {
+			return -1;
+		}
+
+		try {
+			return httpDateFormat().parse(value.trim()).getTime();
+		}
+		catch (ParseException e) {
+			return -1;
+		}
+	}
+}
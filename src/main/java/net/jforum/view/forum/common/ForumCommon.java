@@ -45,7 +45,6 @@ package net.jforum.view.forum.common;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
 
 import org.apache.log4j.Logger;
 
@@ -54,12 +53,12 @@ import net.jforum.dao.DataAccessDriver;
 import net.jforum.dao.ForumDAO;
 import net.jforum.entities.Category;
 import net.jforum.entities.Forum;
-import net.jforum.entities.LastPostInfo;
 import net.jforum.entities.Post;
 import net.jforum.entities.Topic;
 import net.jforum.entities.User;
 import net.jforum.entities.UserSession;
 import net.jforum.repository.ForumRepository;
+import net.jforum.repository.ReadStateRepository;
 import net.jforum.util.concurrent.Executor;
 import net.jforum.util.mail.EmailSenderTask;
 import net.jforum.util.mail.ForumNewTopicSpammer;
@@ -76,27 +75,15 @@ public final class ForumCommon
 	/**
 	 * Check if some forum has unread messages.
 	 * @param forum The forum to search for unread messages 
-	 * @param tracking Tracking of the topics read by the user
-	 * @param lastVisit The last visit time of the current user
+	 * @param reader What the current user has read
 	 */
-	public static void checkUnreadPosts(final Forum forum, final Map<Integer, Long> tracking, final long lastVisit) 
+	public static void checkUnreadPosts(final Forum forum, final ReadStateRepository.Reader reader) 
 	{
-		final LastPostInfo lpi = forum.getLastPostInfo();
-		
-		if (lpi == null) {
+		if (forum.getLastPostInfo() == null) {
 			return;
 		}
 
-		final Integer topicId = Integer.valueOf(lpi.getTopicId());
-		
-		if (tracking != null && tracking.containsKey(topicId)) {
-			final long readTime = tracking.get(topicId).longValue();
-		
-			forum.setUnread(readTime > 0 && lpi.getPostTimeMillis() > readTime);
-		}
-		else {
-			forum.setUnread(lpi.getPostTimeMillis() > lastVisit);
-		}
+		forum.setUnread(reader.hasUnread(forum));
 	}
 	
 	/**
@@ -104,22 +91,18 @@ public final class ForumCommon
 	 * 
 	 * @param userSession A <code>UserSession</code> instance with user information
 	 * @param anonymousUserId The id which represents the anonymous user
-	 * @param tracking <code>Map</code> instance with information 
-	 * about the topics read by the user
 	 * @param origCheckUnreadPosts <code>true</code> if is to search for unread topics inside the forums, 
 	 * or <code>false</code> if this action is not needed. 
 	 * @return A <code>List</code> instance where each record is an instance of a <code>Category</code>
 	 * object
 	 */
 	public static List<Category> getAllCategoriesAndForums(final UserSession userSession, final int anonymousUserId, 
-			final Map<Integer, Long> tracking, boolean origCheckUnreadPosts)
+			boolean origCheckUnreadPosts)
 	{
 		boolean checkUnreadPosts = origCheckUnreadPosts;
-		long lastVisit = 0;
 		int userId = anonymousUserId;
 		
 		if (userSession != null) {
-			lastVisit = userSession.getLastVisit().getTime();
 			userId = userSession.getUserId();
 		}
 
@@ -132,13 +115,14 @@ public final class ForumCommon
 			return categories;
 		}
 
+		final ReadStateRepository.Reader reader = ReadStateRepository.readerFor(userSession);
 		final List<Category> returnCategories = new ArrayList<Category>();
 		for (Iterator<Category> iter = categories.iterator(); iter.hasNext(); ) {
 			Category category = new Category(iter.next());
 			
 			for (Iterator<Forum> tmpIterator = category.getForums().iterator(); tmpIterator.hasNext(); ) {
 				Forum forum = tmpIterator.next();
-				ForumCommon.checkUnreadPosts(forum, tracking, lastVisit);
+				ForumCommon.checkUnreadPosts(forum, reader);
 			}
 			
 			returnCategories.add(category);
@@ -148,7 +132,7 @@ public final class ForumCommon
 	}
 	
 	/**
-	 * @see #getAllCategoriesAndForums(UserSession, int, Map, boolean)
+	 * @see #getAllCategoriesAndForums(UserSession, int, boolean)
      * @return List
      * @param checkUnreadPosts boolean
 	 */
@@ -156,7 +140,6 @@ public final class ForumCommon
 	{
 		return getAllCategoriesAndForums(SessionFacade.getUserSession(), 
 				SystemGlobals.getIntValue(ConfigKeys.ANONYMOUS_USER_ID), 
-				SessionFacade.getTopicsReadTime(), 
 				checkUnreadPosts);
 	}
 	
@@ -189,7 +172,7 @@ public final class ForumCommon
 				// we only have to send an email if there are users
 				// subscribed to the topic
 				if (usersToNotify != null && !usersToNotify.isEmpty()) {
-					Executor.execute(
+					Executor.execute(Executor.MAIL,
 						new EmailSenderTask(
 							new ForumNewTopicSpammer(forum, topic, post, usersToNotify)));
 				}
@@ -47,6 +47,7 @@ import java.util.Collection;
 import java.util.Date;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -59,10 +60,10 @@ import net.jforum.dao.DataAccessDriver;
 import net.jforum.dao.PostDAO;
 import net.jforum.dao.TopicDAO;
 import net.jforum.entities.Post;
-import net.jforum.entities.Smilie;
 import net.jforum.entities.Topic;
 import net.jforum.repository.BBCodeRepository;
 import net.jforum.repository.PostRepository;
+import net.jforum.repository.RenderedPostRepository;
 import net.jforum.repository.SecurityRepository;
 import net.jforum.repository.SmiliesRepository;
 import net.jforum.security.SecurityConstants;
@@ -79,6 +80,7 @@ import net.jforum.util.preferences.SystemGlobals;
 public class PostCommon
 {
     private static final Logger LOGGER = Logger.getLogger(PostCommon.class);
+	private static final Pattern CODE_BLOCK = Pattern.compile("(\\[code.*?\\])(.*)(\\[/code\\])", Pattern.DOTALL);
 
 	public static Post preparePostForDisplay (Post post)
 	{
@@ -90,15 +92,15 @@ public class PostCommon
 		String subject = post.getSubject();
 
 		if (!post.isHtmlEnabled()) {
-			text = text.replaceAll("<", "&lt;");
-			text = text.replaceAll(">", "&gt;");
-			subject = subject.replaceAll("<", "&lt;");
-			subject = subject.replaceAll(">", "&gt;");
+			text = text.replace("<", "&lt;");
+			text = text.replace(">", "&gt;");
+			subject = subject.replace("<", "&lt;");
+			subject = subject.replace(">", "&gt;");
 		}
 
 		// Do not remove the trailing blank space, as it would
 		// cause some regular expressions to fail
-		text = text.replaceAll("\n", "<br>");
+		text = text.replace("\n", "<br>");
 
 		post.setText(SafeHtml.makeSafe(text));
 		post.setSubject(SafeHtml.makeSafe(subject));
@@ -160,7 +162,7 @@ public class PostCommon
 	private static String parseCode (String origText)
 	{
 		StringBuilder processed = new StringBuilder(origText.length());
-		Matcher contentMatcher = Pattern.compile("(\\[code.*?\\])(.*)(\\[/code\\])", Pattern.DOTALL).matcher(origText);
+		Matcher contentMatcher = CODE_BLOCK.matcher(origText);
 		if (contentMatcher.matches()) {
 			StringBuilder contents = new StringBuilder(contentMatcher.group(2));
 			ViewCommon.replaceAll(contents, "<br>", "\n");
@@ -180,16 +182,16 @@ public class PostCommon
 			BBCode bb = iter.next();
 
 			if (bb.getTagName().startsWith("code")) {
-				text = text.replaceAll(bb.getRegex(), bb.getReplace());
+				text = bb.getPattern().matcher(text).replaceAll(bb.getReplace());
 			}
 		}
 
 		// Escape & to &amp;
-		text = text.replaceAll("&", "&amp;");
-		text = text.replaceAll("&amp;lt;", "&lt;");
-		text = text.replaceAll("&amp;gt;", "&gt;");
-		text = text.replaceAll("&amp;quot;", "&quot;");
-		text = text.replaceAll("&amp;amp;", "&amp;");
+		text = text.replace("&", "&amp;");
+		text = text.replace("&amp;lt;", "&lt;");
+		text = text.replace("&amp;gt;", "&gt;");
+		text = text.replace("&amp;quot;", "&quot;");
+		text = text.replace("&amp;amp;", "&amp;");
 
 		return text;
 	}
@@ -199,21 +201,23 @@ public class PostCommon
         if (text == null) {
             return text;
         }
+        BBCodeHandler handler = BBCodeRepository.getBBCollection();
         if (isSmiliesEnabled) {
-            text = processSmilies(new StringBuilder(text));
+            text = SmiliesRepository.getMatcher().replace(text, handler.getLockedForSmilies());
         }
         if (isBBCodeEnabled && text.indexOf('[') > -1 && text.indexOf(']') > -1) {
-            for (BBCode bb : BBCodeRepository.getBBCollection().getBbList()) {
-                if (!bb.getTagName().startsWith("code")) {
+            // Codes whose tags are not in the text can't match, so their regexes are skipped
+            Set<String> tags = BBCodeHandler.findTags(text);
+            for (BBCode bb : handler.getBbList()) {
+                if (!bb.getTagName().startsWith("code") && bb.mayMatch(tags)) {
                     if (bb.isRegexpReplace()) {
                         // regular expression text replacement
-                        text = text.replaceAll(bb.getRegex(), bb.getReplace());
+                        text = bb.getPattern().matcher(text).replaceAll(bb.getReplace());
                     } else {
                         // Java code-based text replacement
                         try {
-                            Substitution subst = (Substitution) Class.forName(bb.getClassName()).getDeclaredConstructor().newInstance();
-                            Pattern pat = Pattern.compile(bb.getRegex());
-                            Matcher match = pat.matcher(text);
+                            Substitution subst = bb.getSubstitution();
+                            Matcher match = bb.getPattern().matcher(text);
                             // the counter is just in case something goes wrong and the code enters a loop
                             int count = 0;
                             while (match.find() && count < 100) {
@@ -240,66 +244,12 @@ public class PostCommon
 
 		for (Iterator<BBCode> iter = list.iterator(); iter.hasNext(); ) {
 			BBCode bb = iter.next();
-			text = text.replaceAll(bb.getRegex(), bb.getReplace());
+			text = bb.getPattern().matcher(text).replaceAll(bb.getReplace());
 		}
 
 		return text;
 	}
 
-	/**
-	 * Replace the smilies code by the respective URL.
-	 * @param origText The text to process
-	 * @return the parsed text. Note that the StringBuilder you pass as parameter
-	 * will already have the right contents, as the replaces are done on the instance
-	 */
-    private static String processSmilies (StringBuilder text)
-	{
-        List<Smilie> smilies = SmiliesRepository.getSmilies();
-        BBCodeHandler bbch = BBCodeRepository.getBBCollection();
-        for (Iterator<Smilie> iter = smilies.iterator(); iter.hasNext();) {
-            Smilie s = (Smilie) iter.next();
-            int pos = 0;
-            // The counter is used as prevention, in case
-            // the while loop turns into an always true expression, for any reason
-            int counter = 0;
-            while (pos > -1 && counter++ < 100) {
-                pos = text.indexOf(s.getCode(), pos);
-                if (pos < 0) {
-                    break;
-                }
-                // check whether this smilie is inside a UBB tag that is locked for smilies;
-                // if so, skip until the closing tag
-                int idxAfter = text.indexOf("[/", pos);
-                if (idxAfter > -1) {
-                    int idxBefore = text.substring(0, idxAfter).lastIndexOf("[");
-                    if (idxBefore > -1 && idxBefore < pos) {
-                        // yes, the smilie is inside of a UBB tag block
-                        int idx2 = text.indexOf("]", idxAfter);
-                        if (idx2 > -1) {
-                            String tag = text.substring(idxAfter + 2, idx2).trim();
-                            boolean doContinue = false;
-                            // figure out whether this tag is locked for smilies
-                            for (BBCode bbc : bbch.getBbList()) {
-                                if (tag.equals(bbc.getLockedForSmilies())) {
-                                    // log.debug("skipping smilie '" +
-                                    // s.getCode() + "' inside of tag:'" + tag + "'");
-                                    pos = idx2;
-                                    doContinue = true;
-                                    break;
-                                }
-                            }
-                            if (doContinue) {
-                                continue;
-                            }
-                        }
-                    }
-                }
-				text.replace(pos, pos + s.getCode().length(), s.getUrl());
-            }
-        }
-        return text.toString();
-    }
-
 	public static Post fillPostFromRequest()
 	{
 		Post post = new Post();
@@ -368,7 +318,7 @@ public class PostCommon
 		for (Post post : posts) {
 			post.setCanEdit(PostCommon.canEditPost(post));
 
-			helperList.add(needPrepare ? PostCommon.preparePostForDisplay(post) : post);
+			helperList.add(needPrepare ? RenderedPostRepository.prepareForDisplay(post) : post);
 
 			if (!hasCodeBlock && post.getText().indexOf("code class=\"language-") != -1) {
 				hasCodeBlock = true;
@@ -0,0 +1,351 @@
+/*
+ * Copyright (c) JForum Team
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, 
+ * with or without modification, are permitted provided 
+ * that the following conditions are met:
+ * 
+ * 1) Redistributions of source code must retain the above 
+ * copyright notice, this list of conditions and the 
+ * following disclaimer.
+ * 2) Redistributions in binary form must reproduce the 
+ * above copyright notice, this list of conditions and 
+ * the following disclaimer in the documentation and/or 
+ * other materials provided with the distribution.
+ * 3) Neither the name of "Rafael Steil" nor 
+ * the names of its contributors may be used to endorse 
+ * or promote products derived from this software without 
+ * specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT 
+ * HOLDERS AND CONTRIBUTORS "AS IS" AND ANY 
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, 
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF 
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR 
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL 
+ * THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, 
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, 
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER 
+ * IN CONTRACT, STRICT LIABILITY, OR TORT 
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN 
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF 
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE
+ * 
+ * The JForum Project
+ * http://www.jforum.net
+ */
+package net.jforum.view.forum.common;
+
+import java.util.Date;
+
+import net.jforum.entities.Topic;
+import net.jforum.entities.User;
+
+/**
+ * A topic as shown to the current user, in topic listings.
+ * The topics in the listings are shared by all users, through
+ * {@link net.jforum.repository.TopicRepository}, so whatever depends
+ * on the user, like the unread flag, is kept here instead of being set
+ * on them. Everything else comes from the shared topic, which must
+ * not be changed through this class.
+ * 
+ * @version $Id$
+ */
+public class TopicView extends Topic
+{
+	private static final long serialVersionUID = 2398518230436742917L;
+
+	private final Topic topic;
+	private final boolean read;
+	private final boolean paginate;
+	private final Double totalPages;
+
+	/**
+	 * @param topic the shared topic
+	 * @param read whether the current user has read everything in the topic
+	 * @param postsPerPage how many posts are shown in each page of the topic
+	 */
+	public TopicView(final Topic topic, final boolean read, final int postsPerPage)
+	{
+		super();
+		this.topic = topic;
+		this.read = read;
+		this.paginate = topic.getTotalReplies() + 1 > postsPerPage;
+		this.totalPages = Double.valueOf(this.paginate 
+			? Math.floor(topic.getTotalReplies() / (double)postsPerPage) 
+			: 0);
+	}
+
+	/**
+	 * @return the shared topic
+	 */
+	public Topic getTopic()
+	{
+		return this.topic;
+	}
+
+	@Override public boolean isRead()
+	{
+		return this.read;
+	}
+
+	@Override public boolean isPaginate()
+	{
+		return this.paginate;
+	}
+
+	@Override public Double getTotalPages()
+	{
+		return this.totalPages;
+	}
+
+	@Override public int getFirstPostId()
+	{
+		return this.topic.getFirstPostId();
+	}
+
+	@Override public int getId()
+	{
+		return this.topic.getId();
+	}
+
+	@Override public int getForumId()
+	{
+		return this.topic.getForumId();
+	}
+
+	@Override public int getLastPostId()
+	{
+		return this.topic.getLastPostId();
+	}
+
+	@Override public int getStatus()
+	{
+		return this.topic.getStatus();
+	}
+
+	@Override public Date getTime()
+	{
+		return this.topic.getTime();
+	}
+
+	@Override public String getTitle()
+	{
+		return this.topic.getTitle();
+	}
+
+	@Override public int getTotalReplies()
+	{
+		return this.topic.getTotalReplies();
+	}
+
+	@Override public int getTotalViews()
+	{
+		return this.topic.getTotalViews();
+	}
+
+	@Override public User getPostedBy()
+	{
+		return this.topic.getPostedBy();
+	}
+
+	@Override public User getLastPostBy()
+	{
+		return this.topic.getLastPostBy();
+	}
+
+	@Override public int getType()
+	{
+		return this.topic.getType();
+	}
+
+	@Override public boolean isVote()
+	{
+		return this.topic.isVote();
+	}
+
+	@Override public int getVoteId()
+	{
+		return this.topic.getVoteId();
+	}
+
+	@Override public boolean isModerated()
+	{
+		return this.topic.isModerated();
+	}
+
+	@Override public String getFirstPostTime()
+	{
+		return this.topic.getFirstPostTime();
+	}
+
+	@Override public String getLastPostTime()
+	{
+		return this.topic.getLastPostTime();
+	}
+
+	@Override public Date getLastEditTime()
+	{
+		return this.topic.getLastEditTime();
+	}
+
+	@Override public String getLastEditTimeStr()
+	{
+		return this.topic.getLastEditTimeStr();
+	}
+
+	@Override public Date getLastPostDate()
+	{
+		return this.topic.getLastPostDate();
+	}
+
+	@Override public boolean hasAttach()
+	{
+		return this.topic.hasAttach();
+	}
+
+	@Override public int getMovedId()
+	{
+		return this.topic.getMovedId();
+	}
+
+	@Override public void setFirstPostTime(final Date d)
+	{
+		throw readOnly();
+	}
+
+	@Override public void setLastPostTime(final Date d)
+	{
+		throw readOnly();
+	}
+
+	@Override public void setLastEditTime(final Date d)
+	{
+		throw readOnly();
+	}
+
+	@Override public void setFirstPostId(final int firstPostId)
+	{
+		throw readOnly();
+	}
+
+	@Override public void setId(final int id)
+	{
+		throw readOnly();
+	}
+
+	@Override public void setForumId(final int idForum)
+	{
+		throw readOnly();
+	}
+
+	@Override public void setLastPostId(final int lastPostId)
+	{
+		throw readOnly();
+	}
+
+	@Override public void setStatus(final int status)
+	{
+		throw readOnly();
+	}
+
+	@Override public void setTime(final Date time)
+	{
+		throw readOnly();
+	}
+
+	@Override public void setTitle(final String title)
+	{
+		throw readOnly();
+	}
+
+	@Override public void setTotalReplies(final int totalReplies)
+	{
+		throw readOnly();
+	}
+
+	@Override public void setTotalViews(final int totalViews)
+	{
+		throw readOnly();
+	}
+
+	@Override public void setType(final int type)
+	{
+		throw readOnly();
+	}
+
+	@Override public void setVoteId(final int voteId)
+	{
+		throw readOnly();
+	}
+
+	@Override public void setModerated(final boolean b)
+	{
+		throw readOnly();
+	}
+
+	@Override public void setPostedBy(final User user)
+	{
+		throw readOnly();
+	}
+
+	@Override public void setLastPostBy(final User user)
+	{
+		throw readOnly();
+	}
+
+	@Override public void setRead(final boolean read)
+	{
+		throw readOnly();
+	}
+
+	@Override public void setLastPostDate(final Date t)
+	{
+		throw readOnly();
+	}
+
+	@Override public void setPaginate(final boolean paginate)
+	{
+		throw readOnly();
+	}
+
+	@Override public void setTotalPages(final Double total)
+	{
+		throw readOnly();
+	}
+
+	@Override public void setHasAttach(final boolean b)
+	{
+		throw readOnly();
+	}
+
+	@Override public void setMovedId(final int movedId)
+	{
+		throw readOnly();
+	}
+
+	@Override public boolean equals(final Object o)
+	{
+		return this.topic.equals(o);
+	}
+
+	@Override public int hashCode()
+	{
+		return this.topic.hashCode();
+	}
+
+	@Override public String toString()
+	{
+		return this.topic.toString();
+	}
+
+	private UnsupportedOperationException readOnly()
+	{
+		return new UnsupportedOperationException("Topic " + this.topic.getId() + " is shared by all users and cannot be changed here");
+	}
+}
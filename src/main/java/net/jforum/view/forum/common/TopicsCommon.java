@@ -45,7 +45,6 @@ package net.jforum.view.forum.common;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
 
 import freemarker.template.SimpleHash;
 import net.jforum.JForumExecutionContext;
@@ -58,9 +57,9 @@ import net.jforum.entities.Post;
 import net.jforum.entities.Topic;
 import net.jforum.entities.TopicTypeComparator;
 import net.jforum.entities.User;
-import net.jforum.entities.UserSession;
 import net.jforum.repository.ForumRepository;
 import net.jforum.repository.PostRepository;
+import net.jforum.repository.ReadStateRepository;
 import net.jforum.repository.SecurityRepository;
 import net.jforum.repository.TopicRepository;
 import net.jforum.security.PermissionControl;
@@ -80,8 +79,6 @@ import net.jforum.view.forum.ModerationHelper;
  */
 public class TopicsCommon 
 {
-	private static final Object MUTEXT = new Object();
-	
 	/**
 	 * List all first 'n' topics of a given forum.
 	 * This method returns no more than <code>ConfigKeys.TOPICS_PER_PAGE</code> topics for the forum. 
@@ -102,7 +99,7 @@ public class TopicsCommon
 			topics = TopicRepository.getTopics(forumId);
 
 			if (topics.isEmpty() || !TopicRepository.isLoaded(forumId) || start+topicsPerPage >= topicCacheSize) {
-				synchronized (MUTEXT) {
+				synchronized (TopicRepository.lockFor(forumId)) {
 					if (topics.isEmpty() || !TopicRepository.isLoaded(forumId) || start+topicsPerPage >= topicCacheSize) {
 						topics = tm.selectAllByForum(forumId);
 						TopicRepository.addAll(forumId, topics);
@@ -129,64 +126,29 @@ public class TopicsCommon
 	
 	/**
 	 * Prepare the topics for listing.
-	 * This method does some preparation for a set ot <code>net.jforum.entities.Topic</code>
-	 * instances for the current user, like verification if the user already
-	 * read the topic, if pagination is a need and so on.
+	 * This method wraps each <code>net.jforum.entities.Topic</code> in a
+	 * {@link TopicView} for the current user, telling if the user already
+	 * read the topic, if pagination is a need and so on. The topics 
+	 * themselves are shared, so they are not changed.
 	 * 
 	 * @param topics The topics to process
 	 * @return The post-processed topics.
 	 */
 	public static List<Topic> prepareTopics(List<Topic> topics)
 	{
-		UserSession userSession = SessionFacade.getUserSession();
-
-		long lastVisit = userSession.getLastVisit().getTime();
+		ReadStateRepository.Reader reader = ReadStateRepository.readerFor(SessionFacade.getUserSession());
 		int postsPerPage = SystemGlobals.getIntValue(ConfigKeys.POSTS_PER_PAGE);
 		
 		List<Topic> newTopics = new ArrayList<Topic>(topics.size());
-		Map<Integer, Long> topicsReadTime = SessionFacade.getTopicsReadTime();
-		Map<Integer, Long> topicReadTimeByForum = SessionFacade.getTopicsReadTimeByForum();
-		
-		boolean checkUnread = (userSession.getUserId() 
-			!= SystemGlobals.getIntValue(ConfigKeys.ANONYMOUS_USER_ID));
 		
 		for (Iterator<Topic> iter = topics.iterator(); iter.hasNext(); ) {
-			Topic topic = (Topic)iter.next();
-			
-			boolean read = false;
-			boolean isReadByForum = false;
-			long lastPostTime = topic.getLastPostDate().getTime();
-			
-			if (topicReadTimeByForum != null) {
-				Long currentForumTime = topicReadTimeByForum.get(Integer.valueOf(topic.getForumId()));
-				isReadByForum = currentForumTime != null && lastPostTime < currentForumTime.longValue();
-			}
-			
-			boolean isTopicTimeOlder = !isReadByForum && lastPostTime <= lastVisit;
-			
-			if (!checkUnread || isReadByForum || isTopicTimeOlder) {
-				read = true;
-			}
-			else {
-				Integer topicId = Integer.valueOf(topic.getId());
-				Long currentTopicTime = topicsReadTime.get(topicId);
-				
-				if (currentTopicTime != null) {
-					read = currentTopicTime.longValue() > lastPostTime;
-				}
-			}
+			Topic topic = iter.next();
 
-			if (topic.getTotalReplies() + 1 > postsPerPage) {
-				topic.setPaginate(true);
-				topic.setTotalPages(Double.valueOf(Math.floor(topic.getTotalReplies() / (double)postsPerPage)));
-			}
-			else {
-				topic.setPaginate(false);
-				topic.setTotalPages(Double.valueOf(0));
+			if (topic instanceof TopicView) {
+				topic = ((TopicView)topic).getTopic();
 			}
 
-			topic.setRead(read);
-			newTopics.add(topic);
+			newTopics.add(new TopicView(topic, reader.isRead(topic), postsPerPage));
 		}
 		
 		return newTopics;
@@ -273,7 +235,7 @@ public class TopicsCommon
 
 			// We only have to send an email if there are users subscribed to the topic
 			if (usersToNotify != null && !usersToNotify.isEmpty()) {
-				Executor.execute(new EmailSenderTask(new TopicReplySpammer(topic, post, usersToNotify)));
+				Executor.execute(Executor.MAIL, new EmailSenderTask(new TopicReplySpammer(topic, post, usersToNotify)));
 			}
 		}
 	}
@@ -283,6 +245,8 @@ public class TopicsCommon
 	 * This method is used in conjunct with moderation manipulation. 
 	 * It will increase by 1 the number of replies of the topic, set the
 	 * last post id for the topic and the forum and refresh the cache. 
+	 * Posts in the same forum are applied one at a time, while posts 
+	 * in different forums do not wait for each other.
 	 * 
 	 * @param topic Topic The topic to update
 	 * @param lastPostId int The id of the last post
@@ -290,24 +254,26 @@ public class TopicsCommon
 	 * @param forumDao ForumDAO A ForumModel instance
      * @param firstPost boolean
 	 */
-	public static synchronized void updateBoardStatus(Topic topic, int lastPostId, boolean firstPost, 
+	public static void updateBoardStatus(Topic topic, int lastPostId, boolean firstPost, 
 		TopicDAO topicDao, ForumDAO forumDao)
 	{
-		topic.setLastPostId(lastPostId);
-		topicDao.update(topic);
+		synchronized (TopicRepository.lockFor(topic.getForumId())) {
+			topic.setLastPostId(lastPostId);
+			topicDao.update(topic);
 
-		forumDao.setLastPost(topic.getForumId(), lastPostId);
+			forumDao.setLastPost(topic.getForumId(), lastPostId);
 
-		if (firstPost) {
-			forumDao.incrementTotalTopics(topic.getForumId(), 1);
-		}
-		else {
-			topicDao.incrementTotalReplies(topic.getId());
+			if (firstPost) {
+				forumDao.incrementTotalTopics(topic.getForumId(), 1);
+			}
+			else {
+				topicDao.incrementTotalReplies(topic.getId());
+			}
+
+			TopicRepository.addTopic(topic);
 		}
 
-		TopicRepository.addTopic(topic);
 		TopicRepository.pushTopic(topic);
-
 		ForumRepository.incrementTotalMessages();
 	}
 
@@ -319,7 +285,7 @@ public class TopicsCommon
 	 * @param fromModeration boolean 
      * @param forumId int
 	 */
-	public static synchronized void deleteTopic(int topicId, int forumId, boolean fromModeration)
+	public static void deleteTopic(int topicId, int forumId, boolean fromModeration)
 	{
 		TopicDAO topicDao = DataAccessDriver.getInstance().newTopicDAO();
 		
@@ -327,7 +293,13 @@ public class TopicsCommon
 		topic.setId(topicId);
 		topic.setForumId(forumId);
 
-		topicDao.delete(topic, fromModeration);
+		synchronized (TopicRepository.lockFor(forumId)) {
+			topicDao.delete(topic, fromModeration);
+
+			if (!fromModeration) {
+				TopicRepository.clearCache(forumId);
+			}
+		}
 
 		if (!fromModeration) {
 			// Updates the Recent Topics if it contains this topic
@@ -335,7 +307,6 @@ public class TopicsCommon
 			
             // Updates the Hottest Topics if it contains this topic
 			TopicRepository.loadHottestTopics();
-			TopicRepository.clearCache(forumId);
 			PostRepository.clearCache(topicId);
 			topicDao.removeSubscriptionByTopic(topicId);
 		}
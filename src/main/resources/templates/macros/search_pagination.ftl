@@ -88,7 +88,7 @@
 		<#-- --------- -->
 		<#if (thisPage < totalPages)>
 			<#assign start = thisPage * recordsPerPage/>
-			<a href="${baseUrl}&amp;start=${start}">&#9658;</a>
+			<a href="${baseUrl}&amp;start=${start}<#if searchAfter??>&amp;search_after=${searchAfter}</#if>">&#9658;</a>
 		</#if>
 
 		<a href="#goto" onclick="return overlay(this, 'goToBox', 'rightbottom');">${I18n.getMessage("ForumIndex.goToGo")}</a>
@@ -107,7 +107,9 @@
 
 <#macro pageLink page baseUrl>
 	<#assign start = recordsPerPage * (page - 1)/>
-	<#if page != thisPage>
+	<#if page == thisPage + 1 && searchAfter??>
+		<#assign link><a href="${baseUrl}&amp;start=${start}&amp;search_after=${searchAfter}">${page}</a></#assign>
+	<#elseif page != thisPage>
 		<#assign link><a href="${baseUrl}&amp;start=${start}">${page}</a></#assign>
 	<#else>
 		<#assign link><span class="current">${page}</span></#assign>
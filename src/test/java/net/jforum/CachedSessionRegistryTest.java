@@ -0,0 +1,94 @@
+package net.jforum;
+
+import junit.framework.TestCase;
+import net.jforum.cache.CacheEngine;
+import net.jforum.cache.DefaultCacheEngine;
+import net.jforum.entities.UserSession;
+
+import org.junit.Test;
+
+public class CachedSessionRegistryTest extends TestCase
+{
+	@Test
+	public void testAddingAgainReplacesTheCount()
+	{
+		CachedSessionRegistry registry = new CachedSessionRegistry(this.newCacheEngine());
+		UserSession us = this.newUserSession(1, "a");
+
+		registry.add("a", us, SessionRegistry.Kind.ANONYMOUS);
+		registry.add("a", us, SessionRegistry.Kind.ANONYMOUS);
+		assertEquals(1, registry.anonymousCount());
+
+		us.setUserId(2);
+		registry.add("a", us, SessionRegistry.Kind.LOGGED);
+		assertEquals(0, registry.anonymousCount());
+		assertEquals(1, registry.loggedCount());
+		assertTrue(registry.sessionIdsOf(2).contains("a"));
+
+		// the user changes, but the session is still counted for the one it was added with
+		us.setUserId(3);
+		assertSame(us, registry.remove("a"));
+		assertNull(registry.remove("a"));
+		assertEquals(0, registry.loggedCount());
+		assertTrue(registry.sessionIdsOf(2).isEmpty());
+		assertTrue(registry.loggedSessions().isEmpty());
+	}
+
+	@Test
+	public void testNotCountedSessions()
+	{
+		CachedSessionRegistry registry = new CachedSessionRegistry(this.newCacheEngine());
+
+		registry.add("bot", this.newUserSession(1, "bot"), SessionRegistry.Kind.NOT_COUNTED);
+		assertEquals(1, registry.allSessions().size());
+		registry.remove("bot");
+
+		assertEquals(0, registry.anonymousCount());
+		assertEquals(0, registry.loggedCount());
+		assertTrue(registry.allSessions().isEmpty());
+	}
+
+	@Test
+	public void testNodesSharingTheEngineSeeTheSameSessions()
+	{
+		CacheEngine engine = this.newCacheEngine();
+		CachedSessionRegistry node1 = new CachedSessionRegistry(engine);
+		CachedSessionRegistry node2 = new CachedSessionRegistry(engine);
+
+		node1.add("a", this.newUserSession(2, "a"), SessionRegistry.Kind.LOGGED);
+		node2.add("b", this.newUserSession(2, "b"), SessionRegistry.Kind.LOGGED);
+		node2.add("c", this.newUserSession(1, "c"), SessionRegistry.Kind.ANONYMOUS);
+
+		assertEquals(2, node1.loggedCount());
+		assertEquals(1, node1.anonymousCount());
+		assertEquals(2, node1.sessionIdsOf(2).size());
+		assertNotNull(node2.get("a"));
+
+		node2.remove("a");
+		assertEquals(1, node1.loggedCount());
+		assertTrue(node1.sessionIdsOf(2).contains("b"));
+
+		node1.clear();
+		assertEquals(0, node2.loggedCount());
+		assertEquals(0, node2.anonymousCount());
+		assertTrue(node2.allSessions().isEmpty());
+		assertTrue(node2.sessionIdsOf(2).isEmpty());
+	}
+
+	private CacheEngine newCacheEngine()
+	{
+		CacheEngine engine = new DefaultCacheEngine();
+		engine.init();
+
+		return engine;
+	}
+
+	private UserSession newUserSession(int userId, String sessionId)
+	{
+		UserSession us = new UserSession();
+		us.setUserId(userId);
+		us.setSessionId(sessionId);
+
+		return us;
+	}
+}
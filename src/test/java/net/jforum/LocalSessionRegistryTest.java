@@ -0,0 +1,113 @@
+package net.jforum;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+import net.jforum.entities.UserSession;
+
+import org.junit.Test;
+
+public class LocalSessionRegistryTest extends TestCase
+{
+	@Test
+	public void testAddingAgainReplacesTheCount()
+	{
+		LocalSessionRegistry registry = new LocalSessionRegistry();
+		UserSession us = this.newUserSession(1, "a");
+
+		registry.add("a", us, SessionRegistry.Kind.ANONYMOUS);
+		registry.add("a", us, SessionRegistry.Kind.ANONYMOUS);
+		assertEquals(1, registry.anonymousCount());
+
+		us.setUserId(2);
+		registry.add("a", us, SessionRegistry.Kind.LOGGED);
+		assertEquals(0, registry.anonymousCount());
+		assertEquals(1, registry.loggedCount());
+		assertTrue(registry.sessionIdsOf(2).contains("a"));
+
+		assertSame(us, registry.remove("a"));
+		assertNull(registry.remove("a"));
+		assertEquals(0, registry.loggedCount());
+		assertTrue(registry.sessionIdsOf(2).isEmpty());
+		assertTrue(registry.loggedSessions().isEmpty());
+	}
+
+	@Test
+	public void testNotCountedSessions()
+	{
+		LocalSessionRegistry registry = new LocalSessionRegistry();
+
+		registry.add("bot", this.newUserSession(1, "bot"), SessionRegistry.Kind.NOT_COUNTED);
+		registry.remove("bot");
+
+		assertEquals(0, registry.anonymousCount());
+		assertEquals(0, registry.loggedCount());
+	}
+
+	@Test
+	public void testConcurrentChanges() throws InterruptedException
+	{
+		final LocalSessionRegistry registry = new LocalSessionRegistry();
+		final int threads = 8;
+		final int sessions = 2000;
+		final CountDownLatch start = new CountDownLatch(1);
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+
+		for (int t = 0; t < threads; t++) {
+			final int thread = t;
+
+			pool.execute(new Runnable() {
+				@Override public void run() {
+					try {
+						start.await();
+					}
+					catch (InterruptedException e) {
+						return;
+					}
+
+					for (int i = 0; i < sessions; i++) {
+						String id = thread + "_" + i;
+						// a few users, each with sessions in all threads
+						int userId = 2 + i % 10;
+
+						registry.add(id, newUserSession(userId, id),
+							i % 2 == 0 ? SessionRegistry.Kind.LOGGED : SessionRegistry.Kind.ANONYMOUS);
+
+						if (i % 4 < 2) {
+							registry.remove(id);
+						}
+					}
+				}
+			});
+		}
+
+		start.countDown();
+		pool.shutdown();
+		assertTrue(pool.awaitTermination(30, TimeUnit.SECONDS));
+
+		assertEquals(threads * sessions / 4, registry.loggedCount());
+		assertEquals(threads * sessions / 4, registry.anonymousCount());
+		assertEquals(threads * sessions / 2, registry.allSessions().size());
+		assertEquals(threads * sessions / 4, registry.loggedSessions().size());
+
+		int indexed = 0;
+
+		for (int userId = 2; userId < 12; userId++) {
+			indexed += registry.sessionIdsOf(userId).size();
+		}
+
+		assertEquals(threads * sessions / 4, indexed);
+	}
+
+	UserSession newUserSession(int userId, String sessionId)
+	{
+		UserSession us = new UserSession();
+		us.setUserId(userId);
+		us.setSessionId(sessionId);
+
+		return us;
+	}
+}
@@ -0,0 +1,148 @@
+package net.jforum;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class UrlRouterTest extends TestCase
+{
+	private static final String[][] PATTERNS = {
+		{ "forums.show.1", "forum_id" },
+		{ "forums.show.2", "start, forum_id" },
+		{ "forums.list.0", "" },
+		{ "posts.list.1", "topic_id" },
+		{ "posts.list.2", "start, topic_id" },
+		{ "user.activateAccount.2", "hash, user_id" },
+		{ "user.recoverPassword.1", "hash" },
+		{ "jforum_api.call.1", "api_key" },
+		{ "short.vars.2", "only_one" },
+		{ "bad.name", "x" },
+		{ "bad.count.01", "x" }
+	};
+
+	private static final String[] PATHS = {
+		"/forums/show/3", "/forums/show/25/3", "/forums/list", "/forums/list/", "/forums/show//3",
+		"/posts/list/15/1234", "/posts/list/1234//", "/posts/list", "/posts/nothing/1",
+		"/user/activateAccount/a1b2c3/7", "/user/recoverPassword/x%20y", "/jforum_api/call/k",
+		"/short/vars/1/2", "/bad/count/1", "/bad/name", "//list/1", "/forums//", "/forums", "/", "",
+		"forums/show/3", "/m/forums/show/3", "/forums/show/1/2/3"
+	};
+
+	private UrlRouter router;
+
+	@Before
+	@Override protected void setUp() throws Exception
+	{
+		super.setUp();
+		List<UrlPattern> patterns = new ArrayList<UrlPattern>();
+
+		for (String[] pattern : PATTERNS) {
+			patterns.add(new UrlPattern(pattern[0], pattern[1]));
+		}
+
+		this.router = UrlRouter.compile(patterns);
+	}
+
+	@After
+	@Override protected void tearDown() throws Exception
+	{
+		// the patterns are global, so other tests must not see these
+		UrlPatternCollection.removePattern("routertest.show.1");
+		UrlPatternCollection.removePattern("routertest.show.2");
+		super.tearDown();
+	}
+
+	@Test
+	public void testRoutesLikeSplitting()
+	{
+		for (String path : PATHS) {
+			assertEquals(path, this.split(path), this.route(path));
+		}
+	}
+
+	@Test
+	public void testIgnoresExtension()
+	{
+		UrlRouter.Route route = this.router.route("/forums/show/3.page", "/forums/show/3".length());
+
+		assertEquals("forums", route.getModule());
+		assertEquals("show", route.getAction());
+		assertEquals("3", route.getValue(0));
+	}
+
+	@Test
+	public void testLaterPatternsAreRouted()
+	{
+		UrlPatternCollection.addPattern("routertest.show.1", "item_id");
+		assertNotNull(UrlPatternCollection.getRouter().route("/routertest/show/1", 18));
+
+		UrlPatternCollection.addPattern("routertest.show.2", "start, item_id");
+		UrlRouter.Route route = UrlPatternCollection.getRouter().route("/routertest/show/2/1", 20);
+
+		assertEquals(Arrays.asList("start", "item_id"), Arrays.asList(route.getName(0), route.getName(1)));
+
+		UrlPatternCollection.removePattern("routertest.show.2");
+		assertNull(UrlPatternCollection.getRouter().route("/routertest/show/2/1", 20));
+	}
+
+	/**
+	 * The router's result as "module action name=value..."
+	 */
+	private String route(String path)
+	{
+		UrlRouter.Route route = this.router.route(path, path.length());
+
+		if (route == null) {
+			return null;
+		}
+
+		StringBuilder sb = new StringBuilder().append(route.getModule()).append(' ').append(route.getAction());
+
+		for (int i = 0; i < route.size(); i++) {
+			sb.append(' ').append(route.getName(i)).append('=').append(route.getValue(i));
+		}
+
+		return sb.toString();
+	}
+
+	/**
+	 * The same, done the way the friendly URLs were parsed before the router
+	 */
+	private String split(String path)
+	{
+		String[] model = path.split("/");
+
+		if (model.length < 3) {
+			return null;
+		}
+
+		String name = model[1] + "." + model[2] + "." + (model.length - 3);
+
+		for (String[] pattern : PATTERNS) {
+			if (pattern[0].equals(name)) {
+				UrlPattern url = new UrlPattern(pattern[0], pattern[1]);
+				StringBuilder sb = new StringBuilder()
+					.append(model[1].replaceAll("[^\\p{Alpha}]", "")).append(' ')
+					.append(model[2].replaceAll("[^\\p{Alpha}]", ""));
+
+				if (url.getSize() >= model.length - 3) {
+					String[] vars = url.getVars();
+
+					for (int i = 0; i < url.getSize(); i++) {
+						sb.append(' ').append(vars[i]).append('=').append(model[i + 3]);
+					}
+				}
+
+				return sb.toString();
+			}
+		}
+
+		return null;
+	}
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright (c) JForum Team
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, 
+ * with or without modification, are permitted provided 
+ * that the following conditions are met:
+ * 
+ * 1) Redistributions of source code must retain the above 
+ * copyright notice, this list of conditions and the 
+ * following disclaimer.
+ * 2) Redistributions in binary form must reproduce the 
+ * above copyright notice, this list of conditions and 
+ * the following disclaimer in the documentation and/or 
+ * other materials provided with the distribution.
+ * 3) Neither the name of "Rafael Steil" nor 
+ * the names of its contributors may be used to endorse 
+ * or promote products derived from this software without 
+ * specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT 
+ * HOLDERS AND CONTRIBUTORS "AS IS" AND ANY 
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, 
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF 
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR 
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL 
+ * THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, 
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, 
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER 
+ * IN CONTRACT, STRICT LIABILITY, OR TORT 
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN 
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF 
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE
+ * 
+ * The JForum Project
+ * http://www.jforum.net
+ */
+package net.jforum.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import net.jforum.entities.Banlist;
+import net.jforum.security.BanlistMatcher;
+
+/**
+ * Measures the ban check done on every request, against a list of 100k
+ * entries: plain addresses, wildcards at the end and in the middle of
+ * the address, user ids and emails. The previous way walks the whole list
+ * calling {@link Banlist#matches(Banlist)}, {@link BanlistMatcher} looks
+ * the address up in its tries. Both must give the same answers, otherwise
+ * the setup fails.
+ * <p>
+ * Run with <code>mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=net.jforum.benchmark.BanlistBenchmark</code>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BanlistBenchmark
+{
+	private static final int ENTRIES = 100000;
+	private static final int QUERIES = 1024;
+
+	private final List<Banlist> banlist = new ArrayList<Banlist>();
+	private final Banlist[] queries = new Banlist[QUERIES];
+	private BanlistMatcher matcher;
+	private int next;
+
+	@Setup
+	public void setUp()
+	{
+		Random random = new Random(42);
+
+		for (int i = 0; i < ENTRIES; i++) {
+			Banlist ban = new Banlist();
+			ban.setId(i + 1);
+
+			switch (i % 20) {
+				case 0:
+					ban.setUserId(i + 1);
+					break;
+				case 1:
+					ban.setEmail("spammer" + i + "@example.com");
+					break;
+				case 2:
+				case 3:
+				case 4:
+				case 5:
+					ban.setIp(this.octets(random, 3) + ".*");
+					break;
+				case 6:
+					ban.setIp("*." + this.octets(random, 2) + ".*");
+					break;
+				default:
+					ban.setIp(this.octets(random, 4));
+			}
+
+			this.banlist.add(ban);
+		}
+
+		this.matcher = new BanlistMatcher(this.banlist);
+
+		for (int i = 0; i < QUERIES; i++) {
+			Banlist query = new Banlist();
+			query.setUserId(100000 + i);
+			query.setEmail("user" + i + "@example.com");
+
+			// One in eight requests comes from a banned address
+			if (i % 8 == 0) {
+				String ip = this.banlist.get(random.nextInt(ENTRIES / 20) * 20 + 7).getIp();
+				query.setIp(ip);
+			}
+			else {
+				query.setIp(this.octets(random, 4));
+			}
+
+			this.queries[i] = query;
+
+			if (this.legacy(query) != this.matcher.matches(query)) {
+				throw new IllegalStateException("Results for " + query.getIp() + " differ");
+			}
+		}
+	}
+
+	@Benchmark
+	public boolean legacy()
+	{
+		return this.legacy(this.nextQuery());
+	}
+
+	@Benchmark
+	public boolean matcher()
+	{
+		return this.matcher.matches(this.nextQuery());
+	}
+
+	private Banlist nextQuery()
+	{
+		this.next = (this.next + 1) & (QUERIES - 1);
+		return this.queries[this.next];
+	}
+
+	/**
+	 * The check as it was done before the matcher
+	 */
+	private boolean legacy(Banlist query)
+	{
+		for (Banlist current : this.banlist) {
+			if (current.matches(query)) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	private String octets(Random random, int count)
+	{
+		StringBuilder sb = new StringBuilder();
+
+		for (int i = 0; i < count; i++) {
+			if (i > 0) {
+				sb.append('.');
+			}
+
+			sb.append(random.nextInt(256));
+		}
+
+		return sb.toString();
+	}
+
+	public static void main(String[] args) throws Exception
+	{
+		new Runner(new OptionsBuilder().include(BanlistBenchmark.class.getSimpleName()).build()).run();
+	}
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright (c) JForum Team
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, 
+ * with or without modification, are permitted provided 
+ * that the following conditions are met:
+ * 
+ * 1) Redistributions of source code must retain the above 
+ * copyright notice, this list of conditions and the 
+ * following disclaimer.
+ * 2) Redistributions in binary form must reproduce the 
+ * above copyright notice, this list of conditions and 
+ * the following disclaimer in the documentation and/or 
+ * other materials provided with the distribution.
+ * 3) Neither the name of "Rafael Steil" nor 
+ * the names of its contributors may be used to endorse 
+ * or promote products derived from this software without 
+ * specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT 
+ * HOLDERS AND CONTRIBUTORS "AS IS" AND ANY 
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, 
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF 
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR 
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL 
+ * THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, 
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, 
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER 
+ * IN CONTRACT, STRICT LIABILITY, OR TORT 
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN 
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF 
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE
+ * 
+ * The JForum Project
+ * http://www.jforum.net
+ */
+package net.jforum.benchmark;
+
+import java.lang.invoke.MethodHandle;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import net.jforum.Command;
+import net.jforum.TestCaseUtils;
+import net.jforum.repository.ModulesRepository;
+import net.jforum.util.preferences.ConfigKeys;
+import net.jforum.util.preferences.SystemGlobals;
+
+/**
+ * Measures the cost of getting a request to its action, leaving out the action itself:
+ * the previous way, loading the module's class by name, creating the command 
+ * reflectively and looking up and invoking the action's method, against the
+ * table built by {@link ModulesRepository}, which holds handles to the 
+ * constructor and the actions. Both must create the same command and call 
+ * the same action, otherwise the setup fails.
+ * <p>
+ * Run with <code>mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=net.jforum.benchmark.CommandDispatchBenchmark</code>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CommandDispatchBenchmark
+{
+	private static final String MODULE = "dispatch";
+	private static final String ACTION = "show";
+
+	private static int calls;
+
+	private String moduleClass;
+	private ModulesRepository.Module module;
+
+	@Setup
+	public void setUp() throws Exception
+	{
+		TestCaseUtils.loadEnvironment();
+		ModulesRepository.init(SystemGlobals.getValue(ConfigKeys.CONFIG_DIR));
+
+		this.moduleClass = DispatchCommand.class.getName();
+		this.module = ModulesRepository.getModule("forums");
+
+		if (this.module == null || !this.module.hasAction("show") || this.module.hasAction("wait")) {
+			throw new IllegalStateException("The forums module did not resolve as expected");
+		}
+
+		// the same command class, as if mapped in modulesMapping.properties
+		this.module = ModulesRepository.resolveModule(MODULE, this.moduleClass);
+
+		calls = 0;
+		Command legacy = this.legacy();
+		Command table = this.table();
+
+		if (legacy.getClass() != table.getClass() || calls != 2) {
+			throw new IllegalStateException("Dispatch differs: " + legacy.getClass() + ", " 
+				+ table.getClass() + ", " + calls + " calls");
+		}
+	}
+
+	@Benchmark
+	public Command legacy() throws Exception
+	{
+		Command command = (Command)Class.forName(this.moduleClass).getDeclaredConstructor().newInstance();
+		command.getClass().getMethod(ACTION, new Class[0]).invoke(command, new Object[0]);
+
+		return command;
+	}
+
+	@Benchmark
+	public Command table() throws Throwable
+	{
+		Command command = this.module.newCommand();
+		MethodHandle handle = ModulesRepository.getAction(command.getClass(), ACTION);
+		handle.invokeExact(command);
+
+		return command;
+	}
+
+	/**
+	 * A command whose action does next to nothing, so only the dispatch is measured
+	 */
+	public static class DispatchCommand extends Command
+	{
+		@Override public void list()
+		{
+			// not called
+		}
+
+		public void show()
+		{
+			calls++;
+		}
+	}
+
+	public static void main(String[] args) throws Exception
+	{
+		new Runner(new OptionsBuilder().include(CommandDispatchBenchmark.class.getSimpleName()).build()).run();
+	}
+}
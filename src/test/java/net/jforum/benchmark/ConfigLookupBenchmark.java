@@ -0,0 +1,187 @@
+/*
+ * Copyright (c) JForum Team
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, 
+ * with or without modification, are permitted provided 
+ * that the following conditions are met:
+ * 
+ * 1) Redistributions of source code must retain the above 
+ * copyright notice, this list of conditions and the 
+ * following disclaimer.
+ * 2) Redistributions in binary form must reproduce the 
+ * above copyright notice, this list of conditions and 
+ * the following disclaimer in the documentation and/or 
+ * other materials provided with the distribution.
+ * 3) Neither the name of "Rafael Steil" nor 
+ * the names of its contributors may be used to endorse 
+ * or promote products derived from this software without 
+ * specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT 
+ * HOLDERS AND CONTRIBUTORS "AS IS" AND ANY 
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, 
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF 
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR 
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL 
+ * THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, 
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, 
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER 
+ * IN CONTRACT, STRICT LIABILITY, OR TORT 
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN 
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF 
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE
+ * 
+ * The JForum Project
+ * http://www.jforum.net
+ */
+package net.jforum.benchmark;
+
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import net.jforum.TestCaseUtils;
+import net.jforum.util.preferences.ConfigKeys;
+import net.jforum.util.preferences.ConfigSnapshot;
+import net.jforum.util.preferences.SystemGlobals;
+import net.jforum.util.preferences.VariableExpander;
+import net.jforum.util.preferences.VariableStore;
+
+/**
+ * Measures the cost of a configuration lookup, as done on every request:
+ * the previous way, looking into the installation and default properties and
+ * expanding the variables of the value on each call, against
+ * {@link SystemGlobals}, which reads an already expanded and parsed
+ * {@link ConfigSnapshot}, and against a snapshot held by the caller.
+ * All of them must read the same values, otherwise the setup fails.
+ * <p>
+ * Run with <code>mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=net.jforum.benchmark.ConfigLookupBenchmark</code>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ConfigLookupBenchmark
+{
+	/** Two strings, one of them with a variable, two numbers and two flags */
+	private static final int LOOKUPS = 6;
+
+	private LegacyGlobals legacy;
+	private ConfigSnapshot snapshot;
+
+	@Setup
+	public void setUp() throws Exception
+	{
+		TestCaseUtils.loadEnvironment();
+
+		this.legacy = new LegacyGlobals(SystemGlobals.getConfigData());
+		this.snapshot = SystemGlobals.getSnapshot();
+
+		String[] keys = { ConfigKeys.ENCODING, ConfigKeys.FORUM_PAGE_TITLE, ConfigKeys.TOPICS_PER_PAGE,
+			ConfigKeys.POSTS_PER_PAGE, ConfigKeys.STATS_ACTIVE, ConfigKeys.POSTS_CACHE_ENABLED };
+
+		for (String key : keys) {
+			String expected = this.legacy.getVariableValue(key);
+
+			if (expected == null || !expected.equals(SystemGlobals.getValue(key)) || !expected.equals(this.snapshot.getValue(key))) {
+				throw new IllegalStateException("Values of " + key + " differ: " + expected + ", "
+					+ SystemGlobals.getValue(key) + ", " + this.snapshot.getValue(key));
+			}
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(LOOKUPS)
+	public void legacy(Blackhole blackhole)
+	{
+		blackhole.consume(this.legacy.getVariableValue(ConfigKeys.ENCODING));
+		blackhole.consume(this.legacy.getVariableValue(ConfigKeys.FORUM_PAGE_TITLE));
+		blackhole.consume(Integer.parseInt(this.legacy.getVariableValue(ConfigKeys.TOPICS_PER_PAGE)));
+		blackhole.consume(Integer.parseInt(this.legacy.getVariableValue(ConfigKeys.POSTS_PER_PAGE)));
+		blackhole.consume("true".equals(this.legacy.getVariableValue(ConfigKeys.STATS_ACTIVE)));
+		blackhole.consume("true".equals(this.legacy.getVariableValue(ConfigKeys.POSTS_CACHE_ENABLED)));
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(LOOKUPS)
+	public void systemGlobals(Blackhole blackhole)
+	{
+		blackhole.consume(SystemGlobals.getValue(ConfigKeys.ENCODING));
+		blackhole.consume(SystemGlobals.getValue(ConfigKeys.FORUM_PAGE_TITLE));
+		blackhole.consume(SystemGlobals.getIntValue(ConfigKeys.TOPICS_PER_PAGE));
+		blackhole.consume(SystemGlobals.getIntValue(ConfigKeys.POSTS_PER_PAGE));
+		blackhole.consume(SystemGlobals.getBoolValue(ConfigKeys.STATS_ACTIVE));
+		blackhole.consume(SystemGlobals.getBoolValue(ConfigKeys.POSTS_CACHE_ENABLED));
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(LOOKUPS)
+	public void heldSnapshot(Blackhole blackhole)
+	{
+		ConfigSnapshot config = this.snapshot;
+		blackhole.consume(config.getValue(ConfigKeys.ENCODING));
+		blackhole.consume(config.getValue(ConfigKeys.FORUM_PAGE_TITLE));
+		blackhole.consume(config.getIntValue(ConfigKeys.TOPICS_PER_PAGE));
+		blackhole.consume(config.getIntValue(ConfigKeys.POSTS_PER_PAGE));
+		blackhole.consume(config.getBoolValue(ConfigKeys.STATS_ACTIVE));
+		blackhole.consume(config.getBoolValue(ConfigKeys.POSTS_CACHE_ENABLED));
+	}
+
+	/**
+	 * The lookup as it was done before the snapshot: installation values first,
+	 * then the defaults, expanding the variables of the value found.
+	 */
+	private static class LegacyGlobals implements VariableStore
+	{
+		private final Properties installation = new Properties();
+		private final Properties defaults;
+		private final VariableExpander expander = new VariableExpander(this, "${", "}");
+
+		LegacyGlobals(Properties defaults)
+		{
+			this.defaults = defaults;
+		}
+
+		@Override public String getVariableValue(String field)
+		{
+			String preExpansion = this.installation.getProperty(field);
+
+			if (preExpansion == null) {
+				preExpansion = this.defaults.getProperty(field);
+
+				if (preExpansion == null) {
+					return null;
+				}
+			}
+
+			return this.expander.expandVariables(preExpansion);
+		}
+	}
+
+	public static void main(String[] args) throws Exception
+	{
+		new Runner(new OptionsBuilder().include(ConfigLookupBenchmark.class.getSimpleName()).build()).run();
+	}
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright (c) JForum Team
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, 
+ * with or without modification, are permitted provided 
+ * that the following conditions are met:
+ * 
+ * 1) Redistributions of source code must retain the above 
+ * copyright notice, this list of conditions and the 
+ * following disclaimer.
+ * 2) Redistributions in binary form must reproduce the 
+ * above copyright notice, this list of conditions and 
+ * the following disclaimer in the documentation and/or 
+ * other materials provided with the distribution.
+ * 3) Neither the name of "Rafael Steil" nor 
+ * the names of its contributors may be used to endorse 
+ * or promote products derived from this software without 
+ * specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT 
+ * HOLDERS AND CONTRIBUTORS "AS IS" AND ANY 
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, 
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF 
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR 
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL 
+ * THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, 
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, 
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER 
+ * IN CONTRACT, STRICT LIABILITY, OR TORT 
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN 
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF 
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE
+ * 
+ * The JForum Project
+ * http://www.jforum.net
+ */
+package net.jforum.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import net.jforum.ConfigLoader;
+import net.jforum.TestCaseUtils;
+import net.jforum.UrlPattern;
+import net.jforum.UrlPatternCollection;
+import net.jforum.UrlRouter;
+
+/**
+ * Measures the parsing of friendly URLs, over a mix of the pages most asked for:
+ * the previous way, splitting the path, building the pattern's name and looking
+ * it up in {@link UrlPatternCollection}, against {@link UrlRouter}. 
+ * Both must find the same pattern and values for each URL, otherwise the setup fails.
+ * <p>
+ * Run with <code>mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=net.jforum.benchmark.FriendlyUrlBenchmark</code>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FriendlyUrlBenchmark
+{
+	private static final String EXTENSION = ".page";
+	private static final int URL_COUNT = 15;
+
+	/** Topics and forums first, as crawlers and readers ask for them the most */
+	private static final String[] URLS = {
+		"/posts/list/4521.page",
+		"/posts/list/15/4521.page",
+		"/posts/list/4388.page",
+		"/posts/list/30/3977.page",
+		"/forums/show/3.page",
+		"/forums/show/25/3.page",
+		"/forums/list.page",
+		"/posts/preList/4521/30112.page",
+		"/recentTopics/list.page",
+		"/user/profile/812.page",
+		"/posts/reply/0/4521.page",
+		"/rss/topicPosts/4521.page",
+		"/forums/show/unknown/3/1.page",
+		"/posts/downloadAttach/77.page",
+		"/jforum.page"
+	};
+
+	private UrlRouter router;
+
+	@Setup
+	public void setUp() throws Exception
+	{
+		TestCaseUtils.loadEnvironment();
+		ConfigLoader.loadUrlPatterns();
+
+		this.router = UrlPatternCollection.getRouter();
+
+		if (URLS.length != URL_COUNT) {
+			throw new IllegalStateException(URLS.length + " URLs, " + URL_COUNT + " expected");
+		}
+
+		for (String url : URLS) {
+			String[] model = url.substring(0, url.length() - EXTENSION.length()).split("/");
+			UrlPattern legacy = this.legacy(model);
+			UrlRouter.Route route = this.router.route(url, url.length() - EXTENSION.length());
+
+			if (legacy == null ? route != null : route == null || legacy != route.getPattern()) {
+				throw new IllegalStateException("Patterns of " + url + " differ");
+			}
+
+			for (int i = 0; route != null && i < route.size(); i++) {
+				if (!model[i + 3].equals(route.getValue(i)) || !legacy.getVars()[i].equals(route.getName(i))) {
+					throw new IllegalStateException("Values of " + url + " differ");
+				}
+			}
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(URL_COUNT)
+	public void legacy(Blackhole blackhole)
+	{
+		for (String url : URLS) {
+			String[] model = url.substring(0, url.length() - EXTENSION.length()).split("/");
+			UrlPattern pattern = this.legacy(model);
+
+			if (pattern != null && pattern.getSize() >= model.length - 3) {
+				for (int i = 0; i < pattern.getSize(); i++) {
+					blackhole.consume(pattern.getVars()[i]);
+					blackhole.consume(model[i + 3]);
+				}
+			}
+
+			blackhole.consume(pattern);
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(URL_COUNT)
+	public void router(Blackhole blackhole)
+	{
+		UrlRouter current = this.router;
+
+		for (String url : URLS) {
+			UrlRouter.Route route = current.route(url, url.length() - EXTENSION.length());
+
+			if (route != null) {
+				for (int i = 0; i < route.size(); i++) {
+					blackhole.consume(route.getName(i));
+					blackhole.consume(route.getValue(i));
+				}
+			}
+
+			blackhole.consume(route);
+		}
+	}
+
+	/**
+	 * The lookup as it was done before the router
+	 */
+	private UrlPattern legacy(String[] model)
+	{
+		if (model.length < 3) {
+			return null;
+		}
+
+		return UrlPatternCollection.findPattern(new StringBuilder(64)
+			.append(model[1])
+			.append('.')
+			.append(model[2])
+			.append('.')
+			.append(model.length - 3)
+			.toString());
+	}
+
+	public static void main(String[] args) throws Exception
+	{
+		new Runner(new OptionsBuilder().include(FriendlyUrlBenchmark.class.getSimpleName()).build()).run();
+	}
+}
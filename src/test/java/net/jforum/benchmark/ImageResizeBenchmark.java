@@ -0,0 +1,156 @@
+/*
+ * Copyright (c) JForum Team
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, 
+ * with or without modification, are permitted provided 
+ * that the following conditions are met:
+ * 
+ * 1) Redistributions of source code must retain the above 
+ * copyright notice, this list of conditions and the 
+ * following disclaimer.
+ * 2) Redistributions in binary form must reproduce the 
+ * above copyright notice, this list of conditions and 
+ * the following disclaimer in the documentation and/or 
+ * other materials provided with the distribution.
+ * 3) Neither the name of "Rafael Steil" nor 
+ * the names of its contributors may be used to endorse 
+ * or promote products derived from this software without 
+ * specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT 
+ * HOLDERS AND CONTRIBUTORS "AS IS" AND ANY 
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, 
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF 
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR 
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL 
+ * THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, 
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, 
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER 
+ * IN CONTRACT, STRICT LIABILITY, OR TORT 
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN 
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF 
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE
+ * 
+ * The JForum Project
+ * http://www.jforum.net
+ */
+package net.jforum.benchmark;
+
+import java.awt.image.BufferedImage;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import net.jforum.util.image.ImageUtils;
+
+/**
+ * Compares the thumbnail scaling of
+ * {@link ImageUtils#createSmoothBufferedImage(BufferedImage, int, int, int, boolean)}, which
+ * works on the pixel arrays, with the previous
+ * {@link ImageUtils#createHeadlessSmoothBufferedImage(BufferedImage, int, int, int)}, which
+ * goes through <code>getRGB</code> and <code>setRGB</code> for every pixel. The source is a
+ * photo sized image of the type the JPEG reader returns. Without the progressive step both
+ * must produce the very same pixels, otherwise the setup fails.
+ * <p>
+ * Run with <code>mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=net.jforum.benchmark.ImageResizeBenchmark</code>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ImageResizeBenchmark
+{
+	private static final int WIDTH = 400;
+	private static final int HEIGHT = 300;
+
+	@Param({ "1600x1200", "4000x3000" })
+	public String source;
+
+	private BufferedImage image;
+
+	@Setup
+	public void setUp()
+	{
+		String[] size = this.source.split("x");
+		this.image = newImage(Integer.parseInt(size[0]), Integer.parseInt(size[1]));
+
+		BufferedImage expected = ImageUtils.createHeadlessSmoothBufferedImage(this.image, ImageUtils.IMAGE_JPEG, WIDTH, HEIGHT);
+		BufferedImage actual = ImageUtils.createSmoothBufferedImage(this.image, ImageUtils.IMAGE_JPEG, WIDTH, HEIGHT, false);
+
+		for (int y = 0; y < HEIGHT; y++) {
+			for (int x = 0; x < WIDTH; x++) {
+				if (expected.getRGB(x, y) != actual.getRGB(x, y)) {
+					throw new IllegalStateException("Pixel " + x + "," + y + " differs: expected "
+						+ Integer.toHexString(expected.getRGB(x, y)) + ", got " + Integer.toHexString(actual.getRGB(x, y)));
+				}
+			}
+		}
+	}
+
+	@Benchmark
+	public BufferedImage legacy()
+	{
+		return ImageUtils.createHeadlessSmoothBufferedImage(this.image, ImageUtils.IMAGE_JPEG, WIDTH, HEIGHT);
+	}
+
+	@Benchmark
+	public BufferedImage pixelArrays()
+	{
+		return ImageUtils.createSmoothBufferedImage(this.image, ImageUtils.IMAGE_JPEG, WIDTH, HEIGHT, false);
+	}
+
+	@Benchmark
+	public BufferedImage progressive()
+	{
+		return ImageUtils.createSmoothBufferedImage(this.image, ImageUtils.IMAGE_JPEG, WIDTH, HEIGHT, true);
+	}
+
+	/**
+	 * Gradients with some noise, so that neighbour pixels differ.
+	 */
+	private static BufferedImage newImage(int width, int height)
+	{
+		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+		Random random = new Random(42);
+		int[] row = new int[width];
+
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				int r = x * 255 / width;
+				int g = y * 255 / height;
+				int b = random.nextInt(256);
+				row[x] = (r << 16) | (g << 8) | b;
+			}
+
+			image.setRGB(0, y, width, 1, row, 0, width);
+		}
+
+		return image;
+	}
+
+	public static void main(String[] args) throws Exception
+	{
+		new Runner(new OptionsBuilder().include(ImageResizeBenchmark.class.getSimpleName()).build()).run();
+	}
+}
@@ -0,0 +1,282 @@
+/*
+ * Copyright (c) JForum Team
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, 
+ * with or without modification, are permitted provided 
+ * that the following conditions are met:
+ * 
+ * 1) Redistributions of source code must retain the above 
+ * copyright notice, this list of conditions and the 
+ * following disclaimer.
+ * 2) Redistributions in binary form must reproduce the 
+ * above copyright notice, this list of conditions and 
+ * the following disclaimer in the documentation and/or 
+ * other materials provided with the distribution.
+ * 3) Neither the name of "Rafael Steil" nor 
+ * the names of its contributors may be used to endorse 
+ * or promote products derived from this software without 
+ * specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT 
+ * HOLDERS AND CONTRIBUTORS "AS IS" AND ANY 
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, 
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF 
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR 
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL 
+ * THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, 
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, 
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER 
+ * IN CONTRACT, STRICT LIABILITY, OR TORT 
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN 
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF 
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE
+ * 
+ * The JForum Project
+ * http://www.jforum.net
+ */
+package net.jforum.benchmark;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import net.jforum.TestCaseUtils;
+import net.jforum.cache.CacheEngine;
+import net.jforum.cache.DefaultCacheEngine;
+import net.jforum.entities.Smilie;
+import net.jforum.repository.BBCodeRepository;
+import net.jforum.repository.SmiliesRepository;
+import net.jforum.util.bbcode.BBCode;
+import net.jforum.util.bbcode.BBCodeHandler;
+import net.jforum.util.bbcode.Substitution;
+import net.jforum.util.preferences.ConfigKeys;
+import net.jforum.util.preferences.SystemGlobals;
+import net.jforum.view.forum.common.PostCommon;
+
+/**
+ * Compares the precompiled BBCode and smilies rendering of
+ * {@link PostCommon#prepareTextForDisplayExceptCodeTag(String, boolean, boolean)}
+ * with the previous implementation, which compiled every regular expression again
+ * and scanned the text once per smilie. Both must produce the very same bytes for
+ * each post of the corpus, otherwise the setup fails.
+ * <p>
+ * Run with <code>mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=net.jforum.benchmark.PostRenderingBenchmark</code>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PostRenderingBenchmark
+{
+	private static final String CORPUS = "/benchmark/posts.txt";
+	private static final String SEPARATOR = "%%";
+	private static final Pattern SMILIE = Pattern.compile("INSERT INTO jforum_smilies VALUES \\(\\d+, '(.*?)', '(.*?)',");
+
+	private List<String> posts;
+
+	@Setup
+	public void setUp() throws Exception
+	{
+		TestCaseUtils.loadEnvironment();
+
+		CacheEngine cache = new DefaultCacheEngine();
+		cache.init();
+		new BBCodeRepository().setCacheEngine(cache);
+		new SmiliesRepository().setCacheEngine(cache);
+
+		BBCodeRepository.setBBCollection(new BBCodeHandler().parse());
+		SmiliesRepository.loadSmilies(this.readSmilies());
+
+		this.posts = this.readCorpus();
+
+		for (String post : this.posts) {
+			byte[] expected = legacy(post).getBytes(StandardCharsets.UTF_8);
+			byte[] actual = PostCommon.prepareTextForDisplayExceptCodeTag(post, true, true).getBytes(StandardCharsets.UTF_8);
+
+			if (!Arrays.equals(expected, actual)) {
+				throw new IllegalStateException("Rendering differs for post:\n" + post
+					+ "\nexpected: " + new String(expected, StandardCharsets.UTF_8)
+					+ "\nactual: " + new String(actual, StandardCharsets.UTF_8));
+			}
+		}
+	}
+
+	@Benchmark
+	public void legacy(Blackhole blackhole)
+	{
+		for (String post : this.posts) {
+			blackhole.consume(legacy(post));
+		}
+	}
+
+	@Benchmark
+	public void compiled(Blackhole blackhole)
+	{
+		for (String post : this.posts) {
+			blackhole.consume(PostCommon.prepareTextForDisplayExceptCodeTag(post, true, true));
+		}
+	}
+
+	private List<String> readCorpus() throws IOException
+	{
+		List<String> list = new ArrayList<String>();
+		StringBuilder current = new StringBuilder();
+
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+				PostRenderingBenchmark.class.getResourceAsStream(CORPUS), StandardCharsets.UTF_8))) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (SEPARATOR.equals(line)) {
+					list.add(current.toString());
+					current.setLength(0);
+				}
+				else {
+					current.append(line).append('\n');
+				}
+			}
+		}
+
+		if (current.length() > 0) {
+			list.add(current.toString());
+		}
+
+		return list;
+	}
+
+	private List<Smilie> readSmilies() throws IOException
+	{
+		List<Smilie> list = new ArrayList<Smilie>();
+		String dump = SystemGlobals.getValue(ConfigKeys.CONFIG_DIR) + "/database/hsqldb/hsqldb_data_dump.sql";
+
+		for (String line : Files.readAllLines(Paths.get(dump), StandardCharsets.UTF_8)) {
+			Matcher matcher = SMILIE.matcher(line);
+
+			if (matcher.find()) {
+				Smilie smilie = new Smilie();
+				smilie.setCode(matcher.group(1));
+				smilie.setUrl(matcher.group(2));
+				list.add(smilie);
+			}
+		}
+
+		return list;
+	}
+
+	/**
+	 * The rendering as it was done before the BBCode patterns were precompiled.
+	 */
+	private static String legacy(String origText)
+	{
+		String text = legacySmilies(new StringBuilder(origText));
+
+		if (text.indexOf('[') > -1 && text.indexOf(']') > -1) {
+			for (BBCode bb : BBCodeRepository.getBBCollection().getBbList()) {
+				if (bb.getTagName().startsWith("code")) {
+					continue;
+				}
+
+				if (bb.isRegexpReplace()) {
+					text = text.replaceAll(bb.getRegex(), bb.getReplace());
+				}
+				else {
+					try {
+						Substitution subst = (Substitution) Class.forName(bb.getClassName()).getDeclaredConstructor().newInstance();
+						Matcher match = Pattern.compile(bb.getRegex()).matcher(text);
+						int count = 0;
+						while (match.find() && count < 100) {
+							text = text.substring(0, match.start(0)) + subst.substitute(match.group(1))
+								+ text.substring(match.end(0));
+							match.reset(text);
+							count++;
+						}
+					}
+					catch (ReflectiveOperationException e) {
+						throw new IllegalStateException(e);
+					}
+				}
+			}
+		}
+
+		for (BBCode bb : BBCodeRepository.getBBCollection().getAlwaysProcessList()) {
+			text = text.replaceAll(bb.getRegex(), bb.getReplace());
+		}
+
+		return text;
+	}
+
+	private static String legacySmilies(StringBuilder text)
+	{
+		BBCodeHandler bbch = BBCodeRepository.getBBCollection();
+
+		for (Smilie s : SmiliesRepository.getSmilies()) {
+			int pos = 0;
+			int counter = 0;
+			while (pos > -1 && counter++ < 100) {
+				pos = text.indexOf(s.getCode(), pos);
+				if (pos < 0) {
+					break;
+				}
+				int idxAfter = text.indexOf("[/", pos);
+				if (idxAfter > -1) {
+					int idxBefore = text.substring(0, idxAfter).lastIndexOf("[");
+					if (idxBefore > -1 && idxBefore < pos) {
+						int idx2 = text.indexOf("]", idxAfter);
+						if (idx2 > -1) {
+							String tag = text.substring(idxAfter + 2, idx2).trim();
+							boolean doContinue = false;
+							for (BBCode bbc : bbch.getBbList()) {
+								if (tag.equals(bbc.getLockedForSmilies())) {
+									pos = idx2;
+									doContinue = true;
+									break;
+								}
+							}
+							if (doContinue) {
+								continue;
+							}
+						}
+					}
+				}
+				text.replace(pos, pos + s.getCode().length(), s.getUrl());
+			}
+		}
+
+		return text.toString();
+	}
+
+	public static void main(String[] args) throws Exception
+	{
+		new Runner(new OptionsBuilder().include(PostRenderingBenchmark.class.getSimpleName()).build()).run();
+	}
+}
@@ -0,0 +1,168 @@
+package net.jforum.cache;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+public class ConcurrentCacheEngineTest extends TestCase {
+	private static final String FQN = "test";
+
+	@Test
+	public void testAddGetRemove() {
+		CacheEngine engine = this.newEngine(new CacheRegionSettings(0, 0, EvictionPolicy.TINYLFU, null, 16));
+
+		engine.add(FQN, "1", "one");
+		engine.add(FQN, "2", "two");
+		assertEquals("one", engine.get(FQN, "1"));
+		assertEquals(2, engine.getValues(FQN).size());
+
+		engine.remove(FQN, "1");
+		assertNull(engine.get(FQN, "1"));
+
+		engine.remove(FQN);
+		assertTrue(engine.getValues(FQN).isEmpty());
+		assertNull(engine.get("unknown", "1"));
+	}
+
+	@Test
+	public void testAddMapReplacesRegion() {
+		CacheEngine engine = this.newEngine(new CacheRegionSettings(0, 0, EvictionPolicy.TINYLFU, null, 16));
+		engine.add(FQN, "old", "value");
+
+		Map<String, Object> map = new HashMap<String, Object>();
+		map.put("1", "one");
+		map.put("2", "two");
+		engine.add(FQN, map);
+
+		Map<?, ?> cached = (Map<?, ?>)engine.get(FQN);
+		assertEquals(2, cached.size());
+		assertEquals("two", engine.get(FQN, "2"));
+		assertNull(engine.get(FQN, "old"));
+	}
+
+	@Test
+	public void testPlainObjectAtTopLevel() {
+		CacheEngine engine = this.newEngine(new CacheRegionSettings(0, 0, EvictionPolicy.TINYLFU, null, 16));
+		engine.add("key", "value");
+
+		assertEquals("value", engine.get("key"));
+		engine.remove("key");
+		assertNull(engine.get("key"));
+	}
+
+	@Test
+	public void testLruEvictsLeastRecentlyUsed() {
+		CacheEngine engine = this.newEngine(new CacheRegionSettings(3, 0, EvictionPolicy.LRU, null, 16));
+
+		engine.add(FQN, "a", "a");
+		engine.add(FQN, "b", "b");
+		engine.add(FQN, "c", "c");
+		engine.get(FQN, "a");
+		engine.add(FQN, "d", "d");
+
+		assertEquals("a", engine.get(FQN, "a"));
+		assertNull(engine.get(FQN, "b"));
+		assertEquals("c", engine.get(FQN, "c"));
+		assertEquals("d", engine.get(FQN, "d"));
+	}
+
+	@Test
+	public void testTinyLfuKeepsFrequentEntryDuringScan() {
+		ConcurrentCacheEngine engine = this.newEngine(new CacheRegionSettings(100, 0, EvictionPolicy.TINYLFU, null, 16));
+
+		engine.add(FQN, "hot", "hot");
+		for (int i = 0; i < 20; i++) {
+			engine.get(FQN, "hot");
+		}
+
+		for (int i = 0; i < 1000; i++) {
+			engine.add(FQN, "scan" + i, "value");
+		}
+
+		assertEquals("hot", engine.get(FQN, "hot"));
+
+		CacheStatistics statistics = engine.getStatistics().get(FQN);
+		assertTrue(statistics.getSize() <= 100);
+		assertEquals(901, statistics.getEvictions());
+	}
+
+	@Test
+	public void testWeigherBoundsTotalWeight() {
+		CacheWeigher weigher = new CacheWeigher() {
+			@Override public int weigh(String key, Object value) {
+				return value.toString().length();
+			}
+		};
+		ConcurrentCacheEngine engine = this.newEngine(new CacheRegionSettings(10, 0, EvictionPolicy.LRU, weigher, 16));
+
+		engine.add(FQN, "a", "12345");
+		engine.add(FQN, "b", "12345");
+		engine.add(FQN, "c", "123");
+
+		CacheStatistics statistics = engine.getStatistics().get(FQN);
+		assertTrue(statistics.getWeightedSize() <= 10);
+		assertNull(engine.get(FQN, "a"));
+		assertEquals("123", engine.get(FQN, "c"));
+	}
+
+	@Test
+	public void testEntriesExpire() throws InterruptedException {
+		ConcurrentCacheEngine engine = this.newEngine(new CacheRegionSettings(0, 50, EvictionPolicy.TINYLFU, null, 16));
+
+		engine.add(FQN, "1", "one");
+		assertEquals("one", engine.get(FQN, "1"));
+
+		Thread.sleep(100);
+		assertNull(engine.get(FQN, "1"));
+
+		CacheStatistics statistics = engine.getStatistics().get(FQN);
+		assertEquals(1, statistics.getExpirations());
+		assertEquals(1, statistics.getHits());
+		assertEquals(1, statistics.getMisses());
+	}
+
+	@Test
+	public void testConcurrentWritersStayBounded() throws InterruptedException {
+		final ConcurrentCacheEngine engine = this.newEngine(new CacheRegionSettings(1000, 0, EvictionPolicy.TINYLFU, null, 16));
+		final int threads = 8;
+		final CountDownLatch done = new CountDownLatch(threads);
+
+		for (int t = 0; t < threads; t++) {
+			final int offset = t * 10000;
+			new Thread(new Runnable() {
+				@Override public void run() {
+					try {
+						for (int i = 0; i < 10000; i++) {
+							engine.add(FQN, Integer.toString(offset + i), Integer.valueOf(i));
+							engine.get(FQN, Integer.toString(offset + i / 2));
+						}
+					}
+					finally {
+						done.countDown();
+					}
+				}
+			}).start();
+		}
+
+		done.await();
+
+		CacheStatistics statistics = engine.getStatistics().get(FQN);
+		assertTrue(statistics.getSize() <= 1000);
+		assertEquals(statistics.getSize(), statistics.getWeightedSize());
+		assertEquals(statistics.getSize(), engine.getValues(FQN).size());
+	}
+
+	private ConcurrentCacheEngine newEngine(final CacheRegionSettings settings) {
+		ConcurrentCacheEngine engine = new ConcurrentCacheEngine() {
+			@Override protected CacheRegionSettings settingsFor(String fqn) {
+				return settings;
+			}
+		};
+		engine.init();
+		return engine;
+	}
+}
@@ -0,0 +1,218 @@
+package net.jforum.context.web;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+
+import junit.framework.TestCase;
+import net.jforum.TestCaseUtils;
+import net.jforum.UrlPatternCollection;
+import net.jforum.http.FakeHttpRequest;
+import net.jforum.util.preferences.SystemGlobals;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class WebRequestContextTest extends TestCase
+{
+	private static final String BOUNDARY = "----webrequesttest";
+
+	@Before
+	@Override protected void setUp() throws Exception
+	{
+		super.setUp();
+		TestCaseUtils.loadEnvironment();
+		SystemGlobals.setValue("container.app", "Apache Tomcat");
+		SystemGlobals.setValue("container.version", "9");
+
+		UrlPatternCollection.addPattern("webrequesttest.show.1", "item_id");
+	}
+
+	@After
+	@Override protected void tearDown() throws Exception
+	{
+		UrlPatternCollection.removePattern("webrequesttest.show.1");
+		super.tearDown();
+	}
+
+	@Test
+	public void testQueryValueComesBeforeThePathValue() throws IOException
+	{
+		FakeRequest request = new FakeRequest("GET", "/webrequesttest/show/5.page", "item_id=7&start=10");
+		request.params.put("item_id", new String[] { "7" });
+		request.params.put("start", new String[] { "10" });
+
+		WebRequestContext context = new WebRequestContext(request);
+
+		assertEquals("webrequesttest", context.getModule());
+		assertEquals("show", context.getAction());
+		assertEquals(Arrays.asList("7", "5"), Arrays.asList(context.getParameterValues("item_id")));
+		assertEquals("10", context.getParameter("start"));
+	}
+
+	@Test
+	public void testPathValueIsAddedAfterTheQueryValueWasRead() throws IOException
+	{
+		FakeRequest request = new FakeRequest("GET", "/forums/list.page", "item_id=7");
+		request.params.put("item_id", new String[] { "7" });
+
+		WebRequestContext context = new WebRequestContext(request);
+		assertEquals("7", context.getParameter("item_id"));
+
+		context.addParameter("item_id", "5");
+		assertEquals(Arrays.asList("7", "5"), Arrays.asList(context.getParameterValues("item_id")));
+	}
+
+	@Test
+	public void testMultipleValuesAreDecodedAgain() throws IOException
+	{
+		// the container read the UTF-8 bytes as ISO-8859-1
+		FakeRequest request = new FakeRequest("GET", "/forums/list.page", "name=a&name=b");
+		request.params.put("name", new String[] { "caf\u00c3\u00a9", "na\u00c3\u00afve" });
+
+		WebRequestContext context = new WebRequestContext(request);
+
+		assertEquals(Arrays.asList("caf\u00e9", "na\u00efve"), Arrays.asList(context.getParameterValues("name")));
+		assertEquals(Arrays.asList("caf\u00e9", "na\u00efve"), context.getObjectParameter("name"));
+	}
+
+	@Test
+	public void testModuleAndActionAreStrippedToLetters() throws IOException
+	{
+		FakeRequest request = new FakeRequest("GET", "/jforum.page", "module=po<s>ts&action=li%22st");
+		request.params.put("module", new String[] { "po<s>ts1" });
+		request.params.put("action", new String[] { "li\"st()" });
+
+		WebRequestContext context = new WebRequestContext(request);
+
+		assertEquals("posts", context.getModule());
+		assertEquals("list", context.getAction());
+		assertEquals("posts", context.getParameter("module"));
+	}
+
+	@Test
+	public void testMultipartFieldsAreTheParameters() throws IOException
+	{
+		String body = this.field("module", "posts")
+			+ this.field("action", "insert")
+			+ this.field("subject", "caf\u00e9")
+			+ this.field("to", "1")
+			+ this.field("to", "2")
+			+ "--" + BOUNDARY + "--\r\n";
+
+		FakeRequest request = new FakeRequest("POST", "/jforum.page", null);
+		request.contentType = "multipart/form-data; boundary=" + BOUNDARY;
+		request.body = body.getBytes("UTF-8");
+		// only the multipart fields are used
+		request.params.put("subject", new String[] { "from the container" });
+
+		WebRequestContext context = new WebRequestContext(request);
+
+		assertEquals("posts", context.getModule());
+		assertEquals("insert", context.getAction());
+		assertEquals("caf\u00e9", context.getParameter("subject"));
+		assertEquals(Arrays.asList("1", "2"), Arrays.asList(context.getParameterValues("to")));
+	}
+
+	private String field(String name, String value)
+	{
+		return "--" + BOUNDARY + "\r\n"
+			+ "Content-Disposition: form-data; name=\"" + name + "\"\r\n\r\n"
+			+ value + "\r\n";
+	}
+
+	private static class FakeRequest extends FakeHttpRequest
+	{
+		final Map<String, String[]> params = new HashMap<String, String[]>();
+		final String method;
+		final String uri;
+		final String queryString;
+		String contentType;
+		byte[] body = new byte[0];
+
+		FakeRequest(String method, String uri, String queryString)
+		{
+			this.method = method;
+			this.uri = uri;
+			this.queryString = queryString;
+		}
+
+		@Override public String getMethod()
+		{
+			return this.method;
+		}
+
+		@Override public String getRequestURI()
+		{
+			return this.uri;
+		}
+
+		@Override public String getQueryString()
+		{
+			return this.queryString;
+		}
+
+		@Override public String getParameter(String name)
+		{
+			String[] values = this.params.get(name);
+			return values == null ? null : values[0];
+		}
+
+		@Override public String[] getParameterValues(String name)
+		{
+			return this.params.get(name);
+		}
+
+		@Override public String getContentType()
+		{
+			return this.contentType;
+		}
+
+		@Override public int getContentLength()
+		{
+			return this.body.length;
+		}
+
+		@Override public long getContentLengthLong()
+		{
+			return this.body.length;
+		}
+
+		@Override public String getCharacterEncoding()
+		{
+			return "UTF-8";
+		}
+
+		@Override public ServletInputStream getInputStream()
+		{
+			final ByteArrayInputStream in = new ByteArrayInputStream(this.body);
+
+			return new ServletInputStream() {
+				@Override public int read()
+				{
+					return in.read();
+				}
+
+				@Override public boolean isFinished()
+				{
+					return in.available() == 0;
+				}
+
+				@Override public boolean isReady()
+				{
+					return true;
+				}
+
+				@Override public void setReadListener(ReadListener listener)
+				{
+				}
+			};
+		}
+	}
+}
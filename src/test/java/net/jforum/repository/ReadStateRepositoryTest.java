@@ -0,0 +1,239 @@
+package net.jforum.repository;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+import net.jforum.TestCaseUtils;
+import net.jforum.dao.DataAccessDriver;
+import net.jforum.dao.ReadStateDAO;
+import net.jforum.dao.generic.GenericDataAccessDriver;
+import net.jforum.entities.ReadMark;
+import net.jforum.entities.Topic;
+import net.jforum.entities.UserSession;
+import net.jforum.util.preferences.ConfigKeys;
+import net.jforum.util.preferences.SystemGlobals;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ReadStateRepositoryTest extends TestCase
+{
+	private static int nextUserId = 1000;
+
+	private DataAccessDriver previousDriver;
+	private FakeReadStateDAO dao;
+	private int userId;
+	private long lastVisit;
+
+	@Before
+	@Override protected void setUp() throws Exception
+	{
+		super.setUp();
+		TestCaseUtils.loadEnvironment();
+		// flushed by the tests only
+		SystemGlobals.setValue(ConfigKeys.TOPICS_READ_FLUSH_INTERVAL, "3600");
+		SystemGlobals.setValue(ConfigKeys.TOPICS_READ_FLUSH_THRESHOLD, "1000");
+
+		this.dao = new FakeReadStateDAO();
+		this.previousDriver = DataAccessDriver.getInstance();
+		DataAccessDriver.init(new GenericDataAccessDriver() {
+			@Override public ReadStateDAO newReadStateDAO() {
+				return dao;
+			}
+		});
+
+		// the marks of each user are kept in memory, so every test has its own
+		this.userId = nextUserId++;
+		this.lastVisit = System.currentTimeMillis() - 60000;
+
+		ReadStateRepository.start();
+	}
+
+	@After
+	@Override protected void tearDown() throws Exception
+	{
+		ReadStateRepository.stop();
+		DataAccessDriver.init(this.previousDriver);
+		super.tearDown();
+	}
+
+	@Test
+	public void testMarksAreWrittenOnFlush()
+	{
+		ReadStateRepository.Reader reader = ReadStateRepository.readerFor(this.newUserSession());
+		ReadStateRepository.markTopicRead(this.userId, 10, this.lastVisit + 2000);
+
+		assertTrue(reader.isRead(this.newTopic(10, 1, this.lastVisit + 2000)));
+		assertFalse(reader.isRead(this.newTopic(10, 1, this.lastVisit + 3000)));
+		assertFalse(reader.isRead(this.newTopic(11, 1, this.lastVisit + 1000)));
+		assertTrue(this.dao.topics.isEmpty());
+		assertTrue(this.dao.deletes.isEmpty());
+
+		ReadStateRepository.flush();
+
+		assertEquals(Long.valueOf(this.lastVisit + 2000), this.dao.topics.get(this.key(10)));
+		assertEquals(Long.valueOf(this.lastVisit), this.dao.deletes.get(Integer.valueOf(this.userId)));
+	}
+
+	@Test
+	public void testMarksAreReloaded()
+	{
+		ReadStateRepository.readerFor(this.newUserSession());
+		ReadStateRepository.markTopicRead(this.userId, 10, this.lastVisit + 2000);
+		ReadStateRepository.markForumRead(this.userId, 2, this.lastVisit + 5000);
+		ReadStateRepository.flush();
+		ReadStateRepository.forget(this.userId);
+
+		ReadStateRepository.Reader reader = ReadStateRepository.readerFor(this.newUserSession());
+
+		assertTrue(reader.isRead(this.newTopic(10, 1, this.lastVisit + 2000)));
+		assertFalse(reader.isRead(this.newTopic(10, 1, this.lastVisit + 3000)));
+		assertTrue(reader.isRead(this.newTopic(20, 2, this.lastVisit + 5000)));
+		assertFalse(reader.isRead(this.newTopic(20, 2, this.lastVisit + 6000)));
+	}
+
+	@Test
+	public void testPendingMarksAreSeenWhenReloading()
+	{
+		ReadStateRepository.readerFor(this.newUserSession());
+		ReadStateRepository.markTopicRead(this.userId, 10, this.lastVisit + 2000);
+		ReadStateRepository.forget(this.userId);
+
+		ReadStateRepository.Reader reader = ReadStateRepository.readerFor(this.newUserSession());
+
+		assertTrue(this.dao.topics.isEmpty());
+		assertTrue(reader.isRead(this.newTopic(10, 1, this.lastVisit + 2000)));
+	}
+
+	@Test
+	public void testFailedFlushIsTriedAgain()
+	{
+		ReadStateRepository.readerFor(this.newUserSession());
+		ReadStateRepository.markTopicRead(this.userId, 10, this.lastVisit + 2000);
+
+		this.dao.fail = true;
+		ReadStateRepository.flush();
+		assertTrue(this.dao.topics.isEmpty());
+		assertTrue(this.dao.deletes.isEmpty());
+
+		this.dao.fail = false;
+		ReadStateRepository.flush();
+		assertEquals(Long.valueOf(this.lastVisit + 2000), this.dao.topics.get(this.key(10)));
+		assertEquals(Long.valueOf(this.lastVisit), this.dao.deletes.get(Integer.valueOf(this.userId)));
+	}
+
+	@Test
+	public void testOlderPostsAreRead()
+	{
+		ReadStateRepository.Reader reader = ReadStateRepository.readerFor(this.newUserSession());
+
+		assertTrue(reader.isRead(this.newTopic(10, 1, this.lastVisit)));
+		assertFalse(reader.isRead(this.newTopic(10, 1, this.lastVisit + 1)));
+	}
+
+	private Long key(int id)
+	{
+		return Long.valueOf(((long)this.userId << 32) | id);
+	}
+
+	private UserSession newUserSession()
+	{
+		UserSession us = new UserSession();
+		us.setUserId(this.userId);
+		us.setLastVisit(new Date(this.lastVisit));
+
+		return us;
+	}
+
+	private Topic newTopic(int topicId, int forumId, long lastPostTime)
+	{
+		Topic topic = new Topic();
+		topic.setId(topicId);
+		topic.setForumId(forumId);
+		topic.setLastPostDate(new Date(lastPostTime));
+
+		return topic;
+	}
+
+	private static class FakeReadStateDAO implements ReadStateDAO
+	{
+		final Map<Long, Long> topics = new HashMap<Long, Long>();
+		final Map<Long, Long> forums = new HashMap<Long, Long>();
+		final Map<Integer, Long> deletes = new HashMap<Integer, Long>();
+		boolean fail;
+
+		@Override public synchronized List<ReadMark> selectTopicMarks(int userId, long since)
+		{
+			return this.select(this.topics, userId, since);
+		}
+
+		@Override public synchronized List<ReadMark> selectForumMarks(int userId, long since)
+		{
+			return this.select(this.forums, userId, since);
+		}
+
+		@Override public synchronized void saveTopicMarks(List<ReadMark> marks)
+		{
+			this.save(this.topics, marks);
+		}
+
+		@Override public synchronized void saveForumMarks(List<ReadMark> marks)
+		{
+			this.save(this.forums, marks);
+		}
+
+		@Override public synchronized void deleteMarks(int userId, long until)
+		{
+			if (this.fail) {
+				throw new IllegalStateException("database is down");
+			}
+
+			this.deletes.put(Integer.valueOf(userId), Long.valueOf(until));
+			this.delete(this.topics, userId, until);
+			this.delete(this.forums, userId, until);
+		}
+
+		private List<ReadMark> select(Map<Long, Long> marks, int userId, long since)
+		{
+			List<ReadMark> list = new ArrayList<ReadMark>();
+
+			for (Map.Entry<Long, Long> entry : marks.entrySet()) {
+				long key = entry.getKey().longValue();
+
+				if ((int)(key >>> 32) == userId && entry.getValue().longValue() > since) {
+					list.add(new ReadMark(userId, (int)key, entry.getValue().longValue()));
+				}
+			}
+
+			return list;
+		}
+
+		private void save(Map<Long, Long> marks, List<ReadMark> list)
+		{
+			if (this.fail) {
+				throw new IllegalStateException("database is down");
+			}
+
+			for (ReadMark mark : list) {
+				marks.put(Long.valueOf(((long)mark.getUserId() << 32) | mark.getId()), Long.valueOf(mark.getTime()));
+			}
+		}
+
+		private void delete(Map<Long, Long> marks, int userId, long until)
+		{
+			for (Iterator<Map.Entry<Long, Long>> iter = marks.entrySet().iterator(); iter.hasNext(); ) {
+				Map.Entry<Long, Long> entry = iter.next();
+
+				if ((int)(entry.getKey().longValue() >>> 32) == userId && entry.getValue().longValue() <= until) {
+					iter.remove();
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,289 @@
+package net.jforum.search;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+import net.jforum.TestCaseUtils;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.tika.metadata.Metadata;
+import org.apache.tika.mime.MediaType;
+import org.apache.tika.parser.ParseContext;
+import org.apache.tika.parser.Parser;
+import org.apache.tika.sax.XHTMLContentHandler;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.SAXException;
+
+public class AttachmentTextExtractorTest extends TestCase
+{
+	private File attachDir;
+	private File storeDir;
+
+	@Before
+	@Override protected void setUp() throws Exception
+	{
+		super.setUp();
+		TestCaseUtils.loadEnvironment();
+		this.attachDir = Files.createTempDirectory("attachments").toFile();
+		this.storeDir = new File(Files.createTempDirectory("extracted").toFile(), "store");
+	}
+
+	@After
+	@Override protected void tearDown() throws Exception
+	{
+		FileUtils.deleteQuietly(this.attachDir);
+		FileUtils.deleteQuietly(this.storeDir.getParentFile());
+		super.tearDown();
+	}
+
+	@Test
+	public void testExtractedTextIsKept() throws IOException
+	{
+		this.attach("2024/1/note_1.txt", "hello world");
+		AttachmentTextExtractor extractor = this.newExtractor(0, 0);
+
+		assertTrue(extractor.extract("2024/1/note_1.txt").contains("hello world"));
+
+		File[] stored = this.storeDir.listFiles();
+		assertEquals(1, stored.length);
+
+		// the file is not parsed again, so what is in the store comes back
+		Files.write(stored[0].toPath(), "from the store".getBytes(StandardCharsets.UTF_8));
+		assertEquals("from the store", extractor.extract("2024/1/note_1.txt"));
+	}
+
+	@Test
+	public void testChangedFileIsExtractedAgain() throws IOException
+	{
+		this.attach("note_2.txt", "first version");
+		AttachmentTextExtractor extractor = this.newExtractor(0, 0);
+		assertTrue(extractor.extract("note_2.txt").contains("first version"));
+
+		this.attach("note_2.txt", "second version");
+		assertTrue(extractor.extract("note_2.txt").contains("second version"));
+	}
+
+	@Test
+	public void testBigFilesAreSkipped() throws IOException
+	{
+		this.attach("big_3.txt", "more than ten bytes");
+
+		assertEquals("", this.newExtractor(10, 0).extract("big_3.txt"));
+		assertEquals(0, this.storeDir.listFiles().length);
+	}
+
+	@Test
+	public void testLongTextIsCut() throws IOException
+	{
+		this.attach("long_4.txt", "hello world");
+		String text = this.newExtractor(0, 5).extract("long_4.txt");
+
+		assertTrue(text.startsWith("hello"));
+		assertFalse(text.contains("world"));
+	}
+
+	@Test
+	public void testMissingFileGivesNoText()
+	{
+		assertEquals("", this.newExtractor(0, 0).extract("missing_5.txt"));
+	}
+
+	@Test
+	public void testTimedOutTextIsNotKept() throws IOException
+	{
+		this.attach("slow_6.txt", "slow text");
+		AtomicBoolean slow = new AtomicBoolean(true);
+		AttachmentTextExtractor extractor = new AttachmentTextExtractor(new SlowParser(slow),
+			this.attachDir, this.storeDir, 0, 0, 200);
+
+		try {
+			assertEquals("", extractor.extract("slow_6.txt"));
+			assertEquals(0, this.storeDir.listFiles().length);
+
+			slow.set(false);
+			assertTrue(extractor.extract("slow_6.txt").contains("parsed"));
+			assertEquals(1, this.storeDir.listFiles().length);
+		}
+		finally {
+			extractor.shutdown();
+		}
+	}
+
+	@Test
+	public void testTimedOutParseIsInterrupted() throws IOException
+	{
+		this.attach("sleepy_7.txt", "sleepy text");
+		SleepyParser parser = new SleepyParser(true);
+		AttachmentTextExtractor extractor = new AttachmentTextExtractor(parser, this.attachDir, this.storeDir, 0, 0, 200);
+
+		try {
+			assertEquals("", extractor.extract("sleepy_7.txt"));
+			parser.awaitEnded(1);
+			assertEquals(1, parser.interrupted.get());
+			assertFalse(Thread.currentThread().isInterrupted());
+		}
+		finally {
+			extractor.shutdown();
+		}
+	}
+
+	@Test
+	public void testNoParseStartsWhileTooManyAreOverdue() throws IOException
+	{
+		SleepyParser parser = new SleepyParser(false);
+		AttachmentTextExtractor extractor = new AttachmentTextExtractor(parser, this.attachDir, this.storeDir, 0, 0, 100);
+
+		try {
+			for (int i = 0; i < AttachmentTextExtractor.MAX_OVERDUE + 1; i++) {
+				this.attach("stuck_" + i + ".txt", "stuck text");
+				assertEquals("", extractor.extract("stuck_" + i + ".txt"));
+			}
+
+			assertEquals(AttachmentTextExtractor.MAX_OVERDUE, parser.started.get());
+
+			parser.release();
+			parser.awaitEnded(AttachmentTextExtractor.MAX_OVERDUE);
+			this.attach("free_9.txt", "free text");
+			assertTrue(extractor.extract("free_9.txt").contains("parsed"));
+		}
+		finally {
+			parser.release();
+			extractor.shutdown();
+		}
+	}
+
+	private AttachmentTextExtractor newExtractor(long maxSize, int maxChars)
+	{
+		return new AttachmentTextExtractor(this.attachDir, this.storeDir, maxSize, maxChars, 10000);
+	}
+
+	private void attach(String name, String contents) throws IOException
+	{
+		File file = new File(this.attachDir, name);
+		file.getParentFile().mkdirs();
+		Files.write(file.toPath(), contents.getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Reads until the file is closed under it, unless told to be quick
+	 */
+	private static class SlowParser implements Parser
+	{
+		private static final long serialVersionUID = 1L;
+		private final AtomicBoolean slow;
+
+		SlowParser(AtomicBoolean slow)
+		{
+			this.slow = slow;
+		}
+
+		@Override public Set<MediaType> getSupportedTypes(ParseContext context)
+		{
+			return Collections.singleton(MediaType.TEXT_PLAIN);
+		}
+
+		@Override public void parse(InputStream stream, ContentHandler handler, Metadata metadata, ParseContext context)
+			throws IOException, SAXException
+		{
+			while (this.slow.get()) {
+				stream.available();
+
+				try {
+					Thread.sleep(20);
+				}
+				catch (InterruptedException e) {
+					throw new IOException(e);
+				}
+			}
+
+			XHTMLContentHandler xhtml = new XHTMLContentHandler(handler, metadata);
+			xhtml.startDocument();
+			xhtml.element("p", "parsed");
+			xhtml.endDocument();
+		}
+	}
+
+	/**
+	 * Sleeps without reading the file, until interrupted if it listens to
+	 * interrupts, otherwise until released
+	 */
+	private static class SleepyParser implements Parser
+	{
+		private static final long serialVersionUID = 1L;
+		private final boolean interruptible;
+		private volatile boolean released;
+		final AtomicInteger started = new AtomicInteger();
+		final AtomicInteger interrupted = new AtomicInteger();
+		final AtomicInteger ended = new AtomicInteger();
+
+		SleepyParser(boolean interruptible)
+		{
+			this.interruptible = interruptible;
+		}
+
+		void release()
+		{
+			this.released = true;
+		}
+
+		void awaitEnded(int count)
+		{
+			long deadline = System.currentTimeMillis() + 5000;
+
+			while (this.ended.get() < count && System.currentTimeMillis() < deadline) {
+				try {
+					Thread.sleep(10);
+				}
+				catch (InterruptedException e) {
+					fail("interrupted");
+				}
+			}
+
+			assertEquals(count, this.ended.get());
+		}
+
+		@Override public Set<MediaType> getSupportedTypes(ParseContext context)
+		{
+			return Collections.singleton(MediaType.TEXT_PLAIN);
+		}
+
+		@Override public void parse(InputStream stream, ContentHandler handler, Metadata metadata, ParseContext context)
+			throws IOException, SAXException
+		{
+			this.started.incrementAndGet();
+
+			try {
+				while (!this.released) {
+					try {
+						Thread.sleep(20);
+					}
+					catch (InterruptedException e) {
+						if (this.interruptible) {
+							this.interrupted.incrementAndGet();
+							throw new IOException(e);
+						}
+					}
+				}
+
+				XHTMLContentHandler xhtml = new XHTMLContentHandler(handler, metadata);
+				xhtml.startDocument();
+				xhtml.element("p", "parsed");
+				xhtml.endDocument();
+			}
+			finally {
+				this.ended.incrementAndGet();
+			}
+		}
+	}
+}
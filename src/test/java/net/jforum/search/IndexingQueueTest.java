@@ -0,0 +1,282 @@
+package net.jforum.search;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import net.jforum.TestCaseUtils;
+import net.jforum.dao.DataAccessDriver;
+import net.jforum.dao.generic.GenericDataAccessDriver;
+import net.jforum.entities.Post;
+import net.jforum.search.IndexingQueue.Event;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class IndexingQueueTest extends TestCase {
+	private DataAccessDriver previousDriver;
+	private File journal;
+	private final List<IndexingQueue> queues = new ArrayList<IndexingQueue>();
+
+	@Before
+	@Override protected void setUp() throws Exception {
+		super.setUp();
+		TestCaseUtils.loadEnvironment();
+		this.previousDriver = DataAccessDriver.getInstance();
+
+		if (this.previousDriver == null) {
+			DataAccessDriver.init(new GenericDataAccessDriver());
+		}
+
+		this.journal = File.createTempFile("indexing", ".journal");
+		this.journal.delete();
+	}
+
+	@After
+	@Override protected void tearDown() throws Exception {
+		for (IndexingQueue queue : this.queues) {
+			queue.stop();
+		}
+
+		DataAccessDriver.init(this.previousDriver);
+		this.journal.delete();
+		new File(this.journal.getPath() + ".tmp").delete();
+		super.tearDown();
+	}
+
+	@Test
+	public void testUpdateAfterCreateIsStillCreate() {
+		Event event = IndexingQueue.coalesce(this.newEvent(IndexingQueue.CREATE, "first"), this.newEvent(IndexingQueue.UPDATE, "second"));
+
+		assertEquals(IndexingQueue.CREATE, event.op);
+		assertEquals("second", event.post.getText());
+	}
+
+	@Test
+	public void testDeleteAfterCreateCancelsBoth() {
+		assertNull(IndexingQueue.coalesce(this.newEvent(IndexingQueue.CREATE, "first"), this.newEvent(IndexingQueue.DELETE, null)));
+	}
+
+	@Test
+	public void testCreateAfterDeleteReplacesTheDocument() {
+		Event event = IndexingQueue.coalesce(this.newEvent(IndexingQueue.DELETE, null), this.newEvent(IndexingQueue.CREATE, "again"));
+
+		assertEquals(IndexingQueue.UPDATE, event.op);
+		assertEquals("again", event.post.getText());
+	}
+
+	@Test
+	public void testLastChangeWinsAndKeepsItsPlace() {
+		Event first = new Event(IndexingQueue.UPDATE, 1, this.newPost("first"), 10);
+		Event event = IndexingQueue.coalesce(first, this.newEvent(IndexingQueue.DELETE, null));
+
+		assertEquals(IndexingQueue.DELETE, event.op);
+		assertEquals(10, event.enqueuedAt);
+	}
+
+	private Event newEvent(int op, String text) {
+		return new Event(op, 1, this.newPost(text));
+	}
+
+	private Post newPost(String text) {
+		Post post = new Post();
+		post.setId(1);
+		post.setText(text);
+		return post;
+	}
+
+	@Test
+	public void testCompactionKeepsBatchInFlight() throws Exception {
+		FakeIndexer indexer = new FakeIndexer();
+		indexer.blocked = new CountDownLatch(1);
+		IndexingQueue queue = this.newQueue(indexer);
+
+		queue.create(this.newPost(1, "first"));
+		queue.create(this.newPost(2, "second"));
+		assertTrue(indexer.entered.await(5, TimeUnit.SECONDS));
+
+		// post 1 is being applied and post 2 waits, so neither may leave the journal
+		queue.commit();
+		assertEquals(this.ids(1, 2), this.journaled());
+
+		indexer.blocked.countDown();
+		assertTrue(queue.awaitIdle(5000));
+		queue.commit();
+		assertEquals(this.ids(), this.journaled());
+	}
+
+	@Test
+	public void testFailedChangeStaysInJournal() throws Exception {
+		FakeIndexer indexer = new FakeIndexer();
+		indexer.failing.add(2);
+		IndexingQueue queue = this.newQueue(indexer);
+
+		queue.create(this.newPost(1, "first"));
+		queue.create(this.newPost(2, "second"));
+		assertTrue(queue.awaitIdle(5000));
+		queue.commit();
+		assertEquals(this.ids(2), this.journaled());
+
+		indexer.failing.clear();
+		queue.update(this.newPost(2, "again"));
+		assertTrue(queue.awaitIdle(5000));
+		queue.commit();
+		assertEquals(this.ids(), this.journaled());
+	}
+
+	@Test
+	public void testJournalIsReplayedAfterCrash() throws Exception {
+		FakeIndexer crashing = new FakeIndexer();
+		crashing.blocked = new CountDownLatch(1);
+		IndexingQueue queue = this.newQueue(crashing);
+
+		queue.create(this.newPost(1, "first"));
+		queue.update(this.newPost(2, "second"));
+		queue.delete(this.newPost(3, null));
+		assertTrue(crashing.entered.await(5, TimeUnit.SECONDS));
+		queue.commit();
+
+		// the application dies here: a new queue starts from the same journal
+		FakeIndexer indexer = new FakeIndexer();
+		IndexingQueue restarted = this.newQueue(indexer);
+
+		assertTrue(restarted.awaitIdle(5000));
+		assertEquals(this.ids(1, 2, 3), new TreeSet<Integer>(indexer.applied));
+
+		crashing.blocked.countDown();
+	}
+
+	@Test
+	public void testFullQueueWaitsForTheChangeInFlight() throws Exception {
+		FakeIndexer indexer = new FakeIndexer();
+		indexer.blocked = new CountDownLatch(1);
+		final IndexingQueue queue = this.newQueue(indexer, 1);
+
+		queue.create(this.newPost(1, "first"));
+		assertTrue(indexer.entered.await(5, TimeUnit.SECONDS));
+		// the queue is full now, so the delete is applied by the caller
+		queue.create(this.newPost(2, "second"));
+
+		Thread deleting = new Thread() {
+			@Override public void run() {
+				queue.delete(IndexingQueueTest.this.newPost(1, null));
+			}
+		};
+		deleting.start();
+
+		// the create of post 1 is still being applied, so the delete must wait for it
+		deleting.join(200);
+		assertEquals(1, indexer.calls.size());
+
+		indexer.blocked.countDown();
+		deleting.join(5000);
+		assertTrue(queue.awaitIdle(5000));
+
+		List<String> calls = indexer.calls;
+		assertTrue(calls.toString(), calls.indexOf("create 1") < calls.indexOf("delete 1"));
+	}
+
+	private IndexingQueue newQueue(final FakeIndexer indexer) {
+		return this.newQueue(indexer, 10);
+	}
+
+	private IndexingQueue newQueue(final FakeIndexer indexer, int capacity) {
+		IndexingQueue queue = new IndexingQueue(indexer, this.journal, capacity, 1) {
+			@Override Post loadPost(int postId) {
+				return postId == 3 ? null : IndexingQueueTest.this.newPost(postId, "replayed");
+			}
+		};
+
+		this.queues.add(queue);
+		queue.start();
+		return queue;
+	}
+
+	private Set<Integer> journaled() throws IOException {
+		Set<Integer> ids = new TreeSet<Integer>();
+
+		for (String line : Files.readAllLines(this.journal.toPath(), StandardCharsets.US_ASCII)) {
+			ids.add(Integer.valueOf(line.substring(line.indexOf(' ') + 1)));
+		}
+
+		return ids;
+	}
+
+	private Set<Integer> ids(Integer... ids) {
+		Set<Integer> set = new TreeSet<Integer>();
+		Collections.addAll(set, ids);
+		return set;
+	}
+
+	private Post newPost(int id, String text) {
+		Post post = this.newPost(text);
+		post.setId(id);
+		return post;
+	}
+
+	/**
+	 * Records the posts applied, may fail some of them and may block
+	 * on the first one until released.
+	 */
+	private static class FakeIndexer extends LuceneIndexer {
+		final List<Integer> applied = Collections.synchronizedList(new ArrayList<Integer>());
+		final List<String> calls = Collections.synchronizedList(new ArrayList<String>());
+		final Set<Integer> failing = Collections.synchronizedSet(new HashSet<Integer>());
+		final CountDownLatch entered = new CountDownLatch(1);
+		CountDownLatch blocked;
+
+		FakeIndexer() {
+			super(null);
+		}
+
+		@Override public void create(Post post) {
+			this.calls.add("create " + post.getId());
+			this.apply(post);
+		}
+
+		@Override public void update(Post post) {
+			this.calls.add("update " + post.getId());
+			this.apply(post);
+		}
+
+		@Override public void delete(Post post) {
+			this.calls.add("delete " + post.getId());
+			this.apply(post);
+		}
+
+		@Override public void commit() {
+			// nothing to make durable
+		}
+
+		private void apply(Post post) {
+			this.entered.countDown();
+
+			try {
+				if (this.blocked != null) {
+					this.blocked.await();
+				}
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+
+			if (this.failing.contains(post.getId())) {
+				throw new IllegalStateException("cannot index " + post.getId());
+			}
+
+			this.applied.add(post.getId());
+		}
+	}
+}
@@ -0,0 +1,99 @@
+package net.jforum.search;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.DirectoryReader;
+import org.junit.Before;
+import org.junit.Test;
+
+import junit.framework.TestCase;
+import net.jforum.TestCaseUtils;
+import net.jforum.entities.Attachment;
+import net.jforum.entities.Post;
+
+public class LuceneReindexerTest extends TestCase
+{
+    private LuceneSettings settings;
+    private LuceneIndexer indexer;
+
+    @Test
+    public void testResumeStartsAfterTheLastCommittedBatch() throws Exception
+    {
+        this.indexer.addDocuments(Arrays.asList(this.document(1), this.document(2), this.document(3)),
+            LuceneReindexer.checkpoint(4, 10));
+        this.indexer.commit();
+
+        this.indexer.addDocuments(Arrays.asList(this.document(4), this.document(5), this.document(6)),
+            LuceneReindexer.checkpoint(7, 10));
+
+        // the process dies before the second batch is committed
+        this.settings.indexWriter().rollback();
+
+        LuceneReindexArgs args = LuceneReindexer.resumeArgs(this.settings);
+
+        assertNotNull(args);
+        assertEquals(4, args.getFirstPostId());
+        assertEquals(10, args.getLastPostId());
+        assertTrue(args.avoidDuplicatedRecords());
+
+        try (DirectoryReader reader = DirectoryReader.open(this.settings.directory())) {
+            assertEquals(3, reader.numDocs());
+        }
+    }
+
+    @Test
+    public void testCommittedBatchAlwaysCarriesItsCheckpoint() throws Exception
+    {
+        this.indexer.addDocuments(Arrays.asList(this.document(1), this.document(2)),
+            LuceneReindexer.checkpoint(3, 4));
+        this.indexer.commit();
+
+        try (DirectoryReader reader = DirectoryReader.open(this.settings.directory())) {
+            assertEquals(2, reader.numDocs());
+            assertEquals("3", reader.getIndexCommit().getUserData().get("jforum.reindex.next"));
+        }
+    }
+
+    @Test
+    public void testNothingToResumeAfterTheLastBatch() throws Exception
+    {
+        this.indexer.addDocuments(Arrays.asList(this.document(10)), LuceneReindexer.checkpoint(11, 10));
+        this.indexer.commit();
+
+        assertNull(LuceneReindexer.resumeArgs(this.settings));
+    }
+
+    @Test
+    public void testNothingToResumeOnAFreshIndex() throws Exception
+    {
+        assertNull(LuceneReindexer.resumeArgs(this.settings));
+    }
+
+    private Document document(int postId)
+    {
+        Post post = new Post();
+
+        post.setId(postId);
+        post.setText("post " + postId);
+        post.setTime(new Date());
+        post.setSubject("");
+        post.setPostUsername("");
+
+        return this.indexer.createDocument(post, Collections.<Attachment>emptyList());
+    }
+
+    @Override
+    @Before
+    protected void setUp() throws Exception
+    {
+        TestCaseUtils.loadEnvironment();
+
+        this.settings = new LuceneSettings(Class.forName("net.jforum.search.PorterStandardAnalyzer"));
+        this.settings.useRAMDirectory();
+
+        this.indexer = new LuceneIndexer(this.settings);
+    }
+}
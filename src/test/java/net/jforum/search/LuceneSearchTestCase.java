@@ -49,6 +49,7 @@ import java.util.List;
 
 import org.apache.log4j.Logger;
 import org.apache.log4j.xml.DOMConfigurator;
+import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.ScoreDoc;
 import org.junit.Before;
@@ -57,6 +58,8 @@ import org.junit.Test;
 import junit.framework.TestCase;
 import net.jforum.TestCaseUtils;
 import net.jforum.entities.Post;
+import net.jforum.util.preferences.ConfigKeys;
+import net.jforum.util.preferences.SystemGlobals;
 
 /**
  * @author Rafael Steil
@@ -215,6 +218,39 @@ public class LuceneSearchTestCase extends TestCase
         assertEquals(1, results.size());
     }
 
+    @Test
+    public void testFivePostsTwoPerPageFollowCursorExpectAllPostsOnce()
+    {
+        SystemGlobals.setValue(ConfigKeys.TOPICS_PER_PAGE, "2");
+
+        for (int i = 1; i <= 5; i++) {
+            Post post = this.newPost();
+            post.setId(i);
+            post.setText("paging through lucene results");
+            this.indexer.create(post);
+        }
+
+        SearchArgs args = new SearchArgs();
+        args.setKeywords("paging");
+        args.setOrderBy("time");
+
+        SearchResult<Post> page = this.search.search(args, -1);
+        int found = page.getRecords().size();
+        int pages = 1;
+
+        assertEquals(5, page.getNumberOfHits());
+
+        while (page.getCursor() != null) {
+            args.setSearchAfter(page.getCursor());
+            page = this.search.search(args, -1);
+            found += page.getRecords().size();
+            pages++;
+        }
+
+        assertEquals(5, found);
+        assertEquals(3, pages);
+    }
+
     private Post newPost() 
     {
         Post post = new Post();
@@ -257,7 +293,7 @@ public class LuceneSearchTestCase extends TestCase
         }
 
         @Override
-        public List<Post> collect(SearchArgs args, ScoreDoc[] hits, Query query)
+        public List<Post> collect(SearchArgs args, ScoreDoc[] hits, Query query, IndexSearcher searcher)
         {
             List<Post> l = new ArrayList<Post>();
             for (int i = 0; i < hits.length; i++) {
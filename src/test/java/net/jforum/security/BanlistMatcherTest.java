@@ -0,0 +1,85 @@
+package net.jforum.security;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+import net.jforum.entities.Banlist;
+
+import org.junit.Test;
+
+public class BanlistMatcherTest extends TestCase
+{
+	@Test
+	public void testSameResultsAsBanlist()
+	{
+		String[] entries = { "192.168.1.1", "10.1.*.*", "*.168.7.*", "172.*.7.2", "*.*.*.*", "192.168.7",
+			"192.168.010.1", "fe80::1" };
+		String[] addresses = { "192.168.1.1", "192.168.1.2", "10.1.200.3", "10.2.0.1", "172.168.7.2",
+			"1.168.7.9", "172.55.7.2", "172.55.7.3", "192.168.010.1", "192.168.10.1", "fe80::1", "*.*.*.*",
+			"not an address" };
+
+		for (String entry : entries) {
+			List<Banlist> list = new ArrayList<Banlist>();
+			list.add(this.newBanlist(0, null, entry));
+			BanlistMatcher matcher = new BanlistMatcher(list);
+
+			for (String address : addresses) {
+				Banlist ban = this.newBanlist(0, null, address);
+				assertEquals(entry + " / " + address, list.get(0).matches(ban), matcher.matches(ban));
+			}
+		}
+	}
+
+	@Test
+	public void testRanges()
+	{
+		BanlistMatcher matcher = this.newMatcher("10.0.0.0/8", "192.168.4.0/22", "2001:db8::/32");
+
+		assertTrue(matcher.matches(this.newBanlist(0, null, "10.200.3.4")));
+		assertTrue(matcher.matches(this.newBanlist(0, null, "192.168.7.255")));
+		assertFalse(matcher.matches(this.newBanlist(0, null, "192.168.8.0")));
+		assertFalse(matcher.matches(this.newBanlist(0, null, "11.0.0.1")));
+		assertTrue(matcher.matches(this.newBanlist(0, null, "2001:DB8:0:0:0:0:0:1")));
+		assertTrue(matcher.matches(this.newBanlist(0, null, "2001:db8:ffff::")));
+		assertFalse(matcher.matches(this.newBanlist(0, null, "2001:db9::1")));
+		assertFalse(matcher.matches(this.newBanlist(0, null, "::1")));
+	}
+
+	@Test
+	public void testUsersAndEmails()
+	{
+		List<Banlist> list = new ArrayList<Banlist>();
+		list.add(this.newBanlist(2, null, null));
+		list.add(this.newBanlist(0, "email@2", null));
+		BanlistMatcher matcher = new BanlistMatcher(list);
+
+		assertTrue(matcher.matches(this.newBanlist(2, null, "1.2.3.4")));
+		assertFalse(matcher.matches(this.newBanlist(3, null, "1.2.3.4")));
+		assertTrue(matcher.matches(this.newBanlist(3, "email@2", null)));
+		assertFalse(matcher.matches(this.newBanlist(3, "email@3", null)));
+		assertEquals(2, matcher.size());
+	}
+
+	private BanlistMatcher newMatcher(String... ips)
+	{
+		List<Banlist> list = new ArrayList<Banlist>();
+
+		for (String ip : ips) {
+			list.add(this.newBanlist(0, null, ip));
+		}
+
+		return new BanlistMatcher(list);
+	}
+
+	private Banlist newBanlist(int userId, String email, String ip)
+	{
+		Banlist b = new Banlist();
+
+		b.setUserId(userId);
+		b.setEmail(email);
+		b.setIp(ip);
+
+		return b;
+	}
+}
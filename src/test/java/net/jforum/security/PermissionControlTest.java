@@ -0,0 +1,71 @@
+package net.jforum.security;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+public class PermissionControlTest extends TestCase
+{
+	@Test
+	public void testRolesWithoutValues()
+	{
+		PermissionControl pc = this.newPermissionControl();
+
+		assertTrue(pc.canAccess(SecurityConstants.PERM_ADMINISTRATION));
+		assertFalse(pc.canAccess(SecurityConstants.PERM_MODERATION));
+		assertFalse(pc.canAccess("perm_never_seen"));
+	}
+
+	@Test
+	public void testValuesAsStringsAndIds()
+	{
+		PermissionControl pc = this.newPermissionControl();
+
+		assertTrue(pc.canAccess(SecurityConstants.PERM_FORUM, "3"));
+		assertTrue(pc.canAccess(SecurityConstants.PERM_FORUM, 3));
+		assertTrue(pc.canAccess(SecurityConstants.PERM_FORUM, 1000));
+		assertFalse(pc.canAccess(SecurityConstants.PERM_FORUM, 4));
+		assertFalse(pc.canAccess(SecurityConstants.PERM_FORUM, "03"));
+		assertTrue(pc.canAccess(SecurityConstants.PERM_FORUM, "any"));
+		assertFalse(pc.canAccess(SecurityConstants.PERM_CATEGORY, 3));
+		assertFalse(pc.canAccess(SecurityConstants.PERM_ADMINISTRATION, 3));
+	}
+
+	@Test
+	public void testNewRolesAreSeen()
+	{
+		PermissionControl pc = this.newPermissionControl();
+		assertFalse(pc.canAccess(SecurityConstants.PERM_CATEGORY, 7));
+
+		RoleCollection roles = new RoleCollection();
+		roles.add(this.newRole(SecurityConstants.PERM_CATEGORY, "7"));
+		pc.setRoles(roles);
+
+		assertTrue(pc.canAccess(SecurityConstants.PERM_CATEGORY, 7));
+		assertFalse(pc.canAccess(SecurityConstants.PERM_FORUM, 3));
+	}
+
+	private PermissionControl newPermissionControl()
+	{
+		RoleCollection roles = new RoleCollection();
+		roles.add(this.newRole(SecurityConstants.PERM_ADMINISTRATION));
+		roles.add(this.newRole(SecurityConstants.PERM_FORUM, "3", "1000", "any"));
+
+		PermissionControl pc = new PermissionControl();
+		pc.setRoles(roles);
+
+		return pc;
+	}
+
+	private Role newRole(String name, String... values)
+	{
+		Role role = new Role();
+		role.setName(name);
+
+		for (String value : values) {
+			role.getValues().add(new RoleValue(value));
+		}
+
+		return role;
+	}
+}
@@ -0,0 +1,234 @@
+package net.jforum.summary;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+
+import junit.framework.TestCase;
+import net.jforum.TestCaseUtils;
+import net.jforum.dao.SummaryDAO;
+import net.jforum.entities.Post;
+import net.jforum.entities.SummaryRun;
+import net.jforum.entities.User;
+import net.jforum.util.preferences.ConfigKeys;
+import net.jforum.util.preferences.SystemGlobals;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class SummaryRunTest extends TestCase
+{
+	private static final long DAY = 1000L * 60 * 60 * 24;
+
+	private FakeSummaryDAO dao;
+
+	@Before
+	@Override protected void setUp() throws Exception
+	{
+		super.setUp();
+		TestCaseUtils.loadEnvironment();
+		SystemGlobals.setValue(ConfigKeys.SUMMARY_PAGE_SIZE, "3");
+		SystemGlobals.setValue(ConfigKeys.SUMMARY_DAYS_BEFORE, "7");
+
+		this.dao = new FakeSummaryDAO();
+
+		for (int userId = 1; userId <= 7; userId++) {
+			// user 5 has no address, but is still paged through
+			this.dao.users.add(this.newUser(userId, userId == 5 ? " " : "user" + userId + "@localhost"));
+		}
+	}
+
+	@Test
+	public void testEverybodyIsSentThePagesInOrder()
+	{
+		FakeSummaryModel model = new FakeSummaryModel(this.dao);
+
+		SummaryRun run = model.sendPostsSummary();
+
+		assertEquals("[1, 2, 3, 4, 6, 7]", model.dispatched.toString());
+		assertEquals(3, model.pages);
+		assertEquals("[3, 6, 7, 7]", this.dao.savedLastUserIds.toString());
+		assertEquals(6, run.getSent());
+		assertNotNull(run.getFinished());
+		assertTrue(this.dao.unfinished().isEmpty());
+	}
+
+	@Test
+	public void testCursorStopsAtThePagesKeptInMemory()
+	{
+		FakeSummaryModel model = new FakeSummaryModel(this.dao);
+		// the outbox fails for the second page only
+		model.storedPages = new boolean[] { true, false, true };
+
+		SummaryRun run = model.sendPostsSummary();
+
+		assertEquals("[1, 2, 3, 4, 6, 7]", model.dispatched.toString());
+		// saved after the first page, and when finishing
+		assertEquals("[3, 3]", this.dao.savedLastUserIds.toString());
+		assertEquals(3, run.getLastUserId());
+	}
+
+	@Test
+	public void testInterruptedRunGoesOnAfterTheLastSavedUser()
+	{
+		SummaryRun interrupted = this.newRun(System.currentTimeMillis() - DAY);
+		interrupted.setLastUserId(3);
+		interrupted.setSent(3);
+		this.dao.runs.add(interrupted);
+
+		FakeSummaryModel model = new FakeSummaryModel(this.dao);
+		SummaryRun run = model.resumePostsSummary();
+
+		assertSame(interrupted, run);
+		assertEquals("[4, 6, 7]", model.dispatched.toString());
+		assertEquals(6, run.getSent());
+		assertNotNull(run.getFinished());
+	}
+
+	@Test
+	public void testOlderUnfinishedRunsAreClosed()
+	{
+		SummaryRun stale = this.newRun(System.currentTimeMillis() - 10 * DAY);
+		SummaryRun older = this.newRun(System.currentTimeMillis() - 2 * DAY);
+		SummaryRun latest = this.newRun(System.currentTimeMillis() - DAY);
+		latest.setLastUserId(6);
+		this.dao.runs.add(stale);
+		this.dao.runs.add(older);
+		this.dao.runs.add(latest);
+
+		FakeSummaryModel model = new FakeSummaryModel(this.dao);
+		SummaryRun run = model.resumePostsSummary();
+
+		assertSame(latest, run);
+		assertEquals("[7]", model.dispatched.toString());
+		assertNotNull(stale.getFinished());
+		assertNotNull(older.getFinished());
+		assertTrue(this.dao.unfinished().isEmpty());
+	}
+
+	@Test
+	public void testNothingToResumeWhenTheNextRunIsDue()
+	{
+		SummaryRun stale = this.newRun(System.currentTimeMillis() - 8 * DAY);
+		this.dao.runs.add(stale);
+
+		FakeSummaryModel model = new FakeSummaryModel(this.dao);
+
+		assertNull(model.resumePostsSummary());
+		assertTrue(model.dispatched.isEmpty());
+		assertNotNull(stale.getFinished());
+	}
+
+	private SummaryRun newRun(long started)
+	{
+		SummaryRun run = new SummaryRun(UUID.randomUUID().toString(), new Date(started - 7 * DAY), new Date(started));
+		run.setStarted(new Date(started));
+
+		return run;
+	}
+
+	private User newUser(int userId, String email)
+	{
+		User user = new User();
+		user.setId(userId);
+		user.setEmail(email);
+
+		return user;
+	}
+
+	private static class FakeSummaryModel extends SummaryModel
+	{
+		final List<Integer> dispatched = new ArrayList<Integer>();
+		List<User> users;
+		boolean[] storedPages;
+		int pages;
+
+		FakeSummaryModel(SummaryDAO dao)
+		{
+			super(dao);
+		}
+
+		@Override void prepareSummary(List<Post> posts)
+		{
+			// the message itself does not matter here
+		}
+
+		@Override protected void setUsers(List<User> users)
+		{
+			super.setUsers(users);
+			this.users = users;
+		}
+
+		@Override public boolean dispatchMessages()
+		{
+			for (User user : this.users) {
+				this.dispatched.add(user.getId());
+			}
+
+			return this.storedPages == null || this.storedPages[this.pages++];
+		}
+	}
+
+	private static class FakeSummaryDAO implements SummaryDAO
+	{
+		final List<User> users = new ArrayList<User>();
+		final List<SummaryRun> runs = new ArrayList<SummaryRun>();
+		final List<Integer> savedLastUserIds = new ArrayList<Integer>();
+
+		List<SummaryRun> unfinished()
+		{
+			List<SummaryRun> list = new ArrayList<SummaryRun>();
+
+			for (SummaryRun run : this.runs) {
+				if (run.getFinished() == null) {
+					list.add(run);
+				}
+			}
+
+			return list;
+		}
+
+		@Override public List<Post> selectLastPosts(Date firstDate, Date lastDate)
+		{
+			return Collections.singletonList(new Post());
+		}
+
+		@Override public List<String> listRecipients()
+		{
+			throw new UnsupportedOperationException();
+		}
+
+		@Override public List<User> listRecipients(int afterUserId, int limit)
+		{
+			List<User> page = new ArrayList<User>();
+
+			for (User user : this.users) {
+				if (user.getId() > afterUserId && page.size() < limit) {
+					page.add(user);
+				}
+			}
+
+			return page;
+		}
+
+		@Override public List<SummaryRun> selectUnfinishedRuns()
+		{
+			List<SummaryRun> list = this.unfinished();
+			Collections.reverse(list);
+
+			return list;
+		}
+
+		@Override public void addRun(SummaryRun run)
+		{
+			this.runs.add(run);
+		}
+
+		@Override public void updateRun(SummaryRun run)
+		{
+			this.savedLastUserIds.add(run.getLastUserId());
+		}
+	}
+}
@@ -0,0 +1,66 @@
+package net.jforum.util;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+public class IntLongMapTest extends TestCase
+{
+	@Test
+	public void testKeepsTheGreatestValue()
+	{
+		IntLongMap map = new IntLongMap();
+
+		assertTrue(map.putMax(7, 100));
+		assertFalse(map.putMax(7, 50));
+		assertTrue(map.putMax(7, 200));
+
+		assertEquals(200, map.get(7));
+		assertEquals(0, map.get(8));
+		assertEquals(1, map.size());
+	}
+
+	@Test
+	public void testGrows()
+	{
+		IntLongMap map = new IntLongMap(2);
+
+		for (int i = -500; i < 5000; i++) {
+			map.putMax(i, i + 1000);
+		}
+
+		assertEquals(5500, map.size());
+		for (int i = -500; i < 5000; i++) {
+			assertEquals(i + 1000, map.get(i));
+		}
+	}
+
+	@Test
+	public void testRemoveUpTo()
+	{
+		IntLongMap map = new IntLongMap();
+
+		for (int i = 1; i <= 100; i++) {
+			map.putMax(i, i);
+		}
+
+		map.removeUpTo(60);
+
+		assertEquals(40, map.size());
+		assertEquals(0, map.get(60));
+		assertEquals(61, map.get(61));
+		assertEquals(100, map.get(100));
+	}
+
+	@Test
+	public void testValuesMustBePositive()
+	{
+		try {
+			new IntLongMap().putMax(1, 0);
+			fail("Zero means no entry");
+		}
+		catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+}
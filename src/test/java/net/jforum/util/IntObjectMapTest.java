@@ -0,0 +1,51 @@
+package net.jforum.util;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+public class IntObjectMapTest extends TestCase
+{
+	@Test
+	public void testGetExistingAndMissingKeys()
+	{
+		Map<Integer, String> source = new HashMap<Integer, String>();
+		for (int i = -50; i < 1000; i += 3) {
+			source.put(Integer.valueOf(i), "v" + i);
+		}
+
+		IntObjectMap<String> map = IntObjectMap.copyOf(source);
+
+		assertEquals(source.size(), map.size());
+		for (int i = -50; i < 1000; i++) {
+			assertEquals(source.get(Integer.valueOf(i)), map.get(i));
+		}
+	}
+
+	@Test
+	public void testEmpty()
+	{
+		IntObjectMap<String> map = IntObjectMap.copyOf(new HashMap<Integer, String>());
+
+		assertTrue(map.isEmpty());
+		assertNull(map.get(0));
+		assertFalse(map.containsKey(1));
+	}
+
+	@Test
+	public void testNullValuesAreIgnored()
+	{
+		Map<Integer, String> source = new HashMap<Integer, String>();
+		source.put(Integer.valueOf(1), null);
+		source.put(Integer.valueOf(2), "two");
+
+		IntObjectMap<String> map = IntObjectMap.copyOf(source);
+
+		assertEquals(1, map.size());
+		assertFalse(map.containsKey(1));
+		assertEquals("two", map.get(2));
+	}
+}
@@ -0,0 +1,51 @@
+package net.jforum.util;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+public class KeywordMatcherTest extends TestCase
+{
+	@Test
+	public void testSameResultsAsIndexOf()
+	{
+		List<String> keywords = Arrays.asList("googlebot", "bot", "slurp", "ia_archiver", "msnbot/", "abcab", "bca");
+		String[] texts = { "Mozilla/5.0 (compatible; Googlebot/2.1)", "Mozilla/5.0 (Windows NT 10.0) Firefox/120.0",
+			"Yahoo! Slurp", "ia_archive", "msnbot", "msnbot/1.0", "xxabcaxx", "abcabx", "ABCA", "", "bo", "b0t" };
+
+		KeywordMatcher matcher = new KeywordMatcher(keywords);
+
+		for (String text : texts) {
+			boolean expected = false;
+
+			for (String keyword : keywords) {
+				expected |= text.toLowerCase().indexOf(keyword) != -1;
+			}
+
+			assertEquals(text, expected, matcher.matches(text));
+		}
+	}
+
+	@Test
+	public void testOverlappingKeywords()
+	{
+		KeywordMatcher matcher = new KeywordMatcher(Arrays.asList("she", "hers", "his"));
+
+		assertTrue(matcher.matches("ushers"));
+		assertTrue(matcher.matches("ahis"));
+		assertFalse(matcher.matches("shhe"));
+	}
+
+	@Test
+	public void testNoKeywords()
+	{
+		KeywordMatcher matcher = new KeywordMatcher(Collections.<String>emptyList());
+
+		assertFalse(matcher.matches("anything"));
+		assertFalse(matcher.matches(null));
+	}
+}
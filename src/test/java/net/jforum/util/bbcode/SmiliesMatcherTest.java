@@ -0,0 +1,67 @@
+package net.jforum.util.bbcode;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import net.jforum.entities.Smilie;
+
+import org.junit.Test;
+
+public class SmiliesMatcherTest extends TestCase {
+	private static final Set<String> LOCKED = new HashSet<String>(Arrays.asList("url", "img"));
+
+	@Test
+	public void testReplaceAllSmilies() {
+		SmiliesMatcher matcher = this.newMatcher(":)", "<s1>", ":-)", "<s2>", ":D", "<s3>");
+
+		assertEquals("hi <s1> and <s2>, <s3><s1>", matcher.replace("hi :) and :-), :D:)", LOCKED));
+	}
+
+	@Test
+	public void testTextWithoutSmiliesIsReturnedAsIs() {
+		SmiliesMatcher matcher = this.newMatcher(":)", "<s1>");
+		String text = "no smilies here";
+
+		assertSame(text, matcher.replace(text, LOCKED));
+	}
+
+	@Test
+	public void testFirstSmilieOfTheListWinsOverlaps() {
+		assertEquals("<long>", this.newMatcher(":?:", "<long>", ":?", "<short>").replace(":?:", LOCKED));
+		assertEquals("<short>:", this.newMatcher(":?", "<short>", ":?:", "<long>").replace(":?:", LOCKED));
+	}
+
+	@Test
+	public void testSmiliesInsideOfLockedTagsAreKept() {
+		SmiliesMatcher matcher = this.newMatcher(":)", "<s1>");
+
+		assertEquals("[url]http://x/:)[/url] <s1>", matcher.replace("[url]http://x/:)[/url] :)", LOCKED));
+		assertEquals("[b]<s1>[/b]", matcher.replace("[b]:)[/b]", LOCKED));
+	}
+
+	@Test
+	public void testNoSmilies() {
+		SmiliesMatcher matcher = new SmiliesMatcher(Collections.<Smilie>emptyList());
+
+		assertEquals("text :)", matcher.replace("text :)", LOCKED));
+	}
+
+	private SmiliesMatcher newMatcher(String... codesAndUrls) {
+		List<Smilie> smilies = new ArrayList<Smilie>();
+
+		for (int i = 0; i < codesAndUrls.length; i += 2) {
+			Smilie smilie = new Smilie();
+			smilie.setCode(codesAndUrls[i]);
+			smilie.setUrl(codesAndUrls[i + 1]);
+			smilies.add(smilie);
+		}
+
+		return new SmiliesMatcher(smilies);
+	}
+}
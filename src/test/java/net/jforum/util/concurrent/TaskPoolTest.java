@@ -0,0 +1,107 @@
+package net.jforum.util.concurrent;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+public class TaskPoolTest extends TestCase
+{
+	@Test
+	public void testCallerRunsWhenFull() throws InterruptedException
+	{
+		TaskPool pool = new TaskPool("test", 1, 1, RejectionPolicy.CALLER_RUNS, 0, false);
+		CountDownLatch release = new CountDownLatch(1);
+		AtomicInteger done = new AtomicInteger();
+
+		assertTrue(pool.execute(this.blocking(release, done)));
+		assertTrue(pool.execute(this.counting(done)));
+
+		// the thread and the queue are taken, so this one runs right here
+		final Thread caller = Thread.currentThread();
+		final boolean[] ranHere = new boolean[1];
+		assertTrue(pool.execute(new Runnable() {
+			@Override public void run() {
+				ranHere[0] = Thread.currentThread() == caller;
+				done.incrementAndGet();
+			}
+		}));
+		assertTrue(ranHere[0]);
+
+		release.countDown();
+		pool.shutdown(System.currentTimeMillis() + 5000);
+		assertEquals(3, done.get());
+	}
+
+	@Test
+	public void testSpilledTasksRunLater() throws InterruptedException
+	{
+		TaskPool pool = new TaskPool("test", 1, 1, RejectionPolicy.SPILL, 10, false);
+		CountDownLatch release = new CountDownLatch(1);
+		AtomicInteger done = new AtomicInteger();
+
+		assertTrue(pool.execute(this.blocking(release, done)));
+
+		for (int i = 0; i < 5; i++) {
+			assertTrue(pool.execute(this.counting(done)));
+		}
+
+		assertEquals(0, done.get());
+
+		release.countDown();
+		pool.shutdown(System.currentTimeMillis() + 5000);
+		assertEquals(6, done.get());
+	}
+
+	@Test
+	public void testDiscardDropsTasks() throws InterruptedException
+	{
+		TaskPool pool = new TaskPool("test", 1, 1, RejectionPolicy.DISCARD, 0, false);
+		CountDownLatch release = new CountDownLatch(1);
+		AtomicInteger done = new AtomicInteger();
+
+		assertTrue(pool.execute(this.blocking(release, done)));
+		assertTrue(pool.execute(this.counting(done)));
+		assertFalse(pool.execute(this.counting(done)));
+
+		release.countDown();
+		pool.shutdown(System.currentTimeMillis() + 5000);
+		assertEquals(2, done.get());
+		assertTrue(pool.getStatus().contains("rejected 1"));
+	}
+
+	@Test
+	public void testRejectsAfterShutdown()
+	{
+		TaskPool pool = new TaskPool("test", 1, 1, RejectionPolicy.CALLER_RUNS, 0, false);
+		pool.shutdown(System.currentTimeMillis());
+
+		assertFalse(pool.execute(this.counting(new AtomicInteger())));
+	}
+
+	private Runnable blocking(final CountDownLatch release, final AtomicInteger done)
+	{
+		return new Runnable() {
+			@Override public void run() {
+				try {
+					release.await();
+				}
+				catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				done.incrementAndGet();
+			}
+		};
+	}
+
+	private Runnable counting(final AtomicInteger done)
+	{
+		return new Runnable() {
+			@Override public void run() {
+				done.incrementAndGet();
+			}
+		};
+	}
+}
@@ -0,0 +1,111 @@
+package net.jforum.util.image;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import javax.imageio.ImageIO;
+
+import junit.framework.TestCase;
+import net.jforum.TestCaseUtils;
+import net.jforum.entities.Attachment;
+import net.jforum.entities.AttachmentInfo;
+import net.jforum.util.Hash;
+import net.jforum.util.preferences.ConfigKeys;
+import net.jforum.util.preferences.SystemGlobals;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ThumbnailServiceTest extends TestCase
+{
+	private File storeDir;
+
+	@Before
+	@Override protected void setUp() throws Exception
+	{
+		super.setUp();
+		TestCaseUtils.loadEnvironment();
+		this.storeDir = Files.createTempDirectory("attachments").toFile();
+		SystemGlobals.setValue(ConfigKeys.ATTACHMENTS_STORE_DIR, this.storeDir.getPath());
+		SystemGlobals.setValue(ConfigKeys.ATTACHMENTS_UPLOAD_DIR, "upload");
+		SystemGlobals.setValue(ConfigKeys.ATTACHMENTS_IMAGES_THUMB_SIZES, "100x100, 40x30");
+		SystemGlobals.setValue(ConfigKeys.ATTACHMENTS_IMAGES_THUMB_PROGRESSIVE, "true");
+	}
+
+	@After
+	@Override protected void tearDown() throws Exception
+	{
+		FileUtils.deleteQuietly(this.storeDir);
+		super.tearDown();
+	}
+
+	@Test
+	public void testEverySizeIsCreated() throws IOException
+	{
+		this.image("2024/1/photo_1.jpg_", 300, 200, "jpg");
+
+		assertEquals(2, ThumbnailService.create(1, "2024/1/photo_1.jpg_"));
+		assertSize(this.thumb(1, "2024/1/photo_1.jpg_", "100x100.jpg"), 100, 67);
+		assertSize(this.thumb(1, "2024/1/photo_1.jpg_", "40x30.jpg"), 40, 27);
+
+		// already there
+		assertEquals(0, ThumbnailService.create(1, "2024/1/photo_1.jpg_"));
+
+		ThumbnailService.delete(1, "2024/1/photo_1.jpg_");
+		assertFalse(this.thumb(1, "2024/1/photo_1.jpg_", "100x100.jpg").exists());
+	}
+
+	@Test
+	public void testImagesThatFitAreNotScaled() throws IOException
+	{
+		this.image("icon_2.png_", 80, 60, "png");
+
+		assertEquals(1, ThumbnailService.create(2, "icon_2.png_"));
+		assertFalse(this.thumb(2, "icon_2.png_", "100x100.png").exists());
+		assertSize(this.thumb(2, "icon_2.png_", "40x30.png"), 40, 30);
+	}
+
+	@Test
+	public void testThumbnailIsCreatedInTheBackground() throws Exception
+	{
+		this.image("photo_3.jpg_", 300, 200, "jpg");
+
+		Attachment attachment = new Attachment();
+		attachment.setId(3);
+		attachment.setInfo(new AttachmentInfo());
+		attachment.getInfo().setPhysicalFilename("photo_3.jpg_");
+
+		String path = ThumbnailService.thumbPath(attachment);
+		long deadline = System.currentTimeMillis() + 10000;
+
+		while (path == null && System.currentTimeMillis() < deadline) {
+			Thread.sleep(50);
+			path = ThumbnailService.thumbPath(attachment);
+		}
+
+		assertEquals("upload/thumbs/3_" + Hash.md5("photo_3.jpg_") + "/100x100.jpg", path);
+	}
+
+	private void image(String name, int width, int height, String format) throws IOException
+	{
+		File file = new File(this.storeDir, name);
+		file.getParentFile().mkdirs();
+		ImageIO.write(new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB), format, file);
+	}
+
+	private File thumb(int attachId, String physicalFilename, String name)
+	{
+		return new File(this.storeDir, "thumbs/" + ThumbnailService.directoryName(attachId, physicalFilename) + "/" + name);
+	}
+
+	private static void assertSize(File file, int width, int height) throws IOException
+	{
+		BufferedImage image = ImageIO.read(file);
+		assertEquals(width, image.getWidth());
+		assertEquals(height, image.getHeight());
+	}
+}
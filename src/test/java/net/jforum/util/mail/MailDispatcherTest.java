@@ -0,0 +1,126 @@
+package net.jforum.util.mail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import junit.framework.TestCase;
+import net.jforum.TestCaseUtils;
+import net.jforum.entities.OutboxMessage;
+import net.jforum.util.preferences.ConfigKeys;
+import net.jforum.util.preferences.SystemGlobals;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.dumbster.smtp.SimpleSmtpServer;
+
+public class MailDispatcherTest extends TestCase
+{
+	private static final int PORT = 1826;
+	private static final String MESSAGE = "From: jforum@localhost\r\nSubject: dispatcher test\r\n\r\nHello\r\n";
+
+	private SimpleSmtpServer fakeSmtpServer;
+
+	@Before
+	@Override protected void setUp() throws Exception
+	{
+		super.setUp();
+		TestCaseUtils.loadEnvironment();
+		SystemGlobals.setValue(ConfigKeys.MAIL_SMTP_HOST, "localhost");
+		SystemGlobals.setValue(ConfigKeys.MAIL_SMTP_PORT, String.valueOf(PORT));
+		SystemGlobals.setValue(ConfigKeys.MAIL_SMTP_SSL, String.valueOf(false));
+		SystemGlobals.setValue(ConfigKeys.MAIL_SMTP_AUTH, String.valueOf(false));
+		SystemGlobals.setValue(ConfigKeys.MAIL_SMTP_DELAY, "0");
+		SystemGlobals.setValue(ConfigKeys.MAIL_SMTP_RATE, "");
+		// the fake server talks to one client at a time
+		SystemGlobals.setValue(ConfigKeys.MAIL_DISPATCHER_THREADS, "1");
+		SystemGlobals.setValue(ConfigKeys.MAIL_OUTBOX_ENABLED, String.valueOf(false));
+		SystemGlobals.setValue(ConfigKeys.MAIL_OUTBOX_RETRY_INTERVAL, "1");
+		SystemGlobals.setValue(ConfigKeys.MAIL_OUTBOX_MAX_ATTEMPTS, "5");
+	}
+
+	@After
+	@Override protected void tearDown() throws Exception
+	{
+		MailDispatcher.stop();
+
+		if (this.fakeSmtpServer != null) {
+			this.fakeSmtpServer.stop();
+		}
+
+		super.tearDown();
+	}
+
+	@Test
+	public void testDeliversEveryRecipient() throws Exception
+	{
+		this.fakeSmtpServer = SimpleSmtpServer.start(PORT);
+		MailDispatcher.start();
+		assertTrue(MailDispatcher.isRunning());
+
+		MailDispatcher.submit(this.newMessage(), this.recipients(20));
+
+		assertTrue(this.waitForMails(20, 10000));
+	}
+
+	@Test
+	public void testRateIsLimited() throws Exception
+	{
+		SystemGlobals.setValue(ConfigKeys.MAIL_SMTP_RATE, "20");
+		SystemGlobals.setValue(ConfigKeys.MAIL_SMTP_BURST, "1");
+		this.fakeSmtpServer = SimpleSmtpServer.start(PORT);
+		MailDispatcher.start();
+
+		long start = System.currentTimeMillis();
+		MailDispatcher.submit(this.newMessage(), this.recipients(11));
+
+		assertTrue(this.waitForMails(11, 10000));
+		// the first message goes right away, the other ten wait 50ms each
+		assertTrue(System.currentTimeMillis() - start >= 450);
+	}
+
+	@Test
+	public void testRetriesUntilTheServerIsUp() throws Exception
+	{
+		MailDispatcher.start();
+		MailDispatcher.submit(this.newMessage(), this.recipients(1));
+
+		Thread.sleep(500);
+		this.fakeSmtpServer = SimpleSmtpServer.start(PORT);
+
+		assertTrue(this.waitForMails(1, 15000));
+	}
+
+	private OutboxMessage newMessage()
+	{
+		return new OutboxMessage(UUID.randomUUID().toString(), MESSAGE);
+	}
+
+	private List<String> recipients(int count)
+	{
+		List<String> list = new ArrayList<String>();
+
+		for (int i = 0; i < count; i++) {
+			list.add("user" + i + "@localhost");
+		}
+
+		return list;
+	}
+
+	private boolean waitForMails(int count, long timeout) throws InterruptedException
+	{
+		long deadline = System.currentTimeMillis() + timeout;
+
+		while (this.fakeSmtpServer.getReceivedEmailSize() < count) {
+			if (System.currentTimeMillis() > deadline) {
+				return false;
+			}
+
+			Thread.sleep(50);
+		}
+
+		return this.fakeSmtpServer.getReceivedEmailSize() == count;
+	}
+}
@@ -86,6 +86,21 @@ public class SystemGlobalsTest extends TestCase
 		assertEquals("some string", SystemGlobals.getValue("string.key"));
 	}
 	
+	@Test
+	public void testSnapshotKeepsItsValues()
+	{
+		ConfigSnapshot snapshot = SystemGlobals.getSnapshot();
+		assertSame(snapshot, SystemGlobals.getSnapshot());
+
+		SystemGlobals.setValue("int.key", "7");
+		SystemGlobals.setValue("list.key", " a, b,,c ");
+
+		assertEquals(123, snapshot.getIntValue("int.key"));
+		assertEquals(7, SystemGlobals.getIntValue("int.key"));
+		assertEquals(java.util.Arrays.asList("a", "b", "c"), SystemGlobals.getListValue("list.key"));
+		assertEquals(SystemGlobals.getApplicationResourceDir() + "/config", SystemGlobals.getSnapshot().getValue("config.dir"));
+	}
+	
 	@Test
 	public void testUserDefaults() throws Exception
 	{
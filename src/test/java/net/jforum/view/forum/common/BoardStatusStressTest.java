@@ -0,0 +1,245 @@
+package net.jforum.view.forum.common;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+import net.jforum.TestCaseUtils;
+import net.jforum.cache.ConcurrentCacheEngine;
+import net.jforum.dao.DataAccessDriver;
+import net.jforum.dao.ForumDAO;
+import net.jforum.dao.TopicDAO;
+import net.jforum.dao.generic.GenericDataAccessDriver;
+import net.jforum.entities.Topic;
+import net.jforum.repository.ForumRepository;
+import net.jforum.repository.TopicRepository;
+import net.jforum.util.preferences.ConfigKeys;
+import net.jforum.util.preferences.SystemGlobals;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BoardStatusStressTest extends TestCase
+{
+	private static final int FORUMS = 16;
+	private static final int THREADS = 8;
+	private static final int POSTS_PER_THREAD = 2000;
+	private static final int RECENT_TOPICS = 15;
+
+	private final ConcurrentMap<Integer, AtomicInteger> topicsByForum = new ConcurrentHashMap<Integer, AtomicInteger>();
+	private final ConcurrentMap<Integer, AtomicInteger> repliesByTopic = new ConcurrentHashMap<Integer, AtomicInteger>();
+	private final ConcurrentMap<Integer, AtomicInteger> busyForums = new ConcurrentHashMap<Integer, AtomicInteger>();
+	private final AtomicInteger overlaps = new AtomicInteger();
+	private DataAccessDriver previousDriver;
+	private TopicDAO topicDao;
+	private ForumDAO forumDao;
+
+	@Before
+	@Override protected void setUp() throws Exception
+	{
+		super.setUp();
+		TestCaseUtils.loadEnvironment();
+		SystemGlobals.setValue(ConfigKeys.TOPIC_CACHE_ENABLED, "true");
+		SystemGlobals.setValue(ConfigKeys.TOPIC_CACHE_SIZE, "100000");
+		SystemGlobals.setValue(ConfigKeys.TOPICS_PER_PAGE, String.valueOf(RECENT_TOPICS));
+
+		ConcurrentCacheEngine engine = new ConcurrentCacheEngine();
+		engine.init();
+		new TopicRepository().setCacheEngine(engine);
+
+		this.topicDao = (TopicDAO)this.fake(TopicDAO.class);
+		this.forumDao = (ForumDAO)this.fake(ForumDAO.class);
+		this.previousDriver = DataAccessDriver.getInstance();
+		DataAccessDriver.init(new GenericDataAccessDriver() {
+			@Override public TopicDAO newTopicDAO() {
+				return topicDao;
+			}
+
+			@Override public ForumDAO newForumDAO() {
+				return forumDao;
+			}
+		});
+
+		// starts with an empty list of recent topics
+		TopicRepository.getRecentTopics();
+	}
+
+	@After
+	@Override protected void tearDown() throws Exception
+	{
+		DataAccessDriver.init(this.previousDriver);
+		super.tearDown();
+	}
+
+	@Test
+	public void testConcurrentPostsKeepCountersConsistent() throws Exception
+	{
+		final int messagesBefore = ForumRepository.getTotalMessages(true);
+		final List<List<Topic>> forumTopics = new ArrayList<List<Topic>>();
+		final AtomicInteger ids = new AtomicInteger();
+
+		for (int i = 0; i < FORUMS; i++) {
+			forumTopics.add(new ArrayList<Topic>());
+		}
+
+		final CountDownLatch start = new CountDownLatch(1);
+		final List<Throwable> errors = new ArrayList<Throwable>();
+		final List<Thread> threads = new ArrayList<Thread>();
+
+		for (int t = 0; t < THREADS; t++) {
+			Thread thread = new Thread(new Runnable() {
+				@Override public void run() {
+					try {
+						start.await();
+
+						for (int i = 0; i < POSTS_PER_THREAD; i++) {
+							post(forumTopics, ids);
+						}
+					}
+					catch (Throwable e) {
+						synchronized (errors) {
+							errors.add(e);
+						}
+					}
+				}
+			});
+			thread.start();
+			threads.add(thread);
+		}
+
+		start.countDown();
+
+		for (Thread thread : threads) {
+			thread.join(60000);
+		}
+
+		assertTrue(errors.toString(), errors.isEmpty());
+		assertEquals("posts of the same forum ran at the same time", 0, this.overlaps.get());
+		assertEquals(messagesBefore + THREADS * POSTS_PER_THREAD, ForumRepository.getTotalMessages(false));
+
+		int totalTopics = 0;
+
+		for (int forumId = 1; forumId <= FORUMS; forumId++) {
+			List<Topic> created = forumTopics.get(forumId - 1);
+			List<Topic> cached = TopicRepository.getTopics(forumId);
+
+			assertEquals(created.size(), this.counter(this.topicsByForum, forumId).get());
+			assertEquals(created.size(), cached.size());
+			assertEquals(created.size(), new HashSet<Topic>(cached).size());
+
+			for (Topic topic : created) {
+				assertEquals(topic.getTotalReplies(), this.counter(this.repliesByTopic, topic.getId()).get());
+			}
+
+			totalTopics += created.size();
+		}
+
+		List<Topic> recent = TopicRepository.getRecentTopics();
+		Set<Topic> unique = new HashSet<Topic>(recent);
+
+		assertEquals(Math.min(RECENT_TOPICS, totalTopics), recent.size());
+		assertEquals(recent.size(), unique.size());
+	}
+
+	private void post(List<List<Topic>> forumTopics, AtomicInteger ids)
+	{
+		int forumId = ThreadLocalRandom.current().nextInt(FORUMS) + 1;
+		List<Topic> topics = forumTopics.get(forumId - 1);
+		Topic topic = null;
+		boolean firstPost;
+
+		// in the application, the topic is kept consistent by the database row lock
+		synchronized (topics) {
+			firstPost = topics.isEmpty() || ThreadLocalRandom.current().nextInt(10) == 0;
+
+			if (firstPost) {
+				topic = new Topic(ids.incrementAndGet());
+				topic.setForumId(forumId);
+				topic.setTitle("Topic " + topic.getId());
+				topics.add(topic);
+			}
+			else {
+				topic = topics.get(ThreadLocalRandom.current().nextInt(topics.size()));
+				topic.setTotalReplies(topic.getTotalReplies() + 1);
+			}
+		}
+
+		TopicsCommon.updateBoardStatus(topic, ids.incrementAndGet(), firstPost, this.topicDao, this.forumDao);
+	}
+
+	private AtomicInteger counter(ConcurrentMap<Integer, AtomicInteger> map, int key)
+	{
+		AtomicInteger counter = map.get(Integer.valueOf(key));
+
+		if (counter == null) {
+			AtomicInteger created = new AtomicInteger();
+			counter = map.putIfAbsent(Integer.valueOf(key), created);
+
+			if (counter == null) {
+				counter = created;
+			}
+		}
+
+		return counter;
+	}
+
+	/**
+	 * Creates a DAO which counts the changes made by a post, and checks
+	 * that no two posts of the same forum are handled at the same time.
+	 */
+	private Object fake(Class<?> dao)
+	{
+		return Proxy.newProxyInstance(dao.getClassLoader(), new Class<?>[] { dao }, new InvocationHandler() {
+			@Override public Object invoke(Object proxy, Method method, Object[] args) {
+				String name = method.getName();
+
+				if ("update".equals(name)) {
+					// the first change of a post
+					if (counter(busyForums, ((Topic)args[0]).getForumId()).getAndIncrement() != 0) {
+						overlaps.incrementAndGet();
+					}
+
+					Thread.yield();
+				}
+				else if ("setLastPost".equals(name)) {
+					Thread.yield();
+					counter(busyForums, ((Integer)args[0]).intValue()).decrementAndGet();
+				}
+				else if ("incrementTotalTopics".equals(name)) {
+					counter(topicsByForum, ((Integer)args[0]).intValue()).incrementAndGet();
+				}
+				else if ("incrementTotalReplies".equals(name)) {
+					counter(repliesByTopic, ((Integer)args[0]).intValue()).incrementAndGet();
+				}
+				else if ("getTotalMessages".equals(name)) {
+					return Integer.valueOf(1000);
+				}
+
+				Class<?> type = method.getReturnType();
+
+				if (type == List.class) {
+					return new ArrayList<Topic>();
+				}
+				else if (type == int.class) {
+					return Integer.valueOf(0);
+				}
+				else if (type == boolean.class) {
+					return Boolean.FALSE;
+				}
+
+				return null;
+			}
+		});
+	}
+}
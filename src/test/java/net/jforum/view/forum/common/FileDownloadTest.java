@@ -0,0 +1,63 @@
+package net.jforum.view.forum.common;
+
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+public class FileDownloadTest extends TestCase
+{
+	@Test
+	public void testSingleRanges()
+	{
+		this.assertRanges("bytes=0-499", 1000, new long[] { 0, 499 });
+		this.assertRanges("bytes=500-", 1000, new long[] { 500, 999 });
+		this.assertRanges("bytes=-100", 1000, new long[] { 900, 999 });
+		this.assertRanges("bytes=900-5000", 1000, new long[] { 900, 999 });
+		this.assertRanges("bytes=-5000", 1000, new long[] { 0, 999 });
+	}
+
+	@Test
+	public void testMultipleRangesAreSortedAndMerged()
+	{
+		this.assertRanges("bytes=500-599, 0-99, 50-150, 151-200", 1000, new long[] { 0, 200 }, new long[] { 500, 599 });
+	}
+
+	@Test
+	public void testUnsatisfiableRanges()
+	{
+		assertTrue(FileDownload.parseRanges("bytes=1000-", 1000).isEmpty());
+		assertTrue(FileDownload.parseRanges("bytes=-0", 1000).isEmpty());
+	}
+
+	@Test
+	public void testInvalidHeadersAreIgnored()
+	{
+		assertNull(FileDownload.parseRanges("items=0-1", 1000));
+		assertNull(FileDownload.parseRanges("bytes=5-1", 1000));
+		assertNull(FileDownload.parseRanges("bytes=a-b", 1000));
+		assertNull(FileDownload.parseRanges("bytes=100", 1000));
+	}
+
+	@Test
+	public void testHttpDates()
+	{
+		long time = 784111777000L;
+
+		assertEquals("Sun, 06 Nov 1994 08:49:37 GMT", FileDownload.formatDate(time));
+		assertEquals(time, FileDownload.parseDate("Sun, 06 Nov 1994 08:49:37 GMT"));
+		assertEquals(-1, FileDownload.parseDate("yesterday"));
+	}
+
+	private void assertRanges(String header, long length, long[]... expected)
+	{
+		List<long[]> ranges = FileDownload.parseRanges(header, length);
+		assertEquals(expected.length, ranges.size());
+
+		for (int i = 0; i < expected.length; i++) {
+			assertEquals(expected[i][0], ranges.get(i)[0]);
+			assertEquals(expected[i][1], ranges.get(i)[1]);
+		}
+	}
+}
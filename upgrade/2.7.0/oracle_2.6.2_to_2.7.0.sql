@@ -20,3 +20,48 @@ INSERT INTO jforum_smilies VALUES (jforum_smilies_seq.nextval, ':censored:', '<i
 INSERT INTO jforum_smilies VALUES (jforum_smilies_seq.nextval, ':pissed:', '<img src=\"#CONTEXT#/images/smilies/8c9fac5d3e7cba173210082669b0316e.gif\" alt=\"smilie\" />', '8c9fac5d3e7cba173210082669b0316e.gif');
 INSERT INTO jforum_smilies VALUES (jforum_smilies_seq.nextval, ':sleep:', '<img src=\"#CONTEXT#/images/smilies/28f230537468150d34a2fb360c0d923f.gif\" alt=\"smilie\" />', '28f230537468150d34a2fb360c0d923f.gif');
 INSERT INTO jforum_smilies VALUES (jforum_smilies_seq.nextval, ':confused:', '<img src=\"#CONTEXT#/images/smilies/4d5a6f04e1481e0c1c4ad7ef4957b4c8.gif\" alt=\"smilie\" />', '4d5a6f04e1481e0c1c4ad7ef4957b4c8.gif');
+
+-- outgoing mail kept until delivered
+CREATE TABLE jforum_mail_outbox (
+  outbox_id VARCHAR2(40) NOT NULL,
+  outbox_message CLOB NOT NULL,
+  outbox_date DATE NOT NULL,
+  PRIMARY KEY(outbox_id)
+);
+
+CREATE TABLE jforum_mail_outbox_recipients (
+  outbox_id VARCHAR2(40) NOT NULL,
+  recipient VARCHAR2(255) NOT NULL,
+  attempts NUMBER(10) DEFAULT 0 NOT NULL,
+  next_attempt DATE NOT NULL,
+  last_error VARCHAR2(255),
+  PRIMARY KEY(outbox_id, recipient)
+);
+CREATE INDEX idx_mor_next ON jforum_mail_outbox_recipients(next_attempt);
+
+-- progress of the summary mailing, to resume an interrupted run
+CREATE TABLE jforum_summary_runs (
+  run_id VARCHAR2(40) NOT NULL,
+  period_start DATE NOT NULL,
+  period_end DATE NOT NULL,
+  last_user_id NUMBER(10) DEFAULT 0 NOT NULL,
+  sent NUMBER(10) DEFAULT 0 NOT NULL,
+  run_started DATE NOT NULL,
+  run_finished DATE,
+  PRIMARY KEY(run_id)
+);
+
+-- topics and forums read by each user
+CREATE TABLE jforum_topics_read (
+  user_id NUMBER(10) NOT NULL,
+  topic_id NUMBER(10) NOT NULL,
+  read_time DATE NOT NULL,
+  PRIMARY KEY(user_id, topic_id)
+);
+
+CREATE TABLE jforum_forums_read (
+  user_id NUMBER(10) NOT NULL,
+  forum_id NUMBER(10) NOT NULL,
+  read_time DATE NOT NULL,
+  PRIMARY KEY(user_id, forum_id)
+);
@@ -20,3 +20,46 @@ INSERT INTO jforum_smilies (code, url, disk_name) VALUES (':censored:', '<img sr
 INSERT INTO jforum_smilies (code, url, disk_name) VALUES (':pissed:', '<img src=\"#CONTEXT#/images/smilies/8c9fac5d3e7cba173210082669b0316e.gif\" alt=\"smilie\" />', '8c9fac5d3e7cba173210082669b0316e.gif');
 INSERT INTO jforum_smilies (code, url, disk_name) VALUES (':sleep:', '<img src=\"#CONTEXT#/images/smilies/28f230537468150d34a2fb360c0d923f.gif\" alt=\"smilie\" />', '28f230537468150d34a2fb360c0d923f.gif');
 INSERT INTO jforum_smilies (code, url, disk_name) VALUES (':confused:', '<img src=\"#CONTEXT#/images/smilies/4d5a6f04e1481e0c1c4ad7ef4957b4c8.gif\" alt=\"smilie\" />', '4d5a6f04e1481e0c1c4ad7ef4957b4c8.gif');
+
+-- outgoing mail kept until delivered
+CREATE TABLE jforum_mail_outbox (
+  outbox_id varchar(40) PRIMARY KEY NOT NULL,
+  outbox_message text NOT NULL,
+  outbox_date datetime NOT NULL
+);
+
+CREATE TABLE jforum_mail_outbox_recipients (
+  outbox_id varchar(40) NOT NULL,
+  recipient varchar(255) NOT NULL,
+  attempts int DEFAULT (0) NOT NULL,
+  next_attempt datetime NOT NULL,
+  last_error varchar(255),
+  PRIMARY KEY (outbox_id, recipient)
+);
+CREATE INDEX idx_mor_next ON jforum_mail_outbox_recipients(next_attempt);
+
+-- progress of the summary mailing, to resume an interrupted run
+CREATE TABLE jforum_summary_runs (
+  run_id varchar(40) PRIMARY KEY NOT NULL,
+  period_start datetime NOT NULL,
+  period_end datetime NOT NULL,
+  last_user_id int DEFAULT (0) NOT NULL,
+  sent int DEFAULT (0) NOT NULL,
+  run_started datetime NOT NULL,
+  run_finished datetime
+);
+
+-- topics and forums read by each user
+CREATE TABLE jforum_topics_read (
+  user_id int NOT NULL,
+  topic_id int NOT NULL,
+  read_time datetime NOT NULL,
+  PRIMARY KEY (user_id, topic_id)
+);
+
+CREATE TABLE jforum_forums_read (
+  user_id int NOT NULL,
+  forum_id int NOT NULL,
+  read_time datetime NOT NULL,
+  PRIMARY KEY (user_id, forum_id)
+);